@@ -1,25 +1,41 @@
 package wdawson.samples.dropwizard;
 
+import com.codahale.metrics.Clock;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
 import io.dropwizard.Application;
 import io.dropwizard.auth.AuthDynamicFeature;
 import io.dropwizard.auth.AuthValueFactoryProvider;
+import io.dropwizard.auth.Authenticator;
 import io.dropwizard.auth.oauth.OAuthCredentialAuthFilter;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import org.glassfish.jersey.server.filter.RolesAllowedDynamicFeature;
+import wdawson.samples.dropwizard.auth.CachingOAuth2Authenticator;
 import wdawson.samples.dropwizard.auth.OAuth2Authenticator;
 import wdawson.samples.dropwizard.auth.OAuth2Authorizer;
 import wdawson.samples.dropwizard.auth.User;
+import wdawson.samples.dropwizard.configuration.AuthenticationCacheConfiguration;
+import wdawson.samples.dropwizard.configuration.JwtVerificationConfiguration;
+import wdawson.samples.dropwizard.configuration.ReplayProtectionConfiguration;
 import wdawson.samples.dropwizard.configuration.UserInfoConfiguration;
 import wdawson.samples.dropwizard.filters.TLSCertificateAuthorizationFilter;
 import wdawson.samples.dropwizard.health.UserInfoHealthCheck;
 import wdawson.samples.dropwizard.resources.UserInfoResource;
+import wdawson.samples.dropwizard.tasks.InvalidateAuthenticationCacheTask;
+import wdawson.samples.dropwizard.tasks.ReloadJwtTrustTask;
+import wdawson.samples.dropwizard.util.jwt.JtiReplayStore;
 import wdawson.samples.dropwizard.util.jwt.JwtVerifier;
+import wdawson.samples.dropwizard.util.jwt.RejectedJwtCache;
+import wdawson.samples.dropwizard.util.jwt.TrustReloader;
+import wdawson.samples.dropwizard.util.jwt.VerifiedJwtCache;
 import wdawson.samples.dropwizard.util.resources.ClasspathURLStreamHandler;
 import wdawson.samples.dropwizard.util.resources.ConfigurableURLStreamHandlerFactory;
 
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterRegistration;
 import java.net.URL;
+import java.util.EnumSet;
 
 
 /**
@@ -85,10 +101,44 @@ public class UserInfoApplication extends Application<UserInfoConfiguration> {
 
     @VisibleForTesting
     void registerUserAuth(UserInfoConfiguration configuration, Environment environment) {
-        JwtVerifier jwtVerifier = configuration.getSecurity().getJwtVerification().newInstanceFromConfig();
+        JwtVerificationConfiguration jwtConfiguration = configuration.getSecurity().getJwtVerification();
+        Clock clock = jwtConfiguration.newClock(environment);
+        JwtVerifier jwtVerifier = jwtConfiguration.newInstanceFromConfig(environment, clock, newPkiClock(clock));
+        VerifiedJwtCache verifiedJwtCache = jwtConfiguration.newVerifiedJwtCache(environment.metrics(), clock);
+        RejectedJwtCache rejectedJwtCache = jwtConfiguration.newRejectedJwtCache(environment.metrics());
+        // Rotate the truststore without a restart, from the admin task or when the truststore file changes
+        TrustReloader trustReloader = jwtConfiguration.newTrustReloader(environment, jwtVerifier, verifiedJwtCache,
+                rejectedJwtCache);
+        environment.admin().addTask(new ReloadJwtTrustTask(trustReloader));
+        if (jwtConfiguration.getAsyncVerification().isEnabled()) {
+            // Verify tokens on a dedicated executor and only let them through to Jersey once they're cached
+            FilterRegistration.Dynamic asyncVerification = environment.servlets().addFilter("async-jwt-verification",
+                    jwtConfiguration.getAsyncVerification().newFilter(environment, jwtVerifier, verifiedJwtCache,
+                            rejectedJwtCache));
+            asyncVerification.setAsyncSupported(true);
+            asyncVerification.addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC), true,
+                    environment.jersey().getUrlPattern());
+        }
+        ReplayProtectionConfiguration replayProtection = jwtConfiguration.getReplayProtection();
+        JtiReplayStore jtiReplayStore = replayProtection.isEnabled()
+                ? replayProtection.newJtiReplayStore(environment.metrics(), clock)
+                : null;
+        OAuth2Authenticator oauth2Authenticator = new OAuth2Authenticator(jwtVerifier, verifiedJwtCache,
+                rejectedJwtCache, jtiReplayStore, ImmutableSet.copyOf(replayProtection.getRoles()));
+        Authenticator<String, User> authenticator = oauth2Authenticator;
+        AuthenticationCacheConfiguration authenticationCache = configuration.getSecurity().getAuthenticationCache();
+        if (authenticationCache.isEnabled()) {
+            // Skip verification and building the user for tokens that have already been authenticated
+            CachingOAuth2Authenticator cachingAuthenticator = authenticationCache.newAuthenticator(environment,
+                    oauth2Authenticator, clock);
+            environment.admin().addTask(new InvalidateAuthenticationCacheTask(cachingAuthenticator));
+            // Cached users mustn't outlive trust in the keys that verified their tokens
+            trustReloader.addCacheInvalidation(cachingAuthenticator::invalidateAll);
+            authenticator = cachingAuthenticator;
+        }
         environment.jersey().register(new AuthDynamicFeature(
                 new OAuthCredentialAuthFilter.Builder<User>()
-                        .setAuthenticator(new OAuth2Authenticator(jwtVerifier))
+                        .setAuthenticator(authenticator)
                         .setAuthorizer(new OAuth2Authorizer())
                         .setPrefix("Bearer")
                         .buildAuthFilter()
@@ -99,6 +149,14 @@ public class UserInfoApplication extends Application<UserInfoConfiguration> {
         environment.jersey().register(new AuthValueFactoryProvider.Binder<>(User.class));
     }
 
+    /**
+     * @return the clock to validate JWT signing certificate chains and their revocation status against
+     */
+    @VisibleForTesting
+    protected Clock newPkiClock(Clock clock) {
+        return clock;
+    }
+
     public static void main(String[] args) throws Exception {
         new UserInfoApplication().run(args);
     }
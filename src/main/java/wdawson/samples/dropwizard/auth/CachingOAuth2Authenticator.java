@@ -0,0 +1,256 @@
+package wdawson.samples.dropwizard.auth;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import io.dropwizard.auth.AuthenticationException;
+import io.dropwizard.auth.Authenticator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wdawson.samples.dropwizard.auth.OAuth2Authenticator.AuthenticatedToken;
+import wdawson.samples.dropwizard.util.jwt.VerifiedJwtCache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Caches the users that an {@link OAuth2Authenticator} authenticates, so that a client reusing its token skips the
+ * verification, scope parsing and {@link User} construction on every request after the first.
+ *
+ * <ul>
+ *   <li>Entries never outlive the token's expiration time.</li>
+ *   <li>When a refresh interval is set, a cached token is verified again in the background once the interval has
+ *       passed, picking up revocations and trust rotations while the cached user keeps being handed out. A token that
+ *       fails verification is dropped.</li>
+ *   <li>Tokens granting a replay protected role are never cached, since each use has to be checked.</li>
+ * </ul>
+ *
+ * Like {@link VerifiedJwtCache}, entries are keyed by a SHA-256 digest of the raw token string so the cache never holds
+ * on to bearer credentials.
+ *
+ * @author wdawson
+ */
+public class CachingOAuth2Authenticator implements Authenticator<String, User> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingOAuth2Authenticator.class);
+
+    private final OAuth2Authenticator delegate;
+    private final Clock clock;
+    private final Executor refreshExecutor;
+    private final long refreshAfterMillis;
+
+    private final Cache<HashCode, Entry> entries;
+
+    private final Meter hits;
+    private final Meter misses;
+    private final Timer loads;
+    private final Meter refreshes;
+    private final Meter invalidations;
+
+    private CachingOAuth2Authenticator(Builder builder) {
+        this.delegate = builder.delegate;
+        this.clock = builder.clock != null ? builder.clock : Clock.defaultClock();
+        this.refreshExecutor = builder.refreshExecutor;
+        this.refreshAfterMillis = builder.refreshAfterMillis;
+
+        this.entries = CacheBuilder.newBuilder()
+                .maximumSize(builder.maxEntries)
+                .expireAfterWrite(builder.expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+                .build();
+
+        MetricRegistry metricRegistry = builder.metricRegistry != null ? builder.metricRegistry : new MetricRegistry();
+        this.hits = metricRegistry.meter(name(CachingOAuth2Authenticator.class, "hits"));
+        this.misses = metricRegistry.meter(name(CachingOAuth2Authenticator.class, "misses"));
+        this.loads = metricRegistry.timer(name(CachingOAuth2Authenticator.class, "loads"));
+        this.refreshes = metricRegistry.meter(name(CachingOAuth2Authenticator.class, "refreshes"));
+        this.invalidations = metricRegistry.meter(name(CachingOAuth2Authenticator.class, "invalidations"));
+        metricRegistry.register(name(CachingOAuth2Authenticator.class, "size"), (Gauge<Long>) entries::size);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    @Override
+    public Optional<User> authenticate(String token) throws AuthenticationException {
+        long now = clock.getTime();
+        HashCode key = VerifiedJwtCache.digest(token);
+        Entry entry = entries.getIfPresent(key);
+        if (entry != null) {
+            if (now < entry.expiresAt) {
+                hits.mark();
+                if (refreshExecutor != null && now >= entry.refreshAt) {
+                    entry.refresh(key, token);
+                }
+                return Optional.of(entry.user);
+            }
+            entries.asMap().remove(key, entry);
+        }
+
+        misses.mark();
+        AuthenticatedToken authenticatedToken;
+        try (Timer.Context ignored = loads.time()) {
+            authenticatedToken = delegate.authenticateToken(token);
+        }
+        if (authenticatedToken == null) {
+            return Optional.absent();
+        }
+        if (authenticatedToken.isReusable() && now < authenticatedToken.getExpiresAt()) {
+            entries.put(key, new Entry(authenticatedToken, now));
+        }
+        return Optional.of(authenticatedToken.getUser());
+    }
+
+    /**
+     * Drops the cached users for a subject, so that each of their tokens is verified again on its next use.
+     *
+     * @param subject the subject of the tokens, i.e. the user ID
+     * @return the number of tokens dropped
+     */
+    public int invalidateSubject(String subject) {
+        int invalidated = 0;
+        Iterator<Map.Entry<HashCode, Entry>> iterator = entries.asMap().entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<HashCode, Entry> cached = iterator.next();
+            if (subject.equals(cached.getValue().user.getId())) {
+                iterator.remove();
+                delegate.invalidate(cached.getKey());
+                ++invalidated;
+            }
+        }
+        invalidations.mark(invalidated);
+        return invalidated;
+    }
+
+    /**
+     * Drops every cached user, e.g. once the keys that verified their tokens may no longer be trusted. The verified
+     * tokens of the delegate are left to the caller.
+     */
+    public void invalidateAll() {
+        invalidations.mark(entries.size());
+        entries.invalidateAll();
+    }
+
+    public long size() {
+        return entries.size();
+    }
+
+    private final class Entry {
+        private final User user;
+        private final long expiresAt;
+        private final long refreshAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(AuthenticatedToken authenticatedToken, long loadedAt) {
+            this.user = authenticatedToken.getUser();
+            this.expiresAt = authenticatedToken.getExpiresAt();
+            this.refreshAt = loadedAt + refreshAfterMillis;
+        }
+
+        /**
+         * Verifies the token again in the background unless that's already under way.
+         */
+        private void refresh(HashCode key, String token) {
+            if (!refreshing.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                refreshExecutor.execute(() -> reload(key, token));
+            } catch (RejectedExecutionException e) {
+                refreshing.set(false);
+            }
+        }
+
+        private void reload(HashCode key, String token) {
+            refreshes.mark();
+            delegate.invalidate(key);
+            try (Timer.Context ignored = loads.time()) {
+                AuthenticatedToken authenticatedToken = delegate.authenticateToken(token);
+                if (authenticatedToken != null && authenticatedToken.isReusable()) {
+                    entries.asMap().replace(key, this, new Entry(authenticatedToken, clock.getTime()));
+                } else {
+                    entries.asMap().remove(key, this);
+                }
+            } catch (AuthenticationException | RuntimeException e) {
+                LOGGER.debug("Dropped cached user {} whose token no longer authenticates: {}", user.getId(),
+                        e.toString());
+                entries.asMap().remove(key, this);
+            }
+        }
+    }
+
+    /*
+     * Builder
+     */
+
+    public static final class Builder {
+        private OAuth2Authenticator delegate;
+        private Clock clock;
+        private MetricRegistry metricRegistry;
+        private long maxEntries = 10000;
+        private long expireAfterWriteMillis = TimeUnit.MINUTES.toMillis(10);
+        private Executor refreshExecutor;
+        private long refreshAfterMillis;
+
+        private Builder() {
+        }
+
+        public Builder withDelegate(OAuth2Authenticator val) {
+            delegate = val;
+            return this;
+        }
+
+        public Builder withClock(Clock val) {
+            clock = val;
+            return this;
+        }
+
+        public Builder withMetricRegistry(MetricRegistry val) {
+            metricRegistry = val;
+            return this;
+        }
+
+        public Builder withMaxEntries(long val) {
+            maxEntries = val;
+            return this;
+        }
+
+        /**
+         * @param val the longest a user is cached for, however long its token is valid
+         */
+        public Builder withExpireAfterWrite(long val, TimeUnit unit) {
+            expireAfterWriteMillis = unit.toMillis(val);
+            return this;
+        }
+
+        /**
+         * Verifies cached tokens again in the background once they've been cached for the given time.
+         *
+         * @param val how long after being cached a token is verified again
+         * @param executor executor to verify tokens on
+         */
+        public Builder withRefreshAfter(long val, TimeUnit unit, Executor executor) {
+            refreshAfterMillis = unit.toMillis(val);
+            refreshExecutor = executor;
+            return this;
+        }
+
+        public CachingOAuth2Authenticator build() {
+            Objects.requireNonNull(delegate, "delegate");
+            return new CachingOAuth2Authenticator(this);
+        }
+    }
+}
@@ -2,18 +2,23 @@ package wdawson.samples.dropwizard.auth;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
 import io.dropwizard.auth.AuthenticationException;
 import io.dropwizard.auth.Authenticator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import wdawson.samples.dropwizard.util.jwt.JtiReplayStore;
 import wdawson.samples.dropwizard.util.jwt.JwtVerifier;
-import wdawson.samples.dropwizard.util.jwt.dto.Jwt;
+import wdawson.samples.dropwizard.util.jwt.RejectedJwtCache;
+import wdawson.samples.dropwizard.util.jwt.VerificationOutcome;
+import wdawson.samples.dropwizard.util.jwt.VerifiedJwtCache;
 import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
 import wdawson.samples.dropwizard.util.jwt.exception.JwtParseException;
 import wdawson.samples.dropwizard.util.jwt.exception.JwtVerifyException;
+import wdawson.samples.dropwizard.util.jwt.exception.RejectionReason;
 
-import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Jon Todd
@@ -22,38 +27,141 @@ public class OAuth2Authenticator implements Authenticator<String, User> {
     private static final Logger LOG = LoggerFactory.getLogger(OAuth2Authenticator.class);
 
     private final JwtVerifier jwtVerifier;
+    private final VerifiedJwtCache verifiedJwtCache;
+    private final RejectedJwtCache rejectedJwtCache;
+    private final JtiReplayStore jtiReplayStore;
+    private final RoleSet replayProtectedRoles;
 
-    public OAuth2Authenticator(JwtVerifier jwtVerifier) {
+    public OAuth2Authenticator(JwtVerifier jwtVerifier, VerifiedJwtCache verifiedJwtCache) {
+        this(jwtVerifier, verifiedJwtCache, null, null, ImmutableSet.of());
+    }
+
+    /**
+     * @param rejectedJwtCache cache of recently rejected tokens, or null to verify every uncached token
+     * @param jtiReplayStore store recording the use of tokens granting a replay protected role
+     * @param replayProtectedRoles roles that may only be granted once by each token
+     */
+    public OAuth2Authenticator(JwtVerifier jwtVerifier, VerifiedJwtCache verifiedJwtCache,
+                               RejectedJwtCache rejectedJwtCache, JtiReplayStore jtiReplayStore,
+                               Set<String> replayProtectedRoles) {
         this.jwtVerifier = jwtVerifier;
+        this.verifiedJwtCache = verifiedJwtCache;
+        this.rejectedJwtCache = rejectedJwtCache;
+        this.jtiReplayStore = jtiReplayStore;
+        this.replayProtectedRoles = RoleSet.copyOf(replayProtectedRoles);
     }
 
     @Override
     public Optional<User> authenticate(String s) throws AuthenticationException {
-        JwtClaims claims;
-        try {
-            claims = jwtVerifier.authenticate(Jwt.newFromString(s));
-        } catch (JwtParseException | JwtVerifyException e) {
-            LOG.error("Failed to authenticate token!", e);
-            throw new AuthenticationException("Failed to authenticate token!", e);
+        AuthenticatedToken authenticatedToken = authenticateToken(s);
+        return authenticatedToken == null ? Optional.absent() : Optional.of(authenticatedToken.getUser());
+    }
+
+    /**
+     * Authenticates a token, also returning how long the resulting user may be reused for.
+     *
+     * @param s the raw JWT string
+     * @return the authenticated token, or null if it's a one-time token that has already been used
+     * @throws AuthenticationException if the token is rejected
+     */
+    AuthenticatedToken authenticateToken(String s) throws AuthenticationException {
+        // Tokens verified ahead of Jersey aren't verified again, whether or not their result was cached
+        VerificationOutcome outcome = VerificationOutcome.current(s);
+        // Clients reuse the same token until it expires, so only parse and verify the ones we haven't seen yet.
+        JwtClaims claims = outcome != null ? claimsOf(outcome) : verifiedJwtCache.getIfPresent(s);
+        if (claims == null) {
+            // Clients that keep repeating a bad token are turned away without verifying it, or logging, again.
+            RejectionReason rejectionReason = rejectedJwtCache == null ? null : rejectedJwtCache.getIfPresent(s);
+            if (rejectionReason != null) {
+                throw new AuthenticationException("Token was recently rejected: " + rejectionReason);
+            }
+            try {
+                claims = jwtVerifier.authenticate(s);
+            } catch (JwtParseException | JwtVerifyException e) {
+                // Already counted and logged by the verifier
+                if (rejectedJwtCache != null) {
+                    rejectedJwtCache.put(s, RejectionReason.of(e));
+                }
+                throw new AuthenticationException("Failed to authenticate token!", e);
+            }
+            verifiedJwtCache.put(s, claims);
+        }
+
+        RoleSet roles = parseRolesClaim(claims);
+
+        // Checked on every use, including cache hits, since the cache would otherwise let a token through again
+        boolean replayProtected = jtiReplayStore != null && roles.intersects(replayProtectedRoles);
+        if (replayProtected && !jtiReplayStore.markUsed(claims)) {
+            LOG.warn("Rejected reuse of one-time token (jti={})", claims.getJwtId());
+            return null;
         }
 
-        Set<String> roles = parseRolesClaim(claims);
+        User user = User.newBuilder()
+                .withId(claims.getSubject())
+                .withOrgId((String) claims.getClaim("orgId"))
+                .withRoles(roles)
+                .build();
+        long expirationTime = claims.getExpirationTimeSeconds();
+        return new AuthenticatedToken(user,
+                expirationTime == JwtClaims.NO_TIME ? Long.MAX_VALUE : TimeUnit.SECONDS.toMillis(expirationTime),
+                !replayProtected);
+    }
+
+    /**
+     * Forgets that a token was verified, so that it's verified again the next time it's authenticated.
+     *
+     * @param tokenDigest the digest of the raw JWT string, as returned by {@link VerifiedJwtCache#digest(String)}
+     */
+    void invalidate(HashCode tokenDigest) {
+        verifiedJwtCache.invalidate(tokenDigest);
+    }
 
-        return Optional.of(
-                User.newBuilder()
-                    .withId(claims.getSubject())
-                    .withOrgId((String) claims.getClaim("orgId"))
-                    .withRoles(roles)
-                    .build());
+    private static JwtClaims claimsOf(VerificationOutcome outcome) throws AuthenticationException {
+        Exception failure = outcome.getFailure();
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure != null) {
+            throw new AuthenticationException("Failed to authenticate token!", failure);
+        }
+        return outcome.getClaims();
     }
 
-    private Set<String> parseRolesClaim(JwtClaims claims) throws AuthenticationException {
+    private RoleSet parseRolesClaim(JwtClaims claims) {
         Object scopesObject = claims.getClaim("scope");
-        String[] scopes = {};
-        if (scopesObject != null && scopesObject instanceof String) {
-            scopes = ((String) scopesObject).split(" ");
+        return scopesObject instanceof String ? RoleSet.parse((String) scopesObject) : RoleSet.EMPTY;
+    }
+
+    /**
+     * A user authenticated from a token.
+     */
+    static final class AuthenticatedToken {
+        private final User user;
+        private final long expiresAt;
+        private final boolean reusable;
+
+        AuthenticatedToken(User user, long expiresAt, boolean reusable) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+            this.reusable = reusable;
         }
 
-        return ImmutableSet.copyOf(Arrays.asList(scopes));
+        User getUser() {
+            return user;
+        }
+
+        /**
+         * @return the token's expiration time in milliseconds since the epoch, or {@link Long#MAX_VALUE} if it has none
+         */
+        long getExpiresAt() {
+            return expiresAt;
+        }
+
+        /**
+         * @return false if the token has to be checked against the replay store every time it's used
+         */
+        boolean isReusable() {
+            return reusable;
+        }
     }
 }
\ No newline at end of file
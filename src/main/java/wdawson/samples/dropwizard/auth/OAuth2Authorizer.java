@@ -8,6 +8,7 @@ import io.dropwizard.auth.Authorizer;
 public class OAuth2Authorizer implements Authorizer<User> {
     @Override
     public boolean authorize(User user, String role) {
-        return user.getRoles().contains(role);
+        long bit = RoleSet.bitOf(role);
+        return bit != 0 ? user.getRoles().containsAny(bit) : user.getRoles().contains(role);
     }
 }
\ No newline at end of file
@@ -0,0 +1,222 @@
+package wdawson.samples.dropwizard.auth;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Iterators;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable set of roles in which each of the known roles from {@link Role} is a bit in a long, so that checking
+ * for one is a single bitwise AND. Any other scopes are kept in an overflow set.
+ *
+ * Role sets are interned: every set of only known roles is created up front, and sets with other scopes are shared
+ * through a weak interner, so the users of a service all hold the same few instances.
+ *
+ * @author wdawson
+ */
+public final class RoleSet extends AbstractSet<String> {
+
+    /**
+     * The known roles, each of which is represented by the bit at its index.
+     */
+    private static final List<String> KNOWN_ROLES = ImmutableList.of(Role.USER_READ_ONLY, Role.ADMIN);
+
+    private static final Map<String, Long> BITS;
+    private static final RoleSet[] KNOWN_ONLY;
+
+    static {
+        ImmutableMap.Builder<String, Long> bits = ImmutableMap.builder();
+        for (int i = 0; i < KNOWN_ROLES.size(); ++i) {
+            bits.put(KNOWN_ROLES.get(i), 1L << i);
+        }
+        BITS = bits.build();
+
+        KNOWN_ONLY = new RoleSet[1 << KNOWN_ROLES.size()];
+        for (int i = 0; i < KNOWN_ONLY.length; ++i) {
+            KNOWN_ONLY[i] = new RoleSet(i, ImmutableSet.<String>of());
+        }
+    }
+
+    private static final Interner<RoleSet> INTERNER = Interners.newWeakInterner();
+
+    public static final RoleSet EMPTY = KNOWN_ONLY[0];
+
+    private final long bits;
+    private final ImmutableSet<String> overflow;
+    private final int hashCode;
+
+    private RoleSet(long bits, ImmutableSet<String> overflow) {
+        this.bits = bits;
+        this.overflow = overflow;
+        int hash = overflow.hashCode();
+        for (int i = 0; i < KNOWN_ROLES.size(); ++i) {
+            if ((bits & (1L << i)) != 0) {
+                hash += KNOWN_ROLES.get(i).hashCode();
+            }
+        }
+        this.hashCode = hash;
+    }
+
+    /**
+     * Parses the space separated scopes of an OAuth 2.0 'scope' claim. Known roles are matched in place, so scopes made
+     * up only of known roles don't allocate.
+     *
+     * @param scopes the scopes, or null for none
+     * @return the interned role set
+     */
+    public static RoleSet parse(String scopes) {
+        if (scopes == null) {
+            return EMPTY;
+        }
+        long bits = 0;
+        ImmutableSet.Builder<String> overflow = null;
+        int length = scopes.length();
+        int start = 0;
+        while (start < length) {
+            int end = scopes.indexOf(' ', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                long bit = bitOf(scopes, start, end - start);
+                if (bit != 0) {
+                    bits |= bit;
+                } else {
+                    if (overflow == null) {
+                        overflow = ImmutableSet.builder();
+                    }
+                    overflow.add(scopes.substring(start, end));
+                }
+            }
+            start = end + 1;
+        }
+        return of(bits, overflow == null ? ImmutableSet.<String>of() : overflow.build());
+    }
+
+    /**
+     * @param roles the roles
+     * @return the interned role set containing the given roles
+     */
+    public static RoleSet copyOf(Collection<String> roles) {
+        if (roles instanceof RoleSet) {
+            return (RoleSet) roles;
+        }
+        long bits = 0;
+        ImmutableSet.Builder<String> overflow = ImmutableSet.builder();
+        for (String role : roles) {
+            long bit = bitOf(role);
+            if (bit != 0) {
+                bits |= bit;
+            } else {
+                overflow.add(role);
+            }
+        }
+        return of(bits, overflow.build());
+    }
+
+    private static RoleSet of(long bits, ImmutableSet<String> overflow) {
+        if (overflow.isEmpty()) {
+            return KNOWN_ONLY[(int) bits];
+        }
+        return INTERNER.intern(new RoleSet(bits, overflow));
+    }
+
+    /**
+     * @param role a role name
+     * @return the bit for a known role, or 0 for any other role
+     */
+    public static long bitOf(String role) {
+        Long bit = BITS.get(role);
+        return bit != null ? bit : 0;
+    }
+
+    private static long bitOf(String scopes, int offset, int length) {
+        for (int i = 0; i < KNOWN_ROLES.size(); ++i) {
+            String role = KNOWN_ROLES.get(i);
+            if (role.length() == length && scopes.regionMatches(offset, role, 0, length)) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param mask bits of known roles, as returned by {@link #bitOf}
+     * @return whether this set has any of the roles in the mask
+     */
+    public boolean containsAny(long mask) {
+        return (bits & mask) != 0;
+    }
+
+    /**
+     * @param other another role set
+     * @return whether the two sets have a role in common
+     */
+    public boolean intersects(RoleSet other) {
+        if ((bits & other.bits) != 0) {
+            return true;
+        }
+        for (String role : other.overflow) {
+            if (overflow.contains(role)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof String)) {
+            return false;
+        }
+        long bit = bitOf((String) o);
+        return bit != 0 ? containsAny(bit) : overflow.contains(o);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        ImmutableList.Builder<String> known = ImmutableList.builder();
+        for (int i = 0; i < KNOWN_ROLES.size(); ++i) {
+            if ((bits & (1L << i)) != 0) {
+                known.add(KNOWN_ROLES.get(i));
+            }
+        }
+        return Iterators.concat(known.build().iterator(), overflow.iterator());
+    }
+
+    @Override
+    public int size() {
+        return Long.bitCount(bits) + overflow.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return bits == 0 && overflow.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof RoleSet) {
+            RoleSet that = (RoleSet) o;
+            return bits == that.bits && hashCode == that.hashCode && overflow.equals(that.overflow);
+        }
+        return o instanceof Set && super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
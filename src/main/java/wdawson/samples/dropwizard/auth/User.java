@@ -10,7 +10,7 @@ public final class User implements Principal {
 
     private final String id;
     private final String orgId;
-    private final Set<String> roles;
+    private final RoleSet roles;
 
     /*
      * Constructors
@@ -19,7 +19,7 @@ public final class User implements Principal {
     private User(Builder builder) {
         id = builder.id;
         orgId = builder.orgId;
-        roles = builder.roles;
+        roles = builder.roles != null ? builder.roles : RoleSet.EMPTY;
     }
 
     public static Builder newBuilder() {
@@ -55,7 +55,7 @@ public final class User implements Principal {
         return orgId;
     }
 
-    public Set<String> getRoles() {
+    public RoleSet getRoles() {
         return roles;
     }
 
@@ -66,7 +66,7 @@ public final class User implements Principal {
     public static final class Builder {
         private String id;
         private String orgId;
-        private Set<String> roles;
+        private RoleSet roles;
 
         private Builder() {
         }
@@ -82,7 +82,7 @@ public final class User implements Principal {
         }
 
         public Builder withRoles(Set<String> val) {
-            roles = val;
+            roles = RoleSet.copyOf(val);
             return this;
         }
 
@@ -0,0 +1,115 @@
+package wdawson.samples.dropwizard.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import wdawson.samples.dropwizard.filters.AsyncJwtVerificationFilter;
+import wdawson.samples.dropwizard.util.jwt.JwtVerifier;
+import wdawson.samples.dropwizard.util.jwt.RejectedJwtCache;
+import wdawson.samples.dropwizard.util.jwt.VerifiedJwtCache;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Configuration for verifying JWTs on a dedicated executor instead of the Jetty request threads
+ *
+ * @author wdawson
+ */
+public class AsyncVerificationConfiguration {
+
+    @JsonProperty
+    private boolean enabled = false;
+
+    /**
+     * Number of verification threads. Verification is CPU bound, so 0 uses one per available processor.
+     */
+    @Min(0)
+    @JsonProperty
+    private int threads = 0;
+
+    /**
+     * Number of requests that may wait for a verification thread before new ones are turned away with a 503.
+     */
+    @Min(1)
+    @JsonProperty
+    private int queueCapacity = 1024;
+
+    /**
+     * How long a request may wait for its token to be verified before it gets a 503.
+     */
+    @NotNull
+    @JsonProperty
+    private Duration timeout = Duration.seconds(5);
+
+    /**
+     * Creates the filter along with its executor, which is managed by the environment's lifecycle.
+     */
+    public AsyncJwtVerificationFilter newFilter(Environment environment, JwtVerifier jwtVerifier,
+                                                VerifiedJwtCache verifiedJwtCache, RejectedJwtCache rejectedJwtCache) {
+        int threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) environment.lifecycle()
+                .executorService("jwt-verify-%d")
+                .minThreads(threadCount)
+                .maxThreads(threadCount)
+                .workQueue(new ArrayBlockingQueue<>(queueCapacity))
+                .build();
+        return new AsyncJwtVerificationFilter(jwtVerifier, verifiedJwtCache, rejectedJwtCache, executor,
+                timeout.toMilliseconds(), environment.metrics());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AsyncVerificationConfiguration that = (AsyncVerificationConfiguration) o;
+        return enabled == that.enabled &&
+                threads == that.threads &&
+                queueCapacity == that.queueCapacity &&
+                Objects.equals(timeout, that.timeout);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(enabled, threads, queueCapacity, timeout);
+    }
+}
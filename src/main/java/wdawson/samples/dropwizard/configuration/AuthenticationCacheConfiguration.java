@@ -0,0 +1,118 @@
+package wdawson.samples.dropwizard.configuration;
+
+import com.codahale.metrics.Clock;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import wdawson.samples.dropwizard.auth.CachingOAuth2Authenticator;
+import wdawson.samples.dropwizard.auth.OAuth2Authenticator;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration for caching authenticated users by their token
+ *
+ * @author wdawson
+ */
+public class AuthenticationCacheConfiguration {
+
+    @JsonProperty
+    private boolean enabled = false;
+
+    @Min(1)
+    @JsonProperty
+    private long maxEntries = 10000;
+
+    /**
+     * The longest a user is cached for. Users are never cached past their token's expiration time.
+     */
+    @NotNull
+    @JsonProperty
+    private Duration expireAfterWrite = Duration.minutes(10);
+
+    /**
+     * How long after being cached a token is verified again in the background. When not set, cached tokens are only
+     * verified again once they expire from the cache.
+     */
+    @JsonProperty
+    private Duration refreshAfter;
+
+    /**
+     * Creates the caching authenticator along with the executor for refreshing it, which is managed by the
+     * environment's lifecycle.
+     */
+    public CachingOAuth2Authenticator newAuthenticator(Environment environment, OAuth2Authenticator delegate,
+                                                       Clock clock) {
+        CachingOAuth2Authenticator.Builder builder = CachingOAuth2Authenticator.newBuilder()
+                .withDelegate(delegate)
+                .withClock(clock)
+                .withMetricRegistry(environment.metrics())
+                .withMaxEntries(maxEntries)
+                .withExpireAfterWrite(expireAfterWrite.toMilliseconds(), TimeUnit.MILLISECONDS);
+        if (refreshAfter != null) {
+            ExecutorService executor = environment.lifecycle()
+                    .executorService("authentication-refresh-%d")
+                    .minThreads(1)
+                    .maxThreads(1)
+                    .build();
+            builder.withRefreshAfter(refreshAfter.toMilliseconds(), TimeUnit.MILLISECONDS, executor);
+        }
+        return builder.build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(long maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public Duration getExpireAfterWrite() {
+        return expireAfterWrite;
+    }
+
+    public void setExpireAfterWrite(Duration expireAfterWrite) {
+        this.expireAfterWrite = expireAfterWrite;
+    }
+
+    public Duration getRefreshAfter() {
+        return refreshAfter;
+    }
+
+    public void setRefreshAfter(Duration refreshAfter) {
+        this.refreshAfter = refreshAfter;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AuthenticationCacheConfiguration that = (AuthenticationCacheConfiguration) o;
+        return enabled == that.enabled &&
+                maxEntries == that.maxEntries &&
+                Objects.equals(expireAfterWrite, that.expireAfterWrite) &&
+                Objects.equals(refreshAfter, that.refreshAfter);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(enabled, maxEntries, expireAfterWrite, refreshAfter);
+    }
+}
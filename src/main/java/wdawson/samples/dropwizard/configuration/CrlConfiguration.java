@@ -0,0 +1,123 @@
+package wdawson.samples.dropwizard.configuration;
+
+import com.codahale.metrics.Clock;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import wdawson.samples.dropwizard.util.pki.RevocationChecker;
+import wdawson.samples.dropwizard.util.pki.crl.CrlStore;
+
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration for checking the revocation status of JWT signing certificates with CRLs held in memory
+ *
+ * @author wdawson
+ */
+public class CrlConfiguration {
+
+    @JsonProperty
+    private boolean enabled = false;
+
+    /**
+     * URLs of the CRLs to load. Supports the "classpath" protocol.
+     */
+    @NotNull
+    @JsonProperty
+    private List<String> crlUrls = new ArrayList<>();
+
+    @NotNull
+    @JsonProperty
+    private Duration refreshInterval = Duration.minutes(10);
+
+    /**
+     * How long after its next update time a CRL may still be used while a newer one can't be loaded.
+     */
+    @NotNull
+    @JsonProperty
+    private Duration staleGracePeriod = Duration.hours(1);
+
+    @NotNull
+    @JsonProperty
+    private Duration timeout = Duration.seconds(5);
+
+    /**
+     * Creates the CRL store, loads the CRLs and schedules them to be refreshed in the background.
+     */
+    public RevocationChecker newRevocationChecker(Environment environment, Clock clock) {
+        CrlStore crlStore = new CrlStore(crlUrls, clock, staleGracePeriod.toMilliseconds(),
+                (int) timeout.toMilliseconds(), environment.metrics());
+        crlStore.refresh();
+
+        ScheduledExecutorService executor = environment.lifecycle().scheduledExecutorService("crl-refresh-%d").build();
+        executor.scheduleWithFixedDelay(crlStore::refresh, refreshInterval.toMilliseconds(),
+                refreshInterval.toMilliseconds(), TimeUnit.MILLISECONDS);
+        return crlStore;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public List<String> getCrlUrls() {
+        return crlUrls;
+    }
+
+    public void setCrlUrls(List<String> crlUrls) {
+        this.crlUrls = crlUrls;
+    }
+
+    public Duration getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    public void setRefreshInterval(Duration refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    public Duration getStaleGracePeriod() {
+        return staleGracePeriod;
+    }
+
+    public void setStaleGracePeriod(Duration staleGracePeriod) {
+        this.staleGracePeriod = staleGracePeriod;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        CrlConfiguration that = (CrlConfiguration) o;
+        return enabled == that.enabled &&
+                Objects.equals(crlUrls, that.crlUrls) &&
+                Objects.equals(refreshInterval, that.refreshInterval) &&
+                Objects.equals(staleGracePeriod, that.staleGracePeriod) &&
+                Objects.equals(timeout, that.timeout);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(enabled, crlUrls, refreshInterval, staleGracePeriod, timeout);
+    }
+}
@@ -1,20 +1,51 @@
 package wdawson.samples.dropwizard.configuration;
 
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Resources;
+import com.nimbusds.jose.JWSAlgorithm;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
 import org.hibernate.validator.constraints.NotEmpty;
 import wdawson.samples.dropwizard.util.jwt.JwtVerifier;
+import wdawson.samples.dropwizard.util.jwt.RejectedJwtCache;
+import wdawson.samples.dropwizard.util.jwt.RejectionReporter;
+import wdawson.samples.dropwizard.util.jwt.SigningCertificateCache;
+import wdawson.samples.dropwizard.util.jwt.SigningKeySet;
+import wdawson.samples.dropwizard.util.jwt.TrustReloader;
+import wdawson.samples.dropwizard.util.jwt.TrustSnapshot;
+import wdawson.samples.dropwizard.util.jwt.VerificationStageTimers;
+import wdawson.samples.dropwizard.util.jwt.VerifiedJwtCache;
+import wdawson.samples.dropwizard.util.pki.CertificateChainValidator;
+import wdawson.samples.dropwizard.util.pki.ChainedRevocationChecker;
+import wdawson.samples.dropwizard.util.pki.RevocationChecker;
+import wdawson.samples.dropwizard.util.time.CoarseClock;
 
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
  * @author Jon Todd
@@ -37,24 +68,255 @@ public class JwtVerificationConfiguration {
     @JsonProperty
     private List<String> truststoreAliases;
 
-    public JwtVerifier newInstanceFromConfig() {
-        List<X509Certificate> trustedCertificates = new LinkedList<>();
-        try {
+    /**
+     * Aliases of signing certificates, and any intermediate certificates they need, to load from the truststore so that
+     * tokens can identify their signer by 'kid' or 'x5t#S256' instead of carrying an 'x5c' chain.
+     */
+    @NotNull
+    @JsonProperty
+    private List<String> signingCertificateAliases = new ArrayList<>();
+
+    /**
+     * Tokens longer than this are rejected before they are decoded.
+     */
+    @Min(1)
+    @JsonProperty
+    private int maxTokenLength = JwtVerifier.DEFAULT_MAX_TOKEN_LENGTH;
+
+    /**
+     * JWS algorithms that tokens may be signed with, e.g. "RS256" or "ES256".
+     */
+    @NotEmpty
+    @JsonProperty
+    private List<String> allowedAlgorithms = ImmutableList.of("RS256", "RS384", "RS512", "ES256", "ES384", "ES512");
+
+    /**
+     * Sustained rate at which rejected tokens are logged. Every rejection is still counted in the metrics.
+     */
+    @Min(0)
+    @JsonProperty
+    private double rejectionLogsPerSecond = RejectionReporter.DEFAULT_LOGS_PER_SECOND;
+
+    /**
+     * Number of rejected tokens that may be logged in a burst after a quiet period.
+     */
+    @Min(0)
+    @JsonProperty
+    private int rejectionLogBurst = RejectionReporter.DEFAULT_LOG_BURST;
+
+    /**
+     * Time each stage of one in every this many verifications. 0 turns stage timing off.
+     */
+    @Min(0)
+    @JsonProperty
+    private int stageTimingSampleRate = 10;
+
+    /**
+     * Policy for caching tokens that have already been verified. Entries never outlive the token's expiration time.
+     */
+    @NotNull
+    @JsonProperty
+    private CacheBuilderSpec verifiedTokenCachePolicy = CacheBuilderSpec.parse("maximumSize=10000, expireAfterWrite=10m");
+
+    /**
+     * Policy for caching recently rejected tokens so that repeats are turned away without being verified again.
+     */
+    @NotNull
+    @JsonProperty
+    private CacheBuilderSpec rejectedTokenCachePolicy = RejectedJwtCache.DEFAULT_SPEC;
+
+    /**
+     * Policy for caching certificates decoded from the 'x5c' header of tokens.
+     */
+    @NotNull
+    @JsonProperty
+    private CacheBuilderSpec signingCertificateCachePolicy = SigningCertificateCache.DEFAULT_SPEC;
+
+    /**
+     * Policy for caching successful validations of signing certificate chains. Entries never outlive the validity of
+     * the certificates in the chain.
+     */
+    @NotNull
+    @JsonProperty
+    private CacheBuilderSpec certificateChainCachePolicy = CertificateChainValidator.DEFAULT_SPEC;
+
+    /**
+     * How often to update the clock that token times and cache entries are checked against. When not set, the system
+     * clock is read on every check.
+     */
+    @JsonProperty
+    private Duration clockPrecision;
+
+    /**
+     * How long tokens from the previous truststore are still accepted after it's reloaded, so that issuers have time to
+     * move to the new keys.
+     */
+    @NotNull
+    @JsonProperty
+    private Duration rotationOverlap = Duration.minutes(10);
+
+    /**
+     * How often to check the truststore file for changes and reload it. When not set, the truststore is only reloaded
+     * by the "reload-jwt-trust" admin task.
+     */
+    @JsonProperty
+    private Duration truststoreCheckInterval;
+
+    @Valid
+    @NotNull
+    @JsonProperty
+    private CrlConfiguration crl = new CrlConfiguration();
+
+    @Valid
+    @NotNull
+    @JsonProperty
+    private OcspConfiguration ocsp = new OcspConfiguration();
+
+    @Valid
+    @NotNull
+    @JsonProperty
+    private AsyncVerificationConfiguration asyncVerification = new AsyncVerificationConfiguration();
+
+    @Valid
+    @NotNull
+    @JsonProperty
+    private ReplayProtectionConfiguration replayProtection = new ReplayProtectionConfiguration();
+
+    public Clock newClock(Environment environment) {
+        if (getClockPrecision() == null) {
+            return Clock.defaultClock();
+        }
+        return CoarseClock.startTicking(
+                environment.lifecycle().scheduledExecutorService("jwt-clock-%d").build(),
+                getClockPrecision().toMilliseconds(), TimeUnit.MILLISECONDS);
+    }
+
+    public JwtVerifier newInstanceFromConfig(Environment environment, Clock clock) {
+        return newInstanceFromConfig(environment, clock, clock);
+    }
+
+    /**
+     * @param pkiClock the clock to validate signing certificate chains and their revocation status against
+     */
+    public JwtVerifier newInstanceFromConfig(Environment environment, Clock clock, Clock pkiClock) {
+        MetricRegistry metricRegistry = environment.metrics();
+        return JwtVerifier.newBuilder()
+                .withTrustSnapshot(newTrustSnapshot())
+                .withRotationOverlap(getRotationOverlap().toMilliseconds(), TimeUnit.MILLISECONDS)
+                .withMaxTokenLength(getMaxTokenLength())
+                .withSigningCertificateCache(new SigningCertificateCache(metricRegistry, getSigningCertificateCachePolicy()))
+                .withCertificateChainValidator(new CertificateChainValidator(metricRegistry,
+                        getCertificateChainCachePolicy(), pkiClock))
+                .withRevocationChecker(newRevocationChecker(environment, pkiClock))
+                .withRejectionReporter(new RejectionReporter(metricRegistry, clock, getRejectionLogsPerSecond(),
+                        getRejectionLogBurst()))
+                .withStageTimers(new VerificationStageTimers(metricRegistry, clock, getStageTimingSampleRate()))
+                .withClock(clock)
+                .build();
+    }
+
+    /**
+     * Loads the trusted and signing certificates from the truststore along with the signer policy.
+     */
+    public TrustSnapshot newTrustSnapshot() {
+        List<X509Certificate> trustedCertificates;
+        List<X509Certificate> signingCertificates;
+        try (InputStream truststore = Resources.getResource(getTruststoreResourcePath()).openStream()) {
             KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
-            trustStore.load(Resources.getResource(getTruststoreResourcePath()).openStream(),
-                    getTruststorePassphrase().toCharArray());
-            for(String alias : getTruststoreAliases()) {
-                if (trustStore.isCertificateEntry(alias)) {
-                    trustedCertificates.add((X509Certificate) trustStore.getCertificate(alias));
-                } else {
-                    throw new IllegalArgumentException("Alias not a certificate entry: " + alias);
-                }
-            }
+            trustStore.load(truststore, getTruststorePassphrase().toCharArray());
+            trustedCertificates = getCertificates(trustStore, getTruststoreAliases());
+            signingCertificates = getCertificates(trustStore, getSigningCertificateAliases());
         } catch (KeyStoreException | IOException | NoSuchAlgorithmException | CertificateException e) {
             throw new RuntimeException(e);
         }
 
-        return new JwtVerifier(getAllowedSignerDnRegex(), trustedCertificates);
+        return TrustSnapshot.newBuilder()
+                .withAllowedSignerPattern(Pattern.compile(getAllowedSignerDnRegex()))
+                .withAllowedAlgorithms(getAllowedJwsAlgorithms())
+                .withTrustedCertificates(trustedCertificates)
+                .withSigningKeySet(new SigningKeySet(signingCertificates))
+                .build();
+    }
+
+    /**
+     * Creates the reloader for rotating the verifier's truststore, and starts watching the truststore for changes if a
+     * check interval is set. Only truststores loaded from a file on the classpath, rather than from a jar, can be
+     * watched.
+     */
+    public TrustReloader newTrustReloader(Environment environment, JwtVerifier jwtVerifier,
+                                          VerifiedJwtCache verifiedJwtCache, RejectedJwtCache rejectedJwtCache) {
+        URL truststoreUrl = Resources.getResource(getTruststoreResourcePath());
+        Path truststoreFile = null;
+        if ("file".equals(truststoreUrl.getProtocol())) {
+            try {
+                truststoreFile = Paths.get(truststoreUrl.toURI());
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException("Invalid truststore location: " + truststoreUrl, e);
+            }
+        }
+
+        TrustReloader trustReloader = TrustReloader.newBuilder()
+                .withJwtVerifier(jwtVerifier)
+                .withLoader(this::newTrustSnapshot)
+                .withWatchedFile(truststoreFile)
+                .withExecutor(environment.lifecycle().scheduledExecutorService("jwt-trust-reload-%d").build())
+                .withVerifiedJwtCache(verifiedJwtCache)
+                .withRejectedJwtCache(rejectedJwtCache)
+                .withMetricRegistry(environment.metrics())
+                .build();
+        if (getTruststoreCheckInterval() != null) {
+            trustReloader.watch(getTruststoreCheckInterval().toMilliseconds(), TimeUnit.MILLISECONDS);
+        }
+        return trustReloader;
+    }
+
+    private static List<X509Certificate> getCertificates(KeyStore trustStore, List<String> aliases)
+            throws KeyStoreException {
+        List<X509Certificate> certificates = new LinkedList<>();
+        for(String alias : aliases) {
+            if (trustStore.isCertificateEntry(alias)) {
+                certificates.add((X509Certificate) trustStore.getCertificate(alias));
+            } else {
+                throw new IllegalArgumentException("Alias not a certificate entry: " + alias);
+            }
+        }
+        return certificates;
+    }
+
+    /**
+     * CRLs are checked first since they are held in memory, then OCSP for certificates from issuers without a CRL.
+     */
+    private RevocationChecker newRevocationChecker(Environment environment, Clock clock) {
+        List<RevocationChecker> revocationCheckers = new ArrayList<>();
+        if (getCrl().isEnabled()) {
+            revocationCheckers.add(getCrl().newRevocationChecker(environment, clock));
+        }
+        if (getOcsp().isEnabled()) {
+            revocationCheckers.add(getOcsp().newRevocationChecker(environment, clock));
+        }
+
+        if (revocationCheckers.isEmpty()) {
+            return null;
+        }
+        return revocationCheckers.size() == 1
+                ? revocationCheckers.get(0)
+                : new ChainedRevocationChecker(revocationCheckers);
+    }
+
+    private Set<JWSAlgorithm> getAllowedJwsAlgorithms() {
+        ImmutableSet.Builder<JWSAlgorithm> algorithms = ImmutableSet.builder();
+        for (String algorithm : getAllowedAlgorithms()) {
+            algorithms.add(JWSAlgorithm.parse(algorithm));
+        }
+        return algorithms.build();
+    }
+
+    public VerifiedJwtCache newVerifiedJwtCache(MetricRegistry metricRegistry, Clock clock) {
+        return new VerifiedJwtCache(metricRegistry, getVerifiedTokenCachePolicy(), clock);
+    }
+
+    public RejectedJwtCache newRejectedJwtCache(MetricRegistry metricRegistry) {
+        return new RejectedJwtCache(metricRegistry, getRejectedTokenCachePolicy());
     }
 
     public String getAllowedSignerDnRegex() {
@@ -89,6 +351,142 @@ public class JwtVerificationConfiguration {
         this.truststoreAliases = truststoreAliases;
     }
 
+    public List<String> getSigningCertificateAliases() {
+        return signingCertificateAliases;
+    }
+
+    public void setSigningCertificateAliases(List<String> signingCertificateAliases) {
+        this.signingCertificateAliases = signingCertificateAliases;
+    }
+
+    public int getMaxTokenLength() {
+        return maxTokenLength;
+    }
+
+    public void setMaxTokenLength(int maxTokenLength) {
+        this.maxTokenLength = maxTokenLength;
+    }
+
+    public List<String> getAllowedAlgorithms() {
+        return allowedAlgorithms;
+    }
+
+    public void setAllowedAlgorithms(List<String> allowedAlgorithms) {
+        this.allowedAlgorithms = allowedAlgorithms;
+    }
+
+    public double getRejectionLogsPerSecond() {
+        return rejectionLogsPerSecond;
+    }
+
+    public void setRejectionLogsPerSecond(double rejectionLogsPerSecond) {
+        this.rejectionLogsPerSecond = rejectionLogsPerSecond;
+    }
+
+    public int getRejectionLogBurst() {
+        return rejectionLogBurst;
+    }
+
+    public void setRejectionLogBurst(int rejectionLogBurst) {
+        this.rejectionLogBurst = rejectionLogBurst;
+    }
+
+    public int getStageTimingSampleRate() {
+        return stageTimingSampleRate;
+    }
+
+    public void setStageTimingSampleRate(int stageTimingSampleRate) {
+        this.stageTimingSampleRate = stageTimingSampleRate;
+    }
+
+    public CacheBuilderSpec getVerifiedTokenCachePolicy() {
+        return verifiedTokenCachePolicy;
+    }
+
+    public void setVerifiedTokenCachePolicy(CacheBuilderSpec verifiedTokenCachePolicy) {
+        this.verifiedTokenCachePolicy = verifiedTokenCachePolicy;
+    }
+
+    public CacheBuilderSpec getRejectedTokenCachePolicy() {
+        return rejectedTokenCachePolicy;
+    }
+
+    public void setRejectedTokenCachePolicy(CacheBuilderSpec rejectedTokenCachePolicy) {
+        this.rejectedTokenCachePolicy = rejectedTokenCachePolicy;
+    }
+
+    public CacheBuilderSpec getSigningCertificateCachePolicy() {
+        return signingCertificateCachePolicy;
+    }
+
+    public void setSigningCertificateCachePolicy(CacheBuilderSpec signingCertificateCachePolicy) {
+        this.signingCertificateCachePolicy = signingCertificateCachePolicy;
+    }
+
+    public CacheBuilderSpec getCertificateChainCachePolicy() {
+        return certificateChainCachePolicy;
+    }
+
+    public void setCertificateChainCachePolicy(CacheBuilderSpec certificateChainCachePolicy) {
+        this.certificateChainCachePolicy = certificateChainCachePolicy;
+    }
+
+    public Duration getClockPrecision() {
+        return clockPrecision;
+    }
+
+    public void setClockPrecision(Duration clockPrecision) {
+        this.clockPrecision = clockPrecision;
+    }
+
+    public Duration getRotationOverlap() {
+        return rotationOverlap;
+    }
+
+    public void setRotationOverlap(Duration rotationOverlap) {
+        this.rotationOverlap = rotationOverlap;
+    }
+
+    public Duration getTruststoreCheckInterval() {
+        return truststoreCheckInterval;
+    }
+
+    public void setTruststoreCheckInterval(Duration truststoreCheckInterval) {
+        this.truststoreCheckInterval = truststoreCheckInterval;
+    }
+
+    public CrlConfiguration getCrl() {
+        return crl;
+    }
+
+    public void setCrl(CrlConfiguration crl) {
+        this.crl = crl;
+    }
+
+    public OcspConfiguration getOcsp() {
+        return ocsp;
+    }
+
+    public void setOcsp(OcspConfiguration ocsp) {
+        this.ocsp = ocsp;
+    }
+
+    public AsyncVerificationConfiguration getAsyncVerification() {
+        return asyncVerification;
+    }
+
+    public void setAsyncVerification(AsyncVerificationConfiguration asyncVerification) {
+        this.asyncVerification = asyncVerification;
+    }
+
+    public ReplayProtectionConfiguration getReplayProtection() {
+        return replayProtection;
+    }
+
+    public void setReplayProtection(ReplayProtectionConfiguration replayProtection) {
+        this.replayProtection = replayProtection;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
@@ -101,11 +499,32 @@ public class JwtVerificationConfiguration {
         return Objects.equals(this.allowedSignerDnRegex, other.allowedSignerDnRegex) &&
                 Objects.equals(this.truststoreResourcePath, other.truststoreResourcePath) &&
                 Objects.equals(this.truststorePassphrase, other.truststorePassphrase) &&
-                Objects.equals(this.truststoreAliases, other.truststoreAliases);
+                Objects.equals(this.truststoreAliases, other.truststoreAliases) &&
+                Objects.equals(this.signingCertificateAliases, other.signingCertificateAliases) &&
+                this.maxTokenLength == other.maxTokenLength &&
+                Objects.equals(this.allowedAlgorithms, other.allowedAlgorithms) &&
+                Double.compare(this.rejectionLogsPerSecond, other.rejectionLogsPerSecond) == 0 &&
+                this.rejectionLogBurst == other.rejectionLogBurst &&
+                this.stageTimingSampleRate == other.stageTimingSampleRate &&
+                Objects.equals(this.verifiedTokenCachePolicy, other.verifiedTokenCachePolicy) &&
+                Objects.equals(this.rejectedTokenCachePolicy, other.rejectedTokenCachePolicy) &&
+                Objects.equals(this.signingCertificateCachePolicy, other.signingCertificateCachePolicy) &&
+                Objects.equals(this.certificateChainCachePolicy, other.certificateChainCachePolicy) &&
+                Objects.equals(this.clockPrecision, other.clockPrecision) &&
+                Objects.equals(this.rotationOverlap, other.rotationOverlap) &&
+                Objects.equals(this.truststoreCheckInterval, other.truststoreCheckInterval) &&
+                Objects.equals(this.crl, other.crl) &&
+                Objects.equals(this.ocsp, other.ocsp) &&
+                Objects.equals(this.asyncVerification, other.asyncVerification) &&
+                Objects.equals(this.replayProtection, other.replayProtection);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(allowedSignerDnRegex, truststoreResourcePath, truststorePassphrase, truststoreAliases);
+        return Objects.hash(allowedSignerDnRegex, truststoreResourcePath, truststorePassphrase, truststoreAliases,
+                signingCertificateAliases, maxTokenLength, allowedAlgorithms, rejectionLogsPerSecond, rejectionLogBurst,
+                stageTimingSampleRate, verifiedTokenCachePolicy, rejectedTokenCachePolicy, signingCertificateCachePolicy,
+                certificateChainCachePolicy, clockPrecision, rotationOverlap, truststoreCheckInterval, crl, ocsp,
+                asyncVerification, replayProtection);
     }
 }
@@ -0,0 +1,173 @@
+package wdawson.samples.dropwizard.configuration;
+
+import com.codahale.metrics.Clock;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.cache.CacheBuilderSpec;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import wdawson.samples.dropwizard.util.pki.RevocationChecker;
+import wdawson.samples.dropwizard.util.pki.ocsp.OcspClient;
+import wdawson.samples.dropwizard.util.pki.ocsp.OcspResponseCache;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration for checking the revocation status of JWT signing certificates with OCSP
+ *
+ * @author wdawson
+ */
+public class OcspConfiguration {
+
+    @JsonProperty
+    private boolean enabled = false;
+
+    @NotNull
+    @JsonProperty
+    private Duration connectTimeout = Duration.seconds(2);
+
+    @NotNull
+    @JsonProperty
+    private Duration readTimeout = Duration.seconds(5);
+
+    /**
+     * How long before a cached response expires to start fetching a new one in the background.
+     */
+    @NotNull
+    @JsonProperty
+    private Duration refreshAhead = Duration.minutes(5);
+
+    /**
+     * How long an expired response may still be used while the responder can't be reached.
+     */
+    @NotNull
+    @JsonProperty
+    private Duration staleGracePeriod = Duration.hours(1);
+
+    /**
+     * How long to cache responses that don't include a 'nextUpdate' time.
+     */
+    @NotNull
+    @JsonProperty
+    private Duration defaultResponseLifetime = Duration.minutes(1);
+
+    @NotNull
+    @JsonProperty
+    private CacheBuilderSpec cachePolicy = OcspResponseCache.DEFAULT_SPEC;
+
+    @Min(1)
+    @JsonProperty
+    private int fetchThreads = 2;
+
+    public RevocationChecker newRevocationChecker(Environment environment, Clock clock) {
+        ExecutorService executor = environment.lifecycle().executorService("ocsp-fetch-%d")
+                .minThreads(fetchThreads)
+                .maxThreads(fetchThreads)
+                .build();
+
+        OcspClient ocspClient = new OcspClient(clock, (int) connectTimeout.toMilliseconds(),
+                (int) readTimeout.toMilliseconds(), defaultResponseLifetime.toMilliseconds());
+
+        return OcspResponseCache.newBuilder()
+                .withOcspClient(ocspClient)
+                .withExecutor(executor)
+                .withMetricRegistry(environment.metrics())
+                .withCacheSpec(cachePolicy)
+                .withClock(clock)
+                .withRefreshAhead(refreshAhead.toMilliseconds(), TimeUnit.MILLISECONDS)
+                .withStaleGracePeriod(staleGracePeriod.toMilliseconds(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(Duration readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public Duration getRefreshAhead() {
+        return refreshAhead;
+    }
+
+    public void setRefreshAhead(Duration refreshAhead) {
+        this.refreshAhead = refreshAhead;
+    }
+
+    public Duration getStaleGracePeriod() {
+        return staleGracePeriod;
+    }
+
+    public void setStaleGracePeriod(Duration staleGracePeriod) {
+        this.staleGracePeriod = staleGracePeriod;
+    }
+
+    public Duration getDefaultResponseLifetime() {
+        return defaultResponseLifetime;
+    }
+
+    public void setDefaultResponseLifetime(Duration defaultResponseLifetime) {
+        this.defaultResponseLifetime = defaultResponseLifetime;
+    }
+
+    public CacheBuilderSpec getCachePolicy() {
+        return cachePolicy;
+    }
+
+    public void setCachePolicy(CacheBuilderSpec cachePolicy) {
+        this.cachePolicy = cachePolicy;
+    }
+
+    public int getFetchThreads() {
+        return fetchThreads;
+    }
+
+    public void setFetchThreads(int fetchThreads) {
+        this.fetchThreads = fetchThreads;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        OcspConfiguration that = (OcspConfiguration) o;
+        return enabled == that.enabled &&
+                fetchThreads == that.fetchThreads &&
+                Objects.equals(connectTimeout, that.connectTimeout) &&
+                Objects.equals(readTimeout, that.readTimeout) &&
+                Objects.equals(refreshAhead, that.refreshAhead) &&
+                Objects.equals(staleGracePeriod, that.staleGracePeriod) &&
+                Objects.equals(defaultResponseLifetime, that.defaultResponseLifetime) &&
+                Objects.equals(cachePolicy, that.cachePolicy);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(enabled, connectTimeout, readTimeout, refreshAhead, staleGracePeriod,
+                defaultResponseLifetime, cachePolicy, fetchThreads);
+    }
+}
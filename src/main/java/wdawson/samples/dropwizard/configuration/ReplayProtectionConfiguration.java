@@ -0,0 +1,106 @@
+package wdawson.samples.dropwizard.configuration;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import wdawson.samples.dropwizard.util.jwt.JtiReplayStore;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Configuration for only accepting tokens that grant certain roles once
+ *
+ * @author wdawson
+ */
+public class ReplayProtectionConfiguration {
+
+    /**
+     * Tokens granting any of these roles are only accepted once. Protection is off when this is empty.
+     */
+    @NotNull
+    @JsonProperty
+    private List<String> roles = new ArrayList<>();
+
+    /**
+     * The span of token expiration times whose IDs are dropped together.
+     */
+    @NotNull
+    @JsonProperty
+    private Duration bucketDuration = Duration.minutes(1);
+
+    @Min(1)
+    @JsonProperty
+    private int stripes = 16;
+
+    /**
+     * The maximum number of token IDs to remember. Protected tokens are refused while the store is full.
+     */
+    @Min(1)
+    @JsonProperty
+    private int maxEntries = 100000;
+
+    public boolean isEnabled() {
+        return !roles.isEmpty();
+    }
+
+    public JtiReplayStore newJtiReplayStore(MetricRegistry metricRegistry, Clock clock) {
+        return new JtiReplayStore(metricRegistry, clock, bucketDuration.toMilliseconds(), stripes, maxEntries);
+    }
+
+    public List<String> getRoles() {
+        return roles;
+    }
+
+    public void setRoles(List<String> roles) {
+        this.roles = roles;
+    }
+
+    public Duration getBucketDuration() {
+        return bucketDuration;
+    }
+
+    public void setBucketDuration(Duration bucketDuration) {
+        this.bucketDuration = bucketDuration;
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ReplayProtectionConfiguration that = (ReplayProtectionConfiguration) o;
+        return stripes == that.stripes &&
+                maxEntries == that.maxEntries &&
+                Objects.equals(roles, that.roles) &&
+                Objects.equals(bucketDuration, that.bucketDuration);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(roles, bucketDuration, stripes, maxEntries);
+    }
+}
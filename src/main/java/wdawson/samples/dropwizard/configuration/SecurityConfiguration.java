@@ -23,6 +23,11 @@ public class SecurityConfiguration {
     @JsonProperty
     private JwtVerificationConfiguration jwtVerification;
 
+    @Valid
+    @NotNull
+    @JsonProperty
+    private AuthenticationCacheConfiguration authenticationCache = new AuthenticationCacheConfiguration();
+
     public TLSAuthorizationConfiguration getTlsAuthZ() {
         return tlsAuthZ;
     }
@@ -39,6 +44,14 @@ public class SecurityConfiguration {
         this.jwtVerification = jwtVerification;
     }
 
+    public AuthenticationCacheConfiguration getAuthenticationCache() {
+        return authenticationCache;
+    }
+
+    public void setAuthenticationCache(AuthenticationCacheConfiguration authenticationCache) {
+        this.authenticationCache = authenticationCache;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -49,11 +62,12 @@ public class SecurityConfiguration {
         }
         SecurityConfiguration that = (SecurityConfiguration) o;
         return Objects.equals(tlsAuthZ, that.tlsAuthZ) &&
-                Objects.equals(jwtVerification, that.jwtVerification);
+                Objects.equals(jwtVerification, that.jwtVerification) &&
+                Objects.equals(authenticationCache, that.authenticationCache);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(tlsAuthZ, jwtVerification);
+        return Objects.hash(tlsAuthZ, jwtVerification, authenticationCache);
     }
 }
@@ -0,0 +1,227 @@
+package wdawson.samples.dropwizard.filters;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wdawson.samples.dropwizard.util.jwt.JwtVerifier;
+import wdawson.samples.dropwizard.util.jwt.RejectedJwtCache;
+import wdawson.samples.dropwizard.util.jwt.VerificationOutcome;
+import wdawson.samples.dropwizard.util.jwt.VerifiedJwtCache;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
+import wdawson.samples.dropwizard.util.jwt.exception.JwtParseException;
+import wdawson.samples.dropwizard.util.jwt.exception.JwtVerifyException;
+import wdawson.samples.dropwizard.util.jwt.exception.RejectionReason;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.HttpHeaders;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Servlet filter that moves the verification of bearer tokens off the Jetty request threads.
+ *
+ * The filter only verifies tokens ahead of the Jersey auth filter, which still decides whether a request is
+ * authenticated, so resources that don't require authentication ignore the token as before. Tokens that are already in
+ * the {@link VerifiedJwtCache} or {@link RejectedJwtCache} pass straight through. Any other token suspends the request
+ * and is verified on a bounded executor. The result is cached and stored in a request attribute, and the request is
+ * dispatched again with the result made the current {@link VerificationOutcome}, so that the Jersey auth filter never
+ * verifies the token on the request thread, even when the result wasn't cached.
+ *
+ * The only responses sent by the filter itself are 503s, when a request can't be queued or waits too long for its token
+ * to be verified. Requests without a bearer token, or that don't support async processing, are left to the Jersey auth
+ * filter.
+ *
+ * @author wdawson
+ */
+public class AsyncJwtVerificationFilter implements Filter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncJwtVerificationFilter.class);
+
+    @VisibleForTesting
+    static final String VERIFIED_ATTRIBUTE = AsyncJwtVerificationFilter.class.getName() + ".verified";
+
+    private static final String PREFIX = "Bearer";
+
+    private final JwtVerifier jwtVerifier;
+    private final VerifiedJwtCache verifiedJwtCache;
+    private final RejectedJwtCache rejectedJwtCache;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+
+    private final Timer queueWait;
+    private final Timer verifications;
+    private final Meter rejected;
+    private final Meter timeouts;
+
+    /**
+     * @param jwtVerifier the verifier to run on the executor
+     * @param verifiedJwtCache the cache shared with the Jersey auth filter
+     * @param rejectedJwtCache the cache of recently rejected tokens shared with the Jersey auth filter
+     * @param executor bounded executor for verifications. Submissions beyond its queue capacity are rejected with a 503.
+     * @param timeoutMillis how long a request may wait for its token to be verified
+     * @param metricRegistry registry for the filter's metrics
+     */
+    public AsyncJwtVerificationFilter(JwtVerifier jwtVerifier, VerifiedJwtCache verifiedJwtCache,
+                                      RejectedJwtCache rejectedJwtCache, ThreadPoolExecutor executor,
+                                      long timeoutMillis, MetricRegistry metricRegistry) {
+        this.jwtVerifier = jwtVerifier;
+        this.verifiedJwtCache = verifiedJwtCache;
+        this.rejectedJwtCache = rejectedJwtCache;
+        this.executor = executor;
+        this.timeoutMillis = timeoutMillis;
+
+        this.queueWait = metricRegistry.timer(name(AsyncJwtVerificationFilter.class, "queueWait"));
+        this.verifications = metricRegistry.timer(name(AsyncJwtVerificationFilter.class, "verifications"));
+        this.rejected = metricRegistry.meter(name(AsyncJwtVerificationFilter.class, "rejected"));
+        this.timeouts = metricRegistry.meter(name(AsyncJwtVerificationFilter.class, "timeouts"));
+        metricRegistry.register(name(AsyncJwtVerificationFilter.class, "queueDepth"),
+                (Gauge<Integer>) () -> executor.getQueue().size());
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        Object verified = request.getAttribute(VERIFIED_ATTRIBUTE);
+        if (verified instanceof VerificationOutcome) {
+            ((VerificationOutcome) verified).makeCurrent();
+            try {
+                chain.doFilter(request, response);
+            } finally {
+                VerificationOutcome.clearCurrent();
+            }
+            return;
+        }
+        if (verified != null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String token = getBearerToken((HttpServletRequest) request);
+        if (token == null || verifiedJwtCache.contains(token) || rejectedJwtCache.contains(token)
+                || !request.isAsyncSupported()) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        request.setAttribute(VERIFIED_ATTRIBUTE, Boolean.TRUE);
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(timeoutMillis);
+
+        // Only one of the verification and the timeout gets to finish the request
+        AtomicBoolean finished = new AtomicBoolean();
+        asyncContext.addListener(new TimeoutListener(finished));
+
+        Timer.Context queued = queueWait.time();
+        try {
+            executor.execute(() -> {
+                queued.stop();
+                verify(token, request, asyncContext, finished);
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.mark();
+            if (finished.compareAndSet(false, true)) {
+                sendError(asyncContext, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private void verify(String token, ServletRequest request, AsyncContext asyncContext, AtomicBoolean finished) {
+        VerificationOutcome outcome;
+        try (Timer.Context ignored = verifications.time()) {
+            JwtClaims claims = jwtVerifier.authenticate(token);
+            verifiedJwtCache.put(token, claims);
+            outcome = VerificationOutcome.verified(token, claims);
+        } catch (JwtParseException | JwtVerifyException e) {
+            // Already counted and logged by the verifier
+            rejectedJwtCache.put(token, RejectionReason.of(e));
+            outcome = VerificationOutcome.failed(token, e);
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to verify token ahead of Jersey", e);
+            outcome = VerificationOutcome.failed(token, e);
+        }
+
+        if (finished.compareAndSet(false, true)) {
+            request.setAttribute(VERIFIED_ATTRIBUTE, outcome);
+            asyncContext.dispatch();
+        }
+    }
+
+    private static void sendError(AsyncContext asyncContext, int status) {
+        try {
+            ((HttpServletResponse) asyncContext.getResponse()).sendError(status);
+        } catch (IOException | IllegalStateException e) {
+            LOG.warn("Could not send error response", e);
+        } finally {
+            asyncContext.complete();
+        }
+    }
+
+    /**
+     * Extracts the token in the same way as the OAuth credential filter: a case insensitive prefix and a space.
+     */
+    private static String getBearerToken(HttpServletRequest request) {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header == null) {
+            return null;
+        }
+        int space = header.indexOf(' ');
+        if (space <= 0 || !PREFIX.equalsIgnoreCase(header.substring(0, space))) {
+            return null;
+        }
+        return header.substring(space + 1);
+    }
+
+    private final class TimeoutListener implements AsyncListener {
+        private final AtomicBoolean finished;
+
+        private TimeoutListener(AtomicBoolean finished) {
+            this.finished = finished;
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            timeouts.mark();
+            if (finished.compareAndSet(false, true)) {
+                sendError(event.getAsyncContext(), HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package wdawson.samples.dropwizard.tasks;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableMultimap;
+import io.dropwizard.servlets.tasks.Task;
+import wdawson.samples.dropwizard.auth.CachingOAuth2Authenticator;
+
+import java.io.PrintWriter;
+
+/**
+ * Admin task that drops the cached users for one or more subjects so that their tokens are verified again, e.g.
+ * {@code curl -X POST 'https://localhost:8444/tasks/invalidate-authentication-cache?subject=1'}
+ *
+ * @author wdawson
+ */
+public class InvalidateAuthenticationCacheTask extends Task {
+
+    static final String SUBJECT_PARAMETER = "subject";
+
+    private final CachingOAuth2Authenticator authenticator;
+
+    public InvalidateAuthenticationCacheTask(CachingOAuth2Authenticator authenticator) {
+        super("invalidate-authentication-cache");
+        this.authenticator = authenticator;
+    }
+
+    @Override
+    public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+        ImmutableCollection<String> subjects = parameters.get(SUBJECT_PARAMETER);
+        if (subjects.isEmpty()) {
+            output.println("Give the subjects to invalidate with the '" + SUBJECT_PARAMETER + "' parameter");
+            return;
+        }
+        for (String subject : subjects) {
+            output.println("Invalidated " + authenticator.invalidateSubject(subject) + " cached tokens for subject '"
+                    + subject + "'");
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package wdawson.samples.dropwizard.tasks;
+
+import com.google.common.collect.ImmutableMultimap;
+import io.dropwizard.servlets.tasks.Task;
+import wdawson.samples.dropwizard.util.jwt.TrustReloader;
+import wdawson.samples.dropwizard.util.jwt.TrustSnapshot;
+
+import java.io.PrintWriter;
+
+/**
+ * Admin task that reloads the JWT truststore and rotates the verifier to it, e.g.
+ * {@code curl -X POST https://localhost:8444/tasks/reload-jwt-trust}
+ *
+ * @author wdawson
+ */
+public class ReloadJwtTrustTask extends Task {
+
+    private final TrustReloader trustReloader;
+
+    public ReloadJwtTrustTask(TrustReloader trustReloader) {
+        super("reload-jwt-trust");
+        this.trustReloader = trustReloader;
+    }
+
+    @Override
+    public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+        TrustSnapshot snapshot = trustReloader.reload();
+        output.println("Rotated JWT trust to " + snapshot);
+    }
+}
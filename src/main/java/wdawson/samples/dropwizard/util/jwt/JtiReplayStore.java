@@ -0,0 +1,151 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Remembers the 'jti' of tokens that may only be used once, until the verifier would reject them as expired anyway.
+ *
+ * IDs are grouped into buckets by the time their token expires, so once a bucket is entirely in the past it's dropped
+ * as a whole rather than scanning for expired entries. Each bucket is split into stripes with their own lock so that
+ * concurrent requests rarely contend. The number of IDs held is capped; once full, new tokens are refused rather than
+ * accepted unrecorded, since a token that can't be recorded could be replayed.
+ *
+ * A token is identified by its 'jti' within the bucket for its expiration time, so issuers must not reuse an ID.
+ *
+ * @author wdawson
+ */
+public class JtiReplayStore {
+
+    private final Clock clock;
+    private final long bucketMillis;
+    private final int stripeCount;
+    private final int maxEntries;
+
+    private final ConcurrentNavigableMap<Long, Bucket> buckets = new ConcurrentSkipListMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final Meter replays;
+    private final Meter refused;
+
+    /**
+     * @param metricRegistry registry for the store's metrics
+     * @param clock the clock to expire buckets against
+     * @param bucketMillis the span of expiration times grouped into each bucket
+     * @param stripeCount the number of independently locked stripes per bucket
+     * @param maxEntries the maximum number of IDs to hold
+     */
+    public JtiReplayStore(MetricRegistry metricRegistry, Clock clock, long bucketMillis, int stripeCount,
+                          int maxEntries) {
+        this.clock = clock;
+        this.bucketMillis = bucketMillis;
+        this.stripeCount = stripeCount;
+        this.maxEntries = maxEntries;
+
+        this.replays = metricRegistry.meter(name(JtiReplayStore.class, "replays"));
+        this.refused = metricRegistry.meter(name(JtiReplayStore.class, "refused"));
+        metricRegistry.register(name(JtiReplayStore.class, "size"), (Gauge<Integer>) size::get);
+        metricRegistry.register(name(JtiReplayStore.class, "buckets"), (Gauge<Integer>) buckets::size);
+    }
+
+    /**
+     * Records the use of a verified token.
+     *
+     * @param claims the verified claims of the token
+     * @return true if this is the first use of the token; false if it was used before, or can't be recorded because it
+     * has no 'jti' or 'exp' claim, or the store is full
+     */
+    public boolean markUsed(JwtClaims claims) {
+        String jwtId = claims.getJwtId();
+        long deadline = JwtVerifier.getExpirationDeadline(claims);
+        long now = clock.getTime();
+        if (jwtId == null || deadline == Long.MAX_VALUE || deadline <= now) {
+            refused.mark();
+            return false;
+        }
+
+        dropExpiredBuckets(now / bucketMillis);
+
+        Stripe stripe = buckets.computeIfAbsent(deadline / bucketMillis, index -> new Bucket(stripeCount))
+                .getStripe(jwtId);
+        synchronized (stripe) {
+            if (stripe.jwtIds == null) {
+                // Dropped by a concurrent call with a later clock reading, so the token has expired
+                refused.mark();
+                return false;
+            }
+            if (stripe.jwtIds.contains(jwtId)) {
+                replays.mark();
+                return false;
+            }
+            if (size.incrementAndGet() > maxEntries) {
+                size.decrementAndGet();
+                refused.mark();
+                return false;
+            }
+            stripe.jwtIds.add(jwtId);
+        }
+        return true;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Drops the buckets before the current one, which only hold IDs of tokens past their expiration deadline.
+     */
+    private void dropExpiredBuckets(long currentBucket) {
+        Map.Entry<Long, Bucket> oldest;
+        while ((oldest = buckets.firstEntry()) != null && oldest.getKey() < currentBucket) {
+            if (buckets.remove(oldest.getKey(), oldest.getValue())) {
+                size.addAndGet(-oldest.getValue().drop());
+            }
+        }
+    }
+
+    private static final class Bucket {
+        private final Stripe[] stripes;
+
+        private Bucket(int stripeCount) {
+            stripes = new Stripe[stripeCount];
+            for (int i = 0; i < stripeCount; ++i) {
+                stripes[i] = new Stripe();
+            }
+        }
+
+        private Stripe getStripe(String jwtId) {
+            return stripes[(jwtId.hashCode() & Integer.MAX_VALUE) % stripes.length];
+        }
+
+        /**
+         * @return the number of IDs that were dropped
+         */
+        private int drop() {
+            int dropped = 0;
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    dropped += stripe.jwtIds.size();
+                    stripe.jwtIds = null;
+                }
+            }
+            return dropped;
+        }
+    }
+
+    private static final class Stripe {
+        private Set<String> jwtIds = new HashSet<>();
+    }
+}
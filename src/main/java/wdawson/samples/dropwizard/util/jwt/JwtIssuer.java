@@ -2,23 +2,35 @@ package wdawson.samples.dropwizard.util.jwt;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.JWSHeader;
-import com.nimbusds.jose.JWSObject;
-import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
 import com.nimbusds.jose.crypto.RSASSASigner;
 import com.nimbusds.jose.util.Base64;
+import com.nimbusds.jose.util.Base64URL;
 import com.nimbusds.jwt.JWTClaimsSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
 import wdawson.samples.dropwizard.util.jwt.exception.JwtIssueException;
 
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.RSAPrivateKey;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @author Jon Todd
@@ -28,28 +40,162 @@ public class JwtIssuer {
     private static final Logger LOGGER = LoggerFactory.getLogger(JwtIssuer.class);
 
     /**
-     * Private portion of the key used for signing the JWT
+     * Private portion of the key used for signing the JWT. An RSA key signs with RS256, an EC key with the ECDSA
+     * algorithm for its curve, e.g. ES256 for P-256.
      */
-    private RSAPrivateKey privateKey;
+    private PrivateKey privateKey;
+
+    /**
+     * JWS algorithm for the private key
+     */
+    private JWSAlgorithm algorithm;
 
     /**
      * Certificate of the key used to sign the JWT
      */
     private X509Certificate signingCertificate;
 
-    public JwtIssuer(RSAPrivateKey privateKey, X509Certificate signingCertificate) {
+    /**
+     * Signing certificate followed by the certificates needed to chain it to a root the verifier trusts
+     */
+    private List<X509Certificate> certificateChain;
+
+    /**
+     * Whether to put the certificate chain in the 'x5c' header, or only identify the signing certificate by its
+     * thumbprint for verifiers that already have it
+     */
+    private boolean includeCertificateChain;
+
+    /**
+     * SHA-256 thumbprint of the signing certificate, used for both the 'x5t#S256' and 'kid' headers
+     */
+    private Base64URL signingCertificateThumbprint;
+
+    /**
+     * Subject DN of the signing certificate, used as the issuer of every token
+     */
+    private String issuer;
+
+    /**
+     * Header shared by every token, built once along with its encoding
+     */
+    private JWSHeader header;
+    private String encodedHeader;
+
+    /**
+     * Signer for the private key. It creates a new signature for each token, so it can be shared between threads.
+     * ECDSA signatures are transcoded from DER to the concatenated form JWS uses.
+     */
+    private JWSSigner signer;
+
+    public JwtIssuer(PrivateKey privateKey, X509Certificate signingCertificate) {
+        this(privateKey, signingCertificate == null
+                ? ImmutableList.<X509Certificate>of()
+                : ImmutableList.of(signingCertificate));
+    }
+
+    public JwtIssuer(PrivateKey privateKey, List<X509Certificate> certificateChain) {
+        this(privateKey, certificateChain, true);
+    }
+
+    public JwtIssuer(PrivateKey privateKey, List<X509Certificate> certificateChain,
+                     boolean includeCertificateChain) {
         this.privateKey = privateKey;
-        this.signingCertificate = signingCertificate;
+        this.algorithm = algorithmFor(privateKey);
+        this.signingCertificate = certificateChain.isEmpty() ? null : certificateChain.get(0);
+        this.certificateChain = ImmutableList.copyOf(certificateChain);
+        this.includeCertificateChain = includeCertificateChain;
+        if (signingCertificate != null) {
+            try {
+                this.signingCertificateThumbprint = Base64URL.encode(
+                        Hashing.sha256().hashBytes(signingCertificate.getEncoded()).asBytes());
+            } catch (CertificateEncodingException e) {
+                throw new IllegalArgumentException("Failed to get encoded value for signing certificate", e);
+            }
+            this.issuer = signingCertificate.getSubjectDN().getName();
+        }
+        this.header = buildHeader();
+        this.encodedHeader = header.toBase64URL().toString();
+        this.signer = newSigner(privateKey);
+    }
+
+    private static JWSAlgorithm algorithmFor(PrivateKey privateKey) {
+        if (privateKey instanceof RSAPrivateKey) {
+            return JWSAlgorithm.RS256;
+        }
+        if (privateKey instanceof ECPrivateKey) {
+            int fieldSize = ((ECPrivateKey) privateKey).getParams().getCurve().getField().getFieldSize();
+            switch (fieldSize) {
+                case 256:
+                    return JWSAlgorithm.ES256;
+                case 384:
+                    return JWSAlgorithm.ES384;
+                case 521:
+                    return JWSAlgorithm.ES512;
+                default:
+                    throw new IllegalArgumentException(String.format("Unsupported EC key size %d", fieldSize));
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unsupported private key type %s",
+                privateKey == null ? null : privateKey.getAlgorithm()));
+    }
+
+    private static JWSSigner newSigner(PrivateKey privateKey) {
+        if (privateKey instanceof ECPrivateKey) {
+            try {
+                return new ECDSASigner((ECPrivateKey) privateKey);
+            } catch (JOSEException e) {
+                throw new IllegalArgumentException("Unsupported EC private key", e);
+            }
+        }
+        return new RSASSASigner((RSAPrivateKey) privateKey);
+    }
+
+    private JWSHeader buildHeader() {
+        JWSHeader.Builder headerBuilder = new JWSHeader.Builder(algorithm);
+
+        // Identify the signing certificate in the header if present. The issuer is taken from it.
+        if (signingCertificate != null) {
+            headerBuilder.x509CertSHA256Thumbprint(signingCertificateThumbprint);
+            headerBuilder.keyID(signingCertificateThumbprint.toString());
+        }
+
+        // Put the signing certificate chain in the header if present. This allows verifiers that don't already know
+        // the signing certificate to follow the certificate chain back to the root for verification.
+        if (signingCertificate != null && includeCertificateChain) {
+            ImmutableList.Builder<Base64> encodedCertificateChain = ImmutableList.builder();
+            for (X509Certificate certificate : certificateChain) {
+                try {
+                    encodedCertificateChain.add(Base64.encode(certificate.getEncoded()));
+                } catch (CertificateEncodingException e) {
+                    String message = String.format("Failed to get encoded value for signing certificate. Subject: '%s'",
+                            certificate.getSubjectDN());
+                    throw new IllegalArgumentException(message, e);
+                }
+            }
+            headerBuilder.x509CertChain(encodedCertificateChain.build());
+        }
+        return headerBuilder.build();
     }
 
     public String issueToken(JwtClaims claims) throws JwtIssueException {
         JWTClaimsSet.Builder claimsSetBuilder = new JWTClaimsSet.Builder();
         if (Strings.isNullOrEmpty(claims.getJwtId())) {
-            claimsSetBuilder.jwtID(UUID.randomUUID().toString());
+            claimsSetBuilder.jwtID(newJwtId());
         } else {
             claimsSetBuilder.jwtID(claims.getJwtId());
         }
         claimsSetBuilder.subject(claims.getSubject());
+        Object audience = claims.getClaim(JwtClaims.AUDIENCE);
+        if (audience instanceof List) {
+            List<String> audiences = new ArrayList<>();
+            for (Object value : (List<?>) audience) {
+                audiences.add(String.valueOf(value));
+            }
+            claimsSetBuilder.audience(audiences);
+        } else if (audience != null) {
+            claimsSetBuilder.audience(audience.toString());
+        }
         claimsSetBuilder.issueTime(claims.getIssuedAt());
         claimsSetBuilder.notBeforeTime(claims.getNotBefore());
         claimsSetBuilder.expirationTime(claims.getExpirationTime());
@@ -57,37 +203,83 @@ public class JwtIssuer {
             claimsSetBuilder.claim(key, claims.getClaim(key));
         }
 
-        JWSHeader.Builder headerBuilder = new JWSHeader.Builder(JWSAlgorithm.RS256);
-
-        // Put the signing certificate in the header if present. This allows verifier to follow certificate chain
-        // back to the root for verification.
-        if (signingCertificate != null) {
+        if (issuer == null) {
+            claimsSetBuilder.issuer(claims.getIssuer());
+        } else {
             if (!Strings.isNullOrEmpty(claims.getIssuer())) {
                 LOGGER.warn("Issuer {} passed in from claims will be ignored. Issuer is determined from signing certificate: {}",
-                        claims.getIssuer(), signingCertificate.getSubjectDN().getName());
+                        claims.getIssuer(), issuer);
             }
-            LOGGER.info("DN: {}", signingCertificate.getSubjectDN());
-            claimsSetBuilder.issuer(signingCertificate.getSubjectDN().getName());
-            try {
-                headerBuilder.x509CertChain(ImmutableList.of(Base64.encode(signingCertificate.getEncoded())));
-            } catch (CertificateEncodingException e) {
-                String message = String.format("Failed to get encoded value for signing certificate. Subject: '%s'",
-                        signingCertificate.getSubjectDN());
-                throw new JwtIssueException(message, e);
-            }
-        } else {
-            claimsSetBuilder.issuer(claims.getIssuer());
+            claimsSetBuilder.issuer(issuer);
         }
 
-        JWSObject jwsObject = new JWSObject(headerBuilder.build(), new Payload(claimsSetBuilder.build().toJSONObject()));
-        RSASSASigner rsaSigner = new RSASSASigner(privateKey);
-
+        // Only the payload varies between tokens, so sign the precomputed header and the encoded claims directly
+        // rather than building a JWSObject for each one
+        String payload = claimsSetBuilder.build().toJSONObject().toJSONString();
+        String signingInput = encodedHeader + '.' + Base64URL.encode(payload.getBytes(StandardCharsets.UTF_8));
+        Base64URL signature;
         try {
-            jwsObject.sign(rsaSigner);
+            signature = signer.sign(header, signingInput.getBytes(StandardCharsets.US_ASCII));
         } catch (JOSEException e) {
             throw new RuntimeException("An error occurred while signing the JWT", e);
         }
 
-        return jwsObject.serialize();
+        return signingInput + '.' + signature;
+    }
+
+    /**
+     * Issues a batch of tokens in parallel on the common fork-join pool.
+     *
+     * @see #issueTokens(List, Executor)
+     */
+    public List<String> issueTokens(List<JwtClaims> claims) throws JwtIssueException {
+        return issueTokens(claims, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Issues a batch of tokens in parallel. Signing is CPU bound, so the executor should have about one thread per
+     * core.
+     *
+     * @param claims the claims of each token
+     * @param executor executor to sign the tokens on
+     * @return a token for each set of claims, in the same order as the claims
+     * @throws JwtIssueException if any of the tokens can't be issued
+     */
+    public List<String> issueTokens(List<JwtClaims> claims, Executor executor) throws JwtIssueException {
+        List<CompletableFuture<String>> tokens = new ArrayList<>(claims.size());
+        for (JwtClaims tokenClaims : claims) {
+            tokens.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return issueToken(tokenClaims);
+                } catch (JwtIssueException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+
+        ImmutableList.Builder<String> batch = ImmutableList.builder();
+        try {
+            for (CompletableFuture<String> token : tokens) {
+                batch.add(token.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof JwtIssueException) {
+                throw (JwtIssueException) e.getCause();
+            }
+            throw e;
+        }
+        return batch.build();
+    }
+
+    /**
+     * Generates a random (version 4) UUID for the 'jti' claim. {@link UUID#randomUUID()} draws from a shared
+     * {@link java.security.SecureRandom}, which threads minting tokens in parallel contend on. A jti only needs to be
+     * unique, not unpredictable, so a thread local generator is used instead.
+     */
+    private static String newJwtId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSignificantBits = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long leastSignificantBits = (random.nextLong() & ~(0x3L << 62)) | (0x2L << 62);
+        return new UUID(mostSignificantBits, leastSignificantBits).toString();
     }
 }
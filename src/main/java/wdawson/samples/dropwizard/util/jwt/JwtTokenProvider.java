@@ -0,0 +1,327 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.collect.ImmutableSortedSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
+import wdawson.samples.dropwizard.util.jwt.exception.JwtIssueException;
+
+import java.util.Date;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Provides tokens for outbound calls from a {@link JwtIssuer}, reusing each token for as long as it's safe to so that
+ * signing stays off the request path.
+ *
+ * <ul>
+ *   <li>Tokens are cached by subject, scopes and audience.</li>
+ *   <li>Once the refresh fraction of a token's lifetime has passed, a new one is minted in the background while the
+ *       current token continues to be handed out.</li>
+ *   <li>A token is never handed out with less than the minimum remaining lifetime left, so it can't expire in
+ *       flight. Callers wait for a new token instead.</li>
+ *   <li>Concurrent requests for the same token share a single mint.</li>
+ * </ul>
+ *
+ * @author wdawson
+ */
+public class JwtTokenProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JwtTokenProvider.class);
+
+    public static final CacheBuilderSpec DEFAULT_SPEC = CacheBuilderSpec.parse("maximumSize=1000");
+    public static final double DEFAULT_REFRESH_FRACTION = 0.5;
+    public static final long DEFAULT_MINIMUM_REMAINING_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Minimum time between background mint attempts after one fails.
+     */
+    private static final long REFRESH_RETRY_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final JwtIssuer jwtIssuer;
+    private final Executor executor;
+    private final Clock clock;
+    private final long lifetimeMillis;
+    private final long refreshAfterMillis;
+    private final long minimumRemainingMillis;
+
+    private final Cache<TokenKey, Entry> entries;
+
+    private final Timer mints;
+    private final Meter hits;
+    private final Meter misses;
+    private final Meter failures;
+
+    private JwtTokenProvider(Builder builder) {
+        this.jwtIssuer = builder.jwtIssuer;
+        this.executor = builder.executor;
+        this.clock = builder.clock != null ? builder.clock : Clock.defaultClock();
+        this.lifetimeMillis = builder.lifetimeMillis;
+        this.refreshAfterMillis = (long) (builder.lifetimeMillis * builder.refreshFraction);
+        this.minimumRemainingMillis = builder.minimumRemainingMillis;
+
+        MetricRegistry metricRegistry = builder.metricRegistry != null ? builder.metricRegistry : new MetricRegistry();
+        this.entries = CacheBuilder.from(builder.cacheSpec != null ? builder.cacheSpec : DEFAULT_SPEC).build();
+
+        this.mints = metricRegistry.timer(name(JwtTokenProvider.class, "mints"));
+        this.hits = metricRegistry.meter(name(JwtTokenProvider.class, "hits"));
+        this.misses = metricRegistry.meter(name(JwtTokenProvider.class, "misses"));
+        this.failures = metricRegistry.meter(name(JwtTokenProvider.class, "failures"));
+        metricRegistry.register(name(JwtTokenProvider.class, "size"), (Gauge<Long>) entries::size);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a token for the given subject, scopes and audience, minting one only if there's no cached token with
+     * enough lifetime left.
+     *
+     * @param subject the subject of the token
+     * @param scopes the scopes to grant, put in the 'scope' claim separated by spaces
+     * @param audience the audience of the token, or null for none
+     * @return the serialized token
+     * @throws JwtIssueException if a token is needed and can't be minted
+     */
+    public String getToken(String subject, Set<String> scopes, String audience) throws JwtIssueException {
+        TokenKey key = new TokenKey(subject, ImmutableSortedSet.copyOf(scopes), audience);
+        Entry entry = entries.asMap().computeIfAbsent(key, k -> new Entry());
+        long now = clock.getTime();
+
+        Token current = entry.token;
+        if (current != null && now < current.expiresAt - minimumRemainingMillis) {
+            hits.mark();
+            if (now >= current.refreshAt && now >= entry.retryAfter) {
+                entry.mint(key);
+            }
+            return current.value;
+        }
+
+        misses.mark();
+        try {
+            return entry.mint(key).get().value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JwtIssueException("Interrupted waiting for a token", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof JwtIssueException) {
+                throw (JwtIssueException) e.getCause();
+            }
+            throw new JwtIssueException(String.format("Could not mint a token for subject '%s'", subject),
+                    e.getCause());
+        }
+    }
+
+    private Token mint(TokenKey key) throws JwtIssueException {
+        long issuedAt = clock.getTime();
+        long expiresAt = issuedAt + lifetimeMillis;
+        JwtClaims.JwtClaimsBuilder claims = JwtClaims.JwtClaimsBuilder.newInstance()
+                .addSubject(key.subject)
+                .addIssuedAt(new Date(issuedAt))
+                .addExpirationTime(new Date(expiresAt));
+        if (key.audience != null) {
+            claims.addAudience(key.audience);
+        }
+        if (!key.scopes.isEmpty()) {
+            claims.addCustomClaim("scope", Joiner.on(' ').join(key.scopes));
+        }
+        // Token times are in whole seconds, so measure the lifetime from the truncated issue time
+        long tokenIssuedAt = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(issuedAt));
+        long tokenExpiresAt = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(expiresAt));
+        return new Token(jwtIssuer.issueToken(claims.build()), tokenIssuedAt + refreshAfterMillis, tokenExpiresAt);
+    }
+
+    private static final class Token {
+        private final String value;
+        private final long refreshAt;
+        private final long expiresAt;
+
+        private Token(String value, long refreshAt, long expiresAt) {
+            this.value = value;
+            this.refreshAt = refreshAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * The latest token for a key and any mint of a newer one.
+     */
+    private final class Entry {
+        private volatile Token token;
+        private volatile long retryAfter;
+        private final AtomicReference<CompletableFuture<Token>> pending = new AtomicReference<>();
+
+        /**
+         * Starts minting a token unless a mint is already in flight.
+         *
+         * @return the pending token
+         */
+        private CompletableFuture<Token> mint(TokenKey key) {
+            while (true) {
+                CompletableFuture<Token> inFlight = pending.get();
+                if (inFlight != null) {
+                    return inFlight;
+                }
+
+                CompletableFuture<Token> future = new CompletableFuture<>();
+                if (pending.compareAndSet(null, future)) {
+                    try {
+                        executor.execute(() -> complete(future, key));
+                    } catch (RejectedExecutionException e) {
+                        pending.set(null);
+                        future.completeExceptionally(e);
+                    }
+                    return future;
+                }
+            }
+        }
+
+        private void complete(CompletableFuture<Token> future, TokenKey key) {
+            try (Timer.Context ignored = mints.time()) {
+                Token minted = JwtTokenProvider.this.mint(key);
+                token = minted;
+                pending.set(null);
+                future.complete(minted);
+            } catch (JwtIssueException | RuntimeException e) {
+                LOGGER.warn("Could not mint a token for subject '{}': {}", key.subject, e.toString());
+                failures.mark();
+                retryAfter = clock.getTime() + REFRESH_RETRY_INTERVAL_MILLIS;
+                pending.set(null);
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class TokenKey {
+        private final String subject;
+        private final ImmutableSortedSet<String> scopes;
+        private final String audience;
+
+        private TokenKey(String subject, ImmutableSortedSet<String> scopes, String audience) {
+            this.subject = subject;
+            this.scopes = scopes;
+            this.audience = audience;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            TokenKey that = (TokenKey) o;
+            return Objects.equals(subject, that.subject) &&
+                    Objects.equals(scopes, that.scopes) &&
+                    Objects.equals(audience, that.audience);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(subject, scopes, audience);
+        }
+    }
+
+    /*
+     * Builder
+     */
+
+    public static final class Builder {
+        private JwtIssuer jwtIssuer;
+        private Executor executor;
+        private MetricRegistry metricRegistry;
+        private CacheBuilderSpec cacheSpec;
+        private Clock clock;
+        private long lifetimeMillis;
+        private double refreshFraction = DEFAULT_REFRESH_FRACTION;
+        private long minimumRemainingMillis = DEFAULT_MINIMUM_REMAINING_MILLIS;
+
+        private Builder() {
+        }
+
+        public Builder withJwtIssuer(JwtIssuer val) {
+            jwtIssuer = val;
+            return this;
+        }
+
+        /**
+         * @param val executor to mint tokens on
+         */
+        public Builder withExecutor(Executor val) {
+            executor = val;
+            return this;
+        }
+
+        public Builder withMetricRegistry(MetricRegistry val) {
+            metricRegistry = val;
+            return this;
+        }
+
+        public Builder withCacheSpec(CacheBuilderSpec val) {
+            cacheSpec = val;
+            return this;
+        }
+
+        public Builder withClock(Clock val) {
+            clock = val;
+            return this;
+        }
+
+        /**
+         * @param val how long each minted token is valid for
+         */
+        public Builder withTokenLifetime(long val, TimeUnit unit) {
+            lifetimeMillis = unit.toMillis(val);
+            return this;
+        }
+
+        /**
+         * @param val fraction of a token's lifetime after which a new one is minted in the background, between 0 and 1
+         */
+        public Builder withRefreshFraction(double val) {
+            refreshFraction = val;
+            return this;
+        }
+
+        /**
+         * @param val the least lifetime a token may have left when it's handed out
+         */
+        public Builder withMinimumRemainingLifetime(long val, TimeUnit unit) {
+            minimumRemainingMillis = unit.toMillis(val);
+            return this;
+        }
+
+        public JwtTokenProvider build() {
+            Objects.requireNonNull(jwtIssuer, "jwtIssuer");
+            Objects.requireNonNull(executor, "executor");
+            if (refreshFraction <= 0 || refreshFraction > 1) {
+                throw new IllegalArgumentException("refreshFraction must be greater than 0 and at most 1");
+            }
+            // Leave at least a second for the truncation of token times to whole seconds
+            if (minimumRemainingMillis + TimeUnit.SECONDS.toMillis(1) >= lifetimeMillis) {
+                throw new IllegalArgumentException("tokenLifetime must be more than a second longer than " +
+                        "minimumRemainingLifetime");
+            }
+            return new JwtTokenProvider(this);
+        }
+    }
+}
@@ -1,30 +1,48 @@
 package wdawson.samples.dropwizard.util.jwt;
 
-import com.google.common.base.Throwables;
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
 import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.JWSObject;
-import com.nimbusds.jose.JWSVerifier;
-import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
 import com.nimbusds.jose.util.Base64;
-import net.minidev.json.JSONObject;
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeConstants;
-import org.joda.time.Seconds;
+import com.nimbusds.jose.util.Base64URL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import wdawson.samples.dropwizard.util.jwt.VerificationStageTimers.Stage;
 import wdawson.samples.dropwizard.util.jwt.dto.Jwt;
 import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtVerificationResult;
+import wdawson.samples.dropwizard.util.jwt.dto.SigningCertificate;
+import wdawson.samples.dropwizard.util.jwt.exception.JwtParseException;
 import wdawson.samples.dropwizard.util.jwt.exception.JwtVerifyException;
+import wdawson.samples.dropwizard.util.jwt.exception.RejectionReason;
+import wdawson.samples.dropwizard.util.pki.CertificateChainValidator;
+import wdawson.samples.dropwizard.util.pki.RevocationChecker;
+import wdawson.samples.dropwizard.util.pki.RevocationStatus;
+import wdawson.samples.dropwizard.util.pki.TrustAnchorIndex;
 
 import javax.security.auth.x500.X500Principal;
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
+import java.io.IOException;
+import java.security.cert.CertPathValidatorException;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
-import java.security.interfaces.RSAPublicKey;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 import static java.lang.String.format;
@@ -47,160 +65,710 @@ public class JwtVerifier {
     protected static final String SIGNER_MATCH_EXCEPTION = "Signer DN doesn't match allowed pattern. " +
             "Signer DN: '%s' allowed pattern '%s'";
     protected static final String MISSING_CERT_CHAIN_EXCEPTION = "Cannot validate signature, JWT header is missing " +
-            "certificate chain";
+            "certificate chain and doesn't identify a known signing key";
     protected static final String ISSUER_MISMATCH_EXCEPTION = "JWT issuer doesn't match certificate signer. " +
             "Issuer: '%s' Signer DN: '%s'";
     protected static final String ISSUER_FORMAT_EXCEPTION = "Invalid issuer format";
+    protected static final String UNTRUSTED_SIGNER_EXCEPTION = "Signing certificate '%s' does not chain to a " +
+            "trusted certificate";
+    protected static final String INVALID_CHAIN_EXCEPTION = "Signing certificate chain for '%s' is not valid: %s";
+    protected static final String REVOKED_CERTIFICATE_EXCEPTION = "Certificate '%s' in the signing certificate chain " +
+            "has been revoked";
+    protected static final String REVOCATION_STATUS_EXCEPTION = "Could not determine the revocation status of " +
+            "certificate '%s' in the signing certificate chain";
+    protected static final String TOKEN_LENGTH_EXCEPTION = "Token length %d exceeds the maximum of %d";
+    protected static final String MISSING_CLAIM_EXCEPTION = "JWT is missing the '%s' claim";
+    protected static final String ALGORITHM_EXCEPTION = "JWS algorithm '%s' is not allowed";
 
-    private static final int TIME_BUFFER_IN_SECONDS = 2 * DateTimeConstants.SECONDS_PER_MINUTE;
+    /**
+     * Default limit on the length of a serialized token. Leaves plenty of room for an 'x5c' chain of a few RSA
+     * certificates.
+     */
+    public static final int DEFAULT_MAX_TOKEN_LENGTH = 16 * 1024;
+
+    private static final long TIME_BUFFER_IN_SECONDS = TimeUnit.MINUTES.toSeconds(2);
 
     /**
-     * Regex pattern for verifying JWT is signed by an allowed signer. The subject DN of the signing certificate must
-     * match this pattern. This particularly useful for locking down access when there are multiple issuing certs from
-     * the same root CA with differing access domains e.g. to prevent access between dev and prod services.
+     * Rejections that depend on the trust snapshot, and so are retried against the previous snapshot while it overlaps
+     * with the current one.
      */
-    private final Pattern allowedSignerDnPattern;
+    private static final Set<RejectionReason> SNAPSHOT_REJECTIONS = Sets.immutableEnumSet(
+            RejectionReason.ALGORITHM_NOT_ALLOWED,
+            RejectionReason.MISSING_CERTIFICATE_CHAIN,
+            RejectionReason.UNTRUSTED_SIGNER,
+            RejectionReason.INVALID_CERTIFICATE_CHAIN,
+            RejectionReason.SIGNER_NOT_ALLOWED);
+
+    /**
+     * Tokens longer than this are rejected before any decoding.
+     */
+    private final int maxTokenLength;
+
+    /**
+     * The trust snapshot in force, and the one it replaced while the two overlap. Each verification reads this once so
+     * that a rotation never changes the keys or policy part way through checking a token.
+     */
+    private final AtomicReference<Rotation> trust;
+
+    /**
+     * How long the previous snapshot is still accepted after a rotation.
+     */
+    private final long rotationOverlapMillis;
+
+    /**
+     * Decoded signing certificates from the 'x5c' header.
+     */
+    private final SigningCertificateCache signingCertificateCache;
+
+    /**
+     * PKIX validation of the signing certificate chain up to its trust anchor.
+     */
+    private final CertificateChainValidator certificateChainValidator;
+
+    /**
+     * Revocation status of the certificates in the signing certificate chain, or null to skip revocation checks.
+     */
+    private final RevocationChecker revocationChecker;
+
+    /**
+     * Source of the current time for checking the token's time claims.
+     */
+    private final Clock clock;
+
+    /**
+     * Counts rejections by reason and logs a sample of them.
+     */
+    private final RejectionReporter rejectionReporter;
+
+    /**
+     * Timers for each stage of verification.
+     */
+    private final VerificationStageTimers stageTimers;
+
+    /**
+     * Signature objects ready to verify tokens from each signing key.
+     */
+    private final SignatureVerifierPool signatureVerifierPool = new SignatureVerifierPool();
+
+    /**
+     * Signer and issuer pairs that have already passed {@link #assertJwtIssuerMatchesSigner}. The check is a pure
+     * function of its inputs, so once accepted there is no need to parse the issuer again. Rejections aren't remembered
+     * so that every rejection still reports its specific reason. Accepted signers are remembered by each
+     * {@link TrustSnapshot} since they depend on its policy.
+     */
+    private final Cache<SignerIssuerPair, Boolean> acceptedIssuers = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .build();
 
     public JwtVerifier(String allowedSignerRegex, List<X509Certificate> trustedCertificates) {
         this(Pattern.compile(allowedSignerRegex), trustedCertificates);
     }
 
     public JwtVerifier(Pattern allowedSignerPattern, List<X509Certificate> trustedCertificates) {
-        this.allowedSignerDnPattern = allowedSignerPattern;
+        this(newBuilder()
+                .withAllowedSignerPattern(allowedSignerPattern)
+                .withTrustedCertificates(trustedCertificates));
+    }
+
+    private JwtVerifier(Builder builder) {
+        this.maxTokenLength = builder.maxTokenLength > 0 ? builder.maxTokenLength : DEFAULT_MAX_TOKEN_LENGTH;
+        TrustSnapshot trustSnapshot = builder.trustSnapshot != null
+                ? builder.trustSnapshot
+                : TrustSnapshot.newBuilder()
+                        .withAllowedSignerPattern(builder.allowedSignerPattern)
+                        .withAllowedAlgorithms(builder.allowedAlgorithms)
+                        .withTrustedCertificates(builder.trustedCertificates)
+                        .withSigningKeySet(builder.signingKeySet)
+                        .build();
+        this.trust = new AtomicReference<>(new Rotation(trustSnapshot, null, 0));
+        this.rotationOverlapMillis = builder.rotationOverlapMillis;
+        this.signingCertificateCache = builder.signingCertificateCache != null
+                ? builder.signingCertificateCache
+                : new SigningCertificateCache(new MetricRegistry(), SigningCertificateCache.DEFAULT_SPEC);
+        this.clock = builder.clock != null ? builder.clock : Clock.defaultClock();
+        this.certificateChainValidator = builder.certificateChainValidator != null
+                ? builder.certificateChainValidator
+                : new CertificateChainValidator(new MetricRegistry(), CertificateChainValidator.DEFAULT_SPEC, clock);
+        this.revocationChecker = builder.revocationChecker;
+        this.rejectionReporter = builder.rejectionReporter != null
+                ? builder.rejectionReporter
+                : new RejectionReporter(new MetricRegistry(), clock, RejectionReporter.DEFAULT_LOGS_PER_SECOND,
+                        RejectionReporter.DEFAULT_LOG_BURST);
+        this.stageTimers = builder.stageTimers != null ? builder.stageTimers : VerificationStageTimers.DISABLED;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Parses and authenticates a serialized token. Oversize tokens are rejected without decoding anything.
+     *
+     * @param token the compact serialized JWS
+     * @return the verified claims
+     * @throws JwtParseException if the token is malformed
+     * @throws JwtVerifyException if the token is rejected
+     */
+    public JwtClaims authenticate(String token) throws JwtParseException, JwtVerifyException {
+        try {
+            assertLengthAllowed(token);
+            VerificationStageTimers.Laps laps = stageTimers.start();
+            Jwt jwt = Jwt.newFromString(token);
+            laps.lap(Stage.PARSE);
+            return verify(jwt, trust.get(), laps);
+        } catch (JwtParseException | JwtVerifyException e) {
+            rejectionReporter.report(e);
+            throw e;
+        }
+    }
+
+    public JwtClaims authenticate(Jwt jwt) throws JwtParseException, JwtVerifyException {
+        return authenticate(jwt, trust.get());
     }
 
-    public JwtClaims authenticate(Jwt jwt) throws JwtVerifyException {
-        JWSObject jwsObject = jwt.getJwsObject();
-        JSONObject payload = jwsObject.getPayload().toJSONObject();
+    private JwtClaims authenticate(Jwt jwt, Rotation rotation) throws JwtParseException, JwtVerifyException {
+        try {
+            return verify(jwt, rotation, stageTimers.start());
+        } catch (JwtParseException | JwtVerifyException e) {
+            rejectionReporter.report(e);
+            throw e;
+        }
+    }
 
-        // Do the verification steps in order of performance cost / likelihood of failing. Signature verification is
-        // costly so we do that last.
-        assertTimeValid(payload);
+    private JwtClaims verify(Jwt jwt, Rotation rotation, VerificationStageTimers.Laps laps)
+            throws JwtParseException, JwtVerifyException {
+        assertLengthAllowed(jwt.getJwtString());
 
-        X509Certificate signingCertificate = getSigningCertificate(jwsObject);
+        // Do the verification steps in order of performance cost / likelihood of failing. First reject anything whose
+        // header rules it out, so that garbage and untrusted tokens never have their payload decoded. Signature
+        // verification is costly so we do that last.
+        SigningCertificate signingCertificate = assertHeaderAllowed(jwt.getHeader(), rotation, laps);
 
-        assertAllowedSignerDn(signingCertificate);
-        assertJwtIssuerMatchesSigner(signingCertificate, payload.get(JwtClaims.ISSUER).toString());
-        assertSignatureValid(jwsObject, signingCertificate);
+        JwtClaims claims = jwt.getClaims();
+        laps.lap(Stage.PAYLOAD);
+        assertTimeValid(claims);
+        laps.lap(Stage.TIME);
+        assertIssuerAllowed(signingCertificate, claims.getIssuer());
+        laps.lap(Stage.ISSUER);
+        assertSignatureValid(jwt, signingCertificate);
+        laps.lap(Stage.SIGNATURE);
 
         //
         // IMPORTANT!
         //
-        // You need to assert that signing certificate is valid by walking trust chain. This will depend on
-        // your CA hierarchy and revocation policy. This has been left for the implementer to decide but is a
-        // critical part of the verification process.
+        // The signing certificate chain has been validated back to a trusted certificate, and checked for revocation
+        // if a revocation checker is configured. Which certificates need revocation checks and what to do when their
+        // status can't be determined will depend on your CA hierarchy and revocation policy. This verifier fails
+        // closed, but that is for the implementer to decide and is a critical part of the verification process.
 
-        LOGGER.debug("Verified JWT (jti={})", payload.get(JwtClaims.JWT_ID));
-        JwtClaims.JwtClaimsBuilder builder = JwtClaims.JwtClaimsBuilder.newInstanceFromClaimsMap(payload);
-        return builder.build();
+        LOGGER.debug("Verified JWT (jti={})", claims.getJwtId());
+        return claims;
     }
 
-    private void assertTimeValid(JSONObject payload) throws JwtVerifyException {
-        Seconds currentTime = Seconds.seconds((int) (DateTime.now().getMillis() / DateTimeConstants.MILLIS_PER_SECOND));
+    /**
+     * Authenticates a batch of tokens in parallel on the common fork-join pool.
+     *
+     * @see #authenticateAll(Collection, Executor)
+     */
+    public List<JwtVerificationResult> authenticateAll(Collection<Jwt> jwts) {
+        return authenticateAll(jwts, ForkJoinPool.commonPool());
+    }
 
-        Seconds issueTime = Seconds.seconds(((Long) payload.get(JwtClaims.ISSUED_AT)).intValue());
-        if (issueTime.isGreaterThan(currentTime.plus(TIME_BUFFER_IN_SECONDS))) {
-            LOGGER.warn(ISSUE_TIME_EXCEPTION, issueTime, currentTime);
-            throw new JwtVerifyException(ISSUE_TIME_EXCEPTION, issueTime, currentTime);
+    /**
+     * Authenticates a batch of tokens in parallel.
+     *
+     * Identical tokens are only verified once. Tokens that share an encoded header, which is usual for tokens from the
+     * same signer, wait for a single check of that header before the rest of their verification runs, so the signer's
+     * chain is validated once per batch rather than racing between tokens. If the header is rejected, every token with
+     * it is rejected for the same reason. The whole batch is checked against the trust snapshot in force when it
+     * starts.
+     *
+     * @param jwts the tokens to verify
+     * @param executor executor to verify the tokens on
+     * @return a result for each token, in the same order as the tokens
+     */
+    public List<JwtVerificationResult> authenticateAll(Collection<Jwt> jwts, Executor executor) {
+        Rotation rotation = trust.get();
+        Map<String, CompletableFuture<Exception>> headerChecks = new HashMap<>();
+        Map<String, CompletableFuture<JwtVerificationResult>> results = new HashMap<>();
+        for (Jwt jwt : jwts) {
+            if (results.containsKey(jwt.getJwtString())) {
+                continue;
+            }
+            CompletableFuture<Exception> headerCheck = headerChecks.computeIfAbsent(jwt.getEncodedHeader(),
+                    encodedHeader -> CompletableFuture.supplyAsync(() -> {
+                        try {
+                            assertHeaderAllowed(jwt.getHeader(), rotation, stageTimers.start());
+                            return null;
+                        } catch (JwtVerifyException | RuntimeException e) {
+                            return e;
+                        }
+                    }, executor));
+            results.put(jwt.getJwtString(), headerCheck.thenApplyAsync(headerFailure -> {
+                if (headerFailure != null) {
+                    rejectionReporter.report(headerFailure);
+                    return JwtVerificationResult.failed(headerFailure);
+                }
+                try {
+                    return JwtVerificationResult.verified(authenticate(jwt, rotation));
+                } catch (JwtParseException | JwtVerifyException | RuntimeException e) {
+                    return JwtVerificationResult.failed(e);
+                }
+            }, executor));
         }
 
-        if (payload.get(JwtClaims.NOT_BEFORE) != null) {
-            Seconds notBeforeTime = Seconds.seconds(((Long) payload.get(JwtClaims.NOT_BEFORE)).intValue());
-            if (currentTime.isLessThan(notBeforeTime.minus(TIME_BUFFER_IN_SECONDS))) {
-                LOGGER.warn(format(NOT_BEFORE_EXCEPTION, notBeforeTime, currentTime));
-                throw new JwtVerifyException(NOT_BEFORE_EXCEPTION, notBeforeTime, currentTime);
+        ImmutableList.Builder<JwtVerificationResult> batchResults = ImmutableList.builder();
+        for (Jwt jwt : jwts) {
+            batchResults.add(results.get(jwt.getJwtString()).join());
+        }
+        return batchResults.build();
+    }
+
+    /**
+     * Returns the time after which {@link #authenticate(Jwt)} will reject the given claims as expired.
+     *
+     * @param claims verified claims
+     * @return milliseconds since the epoch, or {@link Long#MAX_VALUE} when the claims have no expiration time
+     */
+    static long getExpirationDeadline(JwtClaims claims) {
+        long expirationTime = claims.getExpirationTimeSeconds();
+        if (expirationTime == JwtClaims.NO_TIME) {
+            return Long.MAX_VALUE;
+        }
+        return TimeUnit.SECONDS.toMillis(expirationTime + TIME_BUFFER_IN_SECONDS);
+    }
+
+    /**
+     * Checks the time claims as primitive seconds against the clock so that accepting a token doesn't allocate.
+     */
+    private void assertTimeValid(JwtClaims claims) throws JwtVerifyException {
+        long currentTime = TimeUnit.MILLISECONDS.toSeconds(clock.getTime());
+
+        long issueTime = claims.getIssuedAtSeconds();
+        if (issueTime == JwtClaims.NO_TIME) {
+            throw new JwtVerifyException(RejectionReason.MALFORMED, MISSING_CLAIM_EXCEPTION, JwtClaims.ISSUED_AT);
+        }
+        if (issueTime > currentTime + TIME_BUFFER_IN_SECONDS) {
+            throw new JwtVerifyException(RejectionReason.ISSUED_IN_FUTURE, ISSUE_TIME_EXCEPTION,
+                    issueTime, currentTime);
+        }
+
+        long notBeforeTime = claims.getNotBeforeSeconds();
+        if (notBeforeTime != JwtClaims.NO_TIME) {
+            if (currentTime < notBeforeTime - TIME_BUFFER_IN_SECONDS) {
+                throw new JwtVerifyException(RejectionReason.NOT_YET_VALID, NOT_BEFORE_EXCEPTION,
+                        notBeforeTime, currentTime);
             }
         }
 
-        if (payload.get(JwtClaims.EXPIRATION_TIME) != null) {
-            Seconds expTime = Seconds.seconds(((Long) payload.get(JwtClaims.EXPIRATION_TIME)).intValue());
-            if (expTime.isLessThan(currentTime.minus(TIME_BUFFER_IN_SECONDS))) {
-                LOGGER.warn(format(EXP_TIME_EXCEPTION, expTime, currentTime));
-                throw new JwtVerifyException(EXP_TIME_EXCEPTION, expTime, currentTime);
+        long expTime = claims.getExpirationTimeSeconds();
+        if (expTime != JwtClaims.NO_TIME) {
+            if (expTime < currentTime - TIME_BUFFER_IN_SECONDS) {
+                throw new JwtVerifyException(RejectionReason.EXPIRED, EXP_TIME_EXCEPTION, expTime, currentTime);
             }
-            if (expTime.isLessThan(issueTime)) {
-                LOGGER.warn(format(TIME_RANGE_EXCEPTION, expTime, issueTime));
-                throw new JwtVerifyException(TIME_RANGE_EXCEPTION, expTime, issueTime);
+            if (expTime < issueTime) {
+                throw new JwtVerifyException(RejectionReason.INVALID_TIME_RANGE, TIME_RANGE_EXCEPTION,
+                        expTime, issueTime);
             }
         }
     }
 
-    private void assertAllowedSignerDn(X509Certificate certificate) throws JwtVerifyException {
-        String dn = certificate.getSubjectDN().getName();
+    private void assertLengthAllowed(String token) throws JwtVerifyException {
+        if (token.length() > maxTokenLength) {
+            throw new JwtVerifyException(RejectionReason.TOKEN_TOO_LONG, TOKEN_LENGTH_EXCEPTION,
+                    token.length(), maxTokenLength);
+        }
+    }
+
+    /**
+     * Runs the header checks against the current trust snapshot, falling back to the previous one while it still
+     * overlaps. A token rejected by both reports the current snapshot's reason.
+     *
+     * @return the signing certificate
+     */
+    private SigningCertificate assertHeaderAllowed(JWSHeader header, Rotation rotation,
+                                                   VerificationStageTimers.Laps laps) throws JwtVerifyException {
+        try {
+            return assertHeaderAllowed(header, rotation.current, laps);
+        } catch (JwtVerifyException e) {
+            if (rotation.previous == null || clock.getTime() >= rotation.previousExpiresAt
+                    || !SNAPSHOT_REJECTIONS.contains(e.getReason())) {
+                throw e;
+            }
+            try {
+                return assertHeaderAllowed(header, rotation.previous, laps);
+            } catch (JwtVerifyException ignored) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Runs the checks that only depend on the header: the algorithm, and whether the signer is trusted and allowed.
+     *
+     * @return the signing certificate
+     */
+    private SigningCertificate assertHeaderAllowed(JWSHeader header, TrustSnapshot snapshot,
+                                                   VerificationStageTimers.Laps laps) throws JwtVerifyException {
+        assertAlgorithmAllowed(header, snapshot);
+        laps.lap(Stage.ALGORITHM);
+
+        List<SigningCertificate> certificateChain = getCertificateChain(header, snapshot);
+        SigningCertificate signingCertificate = certificateChain.get(0);
+        laps.lap(Stage.CERTIFICATE_CHAIN);
+
+        assertTrustedSigner(certificateChain, snapshot);
+        laps.lap(Stage.TRUST);
+        assertSignerAllowed(signingCertificate, snapshot);
+        laps.lap(Stage.SIGNER);
+        return signingCertificate;
+    }
+
+    private void assertAlgorithmAllowed(JWSHeader header, TrustSnapshot snapshot) throws JwtVerifyException {
+        if (!snapshot.getAllowedAlgorithms().contains(header.getAlgorithm())) {
+            throw new JwtVerifyException(RejectionReason.ALGORITHM_NOT_ALLOWED, ALGORITHM_EXCEPTION,
+                    header.getAlgorithm());
+        }
+    }
+
+    private void assertSignerAllowed(SigningCertificate certificate, TrustSnapshot snapshot)
+            throws JwtVerifyException {
+        Cache<HashCode, Boolean> acceptedSigners = snapshot.getAcceptedSigners();
+        if (acceptedSigners.getIfPresent(certificate.getFingerprint()) == null) {
+            assertAllowedSignerDn(certificate, snapshot.getAllowedSignerDnPattern());
+            acceptedSigners.put(certificate.getFingerprint(), Boolean.TRUE);
+        }
+    }
+
+    private void assertIssuerAllowed(SigningCertificate certificate, String issuer) throws JwtVerifyException {
+        if (issuer == null) {
+            throw new JwtVerifyException(RejectionReason.MALFORMED, MISSING_CLAIM_EXCEPTION, JwtClaims.ISSUER);
+        }
+        SignerIssuerPair signerIssuerPair = new SignerIssuerPair(certificate.getFingerprint(), issuer);
+        if (acceptedIssuers.getIfPresent(signerIssuerPair) == null) {
+            assertJwtIssuerMatchesSigner(certificate, issuer);
+            acceptedIssuers.put(signerIssuerPair, Boolean.TRUE);
+        }
+    }
+
+    private void assertAllowedSignerDn(SigningCertificate certificate, Pattern allowedSignerDnPattern)
+            throws JwtVerifyException {
+        String dn = certificate.getSubjectDn();
         boolean signerMatches = allowedSignerDnPattern.matcher(dn).matches();
         if (!signerMatches) {
-            LOGGER.warn(format(SIGNER_MATCH_EXCEPTION, dn, allowedSignerDnPattern.pattern()));
-            throw new JwtVerifyException(SIGNER_MATCH_EXCEPTION, dn, allowedSignerDnPattern.pattern());
+            throw new JwtVerifyException(RejectionReason.SIGNER_NOT_ALLOWED, SIGNER_MATCH_EXCEPTION,
+                    dn, allowedSignerDnPattern.pattern());
         }
     }
 
-    private void assertJwtIssuerMatchesSigner(X509Certificate certificate, String issuer) throws JwtVerifyException {
+    private void assertJwtIssuerMatchesSigner(SigningCertificate certificate, String issuer) throws JwtVerifyException {
         try {
-            X500Principal dnName = certificate.getSubjectX500Principal();
+            X500Principal dnName = certificate.getSubjectPrincipal();
             X500Principal issuerName = new X500Principal(issuer);
             if (!issuerName.equals(dnName)) {
-                LOGGER.warn(ISSUER_MISMATCH_EXCEPTION);
-                throw new JwtVerifyException(ISSUER_MISMATCH_EXCEPTION, issuerName, dnName);
+                throw new JwtVerifyException(RejectionReason.ISSUER_MISMATCH, ISSUER_MISMATCH_EXCEPTION,
+                        issuerName, dnName);
             }
         } catch (IllegalArgumentException e) {
-            LOGGER.warn(ISSUER_FORMAT_EXCEPTION, e);
-            throw new JwtVerifyException(ISSUER_FORMAT_EXCEPTION, e);
+            throw new JwtVerifyException(RejectionReason.ISSUER_MISMATCH, ISSUER_FORMAT_EXCEPTION, e);
         }
     }
 
-    private X509Certificate getSigningCertificate(JWSObject jwsObject) throws JwtVerifyException {
-        List<X509Certificate> certificateChain = decodeCertificates(jwsObject.getHeader().getX509CertChain());
-        if (!certificateChain.isEmpty()) {
+    /**
+     * Resolves the signing certificate chain from the preloaded key set by 'x5t#S256' or 'kid', falling back to
+     * decoding the 'x5c' header when the token doesn't identify a known key.
+     */
+    private List<SigningCertificate> getCertificateChain(JWSHeader header, TrustSnapshot snapshot)
+            throws JwtVerifyException {
+        Base64URL thumbprint = header.getX509CertSHA256Thumbprint();
+        if (thumbprint != null) {
+            List<SigningCertificate> certificateChain = snapshot.getSigningKeySet().getByThumbprint(thumbprint);
+            if (certificateChain != null) {
+                return certificateChain;
+            }
+        }
+        if (header.getKeyID() != null) {
+            List<SigningCertificate> certificateChain = snapshot.getSigningKeySet().getByKeyId(header.getKeyID());
+            if (certificateChain != null) {
+                return certificateChain;
+            }
+        }
+
+        List<Base64> encodedCertificates = header.getX509CertChain();
+        if (encodedCertificates != null && !encodedCertificates.isEmpty()) {
             // Per the JWS spec: 'The certificate containing the public key corresponding to the key used to
-            // digitally sign the JWS MUST be the first certificate.'
-            //
-            // We are currently ignoring the rest of the chain because we know our implementation won't provide
-            // it and we instead download it via AIA url. In a future release when the CA can support it we'll
-            // move to using URLs instead of putting any of the chain in the token to keep it small.
-            return certificateChain.get(0);
+            // digitally sign the JWS MUST be the first certificate.' Each following certificate must certify the
+            // one preceding it.
+            ImmutableList.Builder<SigningCertificate> certificateChain = ImmutableList.builder();
+            try {
+                for (Base64 encodedCertificate : encodedCertificates) {
+                    certificateChain.add(signingCertificateCache.get(encodedCertificate));
+                }
+            } catch (CertificateException e) {
+                throw new JwtVerifyException(RejectionReason.MALFORMED, "Invalid certificate in 'x5c' header: %s",
+                        e.getMessage());
+            }
+            return certificateChain.build();
         }
-        LOGGER.warn(MISSING_CERT_CHAIN_EXCEPTION);
-        throw new JwtVerifyException(MISSING_CERT_CHAIN_EXCEPTION);
+        throw new JwtVerifyException(RejectionReason.MISSING_CERTIFICATE_CHAIN, MISSING_CERT_CHAIN_EXCEPTION);
     }
 
-    private void assertSignatureValid(JWSObject jwsObject, X509Certificate signingCertificate) throws JwtVerifyException {
-        JWSVerifier verifier = new RSASSAVerifier((RSAPublicKey) signingCertificate.getPublicKey());
+    /**
+     * Asserts that the signing certificate chains to one of the trusted certificates. The signing certificate may be
+     * trusted itself, be issued by a trusted certificate, or be linked to one through the rest of its chain.
+     * The resulting path is then validated by the {@link CertificateChainValidator} and each certificate in it checked
+     * for revocation.
+     */
+    private void assertTrustedSigner(List<SigningCertificate> certificateChain, TrustSnapshot snapshot)
+            throws JwtVerifyException {
+        TrustAnchorIndex trustAnchors = snapshot.getTrustAnchors();
+        // Find the trust anchor using only index lookups so that tokens from untrusted signers are rejected before
+        // doing any RSA work.
+        X509Certificate anchor = null;
+        int pathLength = 0;
+        for (SigningCertificate certificate : certificateChain) {
+            if (trustAnchors.getByThumbprint(certificate.getFingerprint()) != null) {
+                // Trusted itself, so only the certificates before it make up the path to validate.
+                anchor = certificate.getCertificate();
+                break;
+            }
+            ++pathLength;
+            anchor = trustAnchors.findIssuer(certificate.getIssuerPrincipal(), certificate.getAuthorityKeyIdentifier());
+            if (anchor != null || pathLength == certificateChain.size()
+                    || !certificate.getIssuerPrincipal().equals(certificateChain.get(pathLength).getSubjectPrincipal())) {
+                break;
+            }
+        }
+
+        if (anchor == null) {
+            String dn = certificateChain.get(0).getSubjectDn();
+            throw new JwtVerifyException(RejectionReason.UNTRUSTED_SIGNER, UNTRUSTED_SIGNER_EXCEPTION, dn);
+        }
+
+        ImmutableList.Builder<X509Certificate> pathBuilder = ImmutableList.builder();
+        ImmutableList.Builder<HashCode> fingerprintsBuilder = ImmutableList.builder();
+        for (int i = 0; i < pathLength; ++i) {
+            pathBuilder.add(certificateChain.get(i).getCertificate());
+            fingerprintsBuilder.add(certificateChain.get(i).getFingerprint());
+        }
+        List<X509Certificate> path = pathBuilder.build();
+        try {
+            certificateChainValidator.validate(path, fingerprintsBuilder.build(), anchor);
+        } catch (CertPathValidatorException e) {
+            String dn = certificateChain.get(0).getSubjectDn();
+            throw new JwtVerifyException(RejectionReason.INVALID_CERTIFICATE_CHAIN, INVALID_CHAIN_EXCEPTION,
+                    dn, e.getMessage());
+        }
+
+        if (revocationChecker != null) {
+            for (int i = 0; i < path.size(); ++i) {
+                assertNotRevoked(path.get(i), i + 1 < path.size() ? path.get(i + 1) : anchor);
+            }
+        }
+    }
+
+    private void assertNotRevoked(X509Certificate certificate, X509Certificate issuer) throws JwtVerifyException {
+        String dn = certificate.getSubjectDN().getName();
+        RevocationStatus status;
+        try {
+            status = revocationChecker.getStatus(certificate, issuer);
+        } catch (IOException e) {
+            throw new JwtVerifyException(RejectionReason.REVOCATION_STATUS_UNKNOWN,
+                    format(REVOCATION_STATUS_EXCEPTION, dn), e);
+        }
+
+        if (status == RevocationStatus.REVOKED) {
+            throw new JwtVerifyException(RejectionReason.CERTIFICATE_REVOKED, REVOKED_CERTIFICATE_EXCEPTION, dn);
+        } else if (status != RevocationStatus.GOOD) {
+            throw new JwtVerifyException(RejectionReason.REVOCATION_STATUS_UNKNOWN, REVOCATION_STATUS_EXCEPTION, dn);
+        }
+    }
+
+    private void assertSignatureValid(Jwt jwt, SigningCertificate signingCertificate) throws JwtVerifyException {
         try {
             // Verify the JWT was signed by the signing certificate
-            if (!jwsObject.verify(verifier)) {
+            if (!signatureVerifierPool.verify(jwt.getHeader(), jwt.getSigningInput(), jwt.getSignature(),
+                    signingCertificate.getPublicKey())) {
                 // The contract on the verify method above is odd. Some failure scenarios result in returning false
                 // while others throw. To distinguish between the two we throw different exception for each case.
-                LOGGER.warn(format(SIGNATURE_MATCH_EXCEPTION, signingCertificate.getSubjectDN().getName()));
-                throw new JwtVerifyException(SIGNATURE_MATCH_EXCEPTION, signingCertificate.getSubjectDN().getName());
+                throw new JwtVerifyException(RejectionReason.INVALID_SIGNATURE, SIGNATURE_MATCH_EXCEPTION,
+                        signingCertificate.getSubjectDn());
             }
         } catch (JOSEException e) {
-            LOGGER.warn(JWS_VERIFICATION_EXCEPTION, e);
-            throw new JwtVerifyException(JWS_VERIFICATION_EXCEPTION, e);
+            throw new JwtVerifyException(RejectionReason.INVALID_SIGNATURE, JWS_VERIFICATION_EXCEPTION, e);
         }
     }
 
     /**
-     * Takes JWS 'x5c' encoded header value and decodes it to a list of X509Certificates.
+     * Swaps in a new trust snapshot. Verifications already under way finish against the snapshot they started with.
+     * The snapshot being replaced is still accepted for the rotation overlap, so tokens signed with the old keys keep
+     * working while issuers move to the new ones. A snapshot that was itself still overlapping is dropped.
      *
-     * @param encodedCertificates list of base64 encoded certificate values
-     * @return The list of decoded certificates
+     * @param snapshot the new trust material and signer policy
+     */
+    public void rotate(TrustSnapshot snapshot) {
+        Objects.requireNonNull(snapshot, "snapshot");
+        long previousExpiresAt = clock.getTime() + rotationOverlapMillis;
+        Rotation replaced = trust.getAndUpdate(current -> rotationOverlapMillis > 0
+                ? new Rotation(snapshot, current.current, previousExpiresAt)
+                : new Rotation(snapshot, null, 0));
+        LOGGER.info("Rotated JWT trust from {} to {}, accepting the previous snapshot for {}ms", replaced.current,
+                snapshot, rotationOverlapMillis);
+    }
+
+    /**
+     * @return the trust snapshot currently in force
+     */
+    public TrustSnapshot getTrustSnapshot() {
+        return trust.get().current;
+    }
+
+    /**
+     * @return how long a replaced trust snapshot is still accepted for, in milliseconds
      */
-    private List<X509Certificate> decodeCertificates(List<Base64> encodedCertificates) {
-        if (encodedCertificates == null) {
-            return ImmutableList.of();
+    public long getRotationOverlapMillis() {
+        return rotationOverlapMillis;
+    }
+
+    /**
+     * The current trust snapshot and the one it replaced, which is accepted until {@link #previousExpiresAt}.
+     */
+    private static final class Rotation {
+        private final TrustSnapshot current;
+        private final TrustSnapshot previous;
+        private final long previousExpiresAt;
+
+        private Rotation(TrustSnapshot current, TrustSnapshot previous, long previousExpiresAt) {
+            this.current = current;
+            this.previous = previous;
+            this.previousExpiresAt = previousExpiresAt;
         }
+    }
 
-        ImmutableList.Builder<X509Certificate> certificates = ImmutableList.builder();
-        for (Base64 encodedCertificate : encodedCertificates) {
-            try {
-                InputStream is = new ByteArrayInputStream(encodedCertificate.decode());
-                X509Certificate certificate = (X509Certificate) CertificateFactory.getInstance("X.509")
-                        .generateCertificate(is);
-                certificates.add(certificate);
-            } catch (CertificateException e) {
-                Throwables.propagate(e);
+    private static final class SignerIssuerPair {
+        private final HashCode signerFingerprint;
+        private final String issuer;
+
+        private SignerIssuerPair(HashCode signerFingerprint, String issuer) {
+            this.signerFingerprint = signerFingerprint;
+            this.issuer = issuer;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
             }
+            SignerIssuerPair that = (SignerIssuerPair) o;
+            return Objects.equals(signerFingerprint, that.signerFingerprint) &&
+                    Objects.equals(issuer, that.issuer);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(signerFingerprint, issuer);
+        }
+    }
+
+    /*
+     * Builder
+     */
+
+    public static final class Builder {
+        private Pattern allowedSignerPattern;
+        private List<X509Certificate> trustedCertificates;
+        private SigningKeySet signingKeySet;
+        private SigningCertificateCache signingCertificateCache;
+        private CertificateChainValidator certificateChainValidator;
+        private RevocationChecker revocationChecker;
+        private Clock clock;
+        private int maxTokenLength;
+        private Set<JWSAlgorithm> allowedAlgorithms;
+        private RejectionReporter rejectionReporter;
+        private VerificationStageTimers stageTimers;
+        private TrustSnapshot trustSnapshot;
+        private long rotationOverlapMillis;
+
+        private Builder() {
+        }
+
+        public Builder withAllowedSignerPattern(Pattern val) {
+            allowedSignerPattern = val;
+            return this;
+        }
+
+        public Builder withTrustedCertificates(List<X509Certificate> val) {
+            trustedCertificates = val;
+            return this;
+        }
+
+        public Builder withSigningKeySet(SigningKeySet val) {
+            signingKeySet = val;
+            return this;
+        }
+
+        public Builder withSigningCertificateCache(SigningCertificateCache val) {
+            signingCertificateCache = val;
+            return this;
+        }
+
+        public Builder withCertificateChainValidator(CertificateChainValidator val) {
+            certificateChainValidator = val;
+            return this;
+        }
+
+        public Builder withRevocationChecker(RevocationChecker val) {
+            revocationChecker = val;
+            return this;
+        }
+
+        public Builder withClock(Clock val) {
+            clock = val;
+            return this;
+        }
+
+        public Builder withMaxTokenLength(int val) {
+            maxTokenLength = val;
+            return this;
+        }
+
+        public Builder withAllowedAlgorithms(Set<JWSAlgorithm> val) {
+            allowedAlgorithms = val;
+            return this;
+        }
+
+        public Builder withRejectionReporter(RejectionReporter val) {
+            rejectionReporter = val;
+            return this;
+        }
+
+        public Builder withStageTimers(VerificationStageTimers val) {
+            stageTimers = val;
+            return this;
+        }
+
+        /**
+         * @param val the initial trust material and signer policy, used in place of the allowed signer pattern,
+         *            algorithms, trusted certificates and signing key set
+         */
+        public Builder withTrustSnapshot(TrustSnapshot val) {
+            trustSnapshot = val;
+            return this;
+        }
+
+        /**
+         * @param val how long a replaced trust snapshot is still accepted after {@link JwtVerifier#rotate}
+         */
+        public Builder withRotationOverlap(long val, TimeUnit unit) {
+            rotationOverlapMillis = unit.toMillis(val);
+            return this;
+        }
+
+        public JwtVerifier build() {
+            return new JwtVerifier(this);
         }
-        return certificates.build();
     }
 }
@@ -0,0 +1,90 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.hash.HashCode;
+import wdawson.samples.dropwizard.util.jwt.exception.RejectionReason;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Cache of tokens that were recently rejected, so that a client repeating a bad token is turned away without parsing
+ * or verifying it again.
+ *
+ * Like {@link VerifiedJwtCache}, entries are keyed by a SHA-256 digest of the raw token string. Only rejections that
+ * would happen again are cached; a token that is not yet valid, or whose signer's revocation status couldn't be
+ * checked, may be accepted later. Hits are counted per rejection reason.
+ *
+ * @author wdawson
+ */
+public class RejectedJwtCache {
+
+    public static final CacheBuilderSpec DEFAULT_SPEC = CacheBuilderSpec.parse("maximumSize=1000, expireAfterWrite=5m");
+
+    private final Cache<HashCode, RejectionReason> cache;
+    private final Map<RejectionReason, Meter> hits = new EnumMap<>(RejectionReason.class);
+
+    public RejectedJwtCache(MetricRegistry metricRegistry, CacheBuilderSpec cacheSpec) {
+        this.cache = CacheBuilder.from(cacheSpec).build();
+        for (RejectionReason reason : RejectionReason.values()) {
+            if (reason.isPermanent()) {
+                hits.put(reason, metricRegistry.meter(name(RejectedJwtCache.class, "hits", reason.name())));
+            }
+        }
+        metricRegistry.register(name(RejectedJwtCache.class, "size"), (Gauge<Long>) cache::size);
+    }
+
+    /**
+     * Gets the reason a token was rejected if it was rejected recently.
+     *
+     * @param token the raw JWT string
+     * @return the reason, or null if the token must be verified
+     */
+    public RejectionReason getIfPresent(String token) {
+        RejectionReason reason = cache.getIfPresent(VerifiedJwtCache.digest(token));
+        if (reason != null) {
+            hits.get(reason).mark();
+        }
+        return reason;
+    }
+
+    /**
+     * Checks whether a token was rejected recently, without recording a hit.
+     *
+     * @param token the raw JWT string
+     * @return true if {@link #getIfPresent(String)} would currently return a reason for the token
+     */
+    public boolean contains(String token) {
+        return cache.getIfPresent(VerifiedJwtCache.digest(token)) != null;
+    }
+
+    /**
+     * Remembers the rejection of a token, unless the same token could be accepted later.
+     *
+     * @param token the raw JWT string
+     * @param reason why the token was rejected
+     */
+    public void put(String token, RejectionReason reason) {
+        if (reason.isPermanent()) {
+            cache.put(VerifiedJwtCache.digest(token), reason);
+        }
+    }
+
+    /**
+     * Forgets every rejection, e.g. once newly trusted keys may accept tokens that were rejected before.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+}
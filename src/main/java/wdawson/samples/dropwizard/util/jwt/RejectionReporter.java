@@ -0,0 +1,103 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wdawson.samples.dropwizard.util.jwt.exception.RejectionReason;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Counts rejected tokens by reason and logs a sample of them.
+ *
+ * Every rejection is counted, but logging is limited by a token bucket so that a flood of bad tokens can't turn into a
+ * flood of log lines. Rejections that aren't logged are summarized in the next line that is. Expected rejections are
+ * logged without a stack trace; only {@link RejectionReason#OTHER} failures include one.
+ *
+ * @author wdawson
+ */
+public class RejectionReporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RejectionReporter.class);
+
+    public static final double DEFAULT_LOGS_PER_SECOND = 1;
+    public static final int DEFAULT_LOG_BURST = 10;
+
+    private final Clock clock;
+    private final double permitsPerNano;
+    private final int burst;
+
+    private final Map<RejectionReason, Meter> rejections = new EnumMap<>(RejectionReason.class);
+    private final Meter unlogged;
+    private final AtomicLong unloggedSinceLastLog = new AtomicLong();
+
+    // Guarded by this
+    private double permits;
+    private long lastRefillTick;
+
+    /**
+     * @param metricRegistry registry for the per reason rejection meters
+     * @param clock the clock to refill the log bucket against
+     * @param logsPerSecond the sustained rate of rejections to log
+     * @param burst the number of rejections that may be logged at once after a quiet period
+     */
+    public RejectionReporter(MetricRegistry metricRegistry, Clock clock, double logsPerSecond, int burst) {
+        this.clock = clock;
+        this.permitsPerNano = logsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.permits = burst;
+        this.lastRefillTick = clock.getTick();
+
+        for (RejectionReason reason : RejectionReason.values()) {
+            rejections.put(reason, metricRegistry.meter(name(RejectionReporter.class, "rejections", reason.name())));
+        }
+        this.unlogged = metricRegistry.meter(name(RejectionReporter.class, "unlogged"));
+    }
+
+    /**
+     * @param e the exception a token was rejected with
+     */
+    public void report(Exception e) {
+        RejectionReason reason = RejectionReason.of(e);
+        rejections.get(reason).mark();
+
+        if (!tryAcquire()) {
+            unlogged.mark();
+            unloggedSinceLastLog.incrementAndGet();
+            return;
+        }
+
+        long skipped = unloggedSinceLastLog.getAndSet(0);
+        if (reason == RejectionReason.OTHER) {
+            LOGGER.warn("Rejected token ({} similar not logged)", skipped, e);
+        } else {
+            LOGGER.warn("Rejected token: {}: {} ({} similar not logged)", reason, describe(e), skipped);
+        }
+    }
+
+    public long getCount(RejectionReason reason) {
+        return rejections.get(reason).getCount();
+    }
+
+    private synchronized boolean tryAcquire() {
+        long tick = clock.getTick();
+        permits = Math.min(burst, permits + (tick - lastRefillTick) * permitsPerNano);
+        lastRefillTick = tick;
+        if (permits < 1) {
+            return false;
+        }
+        permits -= 1;
+        return true;
+    }
+
+    private static String describe(Exception e) {
+        return e.getCause() == null ? e.getMessage() : e.getMessage() + ": " + e.getCause();
+    }
+}
@@ -0,0 +1,271 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.util.Base64URL;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Pool of JCA {@link Signature} objects that have been initialized for verification, keyed by signing public key and
+ * algorithm.
+ *
+ * Creating a nimbus {@code RSASSAVerifier} or {@code ECDSAVerifier} per token means a JCA provider lookup and a new
+ * {@link Signature} for every request. Signature objects aren't thread safe, so instead each thread gets its own
+ * instance per key which is reused for every token that key signed.
+ *
+ * @author wdawson
+ */
+public class SignatureVerifierPool {
+
+    public static final CacheBuilderSpec DEFAULT_SPEC = CacheBuilderSpec.parse("maximumSize=100");
+
+    /**
+     * Supported JWS algorithms and their JCA names.
+     */
+    private static final Map<JWSAlgorithm, String> JCA_ALGORITHMS = ImmutableMap.<JWSAlgorithm, String>builder()
+            .put(JWSAlgorithm.RS256, "SHA256withRSA")
+            .put(JWSAlgorithm.RS384, "SHA384withRSA")
+            .put(JWSAlgorithm.RS512, "SHA512withRSA")
+            .put(JWSAlgorithm.ES256, "SHA256withECDSA")
+            .put(JWSAlgorithm.ES384, "SHA384withECDSA")
+            .put(JWSAlgorithm.ES512, "SHA512withECDSA")
+            .build();
+
+    /**
+     * Length of the R and S values in a JWS ECDSA signature, which are concatenated rather than DER encoded as JCA
+     * expects.
+     */
+    private static final Map<JWSAlgorithm, Integer> ECDSA_VALUE_LENGTHS = ImmutableMap.of(
+            JWSAlgorithm.ES256, 32,
+            JWSAlgorithm.ES384, 48,
+            JWSAlgorithm.ES512, 66);
+
+    /**
+     * Field size of the curve that RFC 7518 pairs with each ECDSA algorithm: P-256, P-384 and P-521.
+     */
+    private static final Map<JWSAlgorithm, Integer> ECDSA_FIELD_SIZES = ImmutableMap.of(
+            JWSAlgorithm.ES256, 256,
+            JWSAlgorithm.ES384, 384,
+            JWSAlgorithm.ES512, 521);
+
+    /**
+     * JWS algorithms that this pool can verify.
+     */
+    public static final Set<JWSAlgorithm> SUPPORTED_ALGORITHMS = JCA_ALGORITHMS.keySet();
+
+    private final LoadingCache<VerifierKey, ThreadLocal<Signature>> verifiers;
+
+    public SignatureVerifierPool() {
+        this(DEFAULT_SPEC);
+    }
+
+    public SignatureVerifierPool(CacheBuilderSpec cacheSpec) {
+        this.verifiers = CacheBuilder.from(cacheSpec).build(new CacheLoader<VerifierKey, ThreadLocal<Signature>>() {
+            @Override
+            public ThreadLocal<Signature> load(VerifierKey key) {
+                return ThreadLocal.withInitial(key::newSignature);
+            }
+        });
+    }
+
+    /**
+     * Verifies the signature of a JWS object. Equivalent to {@code jwsObject.verify(new RSASSAVerifier(publicKey))},
+     * or {@code ECDSAVerifier} for EC keys, without the per-call setup.
+     *
+     * @param jwsObject the signed object
+     * @param publicKey the public key of the signer
+     * @return true if the signature is valid, false otherwise
+     * @throws JOSEException if the signature couldn't be checked, e.g. the algorithm isn't supported
+     */
+    public boolean verify(JWSObject jwsObject, PublicKey publicKey) throws JOSEException {
+        return verify(jwsObject.getHeader(), jwsObject.getSigningInput(), jwsObject.getSignature(), publicKey);
+    }
+
+    /**
+     * Verifies a JWS signature from its parts, for callers that haven't parsed the whole JWS object.
+     *
+     * @param header the JWS header
+     * @param signingInput the encoded header and payload joined by a period
+     * @param encodedSignature the encoded signature
+     * @param publicKey the public key of the signer
+     * @return true if the signature is valid, false otherwise
+     * @throws JOSEException if the signature couldn't be checked, e.g. the algorithm isn't supported
+     */
+    public boolean verify(JWSHeader header, byte[] signingInput, Base64URL encodedSignature, PublicKey publicKey)
+            throws JOSEException {
+        if (header.getCriticalParams() != null && !header.getCriticalParams().isEmpty()) {
+            // We don't understand any critical header parameters, so per the JWS spec the token must be rejected.
+            return false;
+        }
+
+        String jcaAlgorithm = JCA_ALGORITHMS.get(header.getAlgorithm());
+        if (jcaAlgorithm == null) {
+            throw new JOSEException("Unsupported JWS algorithm " + header.getAlgorithm());
+        }
+
+        assertKeyMatches(header.getAlgorithm(), publicKey);
+
+        byte[] signatureBytes = encodedSignature.decode();
+        Integer ecdsaValueLength = ECDSA_VALUE_LENGTHS.get(header.getAlgorithm());
+        if (ecdsaValueLength != null) {
+            signatureBytes = concatToDer(signatureBytes, ecdsaValueLength);
+            if (signatureBytes == null) {
+                return false;
+            }
+        }
+
+        VerifierKey key = new VerifierKey(jcaAlgorithm, publicKey);
+        Signature signature;
+        try {
+            signature = verifiers.getUnchecked(key).get();
+        } catch (IllegalStateException e) {
+            throw new JOSEException(e.getMessage(), e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        }
+
+        try {
+            signature.update(signingInput);
+            // A completed verify() resets the signature to its initialized state, ready for the next token
+            return signature.verify(signatureBytes);
+        } catch (SignatureException e) {
+            // The signature may be left part way through an update, so start this thread's instance over
+            key.reset(signature);
+            throw new JOSEException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Checks the key is of the type the algorithm signs with and, for ECDSA, on the curve the algorithm is paired with,
+     * so that the token's header can't pick a different algorithm for the signer's key.
+     */
+    private static void assertKeyMatches(JWSAlgorithm algorithm, PublicKey publicKey) throws JOSEException {
+        Integer fieldSize = ECDSA_FIELD_SIZES.get(algorithm);
+        if (fieldSize == null) {
+            if (!(publicKey instanceof RSAPublicKey)) {
+                throw new JOSEException("JWS algorithm " + algorithm + " requires an RSA key");
+            }
+        } else if (!(publicKey instanceof ECPublicKey)
+                || ((ECPublicKey) publicKey).getParams().getCurve().getField().getFieldSize() != fieldSize) {
+            throw new JOSEException("JWS algorithm " + algorithm + " requires an EC key on a " + fieldSize
+                    + " bit curve");
+        }
+    }
+
+    /**
+     * Transcodes a JWS ECDSA signature, the big-endian R and S values each padded to the same length and concatenated,
+     * to the DER encoded sequence of two integers that JCA verifies.
+     *
+     * @return the DER encoded signature, or null if the signature is the wrong length or either value is zero
+     */
+    static byte[] concatToDer(byte[] concat, int valueLength) {
+        if (concat.length != 2 * valueLength) {
+            return null;
+        }
+        byte[] r = toDerInteger(concat, 0, valueLength);
+        byte[] s = toDerInteger(concat, valueLength, valueLength);
+        if (r == null || s == null) {
+            return null;
+        }
+
+        int sequenceLength = r.length + s.length;
+        // P-521 signatures are long enough to need the two byte form of the DER length
+        int headerLength = sequenceLength < 0x80 ? 2 : 3;
+        byte[] der = new byte[headerLength + sequenceLength];
+        der[0] = 0x30;
+        if (headerLength == 2) {
+            der[1] = (byte) sequenceLength;
+        } else {
+            der[1] = (byte) 0x81;
+            der[2] = (byte) sequenceLength;
+        }
+        System.arraycopy(r, 0, der, headerLength, r.length);
+        System.arraycopy(s, 0, der, headerLength + r.length, s.length);
+        return der;
+    }
+
+    /**
+     * Encodes an unsigned big-endian value as a DER integer: leading zeros stripped, and a zero byte added back if the
+     * high bit is set so that it isn't read as negative.
+     *
+     * @return the DER integer, or null if the value is zero
+     */
+    private static byte[] toDerInteger(byte[] bytes, int offset, int length) {
+        int start = offset;
+        int end = offset + length;
+        while (start < end && bytes[start] == 0) {
+            start++;
+        }
+        if (start == end) {
+            // Zero is never a valid R or S, and some JCA providers have wrongly accepted it
+            return null;
+        }
+        int padding = (bytes[start] & 0x80) != 0 ? 1 : 0;
+        byte[] integer = new byte[2 + padding + end - start];
+        integer[0] = 0x02;
+        integer[1] = (byte) (padding + end - start);
+        System.arraycopy(bytes, start, integer, 2 + padding, end - start);
+        return integer;
+    }
+
+    private static final class VerifierKey {
+        private final String jcaAlgorithm;
+        private final PublicKey publicKey;
+
+        private VerifierKey(String jcaAlgorithm, PublicKey publicKey) {
+            this.jcaAlgorithm = jcaAlgorithm;
+            this.publicKey = publicKey;
+        }
+
+        private Signature newSignature() {
+            try {
+                Signature signature = Signature.getInstance(jcaAlgorithm);
+                signature.initVerify(publicKey);
+                return signature;
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        private void reset(Signature signature) throws JOSEException {
+            try {
+                signature.initVerify(publicKey);
+            } catch (InvalidKeyException e) {
+                throw new JOSEException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            VerifierKey that = (VerifierKey) o;
+            return Objects.equals(jcaAlgorithm, that.jcaAlgorithm) &&
+                    Objects.equals(publicKey, that.publicKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(jcaAlgorithm, publicKey);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.nimbusds.jose.util.Base64;
+import wdawson.samples.dropwizard.util.jwt.dto.SigningCertificate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutionException;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Cache of decoded certificates from the JWS 'x5c' header.
+ *
+ * There are only a handful of distinct signers, so each certificate is decoded once and shared by every token it
+ * signed. Entries are keyed by a digest of the Base64 encoded certificate exactly as it appears in the header, which
+ * means a hit doesn't need to decode anything.
+ *
+ * @author wdawson
+ */
+public class SigningCertificateCache {
+
+    public static final CacheBuilderSpec DEFAULT_SPEC = CacheBuilderSpec.parse("maximumSize=100");
+
+    private final Cache<HashCode, SigningCertificate> cache;
+
+    public SigningCertificateCache(MetricRegistry metricRegistry, CacheBuilderSpec cacheSpec) {
+        this.cache = CacheBuilder.from(cacheSpec).recordStats().build();
+
+        metricRegistry.register(name(SigningCertificateCache.class, "size"), (Gauge<Long>) cache::size);
+        metricRegistry.register(name(SigningCertificateCache.class, "hitRatio"),
+                (Gauge<Double>) () -> cache.stats().hitRate());
+    }
+
+    /**
+     * Gets the decoded certificate for an 'x5c' header value, decoding it if this is the first time it's been seen.
+     *
+     * @param encodedCertificate base64 encoded DER certificate
+     * @return the decoded certificate
+     * @throws CertificateException if the value isn't a valid X.509 certificate
+     */
+    public SigningCertificate get(Base64 encodedCertificate) throws CertificateException {
+        HashCode key = Hashing.sha256().hashString(encodedCertificate.toString(), StandardCharsets.US_ASCII);
+        try {
+            return cache.get(key, () -> decode(encodedCertificate));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof CertificateException) {
+                throw (CertificateException) e.getCause();
+            }
+            throw new CertificateException(e.getCause());
+        }
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private static SigningCertificate decode(Base64 encodedCertificate) throws CertificateException {
+        X509Certificate certificate = (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(encodedCertificate.decode()));
+        return new SigningCertificate(certificate);
+    }
+}
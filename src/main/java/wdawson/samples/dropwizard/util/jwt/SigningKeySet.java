@@ -0,0 +1,105 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.nimbusds.jose.util.Base64URL;
+import wdawson.samples.dropwizard.util.jwt.dto.SigningCertificate;
+
+import javax.security.auth.x500.X500Principal;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Preloaded signing certificates, indexed so that tokens can identify their signer with a 'kid' or 'x5t#S256' header
+ * instead of carrying the certificate chain in 'x5c'.
+ *
+ * Each certificate is identified by its SHA-256 thumbprint, base64url encoded as in the 'x5t#S256' header, which is
+ * also the key ID that {@link JwtIssuer} puts in 'kid'. Any intermediate certificates needed to chain a signer to its
+ * trust anchor should be included in the set; they are linked up front so a lookup returns the whole chain.
+ *
+ * @author wdawson
+ */
+public final class SigningKeySet {
+
+    public static final SigningKeySet EMPTY = new SigningKeySet(ImmutableList.<X509Certificate>of());
+
+    private final Map<String, List<SigningCertificate>> chainsByThumbprint;
+
+    public SigningKeySet(List<X509Certificate> certificates) {
+        Map<X500Principal, SigningCertificate> bySubject = new HashMap<>();
+        Map<String, SigningCertificate> byThumbprint = new HashMap<>();
+        for (X509Certificate certificate : certificates) {
+            SigningCertificate signingCertificate;
+            try {
+                signingCertificate = new SigningCertificate(certificate);
+            } catch (CertificateEncodingException e) {
+                throw new IllegalArgumentException("Could not encode signing certificate "
+                        + certificate.getSubjectX500Principal(), e);
+            }
+            bySubject.put(signingCertificate.getSubjectPrincipal(), signingCertificate);
+            byThumbprint.put(getThumbprint(signingCertificate), signingCertificate);
+        }
+
+        ImmutableMap.Builder<String, List<SigningCertificate>> chains = ImmutableMap.builder();
+        for (Map.Entry<String, SigningCertificate> entry : byThumbprint.entrySet()) {
+            chains.put(entry.getKey(), buildChain(entry.getValue(), bySubject));
+        }
+        this.chainsByThumbprint = chains.build();
+    }
+
+    /**
+     * Returns the 'x5t#S256' thumbprint of a certificate, which is also its key ID.
+     *
+     * @param certificate the signing certificate
+     * @return base64url encoded SHA-256 digest of the DER encoded certificate
+     */
+    public static String getThumbprint(SigningCertificate certificate) {
+        return Base64URL.encode(certificate.getFingerprint().asBytes()).toString();
+    }
+
+    /**
+     * @param thumbprint the 'x5t#S256' header value
+     * @return the signing certificate followed by its known issuers, or null if the thumbprint is unknown
+     */
+    public List<SigningCertificate> getByThumbprint(Base64URL thumbprint) {
+        return chainsByThumbprint.get(thumbprint.toString());
+    }
+
+    /**
+     * @param keyId the 'kid' header value
+     * @return the signing certificate followed by its known issuers, or null if the key ID is unknown
+     */
+    public List<SigningCertificate> getByKeyId(String keyId) {
+        return chainsByThumbprint.get(keyId);
+    }
+
+    public boolean isEmpty() {
+        return chainsByThumbprint.isEmpty();
+    }
+
+    public int size() {
+        return chainsByThumbprint.size();
+    }
+
+    private static List<SigningCertificate> buildChain(SigningCertificate signer,
+                                                       Map<X500Principal, SigningCertificate> bySubject) {
+        ImmutableList.Builder<SigningCertificate> chain = ImmutableList.builder();
+        chain.add(signer);
+        SigningCertificate current = signer;
+        // Bounded by the size of the set in case the certificates issue each other in a loop
+        for (int i = 0; i < bySubject.size(); ++i) {
+            if (current.getIssuerPrincipal().equals(current.getSubjectPrincipal())) {
+                break;
+            }
+            current = bySubject.get(current.getIssuerPrincipal());
+            if (current == null) {
+                break;
+            }
+            chain.add(current);
+        }
+        return chain.build();
+    }
+}
@@ -0,0 +1,227 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Rotates the trust snapshot of a {@link JwtVerifier} without a restart, either on demand or when the file the snapshot
+ * is loaded from changes.
+ *
+ * After each rotation:
+ * <ul>
+ *   <li>Cached rejections are dropped, since tokens from newly trusted keys may have been turned away before.</li>
+ *   <li>Cached verified tokens, and anything registered with {@link #addCacheInvalidation(Runnable)}, are dropped
+ *       once the rotation overlap ends, since they may have been verified with keys that are no longer trusted.</li>
+ * </ul>
+ *
+ * @author wdawson
+ */
+public class TrustReloader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrustReloader.class);
+
+    private final JwtVerifier jwtVerifier;
+    private final Supplier<TrustSnapshot> loader;
+    private final Path watchedFile;
+    private final ScheduledExecutorService executor;
+    private final VerifiedJwtCache verifiedJwtCache;
+    private final RejectedJwtCache rejectedJwtCache;
+    private final List<Runnable> cacheInvalidations = new CopyOnWriteArrayList<>();
+
+    /**
+     * Modification time of the watched file when it was last loaded.
+     */
+    private volatile long loadedModificationTime;
+
+    private final Timer reloads;
+    private final Meter failures;
+
+    private TrustReloader(Builder builder) {
+        this.jwtVerifier = builder.jwtVerifier;
+        this.loader = builder.loader;
+        this.watchedFile = builder.watchedFile;
+        this.executor = builder.executor;
+        this.verifiedJwtCache = builder.verifiedJwtCache;
+        this.rejectedJwtCache = builder.rejectedJwtCache;
+
+        MetricRegistry metricRegistry = builder.metricRegistry != null ? builder.metricRegistry : new MetricRegistry();
+        this.reloads = metricRegistry.timer(name(TrustReloader.class, "reloads"));
+        this.failures = metricRegistry.meter(name(TrustReloader.class, "failures"));
+
+        // The verifier was built from the file as it is now
+        this.loadedModificationTime = readModificationTime();
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Loads a new trust snapshot and rotates the verifier to it.
+     *
+     * @return the snapshot now in force
+     * @throws RuntimeException if the snapshot can't be loaded, in which case the current one stays in force
+     */
+    public synchronized TrustSnapshot reload() {
+        long modificationTime = readModificationTime();
+        TrustSnapshot snapshot;
+        try (Timer.Context ignored = reloads.time()) {
+            snapshot = loader.get();
+        } catch (RuntimeException e) {
+            failures.mark();
+            throw e;
+        }
+
+        jwtVerifier.rotate(snapshot);
+        loadedModificationTime = modificationTime;
+        if (rejectedJwtCache != null) {
+            rejectedJwtCache.invalidateAll();
+        }
+        if (verifiedJwtCache != null || !cacheInvalidations.isEmpty()) {
+            executor.schedule(this::invalidateVerified, jwtVerifier.getRotationOverlapMillis(), TimeUnit.MILLISECONDS);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Registers a cache built from verified tokens, e.g. of authenticated users, to be dropped along with the verified
+     * tokens once the overlap of each rotation ends.
+     *
+     * @param invalidateAll drops every entry of the cache
+     */
+    public void addCacheInvalidation(Runnable invalidateAll) {
+        cacheInvalidations.add(invalidateAll);
+    }
+
+    private void invalidateVerified() {
+        // Drop the verified tokens first so that the dependent caches can't be filled again from them
+        if (verifiedJwtCache != null) {
+            verifiedJwtCache.invalidateAll();
+        }
+        for (Runnable invalidateAll : cacheInvalidations) {
+            invalidateAll.run();
+        }
+    }
+
+    /**
+     * Reloads the trust snapshot if the watched file has changed since it was last loaded. A file that fails to load,
+     * e.g. because it's only partly written, is tried again on the next check.
+     */
+    public void reloadIfChanged() {
+        if (watchedFile == null || readModificationTime() == loadedModificationTime) {
+            return;
+        }
+        try {
+            LOGGER.info("{} has changed, reloading JWT trust", watchedFile);
+            reload();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not reload JWT trust from {}", watchedFile, e);
+        }
+    }
+
+    /**
+     * Checks the watched file for changes every {@code interval}.
+     */
+    public void watch(long interval, TimeUnit unit) {
+        if (watchedFile == null) {
+            LOGGER.warn("JWT trust isn't loaded from a file, so changes to it can't be watched for");
+            return;
+        }
+        executor.scheduleWithFixedDelay(this::reloadIfChanged, interval, interval, unit);
+    }
+
+    private long readModificationTime() {
+        if (watchedFile == null) {
+            return 0;
+        }
+        try {
+            return Files.getLastModifiedTime(watchedFile).toMillis();
+        } catch (IOException e) {
+            // Try again on the next check, the file may be in the middle of being replaced
+            return loadedModificationTime;
+        }
+    }
+
+    /*
+     * Builder
+     */
+
+    public static final class Builder {
+        private JwtVerifier jwtVerifier;
+        private Supplier<TrustSnapshot> loader;
+        private Path watchedFile;
+        private ScheduledExecutorService executor;
+        private VerifiedJwtCache verifiedJwtCache;
+        private RejectedJwtCache rejectedJwtCache;
+        private MetricRegistry metricRegistry;
+
+        private Builder() {
+        }
+
+        public Builder withJwtVerifier(JwtVerifier val) {
+            jwtVerifier = val;
+            return this;
+        }
+
+        /**
+         * @param val loads the trust snapshot, throwing if it can't
+         */
+        public Builder withLoader(Supplier<TrustSnapshot> val) {
+            loader = val;
+            return this;
+        }
+
+        /**
+         * @param val the file the trust snapshot is loaded from, or null if it isn't loaded from a file
+         */
+        public Builder withWatchedFile(Path val) {
+            watchedFile = val;
+            return this;
+        }
+
+        /**
+         * @param val executor for checking the watched file and dropping verified tokens after a rotation
+         */
+        public Builder withExecutor(ScheduledExecutorService val) {
+            executor = val;
+            return this;
+        }
+
+        public Builder withVerifiedJwtCache(VerifiedJwtCache val) {
+            verifiedJwtCache = val;
+            return this;
+        }
+
+        public Builder withRejectedJwtCache(RejectedJwtCache val) {
+            rejectedJwtCache = val;
+            return this;
+        }
+
+        public Builder withMetricRegistry(MetricRegistry val) {
+            metricRegistry = val;
+            return this;
+        }
+
+        public TrustReloader build() {
+            Objects.requireNonNull(jwtVerifier, "jwtVerifier");
+            Objects.requireNonNull(loader, "loader");
+            Objects.requireNonNull(executor, "executor");
+            return new TrustReloader(this);
+        }
+    }
+}
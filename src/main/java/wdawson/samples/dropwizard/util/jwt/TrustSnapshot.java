@@ -0,0 +1,141 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.nimbusds.jose.JWSAlgorithm;
+import wdawson.samples.dropwizard.util.pki.TrustAnchorIndex;
+
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The trust material and signer policy that {@link JwtVerifier} checks tokens against: the trusted certificates, the
+ * preloaded signing keys, the allowed signer DN pattern and the allowed algorithms.
+ *
+ * A snapshot never changes once built. Rotating keys means building a new snapshot and handing it to
+ * {@link JwtVerifier#rotate}, so a verification always sees one consistent set of keys and policy.
+ *
+ * @author wdawson
+ */
+public final class TrustSnapshot {
+
+    /**
+     * Regex pattern for verifying JWT is signed by an allowed signer. The subject DN of the signing certificate must
+     * match this pattern. This particularly useful for locking down access when there are multiple issuing certs from
+     * the same root CA with differing access domains e.g. to prevent access between dev and prod services.
+     */
+    private final Pattern allowedSignerDnPattern;
+
+    /**
+     * JWS algorithms that tokens may be signed with.
+     */
+    private final Set<JWSAlgorithm> allowedAlgorithms;
+
+    /**
+     * Trusted certificates that signing certificates must chain to.
+     */
+    private final TrustAnchorIndex trustAnchors;
+
+    /**
+     * Preloaded signing certificates for tokens that identify their signer with 'kid' or 'x5t#S256'.
+     */
+    private final SigningKeySet signingKeySet;
+
+    /**
+     * Fingerprints of signing certificates that have already matched {@link #allowedSignerDnPattern}. The cache lives
+     * with the pattern so that a rotation never carries acceptances over to a different policy.
+     */
+    private final Cache<HashCode, Boolean> acceptedSigners = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .build();
+
+    private TrustSnapshot(Builder builder) {
+        this.allowedSignerDnPattern = builder.allowedSignerPattern;
+        this.allowedAlgorithms = builder.allowedAlgorithms != null
+                ? ImmutableSet.copyOf(builder.allowedAlgorithms)
+                : SignatureVerifierPool.SUPPORTED_ALGORITHMS;
+        this.trustAnchors = new TrustAnchorIndex(builder.trustedCertificates != null
+                ? builder.trustedCertificates
+                : ImmutableList.<X509Certificate>of());
+        this.signingKeySet = builder.signingKeySet != null ? builder.signingKeySet : SigningKeySet.EMPTY;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public Pattern getAllowedSignerDnPattern() {
+        return allowedSignerDnPattern;
+    }
+
+    public Set<JWSAlgorithm> getAllowedAlgorithms() {
+        return allowedAlgorithms;
+    }
+
+    public TrustAnchorIndex getTrustAnchors() {
+        return trustAnchors;
+    }
+
+    public SigningKeySet getSigningKeySet() {
+        return signingKeySet;
+    }
+
+    Cache<HashCode, Boolean> getAcceptedSigners() {
+        return acceptedSigners;
+    }
+
+    @Override
+    public String toString() {
+        return "TrustSnapshot{" +
+                "allowedSignerDnPattern=" + allowedSignerDnPattern +
+                ", allowedAlgorithms=" + allowedAlgorithms +
+                ", trustedCertificates=" + trustAnchors.getTrustedCertificates().size() +
+                ", signingKeys=" + signingKeySet.size() +
+                '}';
+    }
+
+    /*
+     * Builder
+     */
+
+    public static final class Builder {
+        private Pattern allowedSignerPattern;
+        private Set<JWSAlgorithm> allowedAlgorithms;
+        private List<X509Certificate> trustedCertificates;
+        private SigningKeySet signingKeySet;
+
+        private Builder() {
+        }
+
+        public Builder withAllowedSignerPattern(Pattern val) {
+            allowedSignerPattern = val;
+            return this;
+        }
+
+        public Builder withAllowedAlgorithms(Set<JWSAlgorithm> val) {
+            allowedAlgorithms = val;
+            return this;
+        }
+
+        public Builder withTrustedCertificates(List<X509Certificate> val) {
+            trustedCertificates = val;
+            return this;
+        }
+
+        public Builder withSigningKeySet(SigningKeySet val) {
+            signingKeySet = val;
+            return this;
+        }
+
+        public TrustSnapshot build() {
+            Objects.requireNonNull(allowedSignerPattern, "allowedSignerPattern");
+            return new TrustSnapshot(this);
+        }
+    }
+}
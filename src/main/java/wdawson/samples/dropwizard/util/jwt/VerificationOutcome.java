@@ -0,0 +1,71 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
+
+/**
+ * The outcome of verifying a token ahead of the Jersey auth filter.
+ *
+ * The caches can't be relied on to carry it over to the request once it's dispatched: rejections that may not happen
+ * again aren't cached, and either cache may have evicted the entry by then. Instead, the outcome is made current on the
+ * thread handling the dispatched request, where the authenticator picks it up rather than verifying the token again.
+ *
+ * @author wdawson
+ */
+public final class VerificationOutcome {
+
+    private static final ThreadLocal<VerificationOutcome> CURRENT = new ThreadLocal<>();
+
+    private final String token;
+    private final JwtClaims claims;
+    private final Exception failure;
+
+    private VerificationOutcome(String token, JwtClaims claims, Exception failure) {
+        this.token = token;
+        this.claims = claims;
+        this.failure = failure;
+    }
+
+    public static VerificationOutcome verified(String token, JwtClaims claims) {
+        return new VerificationOutcome(token, claims, null);
+    }
+
+    /**
+     * @param failure the exception the verifier threw for the token
+     */
+    public static VerificationOutcome failed(String token, Exception failure) {
+        return new VerificationOutcome(token, null, failure);
+    }
+
+    /**
+     * @return the outcome made current on this thread, or null if there isn't one for the given token
+     */
+    public static VerificationOutcome current(String token) {
+        VerificationOutcome outcome = CURRENT.get();
+        return outcome != null && outcome.token.equals(token) ? outcome : null;
+    }
+
+    /**
+     * Makes this the current outcome on this thread until {@link #clearCurrent()} is called.
+     */
+    public void makeCurrent() {
+        CURRENT.set(this);
+    }
+
+    public static void clearCurrent() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return the verified claims, or null if the token was rejected
+     */
+    public JwtClaims getClaims() {
+        return claims;
+    }
+
+    /**
+     * @return the exception the verifier threw, or null if the token was verified
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+}
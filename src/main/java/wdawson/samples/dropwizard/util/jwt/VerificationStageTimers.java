@@ -0,0 +1,111 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Timers for each stage of verifying a token, so it's clear where the time goes.
+ *
+ * Only one in every {@code sampleRate} verifications is timed. Unsampled verifications get a shared no-op
+ * {@link Laps}, so they only pay for the sampling decision. A stage is only timed when the token gets through it.
+ *
+ * @author wdawson
+ */
+public class VerificationStageTimers {
+
+    /**
+     * Timers that never time anything.
+     */
+    public static final VerificationStageTimers DISABLED = new VerificationStageTimers();
+
+    public enum Stage {
+        /** Splitting the token and decoding its header */
+        PARSE,
+        /** Checking the JWS algorithm */
+        ALGORITHM,
+        /** Looking up or decoding the signing certificate chain */
+        CERTIFICATE_CHAIN,
+        /** Chaining the signer to a trust anchor, validating the path and checking revocation */
+        TRUST,
+        /** Matching the signer DN */
+        SIGNER,
+        /** Decoding the payload */
+        PAYLOAD,
+        /** Checking the time claims */
+        TIME,
+        /** Matching the issuer to the signer */
+        ISSUER,
+        /** Verifying the signature */
+        SIGNATURE
+    }
+
+    private final Clock clock;
+    private final int sampleRate;
+    private final Map<Stage, Timer> timers = new EnumMap<>(Stage.class);
+
+    /**
+     * @param metricRegistry registry for the stage timers
+     * @param clock the clock to time the stages with
+     * @param sampleRate time one in every this many verifications; 0 disables timing
+     */
+    public VerificationStageTimers(MetricRegistry metricRegistry, Clock clock, int sampleRate) {
+        this.clock = clock;
+        this.sampleRate = sampleRate;
+        for (Stage stage : Stage.values()) {
+            timers.put(stage, metricRegistry.timer(
+                    name(JwtVerifier.class, "stages", stage.name().toLowerCase(Locale.ENGLISH))));
+        }
+    }
+
+    private VerificationStageTimers() {
+        this.clock = null;
+        this.sampleRate = 0;
+    }
+
+    /**
+     * Starts timing a verification if it's sampled.
+     *
+     * @return laps to record each stage as it completes
+     */
+    public Laps start() {
+        if (sampleRate <= 0 || (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0)) {
+            return Laps.NONE;
+        }
+        return new Laps(this, clock.getTick());
+    }
+
+    public static class Laps {
+        private static final Laps NONE = new Laps(null, 0);
+
+        private final VerificationStageTimers stageTimers;
+        private long lastTick;
+
+        private Laps(VerificationStageTimers stageTimers, long startTick) {
+            this.stageTimers = stageTimers;
+            this.lastTick = startTick;
+        }
+
+        /**
+         * Records the time since the previous stage completed, or since timing started, against the given stage.
+         *
+         * @param stage the stage that just completed
+         */
+        public void lap(Stage stage) {
+            if (stageTimers == null) {
+                return;
+            }
+            long tick = stageTimers.clock.getTick();
+            stageTimers.timers.get(stage).update(tick - lastTick, TimeUnit.NANOSECONDS);
+            lastTick = tick;
+        }
+    }
+}
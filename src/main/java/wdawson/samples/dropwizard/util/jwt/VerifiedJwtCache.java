@@ -0,0 +1,156 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Cache of tokens that have already passed {@link JwtVerifier#authenticate(wdawson.samples.dropwizard.util.jwt.dto.Jwt)}.
+ *
+ * Entries are keyed by a SHA-256 digest of the raw token string so the cache never holds on to bearer credentials, and
+ * an entry is never returned once the verifier would reject the token as expired. Tokens without an expiration time
+ * are only bounded by the cache policy.
+ *
+ * @author wdawson
+ */
+public class VerifiedJwtCache {
+
+    private static final HashFunction TOKEN_DIGEST = Hashing.sha256();
+
+    private final Cache<HashCode, Entry> cache;
+    private final Clock clock;
+
+    private final Meter hits;
+    private final Meter misses;
+    private final Meter evictions;
+
+    public VerifiedJwtCache(MetricRegistry metricRegistry, CacheBuilderSpec cacheSpec) {
+        this(metricRegistry, cacheSpec, Clock.defaultClock());
+    }
+
+    public VerifiedJwtCache(MetricRegistry metricRegistry, CacheBuilderSpec cacheSpec, Clock clock) {
+        this.clock = clock;
+        this.hits = metricRegistry.meter(name(VerifiedJwtCache.class, "hits"));
+        this.misses = metricRegistry.meter(name(VerifiedJwtCache.class, "misses"));
+        this.evictions = metricRegistry.meter(name(VerifiedJwtCache.class, "evictions"));
+
+        this.cache = CacheBuilder.from(cacheSpec)
+                .removalListener(notification -> {
+                    if (notification.wasEvicted()) {
+                        evictions.mark();
+                    }
+                })
+                .build();
+
+        metricRegistry.register(name(VerifiedJwtCache.class, "size"), (Gauge<Long>) cache::size);
+    }
+
+    /**
+     * Gets the verified claims for a token if they are cached and the token has not expired.
+     *
+     * @param token the raw JWT string
+     * @return the verified claims or null if the token must be verified
+     */
+    public JwtClaims getIfPresent(String token) {
+        HashCode key = digest(token);
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null) {
+            misses.mark();
+            return null;
+        }
+
+        if (entry.expirationDeadline <= clock.getTime()) {
+            // Explicit invalidation doesn't count as an eviction in the removal listener, so count it here.
+            cache.invalidate(key);
+            evictions.mark();
+            misses.mark();
+            return null;
+        }
+
+        hits.mark();
+        return entry.claims;
+    }
+
+    /**
+     * Checks whether a token is cached and has not expired, without recording a hit or miss.
+     *
+     * @param token the raw JWT string
+     * @return true if {@link #getIfPresent(String)} would currently return claims for the token
+     */
+    public boolean contains(String token) {
+        Entry entry = cache.getIfPresent(digest(token));
+        return entry != null && entry.expirationDeadline > clock.getTime();
+    }
+
+    /**
+     * Caches the claims of a token which has passed verification.
+     *
+     * @param token the raw JWT string
+     * @param claims the claims returned by the verifier
+     */
+    public void put(String token, JwtClaims claims) {
+        long expirationDeadline = JwtVerifier.getExpirationDeadline(claims);
+        if (expirationDeadline > clock.getTime()) {
+            cache.put(digest(token), new Entry(claims, expirationDeadline));
+        }
+    }
+
+    /**
+     * Forgets that a token was verified.
+     *
+     * @param token the raw JWT string
+     */
+    public void invalidate(String token) {
+        invalidate(digest(token));
+    }
+
+    /**
+     * Forgets that a token was verified.
+     *
+     * @param tokenDigest the digest of the raw JWT string, as returned by {@link #digest(String)}
+     */
+    public void invalidate(HashCode tokenDigest) {
+        cache.invalidate(tokenDigest);
+    }
+
+    /**
+     * Forgets every verified token, e.g. once the keys that verified them may no longer be trusted.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * @param token the raw JWT string
+     * @return the SHA-256 digest the token is cached under
+     */
+    public static HashCode digest(String token) {
+        return TOKEN_DIGEST.hashString(token, StandardCharsets.UTF_8);
+    }
+
+    private static final class Entry {
+        private final JwtClaims claims;
+        private final long expirationDeadline;
+
+        private Entry(JwtClaims claims, long expirationDeadline) {
+            this.claims = claims;
+            this.expirationDeadline = expirationDeadline;
+        }
+    }
+}
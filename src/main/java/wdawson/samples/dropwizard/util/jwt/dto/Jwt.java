@@ -1,33 +1,105 @@
 package wdawson.samples.dropwizard.util.jwt.dto;
 
-import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.util.Base64URL;
 import wdawson.samples.dropwizard.util.jwt.exception.JwtParseException;
 
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 
 /**
+ * A compact serialized JWS that is parsed in stages.
+ *
+ * Only the header is decoded up front, since it carries everything needed to decide whether the token could be
+ * accepted at all (the algorithm and the signer). The payload is decoded into claims the first time they're asked for, so
+ * tokens rejected on their header never pay for it.
+ *
  * @author Jon Todd
  */
 public final class Jwt {
 
-    private final JWSObject jwsObject;
     private final String jwtString;
+    private final JWSHeader header;
+    private final Base64URL encodedPayload;
+    private final Base64URL signature;
+    private final int headerLength;
+    private final int signingInputLength;
 
-    protected Jwt(JWSObject jwsObject, String jwtString) {
-        this.jwsObject = jwsObject;
+    private volatile JwtClaims claims;
+
+    private Jwt(String jwtString, JWSHeader header, Base64URL encodedPayload, Base64URL signature, int headerLength,
+                int signingInputLength) {
         this.jwtString = jwtString;
+        this.header = header;
+        this.encodedPayload = encodedPayload;
+        this.signature = signature;
+        this.headerLength = headerLength;
+        this.signingInputLength = signingInputLength;
     }
 
+    /**
+     * Splits the token into its parts and parses the header. The payload isn't decoded.
+     *
+     * @param token the compact serialized JWS
+     * @return the JWT
+     * @throws JwtParseException if the token isn't made of three parts or the header can't be parsed
+     */
     public static Jwt newFromString(String token) throws JwtParseException {
+        int firstDot = token.indexOf('.');
+        int secondDot = firstDot < 0 ? -1 : token.indexOf('.', firstDot + 1);
+        if (secondDot < 0 || token.indexOf('.', secondDot + 1) >= 0) {
+            throw new JwtParseException("Invalid serialized JWS object: Expected 3 parts");
+        }
+
         try {
-            return new Jwt(JWSObject.parse(token), token);
+            JWSHeader header = JWSHeader.parse(new Base64URL(token.substring(0, firstDot)));
+            return new Jwt(token, header, new Base64URL(token.substring(firstDot + 1, secondDot)),
+                    new Base64URL(token.substring(secondDot + 1)), firstDot, secondDot);
         } catch (ParseException e) {
-            throw new JwtParseException(e);
+            // Only keep the message, the cause's stack trace isn't needed to report a malformed header
+            throw new JwtParseException("Invalid JWT header: " + e.getMessage());
+        }
+    }
+
+    public JWSHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Returns the header exactly as it was encoded in the token. Tokens from the same signer usually share it.
+     *
+     * @return the encoded header
+     */
+    public String getEncodedHeader() {
+        return jwtString.substring(0, headerLength);
+    }
+
+    /**
+     * Decodes the payload into claims on first use.
+     *
+     * @return the payload claims
+     * @throws JwtParseException if the payload is not a JSON object of claims
+     */
+    public JwtClaims getClaims() throws JwtParseException {
+        JwtClaims result = claims;
+        if (result == null) {
+            result = JwtClaims.parse(encodedPayload.decodeToString());
+            claims = result;
         }
+        return result;
+    }
+
+    /**
+     * Returns the bytes the signature was computed over: the encoded header and payload joined by a period.
+     *
+     * @return the signing input
+     */
+    public byte[] getSigningInput() {
+        return jwtString.substring(0, signingInputLength).getBytes(StandardCharsets.US_ASCII);
     }
 
-    public JWSObject getJwsObject() {
-        return jwsObject;
+    public Base64URL getSignature() {
+        return signature;
     }
 
     /**
@@ -3,14 +3,21 @@ package wdawson.samples.dropwizard.util.jwt.dto;
 import com.google.common.collect.Sets;
 import org.joda.time.DateTimeConstants;
 import wdawson.samples.dropwizard.util.jwt.exception.JwtClaimException;
+import wdawson.samples.dropwizard.util.jwt.exception.JwtParseException;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
 /**
+ * The claims of a JWT.
+ *
+ * The reserved claims are held as typed fields, with the time claims as primitive seconds since the epoch. Custom
+ * claims are held in a map, which claims decoded from a token share when they have none.
+ *
  * @author Jon Todd
  */
 public final class JwtClaims {
@@ -22,15 +29,44 @@ public final class JwtClaims {
     public static final String EXPIRATION_TIME = "exp";
     public static final String NOT_BEFORE = "nbf";
     public static final String ISSUED_AT = "iat";
-    private static final Set<String> RESERVED_CLAIMS = Sets.newHashSet(JWT_ID, SUBJECT, AUDIENCE, ISSUER, ISSUED_AT,
+    static final Set<String> RESERVED_CLAIMS = Sets.newHashSet(JWT_ID, SUBJECT, AUDIENCE, ISSUER, ISSUED_AT,
             EXPIRATION_TIME, NOT_BEFORE, ISSUED_AT);
 
-    private final Map<String, Object> claimsMap;
-    private final Set<String> customClaimKeys;
+    /**
+     * Value of the time claims when they are absent.
+     */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private final String jwtId;
+    private final String subject;
+    private final Object audience;
+    private final String issuer;
+    private final long issuedAt;
+    private final long expirationTime;
+    private final long notBefore;
+    private final Map<String, Object> customClaims;
+
+    JwtClaims(String jwtId, String subject, Object audience, String issuer, long issuedAt, long expirationTime,
+              long notBefore, Map<String, Object> customClaims) {
+        this.jwtId = jwtId;
+        this.subject = subject;
+        this.audience = audience;
+        this.issuer = issuer;
+        this.issuedAt = issuedAt;
+        this.expirationTime = expirationTime;
+        this.notBefore = notBefore;
+        this.customClaims = customClaims;
+    }
 
-    private JwtClaims(Map<String, Object> claimsMap, Set<String> customClaimKeys) {
-        this.claimsMap = claimsMap;
-        this.customClaimKeys = customClaimKeys;
+    /**
+     * Decodes the claims of a token from its JSON payload in a single pass.
+     *
+     * @param json the decoded payload
+     * @return the claims
+     * @throws JwtParseException if the payload is not a JSON object or a reserved claim has the wrong type
+     */
+    public static JwtClaims parse(String json) throws JwtParseException {
+        return new JwtClaimsDecoder(json).decode();
     }
 
     public static final class JwtClaimsBuilder {
@@ -105,63 +141,117 @@ public final class JwtClaims {
         }
 
         public JwtClaims build() {
-            Set<String> customClaimKeys = new HashSet<String>();
-            for (String key : claimsMap.keySet()) {
-                if (!JwtClaims.RESERVED_CLAIMS.contains(key)) {
-                    customClaimKeys.add(key);
+            Map<String, Object> customClaims = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> claim : claimsMap.entrySet()) {
+                if (!JwtClaims.RESERVED_CLAIMS.contains(claim.getKey())) {
+                    customClaims.put(claim.getKey(), claim.getValue());
                 }
             }
-            return new JwtClaims(claimsMap, customClaimKeys);
+            return new JwtClaims(
+                    toStringOrNull(claimsMap.get(JWT_ID)),
+                    toStringOrNull(claimsMap.get(SUBJECT)),
+                    claimsMap.get(AUDIENCE),
+                    toStringOrNull(claimsMap.get(ISSUER)),
+                    toSeconds(claimsMap.get(ISSUED_AT)),
+                    toSeconds(claimsMap.get(EXPIRATION_TIME)),
+                    toSeconds(claimsMap.get(NOT_BEFORE)),
+                    Collections.unmodifiableMap(customClaims));
+        }
+
+        private static String toStringOrNull(Object value) {
+            return value == null ? null : value.toString();
+        }
+
+        private static long toSeconds(Object value) {
+            return value == null ? NO_TIME : ((Number) value).longValue();
         }
     }
 
+    /**
+     * Returns a claim by name. Time claims are returned as a {@code Long} of seconds since the epoch.
+     *
+     * @param key the claim name
+     * @return the claim value, or null if the claim is absent
+     */
     public Object getClaim(String key) {
-        return claimsMap.get(key);
+        switch (key) {
+            case JWT_ID:
+                return jwtId;
+            case SUBJECT:
+                return subject;
+            case AUDIENCE:
+                return audience;
+            case ISSUER:
+                return issuer;
+            case ISSUED_AT:
+                return boxTime(issuedAt);
+            case EXPIRATION_TIME:
+                return boxTime(expirationTime);
+            case NOT_BEFORE:
+                return boxTime(notBefore);
+            default:
+                return customClaims.get(key);
+        }
     }
 
     public Set<String> getCustomClaimKeys() {
-        return customClaimKeys;
+        return customClaims.keySet();
     }
 
     public String getJwtId() {
-        return getClaimAsString(JWT_ID);
+        return jwtId;
     }
 
     public String getSubject() {
-        return getClaimAsString(SUBJECT);
+        return subject;
     }
 
     public String getAudience() {
-        return getClaimAsString(AUDIENCE);
+        return audience == null ? null : audience.toString();
     }
 
     public String getIssuer() {
-        return getClaimAsString(ISSUER);
+        return issuer;
     }
 
     public Date getIssuedAt() {
-        return getClaimAsDate(ISSUED_AT);
+        return toDate(issuedAt);
     }
 
     public Date getExpirationTime() {
-        return getClaimAsDate(EXPIRATION_TIME);
+        return toDate(expirationTime);
     }
 
     public Date getNotBefore() {
-        return getClaimAsDate(NOT_BEFORE);
+        return toDate(notBefore);
     }
 
-    private String getClaimAsString(String key) {
-        if (getClaim(key) == null) {
-            return null;
-        }
-        return getClaim(key).toString();
+    /**
+     * @return seconds since the epoch, or {@link #NO_TIME} if the claim is absent
+     */
+    public long getIssuedAtSeconds() {
+        return issuedAt;
     }
 
-    private Date getClaimAsDate(String key) {
-        if (getClaim(key) == null) {
-            return null;
-        }
-        return new Date((Long) getClaim(key) * DateTimeConstants.MILLIS_PER_SECOND);
+    /**
+     * @return seconds since the epoch, or {@link #NO_TIME} if the claim is absent
+     */
+    public long getExpirationTimeSeconds() {
+        return expirationTime;
+    }
+
+    /**
+     * @return seconds since the epoch, or {@link #NO_TIME} if the claim is absent
+     */
+    public long getNotBeforeSeconds() {
+        return notBefore;
+    }
+
+    private static Long boxTime(long seconds) {
+        return seconds == NO_TIME ? null : seconds;
+    }
+
+    private static Date toDate(long seconds) {
+        return seconds == NO_TIME ? null : new Date(seconds * DateTimeConstants.MILLIS_PER_SECOND);
     }
 }
@@ -0,0 +1,423 @@
+package wdawson.samples.dropwizard.util.jwt.dto;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import wdawson.samples.dropwizard.util.jwt.exception.JwtParseException;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes a JWT payload straight into {@link JwtClaims} in a single pass over the JSON.
+ *
+ * Reserved claim names are matched in place, so no key strings are allocated unless a key has escapes, and the time
+ * claims are read as primitives. Custom claims are decoded in the same pass into strings, booleans, {@code Long}s (or
+ * {@code BigInteger}s), {@code Double}s, lists and maps, so the payload is never handed to a second JSON parser.
+ *
+ * @author wdawson
+ */
+final class JwtClaimsDecoder {
+
+    private static final int MAX_DEPTH = 32;
+
+    private final String json;
+    private int pos;
+
+    JwtClaimsDecoder(String json) {
+        this.json = json;
+    }
+
+    JwtClaims decode() throws JwtParseException {
+        String jwtId = null;
+        String subject = null;
+        Object audience = null;
+        String issuer = null;
+        long issuedAt = JwtClaims.NO_TIME;
+        long expirationTime = JwtClaims.NO_TIME;
+        long notBefore = JwtClaims.NO_TIME;
+        Map<String, Object> customClaims = null;
+
+        expect('{');
+        if (peek() == '}') {
+            pos++;
+        } else {
+            do {
+                expect('"');
+                int keyStart = pos;
+                skipStringBody();
+                int keyEnd = pos - 1;
+                // Keys with escapes are decoded so that an escaped reserved claim name still matches
+                String key = hasEscapes(keyStart, keyEnd) ? readKey(keyStart) : null;
+                expect(':');
+
+                if (keyMatches(keyStart, keyEnd, key, JwtClaims.JWT_ID)) {
+                    jwtId = readNullableString(JwtClaims.JWT_ID);
+                } else if (keyMatches(keyStart, keyEnd, key, JwtClaims.SUBJECT)) {
+                    subject = readNullableString(JwtClaims.SUBJECT);
+                } else if (keyMatches(keyStart, keyEnd, key, JwtClaims.ISSUER)) {
+                    issuer = readNullableString(JwtClaims.ISSUER);
+                } else if (keyMatches(keyStart, keyEnd, key, JwtClaims.AUDIENCE)) {
+                    audience = readAudience();
+                } else if (keyMatches(keyStart, keyEnd, key, JwtClaims.ISSUED_AT)) {
+                    issuedAt = readNullableTime(JwtClaims.ISSUED_AT);
+                } else if (keyMatches(keyStart, keyEnd, key, JwtClaims.EXPIRATION_TIME)) {
+                    expirationTime = readNullableTime(JwtClaims.EXPIRATION_TIME);
+                } else if (keyMatches(keyStart, keyEnd, key, JwtClaims.NOT_BEFORE)) {
+                    notBefore = readNullableTime(JwtClaims.NOT_BEFORE);
+                } else {
+                    if (customClaims == null) {
+                        customClaims = new LinkedHashMap<>();
+                    }
+                    customClaims.put(key != null ? key : readKey(keyStart), readValue(1));
+                }
+            } while (nextMember('}'));
+        }
+
+        skipWhitespace();
+        if (pos != json.length()) {
+            throw error("Unexpected content after the claims object");
+        }
+
+        return new JwtClaims(jwtId, subject, audience, issuer, issuedAt, expirationTime, notBefore,
+                customClaims == null ? ImmutableMap.<String, Object>of() : Collections.unmodifiableMap(customClaims));
+    }
+
+    /**
+     * Matches a key in place, or by its decoded value if it has escapes.
+     *
+     * @param decodedKey the decoded key if it has escapes, otherwise null
+     */
+    private boolean keyMatches(int start, int end, String decodedKey, String key) {
+        if (decodedKey != null) {
+            return decodedKey.equals(key);
+        }
+        return end - start == key.length() && json.regionMatches(start, key, 0, key.length());
+    }
+
+    private boolean hasEscapes(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (json.charAt(i) == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes a key which has already been skipped, starting just after its opening quote.
+     */
+    private String readKey(int keyStart) throws JwtParseException {
+        int end = pos;
+        pos = keyStart;
+        String key = readStringBody();
+        pos = end;
+        return key;
+    }
+
+    private String readNullableString(String claim) throws JwtParseException {
+        char c = peek();
+        if (c == '"') {
+            pos++;
+            return readStringBody();
+        }
+        if (c == 'n') {
+            expectLiteral("null");
+            return null;
+        }
+        throw error("Claim '" + claim + "' must be a string");
+    }
+
+    private Object readAudience() throws JwtParseException {
+        if (peek() != '[') {
+            return readNullableString(JwtClaims.AUDIENCE);
+        }
+        pos++;
+        ImmutableList.Builder<String> audiences = ImmutableList.builder();
+        if (peek() == ']') {
+            pos++;
+            return audiences.build();
+        }
+        do {
+            expect('"');
+            audiences.add(readStringBody());
+        } while (nextMember(']'));
+        return audiences.build();
+    }
+
+    private long readNullableTime(String claim) throws JwtParseException {
+        char c = peek();
+        if (c == 'n') {
+            expectLiteral("null");
+            return JwtClaims.NO_TIME;
+        }
+        if (c != '-' && (c < '0' || c > '9')) {
+            throw error("Claim '" + claim + "' must be a number");
+        }
+        int start = pos;
+        boolean integral = skipNumber();
+        // Integers short enough not to overflow are accumulated directly, anything else goes through a double
+        if (integral && pos - start <= 18) {
+            boolean negative = json.charAt(start) == '-';
+            long value = 0;
+            for (int i = negative ? start + 1 : start; i < pos; i++) {
+                value = value * 10 + (json.charAt(i) - '0');
+            }
+            return negative ? -value : value;
+        }
+        return (long) Double.parseDouble(json.substring(start, pos));
+    }
+
+    private Object readValue(int depth) throws JwtParseException {
+        if (depth > MAX_DEPTH) {
+            throw error("Claims are nested too deeply");
+        }
+        char c = peek();
+        switch (c) {
+            case '"':
+                pos++;
+                return readStringBody();
+            case '{':
+                pos++;
+                Map<String, Object> object = new LinkedHashMap<>();
+                if (peek() == '}') {
+                    pos++;
+                    return object;
+                }
+                do {
+                    expect('"');
+                    String key = readStringBody();
+                    expect(':');
+                    object.put(key, readValue(depth + 1));
+                } while (nextMember('}'));
+                return object;
+            case '[':
+                pos++;
+                List<Object> array = new ArrayList<>();
+                if (peek() == ']') {
+                    pos++;
+                    return array;
+                }
+                do {
+                    array.add(readValue(depth + 1));
+                } while (nextMember(']'));
+                return array;
+            case 't':
+                expectLiteral("true");
+                return Boolean.TRUE;
+            case 'f':
+                expectLiteral("false");
+                return Boolean.FALSE;
+            case 'n':
+                expectLiteral("null");
+                return null;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return readNumber();
+                }
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Number readNumber() throws JwtParseException {
+        int start = pos;
+        boolean integral = skipNumber();
+        String number = json.substring(start, pos);
+        if (!integral) {
+            return Double.parseDouble(number);
+        }
+        return pos - start <= 18 ? (Number) Long.parseLong(number) : new BigInteger(number);
+    }
+
+    /**
+     * Skips a number, leaving the position just after it.
+     *
+     * @return true if the number has no fraction or exponent
+     */
+    private boolean skipNumber() throws JwtParseException {
+        boolean integral = true;
+        if (json.charAt(pos) == '-') {
+            pos++;
+        }
+        skipDigits();
+        if (pos < json.length() && json.charAt(pos) == '.') {
+            pos++;
+            skipDigits();
+            integral = false;
+        }
+        if (pos < json.length() && (json.charAt(pos) == 'e' || json.charAt(pos) == 'E')) {
+            pos++;
+            if (pos < json.length() && (json.charAt(pos) == '+' || json.charAt(pos) == '-')) {
+                pos++;
+            }
+            skipDigits();
+            integral = false;
+        }
+        return integral;
+    }
+
+    private void skipDigits() throws JwtParseException {
+        int start = pos;
+        while (pos < json.length() && json.charAt(pos) >= '0' && json.charAt(pos) <= '9') {
+            pos++;
+        }
+        if (pos == start) {
+            throw error("Expected a digit");
+        }
+    }
+
+    /**
+     * Reads the rest of a string whose opening quote has been consumed. Strings without escapes are a single
+     * substring.
+     */
+    private String readStringBody() throws JwtParseException {
+        int start = pos;
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if (c == '"') {
+                return json.substring(start, pos++);
+            }
+            if (c == '\\') {
+                StringBuilder builder = new StringBuilder(json.length() - start).append(json, start, pos);
+                return readEscapedStringBody(builder);
+            }
+            if (c < 0x20) {
+                throw error("Unescaped control character in string");
+            }
+            pos++;
+        }
+        throw error("Unterminated string");
+    }
+
+    private String readEscapedStringBody(StringBuilder builder) throws JwtParseException {
+        while (pos < json.length()) {
+            char c = json.charAt(pos++);
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c == '\\') {
+                builder.append(readEscape());
+            } else if (c < 0x20) {
+                throw error("Unescaped control character in string");
+            } else {
+                builder.append(c);
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private void skipStringBody() throws JwtParseException {
+        while (pos < json.length()) {
+            char c = json.charAt(pos++);
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                readEscape();
+            } else if (c < 0x20) {
+                throw error("Unescaped control character in string");
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    /**
+     * Reads an escape sequence whose backslash has been consumed.
+     */
+    private char readEscape() throws JwtParseException {
+        if (pos >= json.length()) {
+            throw error("Unterminated string");
+        }
+        char c = json.charAt(pos++);
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                if (pos + 4 > json.length()) {
+                    throw error("Invalid unicode escape");
+                }
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(json.charAt(pos++), 16);
+                    if (digit < 0) {
+                        throw error("Invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            default:
+                throw error("Invalid escape '\\" + c + "'");
+        }
+    }
+
+    /**
+     * Consumes the separator after a member of an object or array.
+     *
+     * @return true if another member follows, false if the closing character was consumed
+     */
+    private boolean nextMember(char close) throws JwtParseException {
+        char c = peek();
+        pos++;
+        if (c == ',') {
+            return true;
+        }
+        if (c == close) {
+            return false;
+        }
+        throw error("Expected ',' or '" + close + "'");
+    }
+
+    private void expectLiteral(String literal) throws JwtParseException {
+        if (!json.startsWith(literal, pos)) {
+            throw error("Expected '" + literal + "'");
+        }
+        pos += literal.length();
+    }
+
+    private void expect(char expected) throws JwtParseException {
+        if (peek() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+        pos++;
+    }
+
+    /**
+     * Skips whitespace and returns the next character without consuming it.
+     */
+    private char peek() throws JwtParseException {
+        skipWhitespace();
+        if (pos >= json.length()) {
+            throw error("Unexpected end of claims");
+        }
+        return json.charAt(pos);
+    }
+
+    private void skipWhitespace() {
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private JwtParseException error(String message) {
+        return new JwtParseException(String.format("Invalid JWT claims at position %d: %s", pos, message));
+    }
+}
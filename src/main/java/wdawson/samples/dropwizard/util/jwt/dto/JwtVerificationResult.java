@@ -0,0 +1,50 @@
+package wdawson.samples.dropwizard.util.jwt.dto;
+
+import wdawson.samples.dropwizard.util.jwt.exception.JwtParseException;
+import wdawson.samples.dropwizard.util.jwt.exception.JwtVerifyException;
+
+/**
+ * Outcome of verifying one token in a batch: either the verified claims or the reason the token was rejected.
+ *
+ * @author wdawson
+ */
+public final class JwtVerificationResult {
+
+    private final JwtClaims claims;
+    private final Exception failure;
+
+    private JwtVerificationResult(JwtClaims claims, Exception failure) {
+        this.claims = claims;
+        this.failure = failure;
+    }
+
+    public static JwtVerificationResult verified(JwtClaims claims) {
+        return new JwtVerificationResult(claims, null);
+    }
+
+    /**
+     * @param failure a {@link JwtParseException} or {@link JwtVerifyException}
+     * @return a result for a rejected token
+     */
+    public static JwtVerificationResult failed(Exception failure) {
+        return new JwtVerificationResult(null, failure);
+    }
+
+    public boolean isVerified() {
+        return failure == null;
+    }
+
+    /**
+     * @return the verified claims, or null if the token was rejected
+     */
+    public JwtClaims getClaims() {
+        return claims;
+    }
+
+    /**
+     * @return a {@link JwtParseException} or {@link JwtVerifyException}, or null if the token was verified
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+}
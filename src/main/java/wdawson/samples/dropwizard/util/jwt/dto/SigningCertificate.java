@@ -0,0 +1,73 @@
+package wdawson.samples.dropwizard.util.jwt.dto;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import wdawson.samples.dropwizard.util.pki.CertificateExtensions;
+
+import javax.security.auth.x500.X500Principal;
+import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+
+/**
+ * A decoded JWT signing certificate along with the values derived from it that are needed to verify a token.
+ *
+ * @author wdawson
+ */
+public final class SigningCertificate {
+
+    private final X509Certificate certificate;
+    private final PublicKey publicKey;
+    private final String subjectDn;
+    private final X500Principal subjectPrincipal;
+    private final X500Principal issuerPrincipal;
+    private final HashCode authorityKeyIdentifier;
+    private final HashCode fingerprint;
+
+    public SigningCertificate(X509Certificate certificate) throws CertificateEncodingException {
+        this.certificate = certificate;
+        this.publicKey = certificate.getPublicKey();
+        this.subjectDn = certificate.getSubjectDN().getName();
+        this.subjectPrincipal = certificate.getSubjectX500Principal();
+        this.issuerPrincipal = certificate.getIssuerX500Principal();
+        this.authorityKeyIdentifier = CertificateExtensions.getAuthorityKeyIdentifier(certificate);
+        this.fingerprint = Hashing.sha256().hashBytes(certificate.getEncoded());
+    }
+
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * @return the subject DN in the same format as {@code getSubjectDN().getName()}
+     */
+    public String getSubjectDn() {
+        return subjectDn;
+    }
+
+    public X500Principal getSubjectPrincipal() {
+        return subjectPrincipal;
+    }
+
+    public X500Principal getIssuerPrincipal() {
+        return issuerPrincipal;
+    }
+
+    /**
+     * @return the key identifier of the issuer's key, or null if the certificate doesn't say
+     */
+    public HashCode getAuthorityKeyIdentifier() {
+        return authorityKeyIdentifier;
+    }
+
+    /**
+     * @return SHA-256 digest of the DER encoded certificate
+     */
+    public HashCode getFingerprint() {
+        return fingerprint;
+    }
+}
@@ -1,16 +1,19 @@
 package wdawson.samples.dropwizard.util.jwt.exception;
 
 /**
+ * Malformed tokens are expected whenever garbage is presented, so like the {@link JwtVerifyException}s that carry a
+ * {@link RejectionReason}, this doesn't fill in a stack trace.
+ *
  * @author Jon Todd
  */
 public class JwtParseException extends Exception {
 
     public JwtParseException(String s) {
-        super(s);
+        super(s, null, false, false);
     }
 
     public JwtParseException(Throwable throwable) {
-        super(throwable);
+        super(throwable != null ? throwable.toString() : null, throwable, false, false);
     }
 
 }
@@ -1,20 +1,42 @@
 package wdawson.samples.dropwizard.util.jwt.exception;
 
 /**
+ * Exceptions with a {@link RejectionReason} are expected whenever a bad token is presented, so they don't fill in a
+ * stack trace.
+ *
  * @author Jon Todd
  */
 public class JwtVerifyException extends Exception {
 
+    private final RejectionReason reason;
+
     public JwtVerifyException(String s, Object... args) {
         super(String.format(s, args));
+        this.reason = RejectionReason.OTHER;
     }
 
     public JwtVerifyException(String message, Throwable cause) {
         super(message, cause);
+        this.reason = RejectionReason.OTHER;
     }
 
     public JwtVerifyException(Throwable throwable) {
         super(throwable);
+        this.reason = RejectionReason.OTHER;
+    }
+
+    public JwtVerifyException(RejectionReason reason, String s, Object... args) {
+        super(String.format(s, args), null, true, false);
+        this.reason = reason;
+    }
+
+    public JwtVerifyException(RejectionReason reason, String message, Throwable cause) {
+        super(message, cause, true, false);
+        this.reason = reason;
+    }
+
+    public RejectionReason getReason() {
+        return reason;
     }
 
 }
@@ -0,0 +1,50 @@
+package wdawson.samples.dropwizard.util.jwt.exception;
+
+/**
+ * Why a token was rejected.
+ *
+ * @author wdawson
+ */
+public enum RejectionReason {
+    MALFORMED(true),
+    TOKEN_TOO_LONG(true),
+    ALGORITHM_NOT_ALLOWED(true),
+    MISSING_CERTIFICATE_CHAIN(true),
+    UNTRUSTED_SIGNER(true),
+    INVALID_CERTIFICATE_CHAIN(true),
+    CERTIFICATE_REVOKED(true),
+    REVOCATION_STATUS_UNKNOWN(false),
+    SIGNER_NOT_ALLOWED(true),
+    ISSUER_MISMATCH(true),
+    ISSUED_IN_FUTURE(false),
+    NOT_YET_VALID(false),
+    EXPIRED(true),
+    INVALID_TIME_RANGE(true),
+    INVALID_SIGNATURE(true),
+    OTHER(false);
+
+    private final boolean permanent;
+
+    RejectionReason(boolean permanent) {
+        this.permanent = permanent;
+    }
+
+    /**
+     * @return true if presenting the same token again would be rejected for the same reason. Tokens that are not yet
+     * valid, or whose signer's revocation status couldn't be checked, may be accepted later.
+     */
+    public boolean isPermanent() {
+        return permanent;
+    }
+
+    /**
+     * @param e an exception thrown while parsing or verifying a token
+     * @return the reason the token was rejected
+     */
+    public static RejectionReason of(Exception e) {
+        if (e instanceof JwtVerifyException) {
+            return ((JwtVerifyException) e).getReason();
+        }
+        return e instanceof JwtParseException ? MALFORMED : OTHER;
+    }
+}
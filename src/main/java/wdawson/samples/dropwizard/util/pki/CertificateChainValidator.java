@@ -0,0 +1,171 @@
+package wdawson.samples.dropwizard.util.pki;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertPath;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Validates certificate chains with the JDK's PKIX validator and caches the results.
+ *
+ * A full PKIX validation is far too expensive to run per request, but its outcome only changes when one of the
+ * certificates in the chain stops being valid. Successful results are therefore cached per chain until the first
+ * certificate in it (including the trust anchor) expires, bounded by the cache policy. Failures are not cached.
+ *
+ * Chains are keyed by the SHA-256 fingerprints of their certificates, which callers that have already decoded the
+ * chain can pass in so that a cache hit doesn't need to encode or hash any certificates.
+ *
+ * Revocation is not checked here.
+ *
+ * @author wdawson
+ */
+public class CertificateChainValidator {
+
+    public static final CacheBuilderSpec DEFAULT_SPEC = CacheBuilderSpec.parse("maximumSize=1000, expireAfterWrite=1h");
+
+    private final Clock clock;
+    private final Cache<CertificatePath, Long> validatedPaths;
+
+    private final Timer validations;
+    private final Meter hits;
+    private final Meter misses;
+
+    public CertificateChainValidator(MetricRegistry metricRegistry, CacheBuilderSpec cacheSpec, Clock clock) {
+        this.clock = clock;
+        this.validatedPaths = CacheBuilder.from(cacheSpec).build();
+
+        this.validations = metricRegistry.timer(name(CertificateChainValidator.class, "validations"));
+        this.hits = metricRegistry.meter(name(CertificateChainValidator.class, "hits"));
+        this.misses = metricRegistry.meter(name(CertificateChainValidator.class, "misses"));
+        metricRegistry.register(name(CertificateChainValidator.class, "size"), (Gauge<Long>) validatedPaths::size);
+    }
+
+    /**
+     * Validates a chain of certificates up to a trust anchor.
+     *
+     * @param certificates the chain starting with the end entity certificate, not including the trust anchor. This
+     *                     may be empty if the end entity certificate is trusted itself.
+     * @param anchor the trusted certificate which issued the last certificate in the chain
+     * @throws CertPathValidatorException if the chain is not valid
+     */
+    public void validate(List<X509Certificate> certificates, X509Certificate anchor) throws CertPathValidatorException {
+        List<HashCode> fingerprints = ImmutableList.copyOf(Lists.transform(certificates, TrustAnchorIndex::thumbprint));
+        validate(certificates, fingerprints, anchor);
+    }
+
+    /**
+     * Validates a chain of certificates up to a trust anchor.
+     *
+     * @param certificates the chain starting with the end entity certificate, not including the trust anchor. This
+     *                     may be empty if the end entity certificate is trusted itself.
+     * @param fingerprints the SHA-256 fingerprints of {@code certificates}, in the same order
+     * @param anchor the trusted certificate which issued the last certificate in the chain
+     * @throws CertPathValidatorException if the chain is not valid
+     */
+    public void validate(List<X509Certificate> certificates, List<HashCode> fingerprints, X509Certificate anchor)
+            throws CertPathValidatorException {
+        CertificatePath path = new CertificatePath(fingerprints, anchor);
+        long now = clock.getTime();
+
+        Long validUntil = validatedPaths.getIfPresent(path);
+        if (validUntil != null && now < validUntil) {
+            hits.mark();
+            return;
+        }
+
+        misses.mark();
+        try (Timer.Context ignored = validations.time()) {
+            validatedPaths.put(path, validate(certificates, anchor, new Date(now)));
+        }
+    }
+
+    /**
+     * @return the time the validated path stops being valid
+     */
+    private static long validate(List<X509Certificate> certificates, X509Certificate anchor, Date date)
+            throws CertPathValidatorException {
+        if (certificates.isEmpty()) {
+            // Trusted end entity certificate; there's no path to validate so just make sure it's current.
+            try {
+                anchor.checkValidity(date);
+            } catch (CertificateException e) {
+                throw new CertPathValidatorException(e.getMessage(), e);
+            }
+            return anchor.getNotAfter().getTime();
+        }
+
+        try {
+            PKIXParameters parameters = new PKIXParameters(Collections.singleton(new TrustAnchor(anchor, null)));
+            parameters.setDate(date);
+            // Revocation is checked separately so that its responses can be cached independently
+            parameters.setRevocationEnabled(false);
+
+            CertPath certPath = CertificateFactory.getInstance("X.509").generateCertPath(certificates);
+            CertPathValidator.getInstance("PKIX").validate(certPath, parameters);
+        } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException | CertificateException e) {
+            throw new CertPathValidatorException("Could not validate certificate chain", e);
+        }
+
+        long validUntil = anchor.getNotAfter().getTime();
+        for (X509Certificate certificate : certificates) {
+            validUntil = Math.min(validUntil, certificate.getNotAfter().getTime());
+        }
+        return validUntil;
+    }
+
+    /**
+     * The anchor is compared as a certificate rather than by fingerprint since anchors are long lived instances from
+     * the truststore or the signing certificate cache, and the JDK caches their hash codes.
+     */
+    private static final class CertificatePath {
+        private final List<HashCode> fingerprints;
+        private final X509Certificate anchor;
+
+        private CertificatePath(List<HashCode> fingerprints, X509Certificate anchor) {
+            this.fingerprints = fingerprints;
+            this.anchor = anchor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CertificatePath that = (CertificatePath) o;
+            return Objects.equals(fingerprints, that.fingerprints) &&
+                    Objects.equals(anchor, that.anchor);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fingerprints, anchor);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package wdawson.samples.dropwizard.util.pki;
+
+import com.google.common.hash.HashCode;
+
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+/**
+ * Helpers for reading the X.509 extensions we index certificates by.
+ *
+ * The JDK only exposes extension values as DER encoded bytes, so this does just enough DER parsing to pull out the key
+ * identifiers.
+ *
+ * @author wdawson
+ */
+public final class CertificateExtensions {
+
+    public static final String SUBJECT_KEY_IDENTIFIER_OID = "2.5.29.14";
+    public static final String AUTHORITY_KEY_IDENTIFIER_OID = "2.5.29.35";
+
+    private static final int OCTET_STRING = 0x04;
+    private static final int SEQUENCE = 0x30;
+    private static final int KEY_IDENTIFIER = 0x80; // [0] IMPLICIT OCTET STRING
+
+    private CertificateExtensions() {
+    }
+
+    /**
+     * @param certificate the certificate
+     * @return the subject key identifier of the certificate, or null if it doesn't have one
+     */
+    public static HashCode getSubjectKeyIdentifier(X509Certificate certificate) {
+        // extnValue OCTET STRING containing SubjectKeyIdentifier ::= OCTET STRING
+        byte[] keyIdentifier = unwrap(unwrap(certificate.getExtensionValue(SUBJECT_KEY_IDENTIFIER_OID), OCTET_STRING),
+                OCTET_STRING);
+        return toHashCode(keyIdentifier);
+    }
+
+    /**
+     * @param certificate the certificate
+     * @return the key identifier from the authority key identifier of the certificate, or null if it doesn't have one
+     */
+    public static HashCode getAuthorityKeyIdentifier(X509Certificate certificate) {
+        // extnValue OCTET STRING containing AuthorityKeyIdentifier ::= SEQUENCE { keyIdentifier [0] OPTIONAL, ... }
+        byte[] authorityKeyIdentifier = unwrap(unwrap(certificate.getExtensionValue(AUTHORITY_KEY_IDENTIFIER_OID),
+                OCTET_STRING), SEQUENCE);
+        return toHashCode(unwrap(authorityKeyIdentifier, KEY_IDENTIFIER));
+    }
+
+    private static HashCode toHashCode(byte[] keyIdentifier) {
+        if (keyIdentifier == null || keyIdentifier.length == 0) {
+            return null;
+        }
+        return HashCode.fromBytes(keyIdentifier);
+    }
+
+    /**
+     * Returns the contents of the DER value at the start of the given bytes if it has the expected tag.
+     */
+    private static byte[] unwrap(byte[] der, int expectedTag) {
+        if (der == null || der.length < 2 || (der[0] & 0xff) != expectedTag) {
+            return null;
+        }
+
+        int length = der[1] & 0xff;
+        int offset = 2;
+        if (length > 0x7f) {
+            int lengthBytes = length & 0x7f;
+            if (lengthBytes > 3 || der.length < offset + lengthBytes) {
+                return null;
+            }
+            length = 0;
+            for (int i = 0; i < lengthBytes; ++i) {
+                length = (length << 8) | (der[offset++] & 0xff);
+            }
+        }
+
+        if (der.length < offset + length) {
+            return null;
+        }
+        return Arrays.copyOfRange(der, offset, offset + length);
+    }
+}
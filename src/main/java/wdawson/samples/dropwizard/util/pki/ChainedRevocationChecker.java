@@ -0,0 +1,46 @@
+package wdawson.samples.dropwizard.util.pki;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+/**
+ * Asks each of a list of {@link RevocationChecker}s in turn until one of them knows the status of the certificate, e.g.
+ * to check local CRLs before falling back to OCSP.
+ *
+ * @author wdawson
+ */
+public class ChainedRevocationChecker implements RevocationChecker {
+
+    private final List<RevocationChecker> revocationCheckers;
+
+    public ChainedRevocationChecker(List<RevocationChecker> revocationCheckers) {
+        this.revocationCheckers = ImmutableList.copyOf(revocationCheckers);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IOException if none of the checkers knew the status and at least one of them failed
+     */
+    @Override
+    public RevocationStatus getStatus(X509Certificate certificate, X509Certificate issuer) throws IOException {
+        IOException failure = null;
+        for (RevocationChecker revocationChecker : revocationCheckers) {
+            try {
+                RevocationStatus status = revocationChecker.getStatus(certificate, issuer);
+                if (status != RevocationStatus.UNKNOWN) {
+                    return status;
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return RevocationStatus.UNKNOWN;
+    }
+}
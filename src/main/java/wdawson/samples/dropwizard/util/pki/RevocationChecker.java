@@ -0,0 +1,22 @@
+package wdawson.samples.dropwizard.util.pki;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+
+/**
+ * Source of revocation information for certificates.
+ *
+ * @author wdawson
+ */
+public interface RevocationChecker {
+
+    /**
+     * Gets the revocation status of a certificate.
+     *
+     * @param certificate the certificate to check
+     * @param issuer the certificate that issued it
+     * @return the revocation status
+     * @throws IOException if the status could not be determined
+     */
+    RevocationStatus getStatus(X509Certificate certificate, X509Certificate issuer) throws IOException;
+}
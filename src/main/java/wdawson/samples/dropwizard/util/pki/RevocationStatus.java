@@ -0,0 +1,12 @@
+package wdawson.samples.dropwizard.util.pki;
+
+/**
+ * Revocation status of a certificate as reported by its issuer.
+ *
+ * @author wdawson
+ */
+public enum RevocationStatus {
+    GOOD,
+    REVOKED,
+    UNKNOWN
+}
@@ -0,0 +1,92 @@
+package wdawson.samples.dropwizard.util.pki;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import javax.security.auth.x500.X500Principal;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Trusted certificates indexed so that the trust anchor for a certificate can be found with hash lookups alone.
+ *
+ * Anchors are indexed by the SHA-256 thumbprint of the certificate, by subject key identifier, and by subject for
+ * certificates that are issued without an authority key identifier.
+ *
+ * @author wdawson
+ */
+public final class TrustAnchorIndex {
+
+    private final Map<HashCode, X509Certificate> anchorsByThumbprint;
+    private final Map<HashCode, X509Certificate> anchorsBySubjectKeyIdentifier;
+    private final Map<X500Principal, X509Certificate> anchorsBySubject;
+
+    public TrustAnchorIndex(Collection<X509Certificate> trustedCertificates) {
+        Map<HashCode, X509Certificate> byThumbprint = new HashMap<>();
+        Map<HashCode, X509Certificate> bySubjectKeyIdentifier = new HashMap<>();
+        Map<X500Principal, X509Certificate> bySubject = new HashMap<>();
+
+        for (X509Certificate certificate : trustedCertificates) {
+            byThumbprint.put(thumbprint(certificate), certificate);
+            HashCode subjectKeyIdentifier = CertificateExtensions.getSubjectKeyIdentifier(certificate);
+            if (subjectKeyIdentifier != null) {
+                bySubjectKeyIdentifier.put(subjectKeyIdentifier, certificate);
+            }
+            bySubject.put(certificate.getSubjectX500Principal(), certificate);
+        }
+
+        this.anchorsByThumbprint = ImmutableMap.copyOf(byThumbprint);
+        this.anchorsBySubjectKeyIdentifier = ImmutableMap.copyOf(bySubjectKeyIdentifier);
+        this.anchorsBySubject = ImmutableMap.copyOf(bySubject);
+    }
+
+    /**
+     * @param sha256Thumbprint SHA-256 digest of a DER encoded certificate
+     * @return the trusted certificate with the given thumbprint, or null if it isn't trusted
+     */
+    public X509Certificate getByThumbprint(HashCode sha256Thumbprint) {
+        return anchorsByThumbprint.get(sha256Thumbprint);
+    }
+
+    /**
+     * Finds the trusted certificate that issued a certificate. This only matches names and key identifiers; it does
+     * not check the certificate's signature.
+     *
+     * @param issuer the issuer of the certificate
+     * @param authorityKeyIdentifier the authority key identifier of the certificate, or null if it doesn't have one
+     * @return the trusted issuer, or null if the certificate wasn't issued by a trusted certificate
+     */
+    public X509Certificate findIssuer(X500Principal issuer, HashCode authorityKeyIdentifier) {
+        X509Certificate anchor = authorityKeyIdentifier != null
+                ? anchorsBySubjectKeyIdentifier.get(authorityKeyIdentifier)
+                : anchorsBySubject.get(issuer);
+        if (anchor == null || !anchor.getSubjectX500Principal().equals(issuer)) {
+            return null;
+        }
+        return anchor;
+    }
+
+    public Collection<X509Certificate> getTrustedCertificates() {
+        return anchorsByThumbprint.values();
+    }
+
+    public boolean isEmpty() {
+        return anchorsByThumbprint.isEmpty();
+    }
+
+    /**
+     * @param certificate the certificate
+     * @return SHA-256 digest of the DER encoded certificate
+     */
+    public static HashCode thumbprint(X509Certificate certificate) {
+        try {
+            return Hashing.sha256().hashBytes(certificate.getEncoded());
+        } catch (CertificateEncodingException e) {
+            throw new IllegalArgumentException("Could not encode certificate " + certificate.getSubjectX500Principal(), e);
+        }
+    }
+}
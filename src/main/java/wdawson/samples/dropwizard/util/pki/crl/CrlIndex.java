@@ -0,0 +1,155 @@
+package wdawson.samples.dropwizard.util.pki.crl;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import javax.security.auth.x500.X500Principal;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable index of the certificates revoked by a set of CRLs, at most one per issuer.
+ *
+ * Lookups don't allocate: serial numbers that fit in a long, which is nearly all of them, are binary searched in a
+ * sorted primitive array and only larger serial numbers fall back to a hash set.
+ *
+ * @author wdawson
+ */
+public final class CrlIndex {
+
+    public static final CrlIndex EMPTY = new CrlIndex(ImmutableMap.<X500Principal, IssuerCrl>of());
+
+    private final Map<X500Principal, IssuerCrl> crlsByIssuer;
+
+    private CrlIndex(Map<X500Principal, IssuerCrl> crlsByIssuer) {
+        this.crlsByIssuer = crlsByIssuer;
+    }
+
+    /**
+     * Creates a new index with the given CRLs added. A CRL replaces the one already in the index for its issuer unless
+     * it's older.
+     */
+    public CrlIndex withCrls(Iterable<X509CRL> crls) {
+        Map<X500Principal, IssuerCrl> updated = new HashMap<>(crlsByIssuer);
+        for (X509CRL crl : crls) {
+            IssuerCrl current = updated.get(crl.getIssuerX500Principal());
+            if (current == null || !crl.getThisUpdate().before(current.crl.getThisUpdate())) {
+                updated.put(crl.getIssuerX500Principal(), new IssuerCrl(crl));
+            }
+        }
+        return new CrlIndex(ImmutableMap.copyOf(updated));
+    }
+
+    /**
+     * @return the CRL from the given issuer, or null if the index doesn't have one
+     */
+    public IssuerCrl get(X500Principal issuer) {
+        return crlsByIssuer.get(issuer);
+    }
+
+    /**
+     * @return the total number of revoked certificates in the index
+     */
+    public long getRevokedCount() {
+        long count = 0;
+        for (IssuerCrl issuerCrl : crlsByIssuer.values()) {
+            count += issuerCrl.revokedSerialNumbers.length + issuerCrl.largeRevokedSerialNumbers.size();
+        }
+        return count;
+    }
+
+    /**
+     * The revoked serial numbers from one issuer's CRL.
+     */
+    public static final class IssuerCrl {
+        private final X509CRL crl;
+        private final long nextUpdate;
+        private final long[] revokedSerialNumbers;
+        private final Set<BigInteger> largeRevokedSerialNumbers;
+
+        /**
+         * The outcome of checking the CRL's signature with the last issuer key it was checked with.
+         */
+        private volatile Verification verification;
+
+        private IssuerCrl(X509CRL crl) {
+            this.crl = crl;
+            this.nextUpdate = crl.getNextUpdate() != null ? crl.getNextUpdate().getTime() : Long.MAX_VALUE;
+
+            Set<? extends X509CRLEntry> entries = crl.getRevokedCertificates();
+            long[] serialNumbers = new long[entries != null ? entries.size() : 0];
+            int count = 0;
+            ImmutableSet.Builder<BigInteger> largeSerialNumbers = ImmutableSet.builder();
+            if (entries != null) {
+                for (X509CRLEntry entry : entries) {
+                    BigInteger serialNumber = entry.getSerialNumber();
+                    if (serialNumber.bitLength() < Long.SIZE) {
+                        serialNumbers[count++] = serialNumber.longValue();
+                    } else {
+                        largeSerialNumbers.add(serialNumber);
+                    }
+                }
+            }
+            this.revokedSerialNumbers = Arrays.copyOf(serialNumbers, count);
+            Arrays.sort(this.revokedSerialNumbers);
+            this.largeRevokedSerialNumbers = largeSerialNumbers.build();
+        }
+
+        public boolean isRevoked(BigInteger serialNumber) {
+            if (serialNumber.bitLength() < Long.SIZE) {
+                return Arrays.binarySearch(revokedSerialNumbers, serialNumber.longValue()) >= 0;
+            }
+            return largeRevokedSerialNumbers.contains(serialNumber);
+        }
+
+        /**
+         * @return the time the issuer will publish a newer CRL, in milliseconds since the epoch
+         */
+        public long getNextUpdate() {
+            return nextUpdate;
+        }
+
+        /**
+         * Verifies the CRL was signed by the given key. The result, whether the signature is good or not, is remembered
+         * so this is only expensive the first time it's called for each issuer key.
+         *
+         * @throws GeneralSecurityException if the CRL was not signed by the key
+         */
+        public void verify(PublicKey issuerKey) throws GeneralSecurityException {
+            Verification current = verification;
+            if (current == null || (issuerKey != current.issuerKey && !issuerKey.equals(current.issuerKey))) {
+                current = new Verification(issuerKey, check(issuerKey));
+                verification = current;
+            }
+            if (current.failure != null) {
+                throw current.failure;
+            }
+        }
+
+        private GeneralSecurityException check(PublicKey issuerKey) {
+            try {
+                crl.verify(issuerKey);
+                return null;
+            } catch (GeneralSecurityException e) {
+                return e;
+            }
+        }
+    }
+
+    private static final class Verification {
+        private final PublicKey issuerKey;
+        private final GeneralSecurityException failure;
+
+        private Verification(PublicKey issuerKey, GeneralSecurityException failure) {
+            this.issuerKey = issuerKey;
+            this.failure = failure;
+        }
+    }
+}
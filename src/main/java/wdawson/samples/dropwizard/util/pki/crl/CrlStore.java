@@ -0,0 +1,143 @@
+package wdawson.samples.dropwizard.util.pki.crl;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wdawson.samples.dropwizard.util.pki.RevocationChecker;
+import wdawson.samples.dropwizard.util.pki.RevocationStatus;
+import wdawson.samples.dropwizard.util.resources.ClasspathURLStreamHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.GeneralSecurityException;
+import java.security.cert.CRL;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.lang.String.format;
+
+/**
+ * {@link RevocationChecker} backed by CRLs held in memory.
+ *
+ * The CRLs are loaded into a {@link CrlIndex} snapshot which {@link #refresh()} replaces atomically, so lookups never
+ * block on, or see a partially applied, refresh. A CRL that fails to load keeps the previously loaded one from the same
+ * issuer in use until it's out of date.
+ *
+ * Only complete, direct CRLs are supported; delta CRLs and indirect CRL entries are not.
+ *
+ * @author wdawson
+ */
+public class CrlStore implements RevocationChecker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrlStore.class);
+
+    private static final String CLASSPATH_PREFIX = ClasspathURLStreamHandler.PROTOCOL + ":";
+
+    private final List<String> crlUrls;
+    private final Clock clock;
+    private final long staleGracePeriodMillis;
+    private final int timeoutMillis;
+
+    private final AtomicReference<CrlIndex> index = new AtomicReference<>(CrlIndex.EMPTY);
+
+    private final Timer refreshes;
+    private final Meter failures;
+
+    /**
+     * @param crlUrls URLs of the CRLs to load. The "classpath" protocol is supported along with the standard ones.
+     * @param clock the clock to check the freshness of CRLs against
+     * @param staleGracePeriodMillis how long after its next update time a CRL may still be used
+     * @param timeoutMillis timeout for connecting to and reading from each URL
+     * @param metricRegistry registry for the store's metrics
+     */
+    public CrlStore(List<String> crlUrls, Clock clock, long staleGracePeriodMillis, int timeoutMillis,
+                    MetricRegistry metricRegistry) {
+        this.crlUrls = ImmutableList.copyOf(crlUrls);
+        this.clock = clock;
+        this.staleGracePeriodMillis = staleGracePeriodMillis;
+        this.timeoutMillis = timeoutMillis;
+
+        this.refreshes = metricRegistry.timer(name(CrlStore.class, "refreshes"));
+        this.failures = metricRegistry.meter(name(CrlStore.class, "failures"));
+        metricRegistry.register(name(CrlStore.class, "revokedCertificates"),
+                (Gauge<Long>) () -> index.get().getRevokedCount());
+    }
+
+    @Override
+    public RevocationStatus getStatus(X509Certificate certificate, X509Certificate issuer) throws IOException {
+        CrlIndex.IssuerCrl crl = index.get().get(certificate.getIssuerX500Principal());
+        if (crl == null) {
+            return RevocationStatus.UNKNOWN;
+        }
+
+        if (clock.getTime() >= crl.getNextUpdate() + staleGracePeriodMillis) {
+            throw new IOException(format("CRL from '%s' is out of date (next update: %s)",
+                    certificate.getIssuerX500Principal(), new Date(crl.getNextUpdate())));
+        }
+
+        try {
+            crl.verify(issuer.getPublicKey());
+        } catch (GeneralSecurityException e) {
+            throw new IOException(format("CRL from '%s' could not be verified", certificate.getIssuerX500Principal()), e);
+        }
+        return crl.isRevoked(certificate.getSerialNumber()) ? RevocationStatus.REVOKED : RevocationStatus.GOOD;
+    }
+
+    /**
+     * Loads the CRLs and swaps them into use. Safe to call from a background thread while lookups are in progress.
+     */
+    public void refresh() {
+        try (Timer.Context ignored = refreshes.time()) {
+            List<X509CRL> crls = new ArrayList<>();
+            for (String crlUrl : crlUrls) {
+                try {
+                    crls.addAll(load(crlUrl));
+                } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                    failures.mark();
+                    LOGGER.warn("Could not load CRL from {}", crlUrl, e);
+                }
+            }
+
+            CrlIndex current;
+            CrlIndex updated;
+            do {
+                current = index.get();
+                updated = current.withCrls(crls);
+            } while (!index.compareAndSet(current, updated));
+        }
+    }
+
+    private List<X509CRL> load(String crlUrl) throws IOException, GeneralSecurityException {
+        URL url = crlUrl.startsWith(CLASSPATH_PREFIX)
+                ? new URL(null, crlUrl, new ClasspathURLStreamHandler())
+                : new URL(crlUrl);
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+
+        Collection<? extends CRL> crls;
+        try (InputStream inputStream = connection.getInputStream()) {
+            crls = CertificateFactory.getInstance("X.509").generateCRLs(inputStream);
+        }
+
+        List<X509CRL> x509Crls = new ArrayList<>(crls.size());
+        for (CRL crl : crls) {
+            x509Crls.add((X509CRL) crl);
+        }
+        return x509Crls;
+    }
+}
@@ -0,0 +1,262 @@
+package wdawson.samples.dropwizard.util.pki.ocsp;
+
+import com.codahale.metrics.Clock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.ByteStreams;
+import org.bouncycastle.asn1.DERIA5String;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.CertException;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import wdawson.samples.dropwizard.util.pki.RevocationStatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import static java.lang.String.format;
+
+/**
+ * Minimal OCSP client for looking up the status of a certificate with the responder named in its Authority Information
+ * Access extension.
+ *
+ * Responses must be signed by the issuer of the certificate or by a responder certificate the issuer has delegated OCSP
+ * signing to. Requests don't include a nonce since responses are meant to be cached.
+ *
+ * @author wdawson
+ */
+public class OcspClient {
+
+    private static final String OCSP_REQUEST_TYPE = "application/ocsp-request";
+    private static final String OCSP_RESPONSE_TYPE = "application/ocsp-response";
+    private static final long MAX_RESPONSE_SIZE = 64 * 1024;
+
+    private final Clock clock;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final long defaultResponseLifetimeMillis;
+
+    private final DigestCalculatorProvider digestCalculatorProvider;
+    private final JcaContentVerifierProviderBuilder contentVerifierProviderBuilder = new JcaContentVerifierProviderBuilder();
+
+    /**
+     * @param clock the clock to check the freshness of responses against
+     * @param connectTimeoutMillis timeout for connecting to a responder
+     * @param readTimeoutMillis timeout for reading a response
+     * @param defaultResponseLifetimeMillis how long to treat a response as current when the responder doesn't say when
+     *                                      newer information will be available
+     */
+    public OcspClient(Clock clock, int connectTimeoutMillis, int readTimeoutMillis, long defaultResponseLifetimeMillis) {
+        this.clock = clock;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.defaultResponseLifetimeMillis = defaultResponseLifetimeMillis;
+        try {
+            this.digestCalculatorProvider = new JcaDigestCalculatorProviderBuilder().build();
+        } catch (OperatorCreationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Fetches the status of a certificate from its OCSP responder.
+     *
+     * @param certificate the certificate to check
+     * @param issuer the certificate that issued it
+     * @return the verified response
+     * @throws IOException if the responder could not be reached or its response could not be verified
+     */
+    public OcspResponse fetch(X509Certificate certificate, X509Certificate issuer) throws IOException {
+        String responderUrl = getResponderUrl(certificate);
+        if (responderUrl == null) {
+            throw new IOException(format("Certificate '%s' does not name an OCSP responder",
+                    certificate.getSubjectDN().getName()));
+        }
+
+        CertificateID certificateId = newCertificateId(certificate, issuer);
+        byte[] request;
+        try {
+            request = new OCSPReqBuilder().addRequest(certificateId).build().getEncoded();
+        } catch (OCSPException e) {
+            throw new IOException("Could not create OCSP request", e);
+        }
+        return readResponse(post(responderUrl, request), certificateId, issuer);
+    }
+
+    @VisibleForTesting
+    CertificateID newCertificateId(X509Certificate certificate, X509Certificate issuer) throws IOException {
+        try {
+            return new CertificateID(digestCalculatorProvider.get(CertificateID.HASH_SHA1),
+                    new JcaX509CertificateHolder(issuer), certificate.getSerialNumber());
+        } catch (OperatorCreationException | CertificateEncodingException | OCSPException e) {
+            throw new IOException("Could not identify certificate for OCSP request", e);
+        }
+    }
+
+    @VisibleForTesting
+    OcspResponse readResponse(byte[] encodedResponse, CertificateID certificateId, X509Certificate issuer)
+            throws IOException {
+        OCSPResp response = new OCSPResp(encodedResponse);
+        if (response.getStatus() != OCSPResp.SUCCESSFUL) {
+            throw new IOException(format("OCSP responder returned status %d", response.getStatus()));
+        }
+
+        BasicOCSPResp basicResponse;
+        try {
+            basicResponse = (BasicOCSPResp) response.getResponseObject();
+        } catch (OCSPException | ClassCastException e) {
+            throw new IOException("Could not read OCSP response", e);
+        }
+        if (basicResponse == null) {
+            throw new IOException("OCSP response is empty");
+        }
+        assertSignedByResponder(basicResponse, issuer);
+
+        for (SingleResp singleResponse : basicResponse.getResponses()) {
+            if (certificateId.equals(singleResponse.getCertID())) {
+                return toOcspResponse(singleResponse);
+            }
+        }
+        throw new IOException("OCSP response does not include the requested certificate");
+    }
+
+    private OcspResponse toOcspResponse(SingleResp singleResponse) throws IOException {
+        CertificateStatus certificateStatus = singleResponse.getCertStatus();
+        RevocationStatus status;
+        if (certificateStatus == CertificateStatus.GOOD) {
+            status = RevocationStatus.GOOD;
+        } else if (certificateStatus instanceof RevokedStatus) {
+            status = RevocationStatus.REVOKED;
+        } else {
+            status = RevocationStatus.UNKNOWN;
+        }
+
+        long now = clock.getTime();
+        long thisUpdate = singleResponse.getThisUpdate().getTime();
+        long nextUpdate = singleResponse.getNextUpdate() != null
+                ? singleResponse.getNextUpdate().getTime()
+                : Math.max(now, thisUpdate) + defaultResponseLifetimeMillis;
+        if (nextUpdate <= now) {
+            throw new IOException(format("OCSP response is out of date (next update: %s)", new Date(nextUpdate)));
+        }
+        return new OcspResponse(status, thisUpdate, nextUpdate);
+    }
+
+    private void assertSignedByResponder(BasicOCSPResp basicResponse, X509Certificate issuer) throws IOException {
+        try {
+            ContentVerifierProvider issuerVerifier = contentVerifierProviderBuilder.build(issuer.getPublicKey());
+            if (isSignedBy(basicResponse, issuerVerifier)) {
+                return;
+            }
+
+            X509CertificateHolder issuerHolder = new JcaX509CertificateHolder(issuer);
+            Date now = new Date(clock.getTime());
+            for (X509CertificateHolder responder : basicResponse.getCerts()) {
+                if (responder.getIssuer().equals(issuerHolder.getSubject())
+                        && isOcspSigner(responder)
+                        && responder.isValidOn(now)
+                        && isIssuedBy(responder, issuerVerifier)
+                        && isSignedBy(basicResponse, contentVerifierProviderBuilder.build(responder))) {
+                    return;
+                }
+            }
+        } catch (OperatorCreationException | CertificateException e) {
+            throw new IOException("Could not verify OCSP response signature", e);
+        }
+        throw new IOException("OCSP response is not signed by an authorized responder");
+    }
+
+    /**
+     * Signature checks with the wrong key can fail with an exception rather than returning false, e.g. if the key
+     * size doesn't match the signature, so any failure means the response wasn't signed by that key.
+     */
+    private static boolean isSignedBy(BasicOCSPResp basicResponse, ContentVerifierProvider verifierProvider) {
+        try {
+            return basicResponse.isSignatureValid(verifierProvider);
+        } catch (OCSPException e) {
+            return false;
+        }
+    }
+
+    private static boolean isIssuedBy(X509CertificateHolder certificate, ContentVerifierProvider verifierProvider) {
+        try {
+            return certificate.isSignatureValid(verifierProvider);
+        } catch (CertException e) {
+            return false;
+        }
+    }
+
+    private static boolean isOcspSigner(X509CertificateHolder responder) {
+        ExtendedKeyUsage extendedKeyUsage = ExtendedKeyUsage.fromExtensions(responder.getExtensions());
+        return extendedKeyUsage != null && extendedKeyUsage.hasKeyPurposeId(KeyPurposeId.id_kp_OCSPSigning);
+    }
+
+    private static String getResponderUrl(X509Certificate certificate) throws IOException {
+        AuthorityInformationAccess authorityInformationAccess;
+        try {
+            authorityInformationAccess = AuthorityInformationAccess.fromExtensions(
+                    new JcaX509CertificateHolder(certificate).getExtensions());
+        } catch (CertificateEncodingException e) {
+            throw new IOException("Could not read certificate extensions", e);
+        }
+        if (authorityInformationAccess == null) {
+            return null;
+        }
+        for (AccessDescription accessDescription : authorityInformationAccess.getAccessDescriptions()) {
+            GeneralName location = accessDescription.getAccessLocation();
+            if (AccessDescription.id_ad_ocsp.equals(accessDescription.getAccessMethod())
+                    && location.getTagNo() == GeneralName.uniformResourceIdentifier) {
+                return DERIA5String.getInstance(location.getName()).getString();
+            }
+        }
+        return null;
+    }
+
+    private byte[] post(String responderUrl, byte[] request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(responderUrl).openConnection();
+        try {
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", OCSP_REQUEST_TYPE);
+            connection.setRequestProperty("Accept", OCSP_RESPONSE_TYPE);
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(request);
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException(format("OCSP responder %s returned HTTP %d", responderUrl, responseCode));
+            }
+            try (InputStream inputStream = connection.getInputStream()) {
+                return ByteStreams.toByteArray(ByteStreams.limit(inputStream, MAX_RESPONSE_SIZE));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package wdawson.samples.dropwizard.util.pki.ocsp;
+
+import wdawson.samples.dropwizard.util.pki.RevocationStatus;
+
+/**
+ * The verified status of a single certificate from an OCSP response.
+ *
+ * @author wdawson
+ */
+public class OcspResponse {
+
+    private final RevocationStatus status;
+    private final long thisUpdate;
+    private final long nextUpdate;
+
+    public OcspResponse(RevocationStatus status, long thisUpdate, long nextUpdate) {
+        this.status = status;
+        this.thisUpdate = thisUpdate;
+        this.nextUpdate = nextUpdate;
+    }
+
+    public RevocationStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the time the status was known to be correct, in milliseconds since the epoch
+     */
+    public long getThisUpdate() {
+        return thisUpdate;
+    }
+
+    /**
+     * @return the time newer information will be available, in milliseconds since the epoch
+     */
+    public long getNextUpdate() {
+        return nextUpdate;
+    }
+}
@@ -0,0 +1,280 @@
+package wdawson.samples.dropwizard.util.pki.ocsp;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wdawson.samples.dropwizard.util.pki.RevocationChecker;
+import wdawson.samples.dropwizard.util.pki.RevocationStatus;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * {@link RevocationChecker} backed by OCSP which keeps responses until their 'nextUpdate' time so that requests
+ * don't wait on the network.
+ *
+ * <ul>
+ *   <li>Responses are refreshed in the background once they are within the refresh-ahead window of expiring, while
+ *       the current response continues to be served.</li>
+ *   <li>Concurrent lookups of the same certificate share a single request to the responder.</li>
+ *   <li>Once a response has expired it is still served for up to the stale grace period while a new one is fetched
+ *       in the background, so requests only wait on the responder when there is no usable response at all.</li>
+ *   <li>After a failed request the responder isn't asked again until the retry interval has passed.</li>
+ *   <li>A revoked certificate never becomes good again, so revoked responses are never refreshed.</li>
+ * </ul>
+ *
+ * @author wdawson
+ */
+public class OcspResponseCache implements RevocationChecker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OcspResponseCache.class);
+
+    public static final CacheBuilderSpec DEFAULT_SPEC = CacheBuilderSpec.parse("maximumSize=1000");
+
+    /**
+     * Minimum time between background refresh attempts after one fails.
+     */
+    private static final long REFRESH_RETRY_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final OcspClient ocspClient;
+    private final Executor executor;
+    private final Clock clock;
+    private final long refreshAheadMillis;
+    private final long staleGracePeriodMillis;
+
+    private final Cache<CertificateKey, Entry> entries;
+
+    private final Timer fetches;
+    private final Meter hits;
+    private final Meter misses;
+    private final Meter staleHits;
+    private final Meter failures;
+
+    private OcspResponseCache(Builder builder) {
+        this.ocspClient = builder.ocspClient;
+        this.executor = builder.executor;
+        this.clock = builder.clock != null ? builder.clock : Clock.defaultClock();
+        this.refreshAheadMillis = builder.refreshAheadMillis;
+        this.staleGracePeriodMillis = builder.staleGracePeriodMillis;
+
+        MetricRegistry metricRegistry = builder.metricRegistry != null ? builder.metricRegistry : new MetricRegistry();
+        this.entries = CacheBuilder.from(builder.cacheSpec != null ? builder.cacheSpec : DEFAULT_SPEC).build();
+
+        this.fetches = metricRegistry.timer(name(OcspResponseCache.class, "fetches"));
+        this.hits = metricRegistry.meter(name(OcspResponseCache.class, "hits"));
+        this.misses = metricRegistry.meter(name(OcspResponseCache.class, "misses"));
+        this.staleHits = metricRegistry.meter(name(OcspResponseCache.class, "staleHits"));
+        this.failures = metricRegistry.meter(name(OcspResponseCache.class, "failures"));
+        metricRegistry.register(name(OcspResponseCache.class, "size"), (Gauge<Long>) entries::size);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    @Override
+    public RevocationStatus getStatus(X509Certificate certificate, X509Certificate issuer) throws IOException {
+        Entry entry = entries.asMap().computeIfAbsent(new CertificateKey(certificate), key -> new Entry());
+        long now = clock.getTime();
+
+        OcspResponse current = entry.response;
+        if (current != null) {
+            if (current.getStatus() == RevocationStatus.REVOKED) {
+                hits.mark();
+                return current.getStatus();
+            }
+            if (now < current.getNextUpdate()) {
+                hits.mark();
+                if (now >= current.getNextUpdate() - refreshAheadMillis && now >= entry.retryAfter) {
+                    entry.fetch(certificate, issuer);
+                }
+                return current.getStatus();
+            }
+            if (now < current.getNextUpdate() + staleGracePeriodMillis) {
+                staleHits.mark();
+                if (now >= entry.retryAfter) {
+                    entry.fetch(certificate, issuer);
+                }
+                return current.getStatus();
+            }
+        }
+
+        misses.mark();
+        try {
+            return entry.fetch(certificate, issuer).get().getStatus();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for OCSP response");
+        } catch (ExecutionException e) {
+            throw new IOException(String.format("Could not get OCSP response for '%s'", certificate.getSubjectDN()),
+                    e.getCause());
+        }
+    }
+
+    /**
+     * The latest response for a certificate and any request for a newer one.
+     */
+    private final class Entry {
+        private volatile OcspResponse response;
+        private volatile long retryAfter;
+        private final AtomicReference<CompletableFuture<OcspResponse>> pending = new AtomicReference<>();
+
+        /**
+         * Starts a request to the responder unless one is already in flight.
+         *
+         * @return the pending response
+         */
+        private CompletableFuture<OcspResponse> fetch(X509Certificate certificate, X509Certificate issuer) {
+            while (true) {
+                CompletableFuture<OcspResponse> inFlight = pending.get();
+                if (inFlight != null) {
+                    return inFlight;
+                }
+
+                CompletableFuture<OcspResponse> future = new CompletableFuture<>();
+                if (pending.compareAndSet(null, future)) {
+                    try {
+                        executor.execute(() -> complete(future, certificate, issuer));
+                    } catch (RejectedExecutionException e) {
+                        pending.set(null);
+                        future.completeExceptionally(e);
+                    }
+                    return future;
+                }
+            }
+        }
+
+        private void complete(CompletableFuture<OcspResponse> future, X509Certificate certificate,
+                              X509Certificate issuer) {
+            try (Timer.Context ignored = fetches.time()) {
+                OcspResponse fetched = ocspClient.fetch(certificate, issuer);
+                response = fetched;
+                pending.set(null);
+                future.complete(fetched);
+            } catch (IOException | RuntimeException e) {
+                failures.mark();
+                if (response != null) {
+                    LOGGER.warn("Could not refresh OCSP response for '{}': {}", certificate.getSubjectDN(),
+                            e.toString());
+                }
+                retryAfter = clock.getTime() + REFRESH_RETRY_INTERVAL_MILLIS;
+                pending.set(null);
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class CertificateKey {
+        private final X500Principal issuer;
+        private final BigInteger serialNumber;
+
+        private CertificateKey(X509Certificate certificate) {
+            this.issuer = certificate.getIssuerX500Principal();
+            this.serialNumber = certificate.getSerialNumber();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CertificateKey that = (CertificateKey) o;
+            return Objects.equals(issuer, that.issuer) &&
+                    Objects.equals(serialNumber, that.serialNumber);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(issuer, serialNumber);
+        }
+    }
+
+    /*
+     * Builder
+     */
+
+    public static final class Builder {
+        private OcspClient ocspClient;
+        private Executor executor;
+        private MetricRegistry metricRegistry;
+        private CacheBuilderSpec cacheSpec;
+        private Clock clock;
+        private long refreshAheadMillis;
+        private long staleGracePeriodMillis;
+
+        private Builder() {
+        }
+
+        public Builder withOcspClient(OcspClient val) {
+            ocspClient = val;
+            return this;
+        }
+
+        /**
+         * @param val executor to make requests to responders on
+         */
+        public Builder withExecutor(Executor val) {
+            executor = val;
+            return this;
+        }
+
+        public Builder withMetricRegistry(MetricRegistry val) {
+            metricRegistry = val;
+            return this;
+        }
+
+        public Builder withCacheSpec(CacheBuilderSpec val) {
+            cacheSpec = val;
+            return this;
+        }
+
+        public Builder withClock(Clock val) {
+            clock = val;
+            return this;
+        }
+
+        /**
+         * @param val how long before a response expires to start fetching a new one
+         */
+        public Builder withRefreshAhead(long val, TimeUnit unit) {
+            refreshAheadMillis = unit.toMillis(val);
+            return this;
+        }
+
+        /**
+         * @param val how long after a response expires it may still be used if a new one can't be fetched
+         */
+        public Builder withStaleGracePeriod(long val, TimeUnit unit) {
+            staleGracePeriodMillis = unit.toMillis(val);
+            return this;
+        }
+
+        public OcspResponseCache build() {
+            Objects.requireNonNull(ocspClient, "ocspClient");
+            Objects.requireNonNull(executor, "executor");
+            return new OcspResponseCache(this);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package wdawson.samples.dropwizard.util.time;
+
+import com.codahale.metrics.Clock;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Clock} whose wall clock time is only updated when the clock ticks, so that reading it is a single volatile read.
+ *
+ * This suits hot paths that compare against coarse time values, like JWT time claims in seconds, where being behind by
+ * the tick interval doesn't matter. {@link #getTick()} is still read from the source clock so that timers measuring
+ * durations are unaffected.
+ *
+ * @author wdawson
+ */
+public class CoarseClock extends Clock {
+
+    private final Clock source;
+
+    private volatile long time;
+
+    public CoarseClock(Clock source) {
+        this.source = source;
+        this.time = source.getTime();
+    }
+
+    /**
+     * Creates a clock which is ticked by the given executor at a fixed rate. The clock stops advancing when the
+     * executor is shut down.
+     *
+     * @param executor executor to run the ticks on
+     * @param interval how often to tick the clock
+     * @param unit unit of the interval
+     * @return the clock
+     */
+    public static CoarseClock startTicking(ScheduledExecutorService executor, long interval, TimeUnit unit) {
+        CoarseClock clock = new CoarseClock(Clock.defaultClock());
+        executor.scheduleAtFixedRate(clock::tick, interval, interval, unit);
+        return clock;
+    }
+
+    /**
+     * Updates the time to the source clock's current time.
+     */
+    public void tick() {
+        time = source.getTime();
+    }
+
+    @Override
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public long getTick() {
+        return source.getTick();
+    }
+}
@@ -1,10 +1,15 @@
 package wdawson.samples.dropwizard;
 
+import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.health.HealthCheckRegistry;
 import com.google.common.io.Resources;
 import io.dropwizard.configuration.DefaultConfigurationFactoryFactory;
 import io.dropwizard.jackson.Jackson;
 import io.dropwizard.jersey.setup.JerseyEnvironment;
+import io.dropwizard.jetty.setup.ServletEnvironment;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+import io.dropwizard.servlets.tasks.Task;
+import io.dropwizard.setup.AdminEnvironment;
 import io.dropwizard.setup.Environment;
 import io.dropwizard.validation.BaseValidator;
 import org.glassfish.jersey.server.filter.RolesAllowedDynamicFeature;
@@ -12,11 +17,17 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import wdawson.samples.dropwizard.configuration.UserInfoConfiguration;
+import wdawson.samples.dropwizard.filters.AsyncJwtVerificationFilter;
 import wdawson.samples.dropwizard.filters.TLSCertificateAuthorizationFilter;
 import wdawson.samples.dropwizard.health.UserInfoHealthCheck;
 import wdawson.samples.dropwizard.resources.UserInfoResource;
+import wdawson.samples.dropwizard.tasks.InvalidateAuthenticationCacheTask;
+import wdawson.samples.dropwizard.tasks.ReloadJwtTrustTask;
 
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterRegistration;
 import java.io.File;
+import java.util.EnumSet;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentCaptor.forClass;
@@ -36,7 +47,11 @@ public class UserInfoApplicationTest {
 
     private final Environment environment = mock(Environment.class);
     private final HealthCheckRegistry healthCheckRegistry = mock(HealthCheckRegistry.class);
+    private final MetricRegistry metricRegistry = new MetricRegistry();
     private final JerseyEnvironment jerseyEnvironment = mock(JerseyEnvironment.class);
+    private final ServletEnvironment servletEnvironment = mock(ServletEnvironment.class);
+    private final FilterRegistration.Dynamic filterRegistration = mock(FilterRegistration.Dynamic.class);
+    private final AdminEnvironment adminEnvironment = mock(AdminEnvironment.class);
 
     private final UserInfoApplication userInfoApplication = new UserInfoApplication();
 
@@ -51,6 +66,13 @@ public class UserInfoApplicationTest {
         // Common Expectations
         when(environment.healthChecks()).thenReturn(healthCheckRegistry);
         when(environment.jersey()).thenReturn(jerseyEnvironment);
+        when(environment.metrics()).thenReturn(metricRegistry);
+        when(environment.lifecycle()).thenReturn(new LifecycleEnvironment());
+        when(environment.servlets()).thenReturn(servletEnvironment);
+        when(environment.admin()).thenReturn(adminEnvironment);
+        when(servletEnvironment.addFilter(anyString(), any(AsyncJwtVerificationFilter.class)))
+                .thenReturn(filterRegistration);
+        when(jerseyEnvironment.getUrlPattern()).thenReturn("/*");
 
         assertThat(configuration.getData().getNamesResource()).isEqualTo("fixtures/users/test-names.txt");
     }
@@ -97,5 +119,13 @@ public class UserInfoApplicationTest {
         // Verify
         verify(jerseyEnvironment, times(2)).register(any(Object.class));
         verify(jerseyEnvironment).register(RolesAllowedDynamicFeature.class);
+        verify(servletEnvironment).addFilter(anyString(), any(AsyncJwtVerificationFilter.class));
+        verify(filterRegistration).setAsyncSupported(true);
+        verify(filterRegistration).addMappingForUrlPatterns(
+                EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC), true, "/*");
+        ArgumentCaptor<Task> taskCaptor = forClass(Task.class);
+        verify(adminEnvironment, times(2)).addTask(taskCaptor.capture());
+        assertThat(taskCaptor.getAllValues()).hasAtLeastOneElementOfType(ReloadJwtTrustTask.class)
+                .hasAtLeastOneElementOfType(InvalidateAuthenticationCacheTask.class);
     }
 }
@@ -0,0 +1,224 @@
+package wdawson.samples.dropwizard.auth;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.dropwizard.auth.AuthenticationException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import wdawson.samples.dropwizard.auth.OAuth2Authenticator.AuthenticatedToken;
+import wdawson.samples.dropwizard.util.jwt.JwtVerifier;
+import wdawson.samples.dropwizard.util.jwt.TrustReloader;
+import wdawson.samples.dropwizard.util.jwt.TrustSnapshot;
+import wdawson.samples.dropwizard.util.jwt.VerifiedJwtCache;
+
+import java.security.cert.X509Certificate;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author wdawson
+ */
+public class CachingOAuth2AuthenticatorTest {
+
+    private static final long NOW = 1483228800000L; // 2017-01-01T00:00:00Z
+    private static final long REFRESH_AFTER = TimeUnit.MINUTES.toMillis(1);
+
+    private final OAuth2Authenticator delegate = mock(OAuth2Authenticator.class);
+    private final Queue<Runnable> refreshes = new ConcurrentLinkedQueue<>();
+
+    private MetricRegistry metricRegistry;
+    private SettableClock clock;
+    private CachingOAuth2Authenticator authenticator;
+
+    @Before
+    public void setup() throws Exception {
+        metricRegistry = new MetricRegistry();
+        clock = new SettableClock(NOW);
+        authenticator = CachingOAuth2Authenticator.newBuilder()
+                .withDelegate(delegate)
+                .withClock(clock)
+                .withMetricRegistry(metricRegistry)
+                .withExpireAfterWrite(10, TimeUnit.MINUTES)
+                .withRefreshAfter(REFRESH_AFTER, TimeUnit.MILLISECONDS, refreshes::add)
+                .build();
+    }
+
+    @Test
+    public void cachedUserIsReturnedWithoutAuthenticatingAgain() throws Exception {
+        User user = newUser("1");
+        when(delegate.authenticateToken("token")).thenReturn(new AuthenticatedToken(user, NOW + 60000, true));
+
+        assertThat(authenticator.authenticate("token").get()).isSameAs(user);
+        assertThat(authenticator.authenticate("token").get()).isSameAs(user);
+
+        verify(delegate, times(1)).authenticateToken("token");
+        assertThat(metricRegistry.meter(name(CachingOAuth2Authenticator.class, "hits")).getCount()).isEqualTo(1);
+        assertThat(metricRegistry.meter(name(CachingOAuth2Authenticator.class, "misses")).getCount()).isEqualTo(1);
+        assertThat(metricRegistry.timer(name(CachingOAuth2Authenticator.class, "loads")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void cachedUserIsNotReturnedOnceItsTokenExpires() throws Exception {
+        when(delegate.authenticateToken("token"))
+                .thenReturn(new AuthenticatedToken(newUser("1"), NOW + 1000, true))
+                .thenThrow(new AuthenticationException("Failed to authenticate token!"));
+        authenticator.authenticate("token");
+
+        clock.time = NOW + 1000;
+        try {
+            authenticator.authenticate("token");
+            failBecauseExceptionWasNotThrown(AuthenticationException.class);
+        } catch (AuthenticationException e) {
+            assertThat(authenticator.size()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void replayProtectedTokensAreNeverCached() throws Exception {
+        when(delegate.authenticateToken("token")).thenReturn(new AuthenticatedToken(newUser("1"), NOW + 60000, false));
+
+        authenticator.authenticate("token");
+        authenticator.authenticate("token");
+
+        verify(delegate, times(2)).authenticateToken("token");
+        assertThat(authenticator.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void reusedOneTimeTokenIsRefused() throws Exception {
+        when(delegate.authenticateToken("token")).thenReturn(null);
+
+        assertThat(authenticator.authenticate("token").isPresent()).isFalse();
+    }
+
+    @Test
+    public void cachedTokenIsVerifiedAgainInTheBackground() throws Exception {
+        User first = newUser("1");
+        User second = newUser("1");
+        when(delegate.authenticateToken("token"))
+                .thenReturn(new AuthenticatedToken(first, NOW + 600000, true))
+                .thenReturn(new AuthenticatedToken(second, NOW + 600000, true));
+        authenticator.authenticate("token");
+
+        clock.time = NOW + REFRESH_AFTER;
+        // The cached user is still handed out while the token is verified again
+        assertThat(authenticator.authenticate("token").get()).isSameAs(first);
+        assertThat(authenticator.authenticate("token").get()).isSameAs(first);
+        assertThat(refreshes).hasSize(1);
+
+        refreshes.remove().run();
+        verify(delegate).invalidate(VerifiedJwtCache.digest("token"));
+        assertThat(authenticator.authenticate("token").get()).isSameAs(second);
+    }
+
+    @Test
+    public void tokenThatNoLongerAuthenticatesIsDroppedOnRefresh() throws Exception {
+        when(delegate.authenticateToken("token"))
+                .thenReturn(new AuthenticatedToken(newUser("1"), NOW + 600000, true))
+                .thenThrow(new AuthenticationException("Failed to authenticate token!"));
+        authenticator.authenticate("token");
+
+        clock.time = NOW + REFRESH_AFTER;
+        authenticator.authenticate("token");
+        refreshes.remove().run();
+
+        assertThat(authenticator.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void invalidatingASubjectOnlyDropsItsTokens() throws Exception {
+        when(delegate.authenticateToken("first")).thenReturn(new AuthenticatedToken(newUser("1"), NOW + 60000, true));
+        when(delegate.authenticateToken("second")).thenReturn(new AuthenticatedToken(newUser("1"), NOW + 60000, true));
+        when(delegate.authenticateToken("other")).thenReturn(new AuthenticatedToken(newUser("2"), NOW + 60000, true));
+        authenticator.authenticate("first");
+        authenticator.authenticate("second");
+        authenticator.authenticate("other");
+
+        assertThat(authenticator.invalidateSubject("1")).isEqualTo(2);
+
+        assertThat(authenticator.size()).isEqualTo(1);
+        verify(delegate).invalidate(VerifiedJwtCache.digest("first"));
+        verify(delegate).invalidate(VerifiedJwtCache.digest("second"));
+        verify(delegate, never()).invalidate(VerifiedJwtCache.digest("other"));
+    }
+
+    @Test
+    public void cachedUsersAreDroppedOnceATrustRotationOverlapEnds() throws Exception {
+        User user = newUser("1");
+        when(delegate.authenticateToken("token"))
+                .thenReturn(new AuthenticatedToken(user, NOW + 600000, true))
+                .thenThrow(new AuthenticationException("Failed to authenticate token!"));
+        TrustSnapshot snapshot = TrustSnapshot.newBuilder()
+                .withAllowedSignerPattern(Pattern.compile("^CN=Homepage Service$"))
+                .withTrustedCertificates(ImmutableList.<X509Certificate>of())
+                .build();
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        TrustReloader trustReloader = TrustReloader.newBuilder()
+                .withJwtVerifier(JwtVerifier.newBuilder()
+                        .withTrustSnapshot(snapshot)
+                        .withRotationOverlap(5, TimeUnit.MINUTES)
+                        .build())
+                .withLoader(() -> snapshot)
+                .withExecutor(executor)
+                .build();
+        trustReloader.addCacheInvalidation(authenticator::invalidateAll);
+        authenticator.authenticate("token");
+
+        trustReloader.reload();
+        // The cached user is still handed out while tokens from the previous keys are accepted
+        assertThat(authenticator.authenticate("token").get()).isSameAs(user);
+
+        ArgumentCaptor<Runnable> invalidation = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).schedule(invalidation.capture(), eq(TimeUnit.MINUTES.toMillis(5)), eq(TimeUnit.MILLISECONDS));
+        invalidation.getValue().run();
+
+        assertThat(authenticator.size()).isEqualTo(0);
+        try {
+            authenticator.authenticate("token");
+            failBecauseExceptionWasNotThrown(AuthenticationException.class);
+        } catch (AuthenticationException e) {
+            verify(delegate, times(2)).authenticateToken("token");
+        }
+    }
+
+    private static User newUser(String id) {
+        return User.newBuilder()
+                .withId(id)
+                .withRoles(ImmutableSet.of(Role.ADMIN))
+                .build();
+    }
+
+    private static final class SettableClock extends Clock {
+        private volatile long time;
+
+        private SettableClock(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public long getTick() {
+            return time * 1000000;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+}
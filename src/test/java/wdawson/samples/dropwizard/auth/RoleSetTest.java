@@ -0,0 +1,79 @@
+package wdawson.samples.dropwizard.auth;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author wdawson
+ */
+public class RoleSetTest {
+
+    @Test
+    public void knownRolesAreParsedIntoBits() {
+        RoleSet roles = RoleSet.parse("ADMIN USER_READ_ONLY");
+
+        assertThat(roles).containsOnly(Role.USER_READ_ONLY, Role.ADMIN);
+        assertThat(roles.containsAny(RoleSet.bitOf(Role.ADMIN))).isTrue();
+        assertThat(roles.containsAny(RoleSet.bitOf(Role.USER_READ_ONLY))).isTrue();
+    }
+
+    @Test
+    public void unknownScopesAreKeptAlongsideKnownRoles() {
+        RoleSet roles = RoleSet.parse("read:users ADMIN write:users");
+
+        assertThat(roles).containsOnly(Role.ADMIN, "read:users", "write:users");
+        assertThat(roles.contains(Role.USER_READ_ONLY)).isFalse();
+        assertThat(RoleSet.bitOf("read:users")).isEqualTo(0);
+    }
+
+    @Test
+    public void emptyScopesAreIgnored() {
+        assertThat(RoleSet.parse(" ADMIN  USER_READ_ONLY ")).containsOnly(Role.ADMIN, Role.USER_READ_ONLY);
+        assertThat(RoleSet.parse("")).isSameAs(RoleSet.EMPTY);
+        assertThat(RoleSet.parse(null)).isSameAs(RoleSet.EMPTY);
+    }
+
+    @Test
+    public void identicalRoleSetsAreShared() {
+        assertThat(RoleSet.parse("ADMIN USER_READ_ONLY")).isSameAs(RoleSet.parse("USER_READ_ONLY ADMIN"));
+        assertThat(RoleSet.parse("ADMIN read:users")).isSameAs(RoleSet.parse("read:users ADMIN"));
+        assertThat(RoleSet.copyOf(ImmutableSet.of("read:users", Role.ADMIN)))
+                .isSameAs(RoleSet.parse("ADMIN read:users"));
+    }
+
+    @Test
+    public void roleSetsAreEqualToOtherSetsWithTheSameRoles() {
+        ImmutableSet<String> expected = ImmutableSet.of(Role.ADMIN, "read:users");
+        RoleSet roles = RoleSet.parse("read:users ADMIN");
+
+        assertThat(roles).isEqualTo(expected);
+        assertThat(expected).isEqualTo(roles);
+        assertThat(roles.hashCode()).isEqualTo(expected.hashCode());
+    }
+
+    @Test
+    public void intersectionCoversKnownRolesAndOtherScopes() {
+        RoleSet roles = RoleSet.parse("USER_READ_ONLY read:users");
+
+        assertThat(roles.intersects(RoleSet.parse("ADMIN USER_READ_ONLY"))).isTrue();
+        assertThat(roles.intersects(RoleSet.parse("read:users"))).isTrue();
+        assertThat(roles.intersects(RoleSet.parse("ADMIN write:users"))).isFalse();
+        assertThat(roles.intersects(RoleSet.EMPTY)).isFalse();
+    }
+
+    @Test
+    public void authorizerChecksKnownAndOtherRoles() {
+        OAuth2Authorizer authorizer = new OAuth2Authorizer();
+        User user = User.newBuilder()
+                .withId("1")
+                .withRoles(RoleSet.parse("USER_READ_ONLY read:users"))
+                .build();
+
+        assertThat(authorizer.authorize(user, Role.USER_READ_ONLY)).isTrue();
+        assertThat(authorizer.authorize(user, Role.ADMIN)).isFalse();
+        assertThat(authorizer.authorize(user, "read:users")).isTrue();
+        assertThat(authorizer.authorize(user, "write:users")).isFalse();
+    }
+}
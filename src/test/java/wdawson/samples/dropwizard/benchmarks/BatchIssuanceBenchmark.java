@@ -0,0 +1,101 @@
+package wdawson.samples.dropwizard.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import wdawson.samples.dropwizard.util.jwt.JwtIssuer;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
+
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.io.Resources.getResource;
+
+/**
+ * Measures how {@link JwtIssuer#issueTokens} scales with the number of signing threads, against issuing the same batch
+ * one token at a time.
+ *
+ * @author wdawson
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BatchIssuanceBenchmark {
+
+    private static final char[] PASSPHRASE = "notsecret".toCharArray();
+    private static final int BATCH_SIZE = 64;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private JwtIssuer issuer;
+    private List<JwtClaims> batch;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyStore issuerKeyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        issuerKeyStore.load(getResource("jwt/homepage-jwt-issuer.jks").openStream(), PASSPHRASE);
+        Certificate[] chain = issuerKeyStore.getCertificateChain("jwt-issuer");
+        issuer = new JwtIssuer((RSAPrivateKey) issuerKeyStore.getKey("jwt-issuer", PASSPHRASE),
+                ImmutableList.of((X509Certificate) chain[0], (X509Certificate) chain[1]));
+
+        Date issuedAt = new Date();
+        ImmutableList.Builder<JwtClaims> claims = ImmutableList.builder();
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            claims.add(JwtClaims.JwtClaimsBuilder.newInstance()
+                    .addSubject(String.valueOf(i))
+                    .addIssuedAt(issuedAt)
+                    .addExpirationTime(new Date(issuedAt.getTime() + TimeUnit.HOURS.toMillis(1)))
+                    .addCustomClaim("scope", "ADMIN")
+                    .build());
+        }
+        batch = claims.build();
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void teardown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public void serial(Blackhole blackhole) throws Exception {
+        for (JwtClaims claims : batch) {
+            blackhole.consume(issuer.issueToken(claims));
+        }
+    }
+
+    @Benchmark
+    public List<String> batch() throws Exception {
+        return issuer.issueTokens(batch, pool);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(BatchIssuanceBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
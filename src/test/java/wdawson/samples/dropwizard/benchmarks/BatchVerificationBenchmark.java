@@ -0,0 +1,134 @@
+package wdawson.samples.dropwizard.benchmarks;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import wdawson.samples.dropwizard.util.jwt.JwtIssuer;
+import wdawson.samples.dropwizard.util.jwt.JwtVerifier;
+import wdawson.samples.dropwizard.util.jwt.dto.Jwt;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtVerificationResult;
+import wdawson.samples.dropwizard.util.pki.CertificateChainValidator;
+
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static com.google.common.io.Resources.getResource;
+
+/**
+ * Compares verifying a batch of distinct tokens from one signer serially with {@link JwtVerifier#authenticateAll}.
+ *
+ * @author wdawson
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BatchVerificationBenchmark {
+
+    private static final char[] PASSPHRASE = "notsecret".toCharArray();
+
+    // The example CA's certificates are only valid from October 2016 to October 2017
+    private static final long CERTIFICATES_VALID_AT = 1483228800000L; // 2017-01-01T00:00:00Z
+
+    @Param({"1", "16", "256"})
+    public int batchSize;
+
+    private JwtVerifier jwtVerifier;
+    private List<Jwt> batch;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyStore issuerKeyStore = loadKeyStore("jwt/homepage-jwt-issuer.jks");
+        Certificate[] chain = issuerKeyStore.getCertificateChain("jwt-issuer");
+        JwtIssuer issuer = new JwtIssuer((RSAPrivateKey) issuerKeyStore.getKey("jwt-issuer", PASSPHRASE),
+                ImmutableList.of((X509Certificate) chain[0], (X509Certificate) chain[1]));
+
+        jwtVerifier = JwtVerifier.newBuilder()
+                .withAllowedSignerPattern(Pattern.compile("^.*\\bCN=Homepage Service\\b(?:,.*|\\s*)$"))
+                .withTrustedCertificates(ImmutableList.of(
+                        (X509Certificate) loadKeyStore("jwt/test-truststore.jks").getCertificate("root")))
+                .withCertificateChainValidator(new CertificateChainValidator(new MetricRegistry(),
+                        CertificateChainValidator.DEFAULT_SPEC, new FixedClock(CERTIFICATES_VALID_AT)))
+                .build();
+
+        // Tokens expire long after the benchmark finishes
+        Date issuedAt = new Date();
+        ImmutableList.Builder<Jwt> tokens = ImmutableList.builder();
+        for (int i = 0; i < batchSize; ++i) {
+            tokens.add(Jwt.newFromString(issuer.issueToken(JwtClaims.JwtClaimsBuilder.newInstance()
+                    .addJwtId(UUID.randomUUID().toString())
+                    .addSubject("1")
+                    .addIssuedAt(issuedAt)
+                    .addExpirationTime(new Date(issuedAt.getTime() + TimeUnit.HOURS.toMillis(1)))
+                    .addCustomClaim("scope", "ADMIN")
+                    .build())));
+        }
+        batch = tokens.build();
+    }
+
+    @Benchmark
+    public void serial(Blackhole blackhole) throws Exception {
+        for (Jwt jwt : batch) {
+            blackhole.consume(jwtVerifier.authenticate(jwt));
+        }
+    }
+
+    @Benchmark
+    public List<JwtVerificationResult> batch() {
+        return jwtVerifier.authenticateAll(batch);
+    }
+
+    private static KeyStore loadKeyStore(String resource) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(getResource(resource).openStream(), PASSPHRASE);
+        return keyStore;
+    }
+
+    private static final class FixedClock extends Clock {
+        private final long time;
+
+        private FixedClock(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public long getTick() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(BatchVerificationBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
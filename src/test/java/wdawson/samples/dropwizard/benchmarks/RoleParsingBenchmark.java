@@ -0,0 +1,56 @@
+package wdawson.samples.dropwizard.benchmarks;
+
+import com.google.common.collect.ImmutableSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import wdawson.samples.dropwizard.auth.Role;
+import wdawson.samples.dropwizard.auth.RoleSet;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares splitting the 'scope' claim into an {@link ImmutableSet} and checking a role with a set lookup, as
+ * {@code OAuth2Authenticator} and {@code OAuth2Authorizer} used to, with parsing it into a {@link RoleSet} and checking
+ * the role's bit. Run with {@code -prof gc} to compare allocations.
+ *
+ * @author wdawson
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class RoleParsingBenchmark {
+
+    public String scopes = "USER_READ_ONLY ADMIN";
+
+    @Benchmark
+    public boolean splitIntoSet() {
+        Set<String> roles = ImmutableSet.copyOf(Arrays.asList(scopes.split(" ")));
+        return roles.contains(Role.ADMIN);
+    }
+
+    @Benchmark
+    public boolean parseIntoRoleSet() {
+        RoleSet roles = RoleSet.parse(scopes);
+        return roles.containsAny(RoleSet.bitOf(Role.ADMIN));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(RoleParsingBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
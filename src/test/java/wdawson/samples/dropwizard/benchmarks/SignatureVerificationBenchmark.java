@@ -0,0 +1,81 @@
+package wdawson.samples.dropwizard.benchmarks;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import wdawson.samples.dropwizard.util.jwt.SignatureVerifierPool;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares constructing a nimbus {@link RSASSAVerifier} per token with reusing pooled signatures from
+ * {@link SignatureVerifierPool}.
+ *
+ * @author wdawson
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SignatureVerificationBenchmark {
+
+    @Param({"2048", "4096"})
+    public int keySize;
+
+    private RSAPublicKey publicKey;
+    private JWSObject jwsObject;
+    private SignatureVerifierPool signatureVerifierPool;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(keySize);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        publicKey = (RSAPublicKey) keyPair.getPublic();
+
+        JWSObject signed = new JWSObject(new JWSHeader(JWSAlgorithm.RS256),
+                new Payload("{\"sub\":\"1\",\"orgId\":\"theOrgId\",\"scope\":\"ADMIN\"}"));
+        signed.sign(new RSASSASigner((RSAPrivateKey) keyPair.getPrivate()));
+        jwsObject = JWSObject.parse(signed.serialize());
+
+        signatureVerifierPool = new SignatureVerifierPool();
+    }
+
+    @Benchmark
+    public boolean perRequestVerifier() throws Exception {
+        return jwsObject.verify(new RSASSAVerifier(publicKey));
+    }
+
+    @Benchmark
+    public boolean pooledVerifier() throws Exception {
+        return signatureVerifierPool.verify(jwsObject, publicKey);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(SignatureVerificationBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,135 @@
+package wdawson.samples.dropwizard.benchmarks;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import wdawson.samples.dropwizard.util.jwt.JwtIssuer;
+import wdawson.samples.dropwizard.util.jwt.JwtVerifier;
+import wdawson.samples.dropwizard.util.jwt.SigningKeySet;
+import wdawson.samples.dropwizard.util.jwt.dto.Jwt;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
+import wdawson.samples.dropwizard.util.pki.CertificateChainValidator;
+
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static com.google.common.io.Resources.getResource;
+
+/**
+ * Compares RS256 and ES256 for minting and verifying tokens. The size of each token is printed during setup; an ES256
+ * signature is 64 bytes against 256 for RS256 with a 2048 bit key.
+ *
+ * @author wdawson
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SigningAlgorithmBenchmark {
+
+    private static final char[] PASSPHRASE = "notsecret".toCharArray();
+
+    // The example CA's certificates are only valid from October 2016 to October 2017
+    private static final long CERTIFICATES_VALID_AT = 1483228800000L; // 2017-01-01T00:00:00Z
+
+    @Param({"RS256", "ES256"})
+    public String algorithm;
+
+    private JwtIssuer issuer;
+    private JwtVerifier jwtVerifier;
+    private JwtClaims claims;
+    private Jwt jwt;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyStore issuerKeyStore = loadKeyStore("RS256".equals(algorithm)
+                ? "jwt/homepage-jwt-issuer.jks"
+                : "jwt/homepage-ec-jwt-issuer.jks");
+        Certificate[] chain = issuerKeyStore.getCertificateChain("jwt-issuer");
+        List<X509Certificate> signingChain = ImmutableList.of((X509Certificate) chain[0], (X509Certificate) chain[1]);
+        // The verifier already knows the signer, so leave the chain out of the token
+        issuer = new JwtIssuer((PrivateKey) issuerKeyStore.getKey("jwt-issuer", PASSPHRASE), signingChain, false);
+
+        jwtVerifier = JwtVerifier.newBuilder()
+                .withAllowedSignerPattern(Pattern.compile("^.*\\bCN=Homepage Service\\b(?:,.*|\\s*)$"))
+                .withTrustedCertificates(ImmutableList.of(
+                        (X509Certificate) loadKeyStore("jwt/test-truststore.jks").getCertificate("root")))
+                .withSigningKeySet(new SigningKeySet(signingChain))
+                .withCertificateChainValidator(new CertificateChainValidator(new MetricRegistry(),
+                        CertificateChainValidator.DEFAULT_SPEC, new FixedClock(CERTIFICATES_VALID_AT)))
+                .build();
+
+        // Tokens expire long after the benchmark finishes
+        Date issuedAt = new Date();
+        claims = JwtClaims.JwtClaimsBuilder.newInstance()
+                .addSubject("1")
+                .addIssuedAt(issuedAt)
+                .addExpirationTime(new Date(issuedAt.getTime() + TimeUnit.HOURS.toMillis(1)))
+                .addCustomClaim("scope", "ADMIN")
+                .build();
+        String token = issuer.issueToken(claims);
+        jwt = Jwt.newFromString(token);
+        System.out.printf("%n%s token size: %d characters%n", algorithm, token.length());
+    }
+
+    @Benchmark
+    public String mint() throws Exception {
+        return issuer.issueToken(claims);
+    }
+
+    @Benchmark
+    public JwtClaims verify() throws Exception {
+        return jwtVerifier.authenticate(jwt);
+    }
+
+    private static KeyStore loadKeyStore(String resource) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(getResource(resource).openStream(), PASSPHRASE);
+        return keyStore;
+    }
+
+    private static final class FixedClock extends Clock {
+        private final long time;
+
+        private FixedClock(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public long getTick() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(SigningAlgorithmBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,117 @@
+package wdawson.samples.dropwizard.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.util.Base64;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import wdawson.samples.dropwizard.util.jwt.JwtIssuer;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
+
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.io.Resources.getResource;
+
+/**
+ * Compares building the header and signer for every token, as {@link JwtIssuer} used to, with its precomputed header
+ * and shared signer.
+ *
+ * @author wdawson
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class TokenIssuanceBenchmark {
+
+    private static final char[] PASSPHRASE = "notsecret".toCharArray();
+
+    private RSAPrivateKey privateKey;
+    private List<X509Certificate> certificateChain;
+    private JwtIssuer issuer;
+    private JwtClaims claims;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyStore issuerKeyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        issuerKeyStore.load(getResource("jwt/homepage-jwt-issuer.jks").openStream(), PASSPHRASE);
+        Certificate[] chain = issuerKeyStore.getCertificateChain("jwt-issuer");
+        privateKey = (RSAPrivateKey) issuerKeyStore.getKey("jwt-issuer", PASSPHRASE);
+        certificateChain = ImmutableList.of((X509Certificate) chain[0], (X509Certificate) chain[1]);
+        issuer = new JwtIssuer(privateKey, certificateChain);
+
+        Date issuedAt = new Date();
+        claims = JwtClaims.JwtClaimsBuilder.newInstance()
+                .addSubject("1")
+                .addIssuedAt(issuedAt)
+                .addExpirationTime(new Date(issuedAt.getTime() + TimeUnit.HOURS.toMillis(1)))
+                .addCustomClaim("scope", "ADMIN")
+                .build();
+    }
+
+    @Benchmark
+    public String perTokenHeaderAndSigner() throws Exception {
+        X509Certificate signingCertificate = certificateChain.get(0);
+        JWTClaimsSet.Builder claimsSetBuilder = new JWTClaimsSet.Builder()
+                .jwtID(UUID.randomUUID().toString())
+                .subject(claims.getSubject())
+                .issueTime(claims.getIssuedAt())
+                .expirationTime(claims.getExpirationTime())
+                .issuer(signingCertificate.getSubjectDN().getName());
+        for (String key : claims.getCustomClaimKeys()) {
+            claimsSetBuilder.claim(key, claims.getClaim(key));
+        }
+
+        Base64URL thumbprint = Base64URL.encode(Hashing.sha256().hashBytes(signingCertificate.getEncoded()).asBytes());
+        ImmutableList.Builder<Base64> encodedCertificateChain = ImmutableList.builder();
+        for (X509Certificate certificate : certificateChain) {
+            encodedCertificateChain.add(Base64.encode(certificate.getEncoded()));
+        }
+        JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.RS256)
+                .x509CertSHA256Thumbprint(thumbprint)
+                .keyID(thumbprint.toString())
+                .x509CertChain(encodedCertificateChain.build())
+                .build();
+
+        JWSObject jwsObject = new JWSObject(header, new Payload(claimsSetBuilder.build().toJSONObject()));
+        jwsObject.sign(new RSASSASigner(privateKey));
+        return jwsObject.serialize();
+    }
+
+    @Benchmark
+    public String precomputedHeaderAndSigner() throws Exception {
+        return issuer.issueToken(claims);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(TokenIssuanceBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
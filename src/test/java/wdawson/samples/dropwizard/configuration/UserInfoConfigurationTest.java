@@ -1,9 +1,11 @@
 package wdawson.samples.dropwizard.configuration;
 
+import com.google.common.cache.CacheBuilderSpec;
 import com.google.common.io.Resources;
 import io.dropwizard.configuration.ConfigurationValidationException;
 import io.dropwizard.configuration.DefaultConfigurationFactoryFactory;
 import io.dropwizard.jackson.Jackson;
+import io.dropwizard.util.Duration;
 import io.dropwizard.validation.BaseValidator;
 import org.junit.Test;
 
@@ -21,6 +23,35 @@ public class UserInfoConfigurationTest {
         final UserInfoConfiguration validConfiguration = buildConfigurationFromString("dropwizard/valid-conf.yml");
 
         assertThat(validConfiguration.getData().getNamesResource()).isEqualTo("fixtures/users/test-names.txt");
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getVerifiedTokenCachePolicy())
+                .isEqualTo(CacheBuilderSpec.parse("maximumSize=10000, expireAfterWrite=10m"));
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getRejectionLogBurst()).isEqualTo(10);
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getStageTimingSampleRate()).isEqualTo(10);
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getRejectedTokenCachePolicy())
+                .isEqualTo(CacheBuilderSpec.parse("maximumSize=1000, expireAfterWrite=5m"));
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getSigningCertificateAliases())
+                .containsExactly("homepage-jwt-issuer", "intermediate");
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getClockPrecision())
+                .isEqualTo(Duration.milliseconds(10));
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getRotationOverlap())
+                .isEqualTo(Duration.minutes(10));
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getTruststoreCheckInterval())
+                .isEqualTo(Duration.minutes(1));
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getOcsp().isEnabled()).isTrue();
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getOcsp().getStaleGracePeriod())
+                .isEqualTo(Duration.hours(1));
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getCrl().isEnabled()).isTrue();
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getCrl().getCrlUrls()).containsExactly(
+                "classpath:revoker/example-ca/crl/crl.pem", "classpath:revoker/example-ca/intermediate/crl/crl.pem");
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getAsyncVerification().isEnabled()).isTrue();
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getAsyncVerification().getQueueCapacity())
+                .isEqualTo(1024);
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getReplayProtection().isEnabled()).isFalse();
+        assertThat(validConfiguration.getSecurity().getJwtVerification().getReplayProtection().getBucketDuration())
+                .isEqualTo(Duration.minutes(1));
+        assertThat(validConfiguration.getSecurity().getAuthenticationCache().isEnabled()).isTrue();
+        assertThat(validConfiguration.getSecurity().getAuthenticationCache().getRefreshAfter())
+                .isEqualTo(Duration.minutes(1));
     }
 
     @Test(expected = ConfigurationValidationException.class)
@@ -0,0 +1,234 @@
+package wdawson.samples.dropwizard.filters;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableSet;
+import io.dropwizard.auth.AuthenticationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import wdawson.samples.dropwizard.auth.OAuth2Authenticator;
+import wdawson.samples.dropwizard.util.jwt.JwtVerifier;
+import wdawson.samples.dropwizard.util.jwt.RejectedJwtCache;
+import wdawson.samples.dropwizard.util.jwt.VerificationOutcome;
+import wdawson.samples.dropwizard.util.jwt.VerifiedJwtCache;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
+import wdawson.samples.dropwizard.util.jwt.exception.JwtVerifyException;
+import wdawson.samples.dropwizard.util.jwt.exception.RejectionReason;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static wdawson.samples.dropwizard.filters.AsyncJwtVerificationFilter.VERIFIED_ATTRIBUTE;
+
+/**
+ * @author wdawson
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncJwtVerificationFilterTest {
+
+    private static final String TOKEN = "header.payload.signature";
+
+    @Mock
+    private JwtVerifier jwtVerifier;
+
+    @Mock
+    private VerifiedJwtCache verifiedJwtCache;
+
+    @Mock
+    private HttpServletRequest request;
+
+    @Mock
+    private HttpServletResponse response;
+
+    @Mock
+    private FilterChain chain;
+
+    @Mock
+    private AsyncContext asyncContext;
+
+    private MetricRegistry metricRegistry;
+    private RejectedJwtCache rejectedJwtCache;
+    private ThreadPoolExecutor executor;
+    private AsyncJwtVerificationFilter filter;
+
+    @Before
+    public void setup() {
+        metricRegistry = new MetricRegistry();
+        rejectedJwtCache = new RejectedJwtCache(metricRegistry, RejectedJwtCache.DEFAULT_SPEC);
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>());
+        filter = new AsyncJwtVerificationFilter(jwtVerifier, verifiedJwtCache, rejectedJwtCache, executor, 5000,
+                metricRegistry);
+
+        when(request.getHeader("Authorization")).thenReturn("Bearer " + TOKEN);
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.startAsync(request, response)).thenReturn(asyncContext);
+        when(asyncContext.getResponse()).thenReturn(response);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void cachedTokensPassThroughWithoutSuspending() throws Exception {
+        when(verifiedJwtCache.contains(TOKEN)).thenReturn(true);
+
+        filter.doFilter(request, response, chain);
+
+        verify(chain).doFilter(request, response);
+        verify(request, never()).startAsync(any(), any());
+    }
+
+    @Test
+    public void requestsWithoutBearerTokensPassThrough() throws Exception {
+        when(request.getHeader("Authorization")).thenReturn(null);
+
+        filter.doFilter(request, response, chain);
+
+        verify(chain).doFilter(request, response);
+        verify(request, never()).startAsync(any(), any());
+    }
+
+    @Test
+    public void dispatchedRequestsPassThrough() throws Exception {
+        when(request.getAttribute(VERIFIED_ATTRIBUTE)).thenReturn(Boolean.TRUE);
+
+        filter.doFilter(request, response, chain);
+
+        verify(chain).doFilter(request, response);
+        verify(request, never()).startAsync(any(), any());
+    }
+
+    @Test
+    public void validTokensAreVerifiedOffThreadAndDispatched() throws Exception {
+        JwtClaims claims = JwtClaims.JwtClaimsBuilder.newInstance().addSubject("1").build();
+        when(jwtVerifier.authenticate(TOKEN)).thenReturn(claims);
+
+        filter.doFilter(request, response, chain);
+
+        verify(asyncContext, timeout(1000)).dispatch();
+        verify(verifiedJwtCache).put(TOKEN, claims);
+        verify(asyncContext).setTimeout(5000);
+        verify(chain, never()).doFilter(request, response);
+        assertThat(metricRegistry.timer(name(AsyncJwtVerificationFilter.class, "verifications")).getCount())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void invalidTokensAreCachedAndLeftToJersey() throws Exception {
+        when(jwtVerifier.authenticate(TOKEN)).thenThrow(new JwtVerifyException(RejectionReason.EXPIRED, "expired"));
+
+        filter.doFilter(request, response, chain);
+
+        // Jersey decides the response, so resources that don't require authentication still ignore the token
+        verify(asyncContext, timeout(1000)).dispatch();
+        assertThat(rejectedJwtCache.contains(TOKEN)).isTrue();
+        verify(response, never()).sendError(anyInt());
+        verify(verifiedJwtCache, never()).put(eq(TOKEN), any(JwtClaims.class));
+    }
+
+    @Test
+    public void unexpectedFailuresAreHandedToJersey() throws Exception {
+        when(jwtVerifier.authenticate(TOKEN)).thenThrow(new IllegalStateException("broken"));
+
+        filter.doFilter(request, response, chain);
+
+        verify(asyncContext, timeout(1000)).dispatch();
+        verify(response, never()).sendError(anyInt());
+    }
+
+    @Test
+    public void outcomeIsHandedToTheDispatchedRequest() throws Exception {
+        // Not cached, since the token may be accepted once the revocation status can be checked
+        when(jwtVerifier.authenticate(TOKEN)).thenThrow(
+                new JwtVerifyException(RejectionReason.REVOCATION_STATUS_UNKNOWN, "responder down"));
+
+        filter.doFilter(request, response, chain);
+
+        verify(asyncContext, timeout(1000)).dispatch();
+        assertThat(rejectedJwtCache.contains(TOKEN)).isFalse();
+        ArgumentCaptor<Object> outcome = ArgumentCaptor.forClass(Object.class);
+        // Marked as being verified when suspended, then given the outcome before being dispatched
+        verify(request, times(2)).setAttribute(eq(VERIFIED_ATTRIBUTE), outcome.capture());
+        assertThat(outcome.getValue()).isInstanceOf(VerificationOutcome.class);
+
+        // The dispatched request is authenticated from the outcome rather than by verifying the token again
+        OAuth2Authenticator authenticator = new OAuth2Authenticator(jwtVerifier, verifiedJwtCache, rejectedJwtCache,
+                null, ImmutableSet.of());
+        doAnswer(invocation -> {
+            try {
+                authenticator.authenticate(TOKEN);
+                failBecauseExceptionWasNotThrown(AuthenticationException.class);
+            } catch (AuthenticationException e) {
+                assertThat(e.getCause()).isInstanceOf(JwtVerifyException.class);
+            }
+            return null;
+        }).when(chain).doFilter(request, response);
+        when(request.getAttribute(VERIFIED_ATTRIBUTE)).thenReturn(outcome.getValue());
+
+        filter.doFilter(request, response, chain);
+
+        verify(chain).doFilter(request, response);
+        verify(jwtVerifier, times(1)).authenticate(TOKEN);
+        assertThat(VerificationOutcome.current(TOKEN)).isNull();
+    }
+
+    @Test
+    public void recentlyRejectedTokensPassThroughWithoutVerifying() throws Exception {
+        rejectedJwtCache.put(TOKEN, RejectionReason.INVALID_SIGNATURE);
+
+        filter.doFilter(request, response, chain);
+
+        verify(chain).doFilter(request, response);
+        verify(request, never()).startAsync(any(), any());
+        verify(response, never()).sendError(anyInt());
+        // The hit is recorded by the Jersey auth filter when it looks the token up
+        assertThat(metricRegistry.meter(name(RejectedJwtCache.class, "hits", "INVALID_SIGNATURE")).getCount())
+                .isEqualTo(0);
+    }
+
+    @Test
+    public void requestsAreTurnedAwayWhenTheExecutorIsSaturated() throws Exception {
+        executor.shutdown();
+
+        filter.doFilter(request, response, chain);
+
+        verify(response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        verify(asyncContext).complete();
+        verify(asyncContext, never()).dispatch();
+        assertThat(metricRegistry.meter(name(AsyncJwtVerificationFilter.class, "rejected")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void requestsWithoutAsyncSupportAreVerifiedByJersey() throws Exception {
+        when(request.isAsyncSupported()).thenReturn(false);
+
+        filter.doFilter(request, response, chain);
+
+        verify(chain).doFilter(request, response);
+        verify(asyncContext, never()).setTimeout(anyLong());
+    }
+}
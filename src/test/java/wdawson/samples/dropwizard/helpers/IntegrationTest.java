@@ -1,5 +1,7 @@
 package wdawson.samples.dropwizard.helpers;
 
+import com.codahale.metrics.Clock;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import io.dropwizard.client.JerseyClientBuilder;
 import io.dropwizard.client.JerseyClientConfiguration;
@@ -22,9 +24,11 @@ import wdawson.samples.revoker.configuration.RevokerConfiguration;
 import javax.ws.rs.client.Client;
 import java.io.File;
 import java.security.KeyStore;
+import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPrivateKey;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 
 import static com.google.common.io.Resources.getResource;
@@ -38,7 +42,7 @@ import static io.dropwizard.testing.ResourceHelpers.resourceFilePath;
 public class IntegrationTest {
 
     protected static final DropwizardAppRule<UserInfoConfiguration> USER_INFO_APP_RULE =
-            new DropwizardAppRule<>(UserInfoApplication.class, resourceFilePath("dropwizard/valid-conf.yml"));
+            new DropwizardAppRule<>(PinnedPkiClockApplication.class, resourceFilePath("dropwizard/valid-conf.yml"));
 
     private static final DropwizardAppRule<RevokerConfiguration> ROOT_REVOKER_APP_RULE =
             new DropwizardAppRule<>(RevokerApplication.class, resourceFilePath("revoker/root-conf.yml"));
@@ -62,8 +66,12 @@ public class IntegrationTest {
         jwtIssuerKeyStore.load(getResource("jwt/homepage-jwt-issuer.jks").openStream(), PASSPHRASE);
 
         RSAPrivateKey signingKey = (RSAPrivateKey) jwtIssuerKeyStore.getKey("jwt-issuer", PASSPHRASE);
-        X509Certificate signingCertificate = (X509Certificate) jwtIssuerKeyStore.getCertificate("jwt-issuer");
-        JwtIssuer jwtIssuer = new JwtIssuer(signingKey, signingCertificate);
+        Certificate[] certificateChain = jwtIssuerKeyStore.getCertificateChain("jwt-issuer");
+        // The verifier preloads the signing certificate and the intermediate CA ('signingCertificateAliases'), so the
+        // tokens only identify the signing certificate by its thumbprint rather than carrying the chain in 'x5c'
+        List<X509Certificate> signingCertificateChain = ImmutableList.of(
+                (X509Certificate) certificateChain[0], (X509Certificate) certificateChain[1]);
+        JwtIssuer jwtIssuer = new JwtIssuer(signingKey, signingCertificateChain, false);
 
         Date now = new Date();
         JwtClaims jwtClaims = JwtClaims.JwtClaimsBuilder.newInstance()
@@ -85,6 +93,29 @@ public class IntegrationTest {
         ConfigurableURLStreamHandlerFactory.unsetURLStringHandlerFactory();
     }
 
+    /**
+     * The example CA's certificates and CRLs have expired, so JWT signing certificates are validated as of a time they
+     * were all current.
+     */
+    public static class PinnedPkiClockApplication extends UserInfoApplication {
+        private static final long PKI_VALIDATION_TIME = 1476489600000L; // 2016-10-15T00:00:00Z
+
+        @Override
+        protected Clock newPkiClock(Clock clock) {
+            return new Clock() {
+                @Override
+                public long getTick() {
+                    return clock.getTick();
+                }
+
+                @Override
+                public long getTime() {
+                    return PKI_VALIDATION_TIME;
+                }
+            };
+        }
+    }
+
     protected Client getNewSecureClient() throws Exception {
         return getNewSecureClient("tls/homepage-service-keystore.jks");
     }
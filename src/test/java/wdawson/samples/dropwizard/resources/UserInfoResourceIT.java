@@ -1,5 +1,6 @@
 package wdawson.samples.dropwizard.resources;
 
+import com.google.common.collect.ImmutableList;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -13,6 +14,7 @@ import javax.ws.rs.client.Client;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.Response;
 import java.security.KeyStore;
+import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPrivateKey;
 import java.util.Date;
@@ -45,8 +47,12 @@ public class UserInfoResourceIT extends IntegrationTest {
         jwtIssuerKeyStore.load(getResource("jwt/homepage-jwt-issuer.jks").openStream(), PASSPHRASE);
 
         RSAPrivateKey signingKey = (RSAPrivateKey) jwtIssuerKeyStore.getKey("jwt-issuer", PASSPHRASE);
-        X509Certificate signingCertificate = (X509Certificate) jwtIssuerKeyStore.getCertificate("jwt-issuer");
-        jwtIssuer = new JwtIssuer(signingKey, signingCertificate);
+        Certificate[] certificateChain = jwtIssuerKeyStore.getCertificateChain("jwt-issuer");
+        // The verifier preloads the signing certificate and the intermediate CA ('signingCertificateAliases'), so the
+        // tokens only identify the signing certificate by its thumbprint rather than carrying the chain in 'x5c'
+        List<X509Certificate> signingCertificateChain = ImmutableList.of(
+                (X509Certificate) certificateChain[0], (X509Certificate) certificateChain[1]);
+        jwtIssuer = new JwtIssuer(signingKey, signingCertificateChain, false);
     }
 
     @Before
@@ -0,0 +1,104 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author wdawson
+ */
+public class JtiReplayStoreTest {
+
+    private static final long NOW = 1483228800000L; // 2017-01-01T00:00:00Z
+    private static final long BUCKET_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private MetricRegistry metricRegistry;
+    private SettableClock clock;
+    private JtiReplayStore store;
+
+    @Before
+    public void setup() {
+        metricRegistry = new MetricRegistry();
+        clock = new SettableClock(NOW);
+        store = new JtiReplayStore(metricRegistry, clock, BUCKET_MILLIS, 4, 3);
+    }
+
+    @Test
+    public void tokensAreOnlyAcceptedOnce() {
+        JwtClaims claims = newClaims("a", NOW + 60000);
+
+        assertThat(store.markUsed(claims)).isTrue();
+        assertThat(store.markUsed(claims)).isFalse();
+        assertThat(store.markUsed(newClaims("b", NOW + 60000))).isTrue();
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(metricRegistry.meter(name(JtiReplayStore.class, "replays")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void tokensWithoutIdOrExpirationAreRefused() {
+        assertThat(store.markUsed(JwtClaims.JwtClaimsBuilder.newInstance()
+                .addExpirationTime(new Date(NOW + 60000)).build())).isFalse();
+        assertThat(store.markUsed(JwtClaims.JwtClaimsBuilder.newInstance().addJwtId("a").build())).isFalse();
+        assertThat(store.size()).isEqualTo(0);
+        assertThat(metricRegistry.meter(name(JtiReplayStore.class, "refused")).getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void bucketsAreDroppedOnceTheirTokensExpire() {
+        assertThat(store.markUsed(newClaims("a", NOW + 60000))).isTrue();
+        assertThat(store.markUsed(newClaims("b", NOW + 600000))).isTrue();
+        assertThat(metricRegistry.getGauges().get(name(JtiReplayStore.class, "buckets")).getValue()).isEqualTo(2);
+
+        // Past the first token's deadline, which includes the verifier's two minutes of clock skew
+        clock.time = NOW + 60000 + 120000 + BUCKET_MILLIS;
+        assertThat(store.markUsed(newClaims("c", NOW + 600000))).isTrue();
+
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(metricRegistry.getGauges().get(name(JtiReplayStore.class, "buckets")).getValue()).isEqualTo(1);
+        assertThat(store.markUsed(newClaims("b", NOW + 600000))).isFalse();
+    }
+
+    @Test
+    public void newTokensAreRefusedWhenFull() {
+        assertThat(store.markUsed(newClaims("a", NOW + 60000))).isTrue();
+        assertThat(store.markUsed(newClaims("b", NOW + 60000))).isTrue();
+        assertThat(store.markUsed(newClaims("c", NOW + 60000))).isTrue();
+
+        assertThat(store.markUsed(newClaims("d", NOW + 60000))).isFalse();
+        assertThat(store.size()).isEqualTo(3);
+        assertThat(metricRegistry.meter(name(JtiReplayStore.class, "refused")).getCount()).isEqualTo(1);
+    }
+
+    private static JwtClaims newClaims(String jwtId, long expiration) {
+        return JwtClaims.JwtClaimsBuilder.newInstance()
+                .addJwtId(jwtId)
+                .addExpirationTime(new Date(expiration))
+                .build();
+    }
+
+    private static final class SettableClock extends Clock {
+        private volatile long time;
+
+        private SettableClock(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public long getTick() {
+            return time * 1000000;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import wdawson.samples.dropwizard.util.jwt.dto.Jwt;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
+import wdawson.samples.dropwizard.util.jwt.exception.JwtIssueException;
+
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author wdawson
+ */
+public class JwtTokenProviderTest {
+
+    private static final long NOW = 1483228800000L; // 2017-01-01T00:00:00Z
+    private static final long LIFETIME = TimeUnit.MINUTES.toMillis(10);
+    private static final long MINIMUM_REMAINING = TimeUnit.MINUTES.toMillis(1);
+
+    private final JwtIssuer jwtIssuer = mock(JwtIssuer.class);
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean deferTasks;
+
+    /**
+     * Runs mints inline unless {@link #deferTasks} is set, in which case they wait in {@link #tasks}.
+     */
+    private final Executor executor = task -> {
+        if (deferTasks) {
+            tasks.add(task);
+        } else {
+            task.run();
+        }
+    };
+
+    private MetricRegistry metricRegistry;
+    private SettableClock clock;
+
+    @Before
+    public void setup() throws Exception {
+        metricRegistry = new MetricRegistry();
+        clock = new SettableClock(NOW);
+        when(jwtIssuer.issueToken(any(JwtClaims.class))).thenReturn("first", "second", "third");
+    }
+
+    @Test
+    public void tokensAreCachedBySubjectScopesAndAudience() throws Exception {
+        JwtTokenProvider provider = newProvider(0.5);
+
+        assertThat(provider.getToken("1", ImmutableSet.of("ADMIN", "READ"), "users")).isEqualTo("first");
+        assertThat(provider.getToken("1", ImmutableSet.of("READ", "ADMIN"), "users")).isEqualTo("first");
+        assertThat(provider.getToken("1", ImmutableSet.of("READ"), "users")).isEqualTo("second");
+        assertThat(provider.getToken("1", ImmutableSet.of("READ"), null)).isEqualTo("third");
+        verify(jwtIssuer, times(3)).issueToken(any(JwtClaims.class));
+        assertThat(metricRegistry.meter(name(JwtTokenProvider.class, "hits")).getCount()).isEqualTo(1);
+        assertThat(metricRegistry.meter(name(JwtTokenProvider.class, "misses")).getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void mintedClaimsCarryTheKeyAndLifetime() throws Exception {
+        JwtTokenProvider provider = newProvider(0.5);
+
+        provider.getToken("1", ImmutableSet.of("READ", "ADMIN"), "users");
+
+        ArgumentCaptor<JwtClaims> claims = ArgumentCaptor.forClass(JwtClaims.class);
+        verify(jwtIssuer).issueToken(claims.capture());
+        assertThat(claims.getValue().getSubject()).isEqualTo("1");
+        assertThat(claims.getValue().getAudience()).isEqualTo("users");
+        assertThat(claims.getValue().getClaim("scope")).isEqualTo("ADMIN READ");
+        assertThat(claims.getValue().getIssuedAt().getTime()).isEqualTo(NOW);
+        assertThat(claims.getValue().getExpirationTime().getTime()).isEqualTo(NOW + LIFETIME);
+    }
+
+    @Test
+    public void mintedTokensCarryTheAudience() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        JwtIssuer realIssuer = new JwtIssuer(generator.generateKeyPair().getPrivate(), (X509Certificate) null);
+        JwtTokenProvider provider = newProviderBuilder(0.5).withJwtIssuer(realIssuer).build();
+
+        JwtClaims claims = Jwt.newFromString(provider.getToken("1", ImmutableSet.of("ADMIN"), "users")).getClaims();
+
+        assertThat(claims.getSubject()).isEqualTo("1");
+        assertThat(claims.getAudience()).isEqualTo("users");
+        assertThat(Jwt.newFromString(provider.getToken("1", ImmutableSet.of("ADMIN"), null)).getClaims().getAudience())
+                .isNull();
+    }
+
+    @Test
+    public void tokenIsReMintedInTheBackgroundAfterTheRefreshFraction() throws Exception {
+        JwtTokenProvider provider = newProvider(0.5);
+        provider.getToken("1", ImmutableSet.of("ADMIN"), null);
+
+        deferTasks = true;
+        clock.time = NOW + LIFETIME / 2;
+
+        // The current token is still handed out while the new one is minted
+        assertThat(provider.getToken("1", ImmutableSet.of("ADMIN"), null)).isEqualTo("first");
+        assertThat(provider.getToken("1", ImmutableSet.of("ADMIN"), null)).isEqualTo("first");
+        assertThat(tasks).hasSize(1);
+
+        tasks.remove().run();
+        assertThat(provider.getToken("1", ImmutableSet.of("ADMIN"), null)).isEqualTo("second");
+    }
+
+    @Test
+    public void tokenAboutToExpireIsNeverHandedOut() throws Exception {
+        JwtTokenProvider provider = newProvider(1);
+        provider.getToken("1", ImmutableSet.of("ADMIN"), null);
+
+        clock.time = NOW + LIFETIME - MINIMUM_REMAINING - 1;
+        assertThat(provider.getToken("1", ImmutableSet.of("ADMIN"), null)).isEqualTo("first");
+
+        clock.time = NOW + LIFETIME - MINIMUM_REMAINING;
+        assertThat(provider.getToken("1", ImmutableSet.of("ADMIN"), null)).isEqualTo("second");
+    }
+
+    @Test
+    public void mintFailuresArePropagatedWhenThereIsNoUsableToken() throws Exception {
+        JwtTokenProvider provider = newProvider(0.5);
+        JwtIssueException failure = new JwtIssueException("signing failed", new RuntimeException());
+        when(jwtIssuer.issueToken(any(JwtClaims.class))).thenThrow(failure);
+
+        try {
+            provider.getToken("1", ImmutableSet.of("ADMIN"), null);
+            failBecauseExceptionWasNotThrown(JwtIssueException.class);
+        } catch (JwtIssueException e) {
+            assertThat(e).isSameAs(failure);
+        }
+        assertThat(metricRegistry.meter(name(JwtTokenProvider.class, "failures")).getCount()).isEqualTo(1);
+    }
+
+    private JwtTokenProvider newProvider(double refreshFraction) {
+        return newProviderBuilder(refreshFraction).build();
+    }
+
+    private JwtTokenProvider.Builder newProviderBuilder(double refreshFraction) {
+        return JwtTokenProvider.newBuilder()
+                .withJwtIssuer(jwtIssuer)
+                .withExecutor(executor)
+                .withMetricRegistry(metricRegistry)
+                .withClock(clock)
+                .withTokenLifetime(LIFETIME, TimeUnit.MILLISECONDS)
+                .withRefreshFraction(refreshFraction)
+                .withMinimumRemainingLifetime(MINIMUM_REMAINING, TimeUnit.MILLISECONDS);
+    }
+
+    private static final class SettableClock extends Clock {
+        private volatile long time;
+
+        private SettableClock(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public long getTick() {
+            return time * 1000000;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,777 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.util.Base64;
+import com.nimbusds.jose.util.Base64URL;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import wdawson.samples.dropwizard.util.jwt.dto.Jwt;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtVerificationResult;
+import wdawson.samples.dropwizard.util.jwt.exception.JwtParseException;
+import wdawson.samples.dropwizard.util.jwt.exception.JwtVerifyException;
+import wdawson.samples.dropwizard.util.jwt.exception.RejectionReason;
+import wdawson.samples.dropwizard.util.pki.CertificateChainValidator;
+import wdawson.samples.dropwizard.util.pki.RevocationChecker;
+import wdawson.samples.dropwizard.util.pki.RevocationStatus;
+
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Date;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static com.google.common.io.Resources.getResource;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+/**
+ * @author wdawson
+ */
+public class JwtVerifierTest {
+
+    private static final char[] PASSPHRASE = "notsecret".toCharArray();
+
+    private static final String ALLOWED_SIGNER_REGEX = "^.*\\bCN=Homepage Service\\b(?:,.*|\\s*)$";
+    private static final String EVENT_SIGNER_REGEX = "^.*\\bCN=Event Service\\b(?:,.*|\\s*)$";
+
+    // The example CA's service certificates are only valid from October 2016 to October 2017
+    private static final long CERTIFICATES_VALID_AT = 1483228800000L; // 2017-01-01T00:00:00Z
+    private static final long CERTIFICATES_EXPIRED_AT = 1514764800000L; // 2018-01-01T00:00:00Z
+
+    private static JwtIssuer homepageIssuer;
+    private static JwtIssuer eventIssuer;
+    private static JwtIssuer homepageIssuerWithoutIntermediate;
+    private static JwtIssuer thirdPartyIssuer;
+    private static JwtIssuer homepageIssuerWithoutChain;
+    private static JwtIssuer homepageEcIssuer;
+    private static SigningKeySet signingKeySet;
+    private static List<X509Certificate> trustedCertificates;
+
+    private JwtVerifier jwtVerifier;
+
+    @BeforeClass
+    public static void setupClass() throws Exception {
+        homepageIssuer = newIssuer("jwt/homepage-jwt-issuer.jks", "jwt-issuer", 2);
+        eventIssuer = newIssuer("jwt/event-jwt-issuer.jks", "jwt-issuer", 2);
+        homepageIssuerWithoutIntermediate = newIssuer("jwt/homepage-jwt-issuer.jks", "jwt-issuer", 1);
+        thirdPartyIssuer = newIssuer("tls/third-party-service-keystore.jks", "service-tls", 2);
+        homepageIssuerWithoutChain = newIssuer("jwt/homepage-jwt-issuer.jks", "jwt-issuer", 2, false);
+        homepageEcIssuer = newIssuer("jwt/homepage-ec-jwt-issuer.jks", "jwt-issuer", 2);
+
+        KeyStore trustStore = loadKeyStore("jwt/test-truststore.jks");
+        trustedCertificates = ImmutableList.of((X509Certificate) trustStore.getCertificate("root"));
+        signingKeySet = new SigningKeySet(ImmutableList.of(
+                (X509Certificate) trustStore.getCertificate("homepage-jwt-issuer"),
+                (X509Certificate) trustStore.getCertificate("intermediate")));
+    }
+
+    @Before
+    public void setup() {
+        jwtVerifier = newVerifier(trustedCertificates, CERTIFICATES_VALID_AT);
+    }
+
+    @Test
+    public void validTokenIsAuthenticated() throws Exception {
+        String token = homepageIssuer.issueToken(newClaims(new Date()));
+
+        JwtClaims claims = jwtVerifier.authenticate(Jwt.newFromString(token));
+
+        assertThat(claims.getSubject()).isEqualTo("1");
+        assertThat(claims.getClaim("scope")).isEqualTo("ADMIN");
+    }
+
+    @Test
+    public void eachStageIsTimedUpToTheRejection() throws Exception {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        JwtVerifier timedVerifier = JwtVerifier.newBuilder()
+                .withAllowedSignerPattern(Pattern.compile(ALLOWED_SIGNER_REGEX))
+                .withTrustedCertificates(trustedCertificates)
+                .withCertificateChainValidator(new CertificateChainValidator(new MetricRegistry(),
+                        CertificateChainValidator.DEFAULT_SPEC, new SettableClock(CERTIFICATES_VALID_AT)))
+                .withStageTimers(new VerificationStageTimers(metricRegistry, Clock.defaultClock(), 1))
+                .build();
+
+        timedVerifier.authenticate(homepageIssuer.issueToken(newClaims(new Date())));
+        try {
+            timedVerifier.authenticate(eventIssuer.issueToken(newClaims(new Date())));
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getReason()).isEqualTo(RejectionReason.SIGNER_NOT_ALLOWED);
+        }
+
+        assertThat(stageCount(metricRegistry, "parse")).isEqualTo(2);
+        assertThat(stageCount(metricRegistry, "trust")).isEqualTo(2);
+        assertThat(stageCount(metricRegistry, "signer")).isEqualTo(1);
+        assertThat(stageCount(metricRegistry, "signature")).isEqualTo(1);
+    }
+
+    @Test
+    public void tokensFromAnAcceptedSignerAreAuthenticatedRepeatedly() throws Exception {
+        Date now = new Date();
+        for (int i = 0; i < 3; ++i) {
+            String token = homepageIssuer.issueToken(newClaims(now));
+            assertThat(jwtVerifier.authenticate(Jwt.newFromString(token)).getSubject()).isEqualTo("1");
+        }
+    }
+
+    @Test
+    public void tokenFromDisallowedSignerIsRejectedEveryTime() throws Exception {
+        String token = eventIssuer.issueToken(newClaims(new Date()));
+
+        for (int i = 0; i < 2; ++i) {
+            try {
+                jwtVerifier.authenticate(Jwt.newFromString(token));
+                failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+            } catch (JwtVerifyException e) {
+                assertThat(e.getMessage()).startsWith("Signer DN doesn't match allowed pattern");
+                assertThat(e.getReason()).isEqualTo(RejectionReason.SIGNER_NOT_ALLOWED);
+            }
+        }
+    }
+
+    @Test
+    public void tokenFromSignerOfAnotherCaIsRejected() throws Exception {
+        String token = thirdPartyIssuer.issueToken(newClaims(new Date()));
+
+        try {
+            jwtVerifier.authenticate(Jwt.newFromString(token));
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getMessage()).endsWith("does not chain to a trusted certificate");
+            assertThat(e.getReason()).isEqualTo(RejectionReason.UNTRUSTED_SIGNER);
+        }
+    }
+
+    @Test
+    public void tokenWithoutPathToTrustedCertificateIsRejected() throws Exception {
+        String token = homepageIssuerWithoutIntermediate.issueToken(newClaims(new Date()));
+
+        try {
+            jwtVerifier.authenticate(Jwt.newFromString(token));
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getMessage()).endsWith("does not chain to a trusted certificate");
+        }
+    }
+
+    @Test
+    public void tokenFromTrustedSigningCertificateIsAuthenticated() throws Exception {
+        Certificate signingCertificate = loadKeyStore("jwt/homepage-jwt-issuer.jks").getCertificate("jwt-issuer");
+        JwtVerifier pinnedVerifier = newVerifier(ImmutableList.of((X509Certificate) signingCertificate),
+                CERTIFICATES_VALID_AT);
+
+        String token = homepageIssuerWithoutIntermediate.issueToken(newClaims(new Date()));
+
+        assertThat(pinnedVerifier.authenticate(Jwt.newFromString(token)).getSubject()).isEqualTo("1");
+    }
+
+    @Test
+    public void tokenFromExpiredSigningCertificateIsRejected() throws Exception {
+        JwtVerifier laterVerifier = newVerifier(trustedCertificates, CERTIFICATES_EXPIRED_AT);
+
+        String token = homepageIssuer.issueToken(newClaims(new Date()));
+
+        try {
+            laterVerifier.authenticate(Jwt.newFromString(token));
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getMessage()).startsWith("Signing certificate chain for 'CN=Homepage Service");
+        }
+    }
+
+    @Test
+    public void everyCertificateInTheSigningPathIsCheckedForRevocation() throws Exception {
+        List<String> checkedCertificates = new ArrayList<>();
+        JwtVerifier revocationCheckingVerifier = newVerifier(trustedCertificates, CERTIFICATES_VALID_AT,
+                (certificate, issuer) -> {
+                    checkedCertificates.add(certificate.getSubjectX500Principal().getName() + " by " +
+                            issuer.getSubjectX500Principal().getName());
+                    return RevocationStatus.GOOD;
+                });
+
+        String token = homepageIssuer.issueToken(newClaims(new Date()));
+        revocationCheckingVerifier.authenticate(Jwt.newFromString(token));
+
+        assertThat(checkedCertificates).hasSize(2);
+        assertThat(checkedCertificates.get(0)).startsWith("CN=Homepage Service").contains(" by CN=INTERMEDIATE CA");
+        assertThat(checkedCertificates.get(1)).startsWith("CN=INTERMEDIATE CA").contains(" by CN=ROOT CA");
+    }
+
+    @Test
+    public void tokenFromRevokedSigningCertificateIsRejected() throws Exception {
+        JwtVerifier revocationCheckingVerifier = newVerifier(trustedCertificates, CERTIFICATES_VALID_AT,
+                (certificate, issuer) -> RevocationStatus.REVOKED);
+
+        String token = homepageIssuer.issueToken(newClaims(new Date()));
+
+        try {
+            revocationCheckingVerifier.authenticate(Jwt.newFromString(token));
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getMessage()).endsWith("has been revoked");
+        }
+    }
+
+    @Test
+    public void tokenIsRejectedWhenRevocationStatusIsUnavailable() throws Exception {
+        JwtVerifier revocationCheckingVerifier = newVerifier(trustedCertificates, CERTIFICATES_VALID_AT,
+                (certificate, issuer) -> {
+                    throw new IOException("Connection refused");
+                });
+
+        String token = homepageIssuer.issueToken(newClaims(new Date()));
+
+        try {
+            revocationCheckingVerifier.authenticate(Jwt.newFromString(token));
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getMessage()).startsWith("Could not determine the revocation status");
+        }
+    }
+
+    @Test
+    public void expiredTokenIsRejected() throws Exception {
+        String token = homepageIssuer.issueToken(newClaims(new Date(System.currentTimeMillis() - 3600000)));
+
+        try {
+            jwtVerifier.authenticate(Jwt.newFromString(token));
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getMessage()).startsWith("Token has expired");
+        }
+    }
+
+    @Test
+    public void tokenTimesAreCheckedAgainstTheVerifiersClock() throws Exception {
+        SettableClock clock = new SettableClock(CERTIFICATES_VALID_AT);
+        JwtVerifier clockedVerifier = newVerifier(clock);
+        String token = homepageIssuer.issueToken(newClaims(new Date(CERTIFICATES_VALID_AT)));
+
+        // Expires a minute after issue, with two minutes allowed for clock skew
+        clock.time = CERTIFICATES_VALID_AT + TimeUnit.MINUTES.toMillis(3);
+        assertThat(clockedVerifier.authenticate(Jwt.newFromString(token)).getSubject()).isEqualTo("1");
+
+        clock.time += TimeUnit.SECONDS.toMillis(1);
+        try {
+            clockedVerifier.authenticate(Jwt.newFromString(token));
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getMessage()).isEqualTo(String.format("Token has expired (expiration: %d, current time: %d)",
+                    TimeUnit.MILLISECONDS.toSeconds(CERTIFICATES_VALID_AT) + 60,
+                    TimeUnit.MILLISECONDS.toSeconds(clock.time)));
+        }
+    }
+
+    @Test
+    public void tokenIsRejectedBeforeItsNotBeforeTime() throws Exception {
+        JwtVerifier clockedVerifier = newVerifier(new SettableClock(CERTIFICATES_VALID_AT));
+        Date notBefore = new Date(CERTIFICATES_VALID_AT + TimeUnit.MINUTES.toMillis(10));
+        String token = homepageIssuer.issueToken(JwtClaims.JwtClaimsBuilder.newInstance()
+                .addJwtId(UUID.randomUUID().toString())
+                .addSubject("1")
+                .addIssuedAt(new Date(CERTIFICATES_VALID_AT))
+                .addNotBefore(notBefore)
+                .addExpirationTime(new Date(notBefore.getTime() + 60000))
+                .build());
+
+        try {
+            clockedVerifier.authenticate(Jwt.newFromString(token));
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getMessage()).startsWith("Token is not yet valid");
+        }
+    }
+
+    @Test
+    public void tokenIssuedInTheFutureIsRejected() throws Exception {
+        JwtVerifier clockedVerifier = newVerifier(new SettableClock(CERTIFICATES_VALID_AT));
+        String token = homepageIssuer.issueToken(
+                newClaims(new Date(CERTIFICATES_VALID_AT + TimeUnit.MINUTES.toMillis(3))));
+
+        try {
+            clockedVerifier.authenticate(Jwt.newFromString(token));
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getMessage()).startsWith("Issue time");
+        }
+    }
+
+    @Test
+    public void tokenWithoutCertificateChainIsVerifiedWithKnownSigningKey() throws Exception {
+        JwtVerifier keySetVerifier = newVerifier(signingKeySet);
+        String token = homepageIssuerWithoutChain.issueToken(newClaims(new Date()));
+
+        assertThat(Jwt.newFromString(token).getHeader().getX509CertChain()).isNull();
+        assertThat(keySetVerifier.authenticate(token).getSubject()).isEqualTo("1");
+    }
+
+    @Test
+    public void tokenIdentifiedOnlyByKeyIdIsVerified() throws Exception {
+        JwtVerifier keySetVerifier = newVerifier(signingKeySet);
+        String issuedToken = homepageIssuerWithoutChain.issueToken(newClaims(new Date()));
+        Jwt issuedJwt = Jwt.newFromString(issuedToken);
+
+        JWSObject keyIdOnly = new JWSObject(
+                new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(issuedJwt.getHeader().getKeyID()).build(),
+                new Payload(new Base64URL(issuedToken.split("\\.")[1])));
+        keyIdOnly.sign(new RSASSASigner((RSAPrivateKey) loadKeyStore("jwt/homepage-jwt-issuer.jks")
+                .getKey("jwt-issuer", PASSPHRASE)));
+
+        assertThat(keySetVerifier.authenticate(keyIdOnly.serialize()).getSubject()).isEqualTo("1");
+    }
+
+    @Test
+    public void tokenWithUnknownSigningKeyAndNoCertificateChainIsRejected() throws Exception {
+        String token = homepageIssuerWithoutChain.issueToken(newClaims(new Date()));
+
+        try {
+            jwtVerifier.authenticate(token);
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getMessage()).startsWith("Cannot validate signature, JWT header is missing certificate chain");
+        }
+    }
+
+    @Test
+    public void unknownSigningKeyFallsBackToCertificateChain() throws Exception {
+        JwtVerifier keySetVerifier = newVerifier(new SigningKeySet(ImmutableList.<X509Certificate>of()));
+        String token = homepageIssuer.issueToken(newClaims(new Date()));
+
+        assertThat(keySetVerifier.authenticate(token).getSubject()).isEqualTo("1");
+    }
+
+    @Test
+    public void batchResultsAreReturnedInOrder() throws Exception {
+        Date now = new Date();
+        Jwt first = Jwt.newFromString(homepageIssuer.issueToken(newClaims(now)));
+        Jwt disallowed = Jwt.newFromString(eventIssuer.issueToken(newClaims(now)));
+        Jwt second = Jwt.newFromString(homepageIssuer.issueToken(newClaims(now)));
+        Jwt malformed = Jwt.newFromString(withPayload(homepageIssuer.issueToken(newClaims(now)), "not json"));
+
+        List<JwtVerificationResult> results = jwtVerifier.authenticateAll(
+                ImmutableList.of(first, disallowed, second, malformed));
+
+        assertThat(results).hasSize(4);
+        assertThat(results.get(0).isVerified()).isTrue();
+        assertThat(results.get(0).getClaims().getJwtId()).isEqualTo(first.getClaims().getJwtId());
+        assertThat(results.get(1).isVerified()).isFalse();
+        assertThat(results.get(1).getFailure()).isInstanceOf(JwtVerifyException.class)
+                .hasMessageStartingWith("Signer DN doesn't match allowed pattern");
+        assertThat(results.get(2).getClaims().getJwtId()).isEqualTo(second.getClaims().getJwtId());
+        assertThat(results.get(3).getFailure()).isInstanceOf(JwtParseException.class);
+    }
+
+    @Test
+    public void batchIssuedTokensAreReturnedInOrderWithUniqueIds() throws Exception {
+        Date now = new Date();
+        List<JwtClaims> claims = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            claims.add(JwtClaims.JwtClaimsBuilder.newInstance()
+                    .addSubject(String.valueOf(i))
+                    .addIssuedAt(now)
+                    .addExpirationTime(new Date(now.getTime() + 60000))
+                    .build());
+        }
+
+        List<String> tokens = homepageIssuer.issueTokens(claims);
+
+        assertThat(tokens).hasSize(8);
+        Set<String> jwtIds = new HashSet<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            JwtClaims verified = jwtVerifier.authenticate(tokens.get(i));
+            assertThat(verified.getSubject()).isEqualTo(String.valueOf(i));
+            assertThat(UUID.fromString(verified.getJwtId()).version()).isEqualTo(4);
+            jwtIds.add(verified.getJwtId());
+        }
+        assertThat(jwtIds).hasSize(8);
+    }
+
+    @Test
+    public void identicalTokensInBatchAreVerifiedOnce() throws Exception {
+        Jwt jwt = Jwt.newFromString(homepageIssuer.issueToken(newClaims(new Date())));
+        Jwt sameToken = Jwt.newFromString(jwt.getJwtString());
+        List<Runnable> tasks = new ArrayList<>();
+
+        List<JwtVerificationResult> results = jwtVerifier.authenticateAll(ImmutableList.of(jwt, sameToken),
+                task -> {
+                    tasks.add(task);
+                    task.run();
+                });
+
+        assertThat(results.get(0)).isSameAs(results.get(1));
+        assertThat(results.get(0).isVerified()).isTrue();
+        // One check of the shared header, then one verification of the token
+        assertThat(tasks).hasSize(2);
+    }
+
+    @Test
+    public void oversizeTokenIsRejectedBeforeParsing() throws Exception {
+        String token = Strings.repeat("x", JwtVerifier.DEFAULT_MAX_TOKEN_LENGTH + 1);
+
+        try {
+            jwtVerifier.authenticate(token);
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getMessage()).startsWith("Token length");
+        }
+    }
+
+    @Test
+    public void tokenSignedWithDisallowedAlgorithmIsRejected() throws Exception {
+        JwtVerifier rs512Verifier = JwtVerifier.newBuilder()
+                .withAllowedSignerPattern(Pattern.compile(ALLOWED_SIGNER_REGEX))
+                .withTrustedCertificates(trustedCertificates)
+                .withAllowedAlgorithms(ImmutableSet.of(JWSAlgorithm.RS512))
+                .build();
+        String token = homepageIssuer.issueToken(newClaims(new Date()));
+
+        try {
+            rs512Verifier.authenticate(token);
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getMessage()).isEqualTo("JWS algorithm 'RS256' is not allowed");
+        }
+    }
+
+    @Test
+    public void untrustedTokenIsRejectedWithoutDecodingPayload() throws Exception {
+        String token = withPayload(thirdPartyIssuer.issueToken(newClaims(new Date())), "not json");
+
+        try {
+            jwtVerifier.authenticate(token);
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getMessage()).contains("does not chain to a trusted certificate");
+        }
+    }
+
+    @Test
+    public void trustedTokenWithMalformedPayloadIsRejected() throws Exception {
+        String token = withPayload(homepageIssuer.issueToken(newClaims(new Date())), "not json");
+
+        try {
+            jwtVerifier.authenticate(token);
+            failBecauseExceptionWasNotThrown(JwtParseException.class);
+        } catch (JwtParseException e) {
+            assertThat(e.getMessage()).startsWith("Invalid JWT claims");
+        }
+    }
+
+    @Test
+    public void tokenWithCorruptedCertificateChainIsRejectedAsMalformed() throws Exception {
+        String[] parts = homepageIssuer.issueToken(newClaims(new Date())).split("\\.");
+        String header = new Base64URL(parts[0]).decodeToString()
+                .replaceFirst("\"x5c\":\\[\"[^\"]+\"", "\"x5c\":[\"" + Base64.encode("not a certificate") + "\"");
+        String token = Base64URL.encode(header) + "." + parts[1] + "." + parts[2];
+
+        try {
+            jwtVerifier.authenticate(token);
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getReason()).isEqualTo(RejectionReason.MALFORMED);
+            assertThat(e.getMessage()).startsWith("Invalid certificate in 'x5c' header");
+        }
+    }
+
+    @Test
+    public void tokenWithGarbageHeaderIsRejectedWithoutAStackTrace() throws Exception {
+        try {
+            jwtVerifier.authenticate(Base64URL.encode("not json") + ".e30.c2ln");
+            failBecauseExceptionWasNotThrown(JwtParseException.class);
+        } catch (JwtParseException e) {
+            assertThat(e.getMessage()).startsWith("Invalid JWT header");
+            assertThat(e.getCause()).isNull();
+            assertThat(e.getStackTrace()).isEmpty();
+        }
+    }
+
+    @Test
+    public void tokenWithoutThreePartsIsRejected() throws Exception {
+        try {
+            jwtVerifier.authenticate("header.payload");
+            failBecauseExceptionWasNotThrown(JwtParseException.class);
+        } catch (JwtParseException e) {
+            assertThat(e.getMessage()).contains("Expected 3 parts");
+        }
+    }
+
+    @Test
+    public void tokenWithAnotherTokensSignatureIsRejected() throws Exception {
+        Date now = new Date();
+        String token = homepageIssuer.issueToken(newClaims(now));
+        String otherToken = homepageIssuer.issueToken(newClaims(now));
+
+        String forged = token.substring(0, token.lastIndexOf('.')) + otherToken.substring(otherToken.lastIndexOf('.'));
+
+        try {
+            jwtVerifier.authenticate(Jwt.newFromString(forged));
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getMessage()).startsWith("Could not verify JWT signature");
+        }
+    }
+
+    @Test
+    public void tokenSignedWithEcKeyIsAuthenticated() throws Exception {
+        Jwt jwt = Jwt.newFromString(homepageEcIssuer.issueToken(newClaims(new Date())));
+
+        JwtClaims claims = jwtVerifier.authenticate(jwt);
+
+        assertThat(jwt.getHeader().getAlgorithm()).isEqualTo(JWSAlgorithm.ES256);
+        assertThat(jwt.getSignature().decode()).hasSize(64);
+        assertThat(claims.getSubject()).isEqualTo("1");
+    }
+
+    @Test
+    public void ecTokenWithAnotherTokensSignatureIsRejected() throws Exception {
+        Date now = new Date();
+        String token = homepageEcIssuer.issueToken(newClaims(now));
+        String otherToken = homepageEcIssuer.issueToken(newClaims(now));
+
+        String forged = token.substring(0, token.lastIndexOf('.')) + otherToken.substring(otherToken.lastIndexOf('.'));
+
+        try {
+            jwtVerifier.authenticate(Jwt.newFromString(forged));
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getReason()).isEqualTo(RejectionReason.INVALID_SIGNATURE);
+        }
+    }
+
+    @Test
+    public void ecTokenWithZeroSignatureIsRejected() throws Exception {
+        String token = homepageEcIssuer.issueToken(newClaims(new Date()));
+
+        String forged = token.substring(0, token.lastIndexOf('.') + 1) + Base64URL.encode(new byte[64]);
+
+        try {
+            jwtVerifier.authenticate(Jwt.newFromString(forged));
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getReason()).isEqualTo(RejectionReason.INVALID_SIGNATURE);
+        }
+    }
+
+    @Test
+    public void rotatedSnapshotIsUsedForNewVerifications() throws Exception {
+        SettableClock clock = new SettableClock(System.currentTimeMillis());
+        JwtVerifier rotatingVerifier = newRotatingVerifier(clock, 0);
+        String homepageToken = homepageIssuer.issueToken(newClaims(new Date(clock.time)));
+        String eventToken = eventIssuer.issueToken(newClaims(new Date(clock.time)));
+        rotatingVerifier.authenticate(homepageToken);
+
+        rotatingVerifier.rotate(newSnapshot(EVENT_SIGNER_REGEX));
+
+        assertThat(rotatingVerifier.authenticate(eventToken).getSubject()).isEqualTo("1");
+        try {
+            rotatingVerifier.authenticate(homepageToken);
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getReason()).isEqualTo(RejectionReason.SIGNER_NOT_ALLOWED);
+        }
+    }
+
+    @Test
+    public void previousSnapshotIsAcceptedUntilTheRotationOverlapEnds() throws Exception {
+        SettableClock clock = new SettableClock(System.currentTimeMillis());
+        JwtVerifier rotatingVerifier = newRotatingVerifier(clock, TimeUnit.MINUTES.toMillis(5));
+        rotatingVerifier.rotate(newSnapshot(EVENT_SIGNER_REGEX));
+
+        clock.time += TimeUnit.MINUTES.toMillis(5) - 1;
+        String homepageToken = homepageIssuer.issueToken(newClaims(new Date(clock.time)));
+        assertThat(rotatingVerifier.authenticate(homepageToken).getSubject()).isEqualTo("1");
+        assertThat(rotatingVerifier.authenticate(eventIssuer.issueToken(newClaims(new Date(clock.time)))).getSubject())
+                .isEqualTo("1");
+
+        clock.time += 1;
+        try {
+            rotatingVerifier.authenticate(homepageToken);
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getReason()).isEqualTo(RejectionReason.SIGNER_NOT_ALLOWED);
+        }
+    }
+
+    @Test
+    public void onlyTheMostRecentlyReplacedSnapshotOverlaps() throws Exception {
+        SettableClock clock = new SettableClock(System.currentTimeMillis());
+        JwtVerifier rotatingVerifier = newRotatingVerifier(clock, TimeUnit.MINUTES.toMillis(5));
+        rotatingVerifier.rotate(newSnapshot(EVENT_SIGNER_REGEX));
+        rotatingVerifier.rotate(newSnapshot(EVENT_SIGNER_REGEX));
+
+        try {
+            rotatingVerifier.authenticate(homepageIssuer.issueToken(newClaims(new Date(clock.time))));
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getReason()).isEqualTo(RejectionReason.SIGNER_NOT_ALLOWED);
+        }
+    }
+
+    @Test
+    public void tokenRejectedByBothSnapshotsReportsTheCurrentSnapshotsReason() throws Exception {
+        SettableClock clock = new SettableClock(System.currentTimeMillis());
+        JwtVerifier rotatingVerifier = newRotatingVerifier(clock, TimeUnit.MINUTES.toMillis(5));
+        rotatingVerifier.rotate(TrustSnapshot.newBuilder()
+                .withAllowedSignerPattern(Pattern.compile(ALLOWED_SIGNER_REGEX))
+                .withTrustedCertificates(ImmutableList.<X509Certificate>of())
+                .build());
+
+        // Trusted by the previous snapshot, but not allowed by its signer pattern
+        try {
+            rotatingVerifier.authenticate(eventIssuer.issueToken(newClaims(new Date(clock.time))));
+            failBecauseExceptionWasNotThrown(JwtVerifyException.class);
+        } catch (JwtVerifyException e) {
+            assertThat(e.getReason()).isEqualTo(RejectionReason.UNTRUSTED_SIGNER);
+        }
+    }
+
+    /**
+     * Replaces the payload of a serialized token, keeping its header and signature.
+     */
+    private static String withPayload(String token, String payload) {
+        String[] parts = token.split("\\.");
+        return parts[0] + "." + Base64URL.encode(payload) + "." + parts[2];
+    }
+
+    /**
+     * Creates a verifier which validates signing certificate chains as of the given time.
+     */
+    private static JwtVerifier newVerifier(List<X509Certificate> trustedCertificates, long validationTime) {
+        return newVerifier(trustedCertificates, validationTime, null);
+    }
+
+    private static JwtVerifier newVerifier(List<X509Certificate> trustedCertificates, long validationTime,
+                                           RevocationChecker revocationChecker) {
+        return JwtVerifier.newBuilder()
+                .withAllowedSignerPattern(Pattern.compile(ALLOWED_SIGNER_REGEX))
+                .withTrustedCertificates(trustedCertificates)
+                .withCertificateChainValidator(new CertificateChainValidator(new MetricRegistry(),
+                        CertificateChainValidator.DEFAULT_SPEC, new SettableClock(validationTime)))
+                .withRevocationChecker(revocationChecker)
+                .build();
+    }
+
+    /**
+     * Creates a verifier which resolves signing keys from the given key set.
+     */
+    private static JwtVerifier newVerifier(SigningKeySet signingKeySet) {
+        return JwtVerifier.newBuilder()
+                .withAllowedSignerPattern(Pattern.compile(ALLOWED_SIGNER_REGEX))
+                .withTrustedCertificates(trustedCertificates)
+                .withSigningKeySet(signingKeySet)
+                .withCertificateChainValidator(new CertificateChainValidator(new MetricRegistry(),
+                        CertificateChainValidator.DEFAULT_SPEC, new SettableClock(CERTIFICATES_VALID_AT)))
+                .build();
+    }
+
+    /**
+     * Creates a verifier which checks both token times and signing certificate chains against the given clock.
+     */
+    private static JwtVerifier newVerifier(Clock clock) {
+        return JwtVerifier.newBuilder()
+                .withAllowedSignerPattern(Pattern.compile(ALLOWED_SIGNER_REGEX))
+                .withTrustedCertificates(trustedCertificates)
+                .withClock(clock)
+                .build();
+    }
+
+    /**
+     * Creates a verifier which allows the homepage signer until it's rotated, and checks token times, signing
+     * certificate chains and the rotation overlap against the given clock.
+     */
+    private static JwtVerifier newRotatingVerifier(SettableClock clock, long rotationOverlapMillis) {
+        return JwtVerifier.newBuilder()
+                .withTrustSnapshot(newSnapshot(ALLOWED_SIGNER_REGEX))
+                .withRotationOverlap(rotationOverlapMillis, TimeUnit.MILLISECONDS)
+                .withCertificateChainValidator(new CertificateChainValidator(new MetricRegistry(),
+                        CertificateChainValidator.DEFAULT_SPEC, new SettableClock(CERTIFICATES_VALID_AT)))
+                .withClock(clock)
+                .build();
+    }
+
+    private static TrustSnapshot newSnapshot(String allowedSignerRegex) {
+        return TrustSnapshot.newBuilder()
+                .withAllowedSignerPattern(Pattern.compile(allowedSignerRegex))
+                .withTrustedCertificates(trustedCertificates)
+                .build();
+    }
+
+    private static long stageCount(MetricRegistry metricRegistry, String stage) {
+        return metricRegistry.timer(MetricRegistry.name(JwtVerifier.class, "stages", stage)).getCount();
+    }
+
+    /**
+     * Creates an issuer which puts the first {@code chainLength} certificates of the key's chain in the 'x5c' header.
+     */
+    private static JwtIssuer newIssuer(String keyStoreResource, String alias, int chainLength) throws Exception {
+        return newIssuer(keyStoreResource, alias, chainLength, true);
+    }
+
+    private static JwtIssuer newIssuer(String keyStoreResource, String alias, int chainLength,
+                                       boolean includeCertificateChain) throws Exception {
+        KeyStore keyStore = loadKeyStore(keyStoreResource);
+        PrivateKey signingKey = (PrivateKey) keyStore.getKey(alias, PASSPHRASE);
+
+        ImmutableList.Builder<X509Certificate> certificateChain = ImmutableList.builder();
+        Certificate[] keyStoreChain = keyStore.getCertificateChain(alias);
+        for (int i = 0; i < chainLength; ++i) {
+            certificateChain.add((X509Certificate) keyStoreChain[i]);
+        }
+        return new JwtIssuer(signingKey, certificateChain.build(), includeCertificateChain);
+    }
+
+    private static KeyStore loadKeyStore(String resource) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(getResource(resource).openStream(), PASSPHRASE);
+        return keyStore;
+    }
+
+    private static JwtClaims newClaims(Date issuedAt) {
+        return JwtClaims.JwtClaimsBuilder.newInstance()
+                .addJwtId(UUID.randomUUID().toString())
+                .addSubject("1")
+                .addIssuedAt(issuedAt)
+                .addNotBefore(issuedAt)
+                .addExpirationTime(new Date(issuedAt.getTime() + 60000))
+                .addCustomClaim("scope", "ADMIN")
+                .build();
+    }
+
+    private static final class SettableClock extends Clock {
+        private volatile long time;
+
+        private SettableClock(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public long getTick() {
+            return time * 1000000;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilderSpec;
+import org.junit.Before;
+import org.junit.Test;
+import wdawson.samples.dropwizard.util.jwt.exception.RejectionReason;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author wdawson
+ */
+public class RejectedJwtCacheTest {
+
+    private static final String TOKEN = "header.payload.signature";
+
+    private MetricRegistry metricRegistry;
+    private RejectedJwtCache cache;
+
+    @Before
+    public void setup() {
+        metricRegistry = new MetricRegistry();
+        cache = new RejectedJwtCache(metricRegistry, CacheBuilderSpec.parse("maximumSize=2"));
+    }
+
+    @Test
+    public void rejectionsAreRememberedWithTheirReason() {
+        cache.put(TOKEN, RejectionReason.EXPIRED);
+
+        assertThat(cache.getIfPresent(TOKEN)).isEqualTo(RejectionReason.EXPIRED);
+        assertThat(cache.getIfPresent(TOKEN)).isEqualTo(RejectionReason.EXPIRED);
+        assertThat(cache.getIfPresent("other.token.value")).isNull();
+        assertThat(metricRegistry.meter(name(RejectedJwtCache.class, "hits", "EXPIRED")).getCount()).isEqualTo(2);
+        assertThat(metricRegistry.meter(name(RejectedJwtCache.class, "hits", "INVALID_SIGNATURE")).getCount())
+                .isEqualTo(0);
+    }
+
+    @Test
+    public void rejectionsThatMayNotRepeatAreNotRemembered() {
+        cache.put(TOKEN, RejectionReason.NOT_YET_VALID);
+        cache.put("other.token.value", RejectionReason.REVOCATION_STATUS_UNKNOWN);
+
+        assertThat(cache.getIfPresent(TOKEN)).isNull();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void cacheIsBoundedBySize() {
+        cache.put("a", RejectionReason.MALFORMED);
+        cache.put("b", RejectionReason.MALFORMED);
+        cache.put("c", RejectionReason.MALFORMED);
+
+        assertThat(cache.size()).isEqualTo(2);
+    }
+}
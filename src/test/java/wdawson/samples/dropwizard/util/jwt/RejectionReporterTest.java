@@ -0,0 +1,84 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import wdawson.samples.dropwizard.util.jwt.exception.JwtParseException;
+import wdawson.samples.dropwizard.util.jwt.exception.JwtVerifyException;
+import wdawson.samples.dropwizard.util.jwt.exception.RejectionReason;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author wdawson
+ */
+public class RejectionReporterTest {
+
+    private MetricRegistry metricRegistry;
+    private SettableClock clock;
+    private RejectionReporter reporter;
+
+    @Before
+    public void setup() {
+        metricRegistry = new MetricRegistry();
+        clock = new SettableClock(0);
+        reporter = new RejectionReporter(metricRegistry, clock, 1, 2);
+    }
+
+    @Test
+    public void rejectionsAreCountedByReason() {
+        reporter.report(new JwtVerifyException(RejectionReason.EXPIRED, "expired"));
+        reporter.report(new JwtVerifyException(RejectionReason.EXPIRED, "expired"));
+        reporter.report(new JwtParseException("garbage"));
+
+        assertThat(reporter.getCount(RejectionReason.EXPIRED)).isEqualTo(2);
+        assertThat(reporter.getCount(RejectionReason.MALFORMED)).isEqualTo(1);
+        assertThat(metricRegistry.meter(name(RejectionReporter.class, "rejections", "EXPIRED")).getCount())
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void loggingIsLimitedToTheBucketRate() {
+        for (int i = 0; i < 5; ++i) {
+            reporter.report(new JwtVerifyException(RejectionReason.INVALID_SIGNATURE, "bad signature"));
+        }
+        // The burst of two is logged, the rest are only counted
+        assertThat(metricRegistry.meter(name(RejectionReporter.class, "unlogged")).getCount()).isEqualTo(3);
+
+        clock.tick = TimeUnit.SECONDS.toNanos(1);
+        reporter.report(new JwtVerifyException(RejectionReason.INVALID_SIGNATURE, "bad signature"));
+        reporter.report(new JwtVerifyException(RejectionReason.INVALID_SIGNATURE, "bad signature"));
+
+        assertThat(metricRegistry.meter(name(RejectionReporter.class, "unlogged")).getCount()).isEqualTo(4);
+        assertThat(reporter.getCount(RejectionReason.INVALID_SIGNATURE)).isEqualTo(7);
+    }
+
+    @Test
+    public void expectedRejectionsDoNotCaptureStackTraces() {
+        assertThat(new JwtVerifyException(RejectionReason.EXPIRED, "expired").getStackTrace()).isEmpty();
+        assertThat(new JwtVerifyException("unexpected").getStackTrace()).isNotEmpty();
+        assertThat(new JwtParseException("garbage").getStackTrace()).isEmpty();
+    }
+
+    private static final class SettableClock extends Clock {
+        private volatile long tick;
+
+        private SettableClock(long tick) {
+            this.tick = tick;
+        }
+
+        @Override
+        public long getTick() {
+            return tick;
+        }
+
+        @Override
+        public long getTime() {
+            return TimeUnit.NANOSECONDS.toMillis(tick);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.google.common.collect.ImmutableSet;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.util.Base64URL;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+/**
+ * @author wdawson
+ */
+public class SignatureVerifierPoolTest {
+
+    private static KeyPair rsaKeyPair;
+    private static KeyPair ecKeyPair;
+    private static KeyPair p521KeyPair;
+
+    private SignatureVerifierPool pool;
+
+    @BeforeClass
+    public static void setupClass() throws Exception {
+        KeyPairGenerator rsaGenerator = KeyPairGenerator.getInstance("RSA");
+        rsaGenerator.initialize(2048);
+        rsaKeyPair = rsaGenerator.generateKeyPair();
+        ecKeyPair = newEcKeyPair("secp256r1");
+        p521KeyPair = newEcKeyPair("secp521r1");
+    }
+
+    @Before
+    public void setup() {
+        pool = new SignatureVerifierPool();
+    }
+
+    @Test
+    public void validSignaturesAreVerified() throws Exception {
+        assertThat(pool.verify(signRsa("payload"), rsaKeyPair.getPublic())).isTrue();
+        assertThat(pool.verify(signEc(JWSAlgorithm.ES256, ecKeyPair, "payload"), ecKeyPair.getPublic())).isTrue();
+        assertThat(pool.verify(signEc(JWSAlgorithm.ES512, p521KeyPair, "payload"), p521KeyPair.getPublic())).isTrue();
+    }
+
+    @Test
+    public void verifiersAreReusedForTheSameKey() throws Exception {
+        for (int i = 0; i < 3; ++i) {
+            assertThat(pool.verify(signRsa("payload " + i), rsaKeyPair.getPublic())).isTrue();
+            assertThat(pool.verify(signEc(JWSAlgorithm.ES256, ecKeyPair, "payload " + i), ecKeyPair.getPublic()))
+                    .isTrue();
+        }
+    }
+
+    @Test
+    public void tamperedPayloadIsRejected() throws Exception {
+        JWSObject signed = signRsa("payload");
+        JWSObject tampered = new JWSObject(signed.getHeader().toBase64URL(), Base64URL.encode("tampered"),
+                signed.getSignature());
+
+        assertThat(pool.verify(tampered, rsaKeyPair.getPublic())).isFalse();
+    }
+
+    @Test
+    public void tamperedSignatureIsRejected() throws Exception {
+        JWSObject rsaSigned = signRsa("payload");
+        assertThat(pool.verify(rsaSigned.getHeader(), rsaSigned.getSigningInput(),
+                flipLastBit(rsaSigned.getSignature()), rsaKeyPair.getPublic())).isFalse();
+
+        JWSObject ecSigned = signEc(JWSAlgorithm.ES256, ecKeyPair, "payload");
+        assertThat(pool.verify(ecSigned.getHeader(), ecSigned.getSigningInput(),
+                flipLastBit(ecSigned.getSignature()), ecKeyPair.getPublic())).isFalse();
+    }
+
+    @Test
+    public void signatureFromAnotherKeyIsRejected() throws Exception {
+        assertThat(pool.verify(signEc(JWSAlgorithm.ES256, ecKeyPair, "payload"),
+                newEcKeyPair("secp256r1").getPublic())).isFalse();
+    }
+
+    @Test
+    public void criticalHeaderParametersAreRejected() throws Exception {
+        JWSObject signed = signRsa("payload");
+        JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.RS256)
+                .criticalParams(ImmutableSet.of("exp"))
+                .build();
+
+        assertThat(pool.verify(header, signed.getSigningInput(), signed.getSignature(), rsaKeyPair.getPublic()))
+                .isFalse();
+    }
+
+    @Test
+    public void unsupportedAlgorithmIsAnError() throws Exception {
+        JWSObject signed = signRsa("payload");
+
+        try {
+            pool.verify(new JWSHeader(JWSAlgorithm.HS256), signed.getSigningInput(), signed.getSignature(),
+                    rsaKeyPair.getPublic());
+            failBecauseExceptionWasNotThrown(JOSEException.class);
+        } catch (JOSEException e) {
+            assertThat(e).hasMessageContaining("Unsupported JWS algorithm");
+        }
+    }
+
+    @Test
+    public void keysThatDontMatchTheAlgorithmAreAnError() throws Exception {
+        JWSObject ecSigned = signEc(JWSAlgorithm.ES256, ecKeyPair, "payload");
+        assertKeyMismatch(ecSigned.getHeader(), ecSigned, p521KeyPair.getPublic(),
+                "JWS algorithm ES256 requires an EC key on a 256 bit curve");
+        assertKeyMismatch(ecSigned.getHeader(), ecSigned, rsaKeyPair.getPublic(),
+                "JWS algorithm ES256 requires an EC key on a 256 bit curve");
+
+        JWSObject rsaSigned = signRsa("payload");
+        assertKeyMismatch(rsaSigned.getHeader(), rsaSigned, ecKeyPair.getPublic(),
+                "JWS algorithm RS256 requires an RSA key");
+        assertKeyMismatch(new JWSHeader(JWSAlgorithm.ES512), ecSigned, ecKeyPair.getPublic(),
+                "JWS algorithm ES512 requires an EC key on a 521 bit curve");
+    }
+
+    @Test
+    public void verifierIsResetAfterASignatureException() throws Exception {
+        JWSObject signed = signRsa("payload");
+
+        try {
+            // An RSA signature of the wrong length makes the JCA verifier throw part way through
+            pool.verify(signed.getHeader(), signed.getSigningInput(), Base64URL.encode(new byte[3]),
+                    rsaKeyPair.getPublic());
+            failBecauseExceptionWasNotThrown(JOSEException.class);
+        } catch (JOSEException e) {
+            assertThat(e.getCause()).isInstanceOf(SignatureException.class);
+        }
+
+        assertThat(pool.verify(signed, rsaKeyPair.getPublic())).isTrue();
+    }
+
+    @Test
+    public void concatenatedSignatureOfTheWrongLengthIsNotTranscoded() {
+        assertThat(SignatureVerifierPool.concatToDer(new byte[63], 32)).isNull();
+        assertThat(SignatureVerifierPool.concatToDer(new byte[65], 32)).isNull();
+    }
+
+    @Test
+    public void zeroValuesAreNotTranscoded() {
+        byte[] zeroR = new byte[64];
+        zeroR[63] = 1;
+        byte[] zeroS = new byte[64];
+        zeroS[31] = 1;
+
+        assertThat(SignatureVerifierPool.concatToDer(zeroR, 32)).isNull();
+        assertThat(SignatureVerifierPool.concatToDer(zeroS, 32)).isNull();
+    }
+
+    @Test
+    public void valuesAreStrippedOfLeadingZerosAndPaddedWhenTheHighBitIsSet() {
+        byte[] der = SignatureVerifierPool.concatToDer(new byte[] {0x00, 0x01, (byte) 0x80, 0x00}, 2);
+
+        assertThat(der).containsExactly(bytes(
+                0x30, 0x08,
+                0x02, 0x01, 0x01,
+                0x02, 0x03, 0x00, 0x80, 0x00));
+    }
+
+    @Test
+    public void longSignaturesUseTheTwoByteLengthForm() {
+        byte[] concat = new byte[132];
+        Arrays.fill(concat, (byte) 0xff);
+
+        byte[] der = SignatureVerifierPool.concatToDer(concat, 66);
+
+        // Each value is a padded 67 byte integer, so the sequence is 2 * (2 + 67) = 138 bytes long
+        assertThat(der).hasSize(3 + 138);
+        assertThat(Arrays.copyOf(der, 6)).containsExactly(bytes(0x30, 0x81, 138, 0x02, 67, 0x00));
+    }
+
+    private static JWSObject signRsa(String payload) throws Exception {
+        JWSObject jwsObject = new JWSObject(new JWSHeader(JWSAlgorithm.RS256), new Payload(payload));
+        jwsObject.sign(new RSASSASigner((RSAPrivateKey) rsaKeyPair.getPrivate()));
+        return jwsObject;
+    }
+
+    private static JWSObject signEc(JWSAlgorithm algorithm, KeyPair keyPair, String payload) throws Exception {
+        JWSObject jwsObject = new JWSObject(new JWSHeader(algorithm), new Payload(payload));
+        jwsObject.sign(new ECDSASigner((ECPrivateKey) keyPair.getPrivate()));
+        return jwsObject;
+    }
+
+    private void assertKeyMismatch(JWSHeader header, JWSObject signed, PublicKey publicKey, String message) {
+        try {
+            pool.verify(header, signed.getSigningInput(), signed.getSignature(), publicKey);
+            failBecauseExceptionWasNotThrown(JOSEException.class);
+        } catch (JOSEException e) {
+            assertThat(e).hasMessage(message);
+        }
+    }
+
+    private static Base64URL flipLastBit(Base64URL signature) {
+        byte[] bytes = signature.decode();
+        bytes[bytes.length - 1] ^= 1;
+        return Base64URL.encode(bytes);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static KeyPair newEcKeyPair(String curve) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec(curve));
+        return generator.generateKeyPair();
+    }
+}
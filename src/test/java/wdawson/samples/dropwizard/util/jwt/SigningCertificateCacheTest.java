@@ -0,0 +1,70 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.nimbusds.jose.util.Base64;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import wdawson.samples.dropwizard.util.jwt.dto.SigningCertificate;
+
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import static com.google.common.io.Resources.getResource;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author wdawson
+ */
+public class SigningCertificateCacheTest {
+
+    private static final char[] PASSPHRASE = "notsecret".toCharArray();
+
+    private static X509Certificate signingCertificate;
+
+    private MetricRegistry metricRegistry;
+    private SigningCertificateCache cache;
+
+    @BeforeClass
+    public static void setupClass() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(getResource("jwt/homepage-jwt-issuer.jks").openStream(), PASSPHRASE);
+        signingCertificate = (X509Certificate) keyStore.getCertificate("jwt-issuer");
+    }
+
+    @Before
+    public void setup() {
+        metricRegistry = new MetricRegistry();
+        cache = new SigningCertificateCache(metricRegistry, SigningCertificateCache.DEFAULT_SPEC);
+    }
+
+    @Test
+    public void certificateIsDecodedOnce() throws Exception {
+        SigningCertificate first = cache.get(Base64.encode(signingCertificate.getEncoded()));
+        SigningCertificate second = cache.get(Base64.encode(signingCertificate.getEncoded()));
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.getCertificate()).isEqualTo(signingCertificate);
+        assertThat(first.getPublicKey()).isEqualTo(signingCertificate.getPublicKey());
+        assertThat(first.getSubjectDn()).isEqualTo(signingCertificate.getSubjectDN().getName());
+        assertThat(first.getSubjectPrincipal()).isEqualTo(signingCertificate.getSubjectX500Principal());
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(metricRegistry.getGauges().get(MetricRegistry.name(SigningCertificateCache.class, "hitRatio"))
+                .getValue()).isEqualTo(0.5);
+    }
+
+    @Test(expected = CertificateException.class)
+    public void invalidCertificateIsRejected() throws Exception {
+        cache.get(Base64.encode("not a certificate"));
+    }
+
+    @Test
+    public void sizeIsRegisteredAsAGauge() throws Exception {
+        cache.get(Base64.encode(signingCertificate.getEncoded()));
+
+        Gauge size = metricRegistry.getGauges().get(MetricRegistry.name(SigningCertificateCache.class, "size"));
+        assertThat(size.getValue()).isEqualTo(1L);
+    }
+}
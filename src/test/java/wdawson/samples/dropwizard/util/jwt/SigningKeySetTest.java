@@ -0,0 +1,67 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.google.common.collect.ImmutableList;
+import com.nimbusds.jose.util.Base64URL;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import wdawson.samples.dropwizard.util.jwt.dto.SigningCertificate;
+
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import static com.google.common.io.Resources.getResource;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author wdawson
+ */
+public class SigningKeySetTest {
+
+    private static X509Certificate homepage;
+    private static X509Certificate intermediate;
+    private static X509Certificate event;
+
+    @BeforeClass
+    public static void setupClass() throws Exception {
+        Certificate[] homepageChain = loadChain("jwt/homepage-jwt-issuer.jks");
+        homepage = (X509Certificate) homepageChain[0];
+        intermediate = (X509Certificate) homepageChain[1];
+        event = (X509Certificate) loadChain("jwt/event-jwt-issuer.jks")[0];
+    }
+
+    @Test
+    public void signerIsFoundByThumbprintWithItsIssuers() throws Exception {
+        SigningKeySet signingKeySet = new SigningKeySet(ImmutableList.of(intermediate, homepage));
+        String thumbprint = SigningKeySet.getThumbprint(new SigningCertificate(homepage));
+
+        List<SigningCertificate> chain = signingKeySet.getByThumbprint(new Base64URL(thumbprint));
+
+        assertThat(chain).extracting("certificate").containsExactly(homepage, intermediate);
+        assertThat(signingKeySet.getByKeyId(thumbprint)).isEqualTo(chain);
+    }
+
+    @Test
+    public void unknownSignerIsNotFound() throws Exception {
+        SigningKeySet signingKeySet = new SigningKeySet(ImmutableList.of(intermediate, homepage));
+        String thumbprint = SigningKeySet.getThumbprint(new SigningCertificate(event));
+
+        assertThat(signingKeySet.getByThumbprint(new Base64URL(thumbprint))).isNull();
+        assertThat(signingKeySet.getByKeyId("unknown")).isNull();
+    }
+
+    @Test
+    public void chainStopsAtIssuerNotInSet() throws Exception {
+        SigningKeySet signingKeySet = new SigningKeySet(ImmutableList.of(homepage));
+
+        assertThat(signingKeySet.getByKeyId(SigningKeySet.getThumbprint(new SigningCertificate(homepage))))
+                .extracting("certificate").containsExactly(homepage);
+    }
+
+    private static Certificate[] loadChain(String resource) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(getResource(resource).openStream(), "notsecret".toCharArray());
+        return keyStore.getCertificateChain("jwt-issuer");
+    }
+}
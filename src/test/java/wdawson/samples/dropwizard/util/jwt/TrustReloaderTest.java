@@ -0,0 +1,142 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import wdawson.samples.dropwizard.util.jwt.exception.RejectionReason;
+
+import java.io.File;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author wdawson
+ */
+public class TrustReloaderTest {
+
+    private static final long ROTATION_OVERLAP = TimeUnit.MINUTES.toMillis(5);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+
+    @SuppressWarnings("unchecked")
+    private final Supplier<TrustSnapshot> loader = mock(Supplier.class);
+
+    private MetricRegistry metricRegistry;
+    private JwtVerifier jwtVerifier;
+    private TrustSnapshot initialSnapshot;
+    private TrustSnapshot reloadedSnapshot;
+    private File truststore;
+
+    @Before
+    public void setup() throws Exception {
+        metricRegistry = new MetricRegistry();
+        initialSnapshot = newSnapshot();
+        reloadedSnapshot = newSnapshot();
+        jwtVerifier = JwtVerifier.newBuilder()
+                .withTrustSnapshot(initialSnapshot)
+                .withRotationOverlap(ROTATION_OVERLAP, TimeUnit.MILLISECONDS)
+                .build();
+        truststore = temporaryFolder.newFile("truststore.jks");
+        truststore.setLastModified(1483228800000L);
+        when(loader.get()).thenReturn(reloadedSnapshot);
+    }
+
+    @Test
+    public void reloadRotatesTheVerifierAndDropsCachedTokens() throws Exception {
+        RejectedJwtCache rejectedJwtCache = new RejectedJwtCache(metricRegistry, RejectedJwtCache.DEFAULT_SPEC);
+        rejectedJwtCache.put("token", RejectionReason.UNTRUSTED_SIGNER);
+        VerifiedJwtCache verifiedJwtCache = new VerifiedJwtCache(metricRegistry,
+                CacheBuilderSpec.parse("maximumSize=10"));
+        TrustReloader trustReloader = newReloaderBuilder()
+                .withRejectedJwtCache(rejectedJwtCache)
+                .withVerifiedJwtCache(verifiedJwtCache)
+                .build();
+
+        assertThat(trustReloader.reload()).isSameAs(reloadedSnapshot);
+
+        assertThat(jwtVerifier.getTrustSnapshot()).isSameAs(reloadedSnapshot);
+        assertThat(rejectedJwtCache.size()).isEqualTo(0);
+        // Verified tokens are only dropped once the previous snapshot stops being accepted
+        verify(executor).schedule(any(Runnable.class), eq(ROTATION_OVERLAP), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void truststoreIsOnlyReloadedWhenItChanges() throws Exception {
+        TrustReloader trustReloader = newReloaderBuilder().build();
+
+        trustReloader.reloadIfChanged();
+        assertThat(jwtVerifier.getTrustSnapshot()).isSameAs(initialSnapshot);
+
+        truststore.setLastModified(truststore.lastModified() + 1000);
+        trustReloader.reloadIfChanged();
+        trustReloader.reloadIfChanged();
+
+        assertThat(jwtVerifier.getTrustSnapshot()).isSameAs(reloadedSnapshot);
+        verify(loader, times(1)).get();
+    }
+
+    @Test
+    public void failedReloadKeepsTheCurrentSnapshotAndIsRetried() throws Exception {
+        when(loader.get()).thenThrow(new RuntimeException("truncated truststore")).thenReturn(reloadedSnapshot);
+        TrustReloader trustReloader = newReloaderBuilder().build();
+
+        truststore.setLastModified(truststore.lastModified() + 1000);
+        trustReloader.reloadIfChanged();
+        assertThat(jwtVerifier.getTrustSnapshot()).isSameAs(initialSnapshot);
+        assertThat(metricRegistry.meter(name(TrustReloader.class, "failures")).getCount()).isEqualTo(1);
+
+        trustReloader.reloadIfChanged();
+        assertThat(jwtVerifier.getTrustSnapshot()).isSameAs(reloadedSnapshot);
+    }
+
+    @Test
+    public void failedReloadIsReportedToTheCaller() throws Exception {
+        RuntimeException failure = new RuntimeException("missing alias");
+        when(loader.get()).thenThrow(failure);
+        TrustReloader trustReloader = newReloaderBuilder().build();
+
+        try {
+            trustReloader.reload();
+            failBecauseExceptionWasNotThrown(RuntimeException.class);
+        } catch (RuntimeException e) {
+            assertThat(e).isSameAs(failure);
+        }
+        assertThat(jwtVerifier.getTrustSnapshot()).isSameAs(initialSnapshot);
+    }
+
+    private TrustReloader.Builder newReloaderBuilder() {
+        return TrustReloader.newBuilder()
+                .withJwtVerifier(jwtVerifier)
+                .withLoader(loader)
+                .withWatchedFile(truststore.toPath())
+                .withExecutor(executor)
+                .withMetricRegistry(metricRegistry);
+    }
+
+    private static TrustSnapshot newSnapshot() {
+        return TrustSnapshot.newBuilder()
+                .withAllowedSignerPattern(Pattern.compile("^CN=Homepage Service$"))
+                .withTrustedCertificates(ImmutableList.<X509Certificate>of())
+                .build();
+    }
+}
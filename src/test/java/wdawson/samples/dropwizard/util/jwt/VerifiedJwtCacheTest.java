@@ -0,0 +1,124 @@
+package wdawson.samples.dropwizard.util.jwt;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilderSpec;
+import org.junit.Before;
+import org.junit.Test;
+import wdawson.samples.dropwizard.util.jwt.dto.JwtClaims;
+
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author wdawson
+ */
+public class VerifiedJwtCacheTest {
+
+    private static final String TOKEN = "header.payload.signature";
+
+    private MetricRegistry metricRegistry;
+    private VerifiedJwtCache cache;
+
+    @Before
+    public void setup() {
+        metricRegistry = new MetricRegistry();
+        cache = new VerifiedJwtCache(metricRegistry, CacheBuilderSpec.parse("maximumSize=2"));
+    }
+
+    @Test
+    public void cachedClaimsAreReturnedForTheSameToken() {
+        JwtClaims claims = claimsExpiringAt(new Date(System.currentTimeMillis() + 60000));
+
+        cache.put(TOKEN, claims);
+
+        assertThat(cache.getIfPresent(TOKEN)).isSameAs(claims);
+        assertThat(cache.getIfPresent("other.token.value")).isNull();
+        assertThat(metricRegistry.meter(MetricRegistry.name(VerifiedJwtCache.class, "hits")).getCount()).isEqualTo(1);
+        assertThat(metricRegistry.meter(MetricRegistry.name(VerifiedJwtCache.class, "misses")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void expiredClaimsAreNotCached() {
+        // Expired by more than the verifier's clock skew allowance
+        cache.put(TOKEN, claimsExpiringAt(new Date(System.currentTimeMillis() - 3600000)));
+
+        assertThat(cache.getIfPresent(TOKEN)).isNull();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void claimsAreDroppedOnceTheClockPassesTheirDeadline() {
+        long now = 1483228800000L; // 2017-01-01T00:00:00Z
+        SettableClock clock = new SettableClock(now);
+        VerifiedJwtCache clockedCache = new VerifiedJwtCache(new MetricRegistry(),
+                CacheBuilderSpec.parse("maximumSize=2"), clock);
+        JwtClaims claims = claimsExpiringAt(new Date(now + 60000));
+        clockedCache.put(TOKEN, claims);
+
+        // The verifier allows two minutes of clock skew after expiration
+        clock.time = now + 60000 + 119000;
+        assertThat(clockedCache.getIfPresent(TOKEN)).isSameAs(claims);
+
+        clock.time = now + 60000 + 120000;
+        assertThat(clockedCache.getIfPresent(TOKEN)).isNull();
+        assertThat(clockedCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void containsDoesNotRecordHitsOrMisses() {
+        cache.put(TOKEN, claimsExpiringAt(new Date(System.currentTimeMillis() + 60000)));
+
+        assertThat(cache.contains(TOKEN)).isTrue();
+        assertThat(cache.contains("other.token.value")).isFalse();
+        assertThat(metricRegistry.meter(MetricRegistry.name(VerifiedJwtCache.class, "hits")).getCount()).isEqualTo(0);
+        assertThat(metricRegistry.meter(MetricRegistry.name(VerifiedJwtCache.class, "misses")).getCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void claimsWithoutExpirationAreCached() {
+        JwtClaims claims = JwtClaims.JwtClaimsBuilder.newInstance().addSubject("1").build();
+
+        cache.put(TOKEN, claims);
+
+        assertThat(cache.getIfPresent(TOKEN)).isSameAs(claims);
+    }
+
+    @Test
+    public void cacheIsBoundedBySize() {
+        Date expiration = new Date(System.currentTimeMillis() + 60000);
+        for (int i = 0; i < 10; ++i) {
+            cache.put(TOKEN + i, claimsExpiringAt(expiration));
+        }
+
+        assertThat(cache.size()).isLessThanOrEqualTo(2);
+        assertThat(metricRegistry.meter(MetricRegistry.name(VerifiedJwtCache.class, "evictions")).getCount())
+                .isGreaterThanOrEqualTo(8);
+    }
+
+    private static JwtClaims claimsExpiringAt(Date expiration) {
+        return JwtClaims.JwtClaimsBuilder.newInstance()
+                .addSubject("1")
+                .addExpirationTime(expiration)
+                .build();
+    }
+
+    private static final class SettableClock extends Clock {
+        private volatile long time;
+
+        private SettableClock(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public long getTick() {
+            return time * 1000000;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+}
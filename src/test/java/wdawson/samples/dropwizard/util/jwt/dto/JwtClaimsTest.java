@@ -0,0 +1,112 @@
+package wdawson.samples.dropwizard.util.jwt.dto;
+
+import org.junit.Test;
+import wdawson.samples.dropwizard.util.jwt.exception.JwtParseException;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * @author wdawson
+ */
+public class JwtClaimsTest {
+
+    @Test
+    public void reservedClaimsAreDecodedAsTypedFields() throws Exception {
+        JwtClaims claims = JwtClaims.parse("{\"jti\":\"id\", \"sub\":\"1\", \"aud\":\"users\", \"iss\":\"CN=issuer\", " +
+                "\"iat\":1000, \"exp\":2000.9, \"nbf\":null}");
+
+        assertThat(claims.getJwtId()).isEqualTo("id");
+        assertThat(claims.getSubject()).isEqualTo("1");
+        assertThat(claims.getAudience()).isEqualTo("users");
+        assertThat(claims.getIssuer()).isEqualTo("CN=issuer");
+        assertThat(claims.getIssuedAtSeconds()).isEqualTo(1000);
+        assertThat(claims.getExpirationTimeSeconds()).isEqualTo(2000);
+        assertThat(claims.getNotBeforeSeconds()).isEqualTo(JwtClaims.NO_TIME);
+        assertThat(claims.getIssuedAt()).isEqualTo(new Date(1000000));
+        assertThat(claims.getNotBefore()).isNull();
+        assertThat(claims.getClaim(JwtClaims.EXPIRATION_TIME)).isEqualTo(2000L);
+        assertThat(claims.getCustomClaimKeys()).isEmpty();
+    }
+
+    @Test
+    public void stringsAreUnescaped() throws Exception {
+        JwtClaims claims = JwtClaims.parse("{\"sub\":\"a\\\"b\\\\c\\/d\\u00e9\\n\"}");
+
+        assertThat(claims.getSubject()).isEqualTo("a\"b\\c/d\u00e9\n");
+    }
+
+    @Test
+    public void audienceMayBeAnArray() throws Exception {
+        JwtClaims claims = JwtClaims.parse("{\"aud\":[\"a\", \"b\"]}");
+
+        assertThat(claims.getClaim(JwtClaims.AUDIENCE)).isEqualTo(Arrays.asList("a", "b"));
+    }
+
+    @Test
+    public void customClaimsAreDecodedInTheSamePass() throws Exception {
+        JwtClaims claims = JwtClaims.parse("{\"roles\":[\"ADMIN\",{\"nested\":[true,false,null,-1.5e3]}], " +
+                "\"sub\":\"1\", \"name\":\"wd\\\"\", \"exp\":2000, \"orgId\":42, " +
+                "\"big\":123456789012345678901}");
+
+        assertThat(claims.getSubject()).isEqualTo("1");
+        assertThat(claims.getExpirationTimeSeconds()).isEqualTo(2000);
+        assertThat(claims.getCustomClaimKeys()).containsOnly("roles", "name", "orgId", "big");
+        assertThat(claims.getClaim("name")).isEqualTo("wd\"");
+        assertThat(claims.getClaim("orgId")).isEqualTo(42L);
+        assertThat(claims.getClaim("big")).isEqualTo(new BigInteger("123456789012345678901"));
+        List<?> roles = (List<?>) claims.getClaim("roles");
+        assertThat(roles.get(0)).isEqualTo("ADMIN");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> nested = (Map<String, Object>) roles.get(1);
+        assertThat(nested.keySet()).containsOnly("nested");
+        @SuppressWarnings("unchecked")
+        List<Object> values = (List<Object>) nested.get("nested");
+        assertThat(values).containsExactly(true, false, null, -1500.0);
+    }
+
+    @Test
+    public void escapedReservedClaimNamesAreDecoded() throws Exception {
+        JwtClaims claims = JwtClaims.parse("{\"sub\":\"1\", \"s\\u0075b\":\"2\", \"\\u0065xp\":2000, " +
+                "\"n\\u0061me\":\"wd\"}");
+
+        assertThat(claims.getSubject()).isEqualTo("2");
+        assertThat(claims.getExpirationTimeSeconds()).isEqualTo(2000);
+        assertThat(claims.getCustomClaimKeys()).containsOnly("name");
+    }
+
+    @Test
+    public void builtClaimsMatchDecodedClaims() throws Exception {
+        JwtClaims claims = JwtClaims.JwtClaimsBuilder.newInstance()
+                .addSubject("1")
+                .addExpirationTime(new Date(2000000))
+                .addCustomClaim("role", "ADMIN")
+                .build();
+
+        assertThat(claims.getSubject()).isEqualTo("1");
+        assertThat(claims.getExpirationTimeSeconds()).isEqualTo(2000);
+        assertThat(claims.getIssuedAtSeconds()).isEqualTo(JwtClaims.NO_TIME);
+        assertThat(claims.getCustomClaimKeys()).containsOnly("role");
+        assertThat(claims.getClaim("role")).isEqualTo("ADMIN");
+    }
+
+    @Test
+    public void malformedClaimsAreRejected() {
+        for (String json : Arrays.asList("", "[]", "{", "{\"sub\":\"1\"", "{\"sub\":\"1\",}", "{\"sub\" \"1\"}",
+                "{\"sub\":1}", "{\"exp\":\"soon\"}", "{\"x\":tru}", "{\"x\":\"\\q\"}", "{\"x\":-}", "{} {}",
+                "{\"sub\":\"unterminated}")) {
+            try {
+                JwtClaims.parse(json);
+                fail("Expected " + json + " to be rejected");
+            } catch (JwtParseException e) {
+                assertThat(e.getMessage()).startsWith("Invalid JWT claims");
+            }
+        }
+    }
+}
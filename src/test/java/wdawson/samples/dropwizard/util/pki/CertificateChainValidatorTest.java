@@ -0,0 +1,153 @@
+package wdawson.samples.dropwizard.util.pki;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.io.Resources.getResource;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+/**
+ * @author wdawson
+ */
+public class CertificateChainValidatorTest {
+
+    // The example CA's service certificates are only valid from October 2016 to October 2017
+    private static final long CERTIFICATES_VALID_AT = 1483228800000L; // 2017-01-01T00:00:00Z
+    private static final long CERTIFICATES_EXPIRED_AT = 1514764800000L; // 2018-01-01T00:00:00Z
+
+    private static X509Certificate root;
+    private static X509Certificate intermediate;
+    private static X509Certificate homepage;
+
+    private MetricRegistry metricRegistry;
+    private SettableClock clock;
+    private CertificateChainValidator validator;
+
+    @BeforeClass
+    public static void setupClass() throws Exception {
+        root = readCertificate("revoker/example-ca/certs/root.cert.pem");
+        intermediate = readCertificate("revoker/example-ca/intermediate/certs/intermediate.cert.pem");
+        homepage = readCertificate("revoker/example-ca/intermediate/certs/homepage-service.cert.pem");
+    }
+
+    @Before
+    public void setup() {
+        metricRegistry = new MetricRegistry();
+        clock = new SettableClock(CERTIFICATES_VALID_AT);
+        validator = new CertificateChainValidator(metricRegistry, CertificateChainValidator.DEFAULT_SPEC, clock);
+    }
+
+    @Test
+    public void validChainIsOnlyValidatedOnce() throws Exception {
+        validator.validate(ImmutableList.of(homepage, intermediate), root);
+        validator.validate(ImmutableList.of(homepage, intermediate), root);
+
+        assertThat(metricRegistry.timer(name(CertificateChainValidator.class, "validations")).getCount()).isEqualTo(1);
+        assertThat(metricRegistry.meter(name(CertificateChainValidator.class, "misses")).getCount()).isEqualTo(1);
+        assertThat(metricRegistry.meter(name(CertificateChainValidator.class, "hits")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void chainsAreCachedByFingerprint() throws Exception {
+        HashCode homepageFingerprint = TrustAnchorIndex.thumbprint(homepage);
+        HashCode intermediateFingerprint = TrustAnchorIndex.thumbprint(intermediate);
+
+        validator.validate(ImmutableList.of(homepage, intermediate), root);
+        validator.validate(ImmutableList.of(homepage, intermediate),
+                ImmutableList.of(homepageFingerprint, intermediateFingerprint), root);
+
+        assertThat(metricRegistry.meter(name(CertificateChainValidator.class, "hits")).getCount()).isEqualTo(1);
+
+        validator.validate(ImmutableList.of(homepage, intermediate),
+                ImmutableList.of(intermediateFingerprint, homepageFingerprint), root);
+
+        assertThat(metricRegistry.meter(name(CertificateChainValidator.class, "misses")).getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void cachedChainIsRevalidatedOnceACertificateExpires() throws Exception {
+        validator.validate(ImmutableList.of(homepage, intermediate), root);
+
+        clock.time = CERTIFICATES_EXPIRED_AT;
+        try {
+            validator.validate(ImmutableList.of(homepage, intermediate), root);
+            failBecauseExceptionWasNotThrown(CertPathValidatorException.class);
+        } catch (CertPathValidatorException e) {
+            assertThat(metricRegistry.timer(name(CertificateChainValidator.class, "validations")).getCount())
+                    .isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void chainMissingAnIntermediateIsRejected() throws Exception {
+        try {
+            validator.validate(ImmutableList.of(homepage), root);
+            failBecauseExceptionWasNotThrown(CertPathValidatorException.class);
+        } catch (CertPathValidatorException e) {
+            assertThat(metricRegistry.meter(name(CertificateChainValidator.class, "hits")).getCount()).isZero();
+        }
+    }
+
+    @Test
+    public void chainIsRejectedEveryTimeItFails() throws Exception {
+        for (int i = 0; i < 2; ++i) {
+            try {
+                validator.validate(ImmutableList.of(intermediate), homepage);
+                failBecauseExceptionWasNotThrown(CertPathValidatorException.class);
+            } catch (CertPathValidatorException e) {
+                assertThat(metricRegistry.timer(name(CertificateChainValidator.class, "validations")).getCount())
+                        .isEqualTo(i + 1);
+            }
+        }
+    }
+
+    @Test
+    public void trustedEndEntityCertificateMustBeCurrent() throws Exception {
+        validator.validate(ImmutableList.<X509Certificate>of(), homepage);
+
+        clock.time = CERTIFICATES_EXPIRED_AT;
+        try {
+            validator.validate(ImmutableList.<X509Certificate>of(), homepage);
+            failBecauseExceptionWasNotThrown(CertPathValidatorException.class);
+        } catch (CertPathValidatorException e) {
+            assertThat(e.getCause()).isInstanceOf(CertificateExpiredException.class);
+        }
+    }
+
+    private static X509Certificate readCertificate(String resource) throws Exception {
+        try (InputStream inputStream = getResource(resource).openStream()) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(inputStream);
+        }
+    }
+
+    private static final class SettableClock extends Clock {
+        private volatile long time;
+
+        private SettableClock(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public long getTick() {
+            return time * 1000000;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+}
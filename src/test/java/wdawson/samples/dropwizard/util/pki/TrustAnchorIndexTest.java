@@ -0,0 +1,71 @@
+package wdawson.samples.dropwizard.util.pki;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import static com.google.common.io.Resources.getResource;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author wdawson
+ */
+public class TrustAnchorIndexTest {
+
+    private static X509Certificate root;
+    private static X509Certificate intermediate;
+    private static X509Certificate homepage;
+
+    @BeforeClass
+    public static void setupClass() throws Exception {
+        root = readCertificate("revoker/example-ca/certs/root.cert.pem");
+        intermediate = readCertificate("revoker/example-ca/intermediate/certs/intermediate.cert.pem");
+        homepage = readCertificate("revoker/example-ca/intermediate/certs/homepage-service.cert.pem");
+    }
+
+    @Test
+    public void keyIdentifiersLinkIssuedCertificatesToTheirIssuer() {
+        assertThat(CertificateExtensions.getSubjectKeyIdentifier(root)).isNotNull();
+        assertThat(CertificateExtensions.getAuthorityKeyIdentifier(intermediate))
+                .isEqualTo(CertificateExtensions.getSubjectKeyIdentifier(root));
+        assertThat(CertificateExtensions.getAuthorityKeyIdentifier(homepage))
+                .isEqualTo(CertificateExtensions.getSubjectKeyIdentifier(intermediate));
+    }
+
+    @Test
+    public void issuerIsFoundByAuthorityKeyIdentifier() {
+        TrustAnchorIndex index = new TrustAnchorIndex(ImmutableList.of(root));
+
+        assertThat(index.findIssuer(intermediate.getIssuerX500Principal(),
+                CertificateExtensions.getAuthorityKeyIdentifier(intermediate))).isEqualTo(root);
+        assertThat(index.findIssuer(homepage.getIssuerX500Principal(),
+                CertificateExtensions.getAuthorityKeyIdentifier(homepage))).isNull();
+    }
+
+    @Test
+    public void issuerIsFoundBySubjectWithoutAuthorityKeyIdentifier() {
+        TrustAnchorIndex index = new TrustAnchorIndex(ImmutableList.of(root, intermediate));
+
+        assertThat(index.findIssuer(homepage.getIssuerX500Principal(), null)).isEqualTo(intermediate);
+    }
+
+    @Test
+    public void trustedCertificatesAreFoundByThumbprint() {
+        TrustAnchorIndex index = new TrustAnchorIndex(ImmutableList.of(root));
+
+        assertThat(index.getByThumbprint(TrustAnchorIndex.thumbprint(root))).isEqualTo(root);
+        assertThat(index.getByThumbprint(TrustAnchorIndex.thumbprint(intermediate))).isNull();
+        assertThat(index.isEmpty()).isFalse();
+        assertThat(new TrustAnchorIndex(ImmutableList.<X509Certificate>of()).isEmpty()).isTrue();
+    }
+
+    private static X509Certificate readCertificate(String resource) throws Exception {
+        try (InputStream inputStream = getResource(resource).openStream()) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(inputStream);
+        }
+    }
+}
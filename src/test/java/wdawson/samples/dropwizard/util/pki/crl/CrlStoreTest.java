@@ -0,0 +1,266 @@
+package wdawson.samples.dropwizard.util.pki.crl;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PEMEncryptedKeyPair;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.bouncycastle.openssl.jcajce.JcePEMDecryptorProviderBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import wdawson.samples.dropwizard.util.pki.RevocationStatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.io.Resources.getResource;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * @author wdawson
+ */
+public class CrlStoreTest {
+
+    private static final char[] PASSPHRASE = "notsecret".toCharArray();
+
+    // The example CA's CRLs are only valid from October 2nd to November 1st 2016
+    private static final long NOW = 1476489600000L; // 2016-10-15T00:00:00Z
+    private static final long NEXT_UPDATE = 1478044000000L; // 2016-11-01T23:46:40Z
+    private static final long STALE_GRACE_PERIOD = TimeUnit.HOURS.toMillis(1);
+
+    private static final String ROOT_CRL = "classpath:revoker/example-ca/crl/crl.pem";
+    private static final String INTERMEDIATE_CRL = "classpath:revoker/example-ca/intermediate/crl/crl.pem";
+
+    private static final BigInteger LARGE_SERIAL_NUMBER = BigInteger.ONE.shiftLeft(100).add(BigInteger.TEN);
+
+    private static X509Certificate intermediate;
+    private static X509Certificate homepage;
+    private static X509Certificate event;
+
+    private static PrivateKey intermediateKey;
+    private static PrivateKey responderKey;
+    private static PublicKey responderPublicKey;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MetricRegistry metricRegistry;
+    private SettableClock clock;
+
+    @BeforeClass
+    public static void setupClass() throws Exception {
+        intermediate = readCertificate("revoker/example-ca/intermediate/certs/intermediate.cert.pem");
+        homepage = readCertificate("revoker/example-ca/intermediate/certs/homepage-service.cert.pem");
+        event = readCertificate("revoker/example-ca/intermediate/certs/event-service.cert.pem");
+
+        try (Reader reader = new InputStreamReader(
+                getResource("revoker/example-ca/intermediate/private/intermediate.key.pem").openStream(),
+                StandardCharsets.US_ASCII);
+             PEMParser parser = new PEMParser(reader)) {
+            PEMEncryptedKeyPair encryptedKeyPair = (PEMEncryptedKeyPair) parser.readObject();
+            intermediateKey = new JcaPEMKeyConverter().getKeyPair(
+                    encryptedKeyPair.decryptKeyPair(new JcePEMDecryptorProviderBuilder()
+                            .setProvider(new BouncyCastleProvider()).build(PASSPHRASE)))
+                    .getPrivate();
+        }
+
+        // Issued by the intermediate CA, but not the intermediate CA itself
+        KeyStore responderKeyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        responderKeyStore.load(getResource("revoker/intermediate.ocsp-signing.jks").openStream(), PASSPHRASE);
+        responderKey = (PrivateKey) responderKeyStore.getKey("ocsp-signing", PASSPHRASE);
+        responderPublicKey = responderKeyStore.getCertificate("ocsp-signing").getPublicKey();
+    }
+
+    @Before
+    public void setup() {
+        metricRegistry = new MetricRegistry();
+        clock = new SettableClock(NOW);
+    }
+
+    @Test
+    public void certificateNotOnCrlIsGood() throws Exception {
+        CrlStore crlStore = newCrlStore(ROOT_CRL, INTERMEDIATE_CRL);
+        crlStore.refresh();
+
+        assertThat(crlStore.getStatus(homepage, intermediate)).isEqualTo(RevocationStatus.GOOD);
+        assertThat(metricRegistry.getGauges().get(name(CrlStore.class, "revokedCertificates")).getValue())
+                .isEqualTo(0L);
+    }
+
+    @Test
+    public void certificateFromIssuerWithoutCrlIsUnknown() throws Exception {
+        CrlStore crlStore = newCrlStore(ROOT_CRL);
+        crlStore.refresh();
+
+        assertThat(crlStore.getStatus(homepage, intermediate)).isEqualTo(RevocationStatus.UNKNOWN);
+    }
+
+    @Test
+    public void certificateOnCrlIsRevoked() throws Exception {
+        CrlStore crlStore = newCrlStore(writeCrl(intermediateKey, homepage.getSerialNumber(), LARGE_SERIAL_NUMBER));
+        crlStore.refresh();
+
+        assertThat(crlStore.getStatus(homepage, intermediate)).isEqualTo(RevocationStatus.REVOKED);
+        assertThat(crlStore.getStatus(event, intermediate)).isEqualTo(RevocationStatus.GOOD);
+        assertThat(metricRegistry.getGauges().get(name(CrlStore.class, "revokedCertificates")).getValue())
+                .isEqualTo(2L);
+    }
+
+    @Test
+    public void largeSerialNumbersAreIndexed() throws Exception {
+        CrlIndex.IssuerCrl crl = CrlIndex.EMPTY
+                .withCrls(ImmutableList.of(newCrl(intermediateKey, homepage.getSerialNumber(), LARGE_SERIAL_NUMBER)))
+                .get(intermediate.getSubjectX500Principal());
+
+        assertThat(crl.isRevoked(LARGE_SERIAL_NUMBER)).isTrue();
+        assertThat(crl.isRevoked(homepage.getSerialNumber())).isTrue();
+        assertThat(crl.isRevoked(LARGE_SERIAL_NUMBER.add(BigInteger.ONE))).isFalse();
+        assertThat(crl.isRevoked(event.getSerialNumber())).isFalse();
+    }
+
+    @Test
+    public void failedRefreshKeepsPreviousCrl() throws Exception {
+        File crlFile = writeCrl(intermediateKey, homepage.getSerialNumber());
+        CrlStore crlStore = newCrlStore(crlFile);
+        crlStore.refresh();
+
+        assertThat(crlFile.delete()).isTrue();
+        crlStore.refresh();
+
+        assertThat(crlStore.getStatus(homepage, intermediate)).isEqualTo(RevocationStatus.REVOKED);
+        assertThat(metricRegistry.meter(name(CrlStore.class, "failures")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void outOfDateCrlIsRejectedAfterGracePeriod() throws Exception {
+        CrlStore crlStore = newCrlStore(writeCrl(intermediateKey));
+        crlStore.refresh();
+
+        clock.time = NEXT_UPDATE + STALE_GRACE_PERIOD - 1;
+        assertThat(crlStore.getStatus(homepage, intermediate)).isEqualTo(RevocationStatus.GOOD);
+
+        clock.time = NEXT_UPDATE + STALE_GRACE_PERIOD;
+        try {
+            crlStore.getStatus(homepage, intermediate);
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException e) {
+            assertThat(e).hasMessageStartingWith("CRL from '" + intermediate.getSubjectX500Principal()
+                    + "' is out of date");
+        }
+    }
+
+    @Test
+    public void crlNotSignedByIssuerIsRejected() throws Exception {
+        CrlStore crlStore = newCrlStore(writeCrl(responderKey));
+        crlStore.refresh();
+
+        try {
+            crlStore.getStatus(homepage, intermediate);
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException e) {
+            assertThat(e).hasMessage("CRL from '" + intermediate.getSubjectX500Principal() + "' could not be verified");
+        }
+    }
+
+    @Test
+    public void failedSignatureCheckIsRemembered() throws Exception {
+        X509CRL crl = spy(newCrl(responderKey));
+        CrlIndex.IssuerCrl issuerCrl = CrlIndex.EMPTY
+                .withCrls(ImmutableList.of(crl))
+                .get(intermediate.getSubjectX500Principal());
+
+        for (int i = 0; i < 3; ++i) {
+            try {
+                issuerCrl.verify(intermediate.getPublicKey());
+                failBecauseExceptionWasNotThrown(SignatureException.class);
+            } catch (SignatureException e) {
+                // expected
+            }
+        }
+        verify(crl, times(1)).verify(intermediate.getPublicKey());
+
+        // A different key is checked again
+        issuerCrl.verify(responderPublicKey);
+        verify(crl, times(1)).verify(responderPublicKey);
+    }
+
+    private CrlStore newCrlStore(String... crlUrls) {
+        return new CrlStore(ImmutableList.copyOf(crlUrls), clock, STALE_GRACE_PERIOD, 1000, metricRegistry);
+    }
+
+    private CrlStore newCrlStore(File crlFile) throws Exception {
+        return newCrlStore(crlFile.toURI().toURL().toString());
+    }
+
+    private File writeCrl(PrivateKey signingKey, BigInteger... revokedSerialNumbers) throws Exception {
+        File crlFile = temporaryFolder.newFile();
+        Files.write(crlFile.toPath(), newCrl(signingKey, revokedSerialNumbers).getEncoded());
+        return crlFile;
+    }
+
+    private static X509CRL newCrl(PrivateKey signingKey, BigInteger... revokedSerialNumbers) throws Exception {
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(new JcaX509CertificateHolder(intermediate).getSubject(),
+                new Date(NOW));
+        builder.setNextUpdate(new Date(NEXT_UPDATE));
+        for (BigInteger serialNumber : revokedSerialNumbers) {
+            builder.addCRLEntry(serialNumber, new Date(NOW), CRLReason.keyCompromise);
+        }
+        X509CRLHolder crl = builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(signingKey));
+        return new JcaX509CRLConverter().getCRL(crl);
+    }
+
+    private static X509Certificate readCertificate(String resource) throws Exception {
+        try (InputStream inputStream = getResource(resource).openStream()) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(inputStream);
+        }
+    }
+
+    private static final class SettableClock extends Clock {
+        private volatile long time;
+
+        private SettableClock(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public long getTick() {
+            return time * 1000000;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+}
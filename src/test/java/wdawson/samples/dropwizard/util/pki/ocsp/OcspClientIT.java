@@ -0,0 +1,49 @@
+package wdawson.samples.dropwizard.util.pki.ocsp;
+
+import com.codahale.metrics.Clock;
+import org.junit.Test;
+import wdawson.samples.dropwizard.helpers.IntegrationTest;
+import wdawson.samples.dropwizard.util.pki.RevocationStatus;
+
+import java.io.InputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.io.Resources.getResource;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks certificates against the example CA's revoker apps started by {@link IntegrationTest}.
+ *
+ * @author wdawson
+ */
+public class OcspClientIT extends IntegrationTest {
+
+    private final OcspClient ocspClient = new OcspClient(Clock.defaultClock(), 5000, 5000, TimeUnit.MINUTES.toMillis(1));
+
+    @Test
+    public void signingCertificateIsGood() throws Exception {
+        X509Certificate intermediate = readCertificate("revoker/example-ca/intermediate/certs/intermediate.cert.pem");
+        X509Certificate homepage = readCertificate("revoker/example-ca/intermediate/certs/homepage-service.cert.pem");
+
+        OcspResponse response = ocspClient.fetch(homepage, intermediate);
+
+        assertThat(response.getStatus()).isEqualTo(RevocationStatus.GOOD);
+        assertThat(response.getNextUpdate()).isGreaterThan(System.currentTimeMillis());
+    }
+
+    @Test
+    public void intermediateCertificateIsGood() throws Exception {
+        X509Certificate root = readCertificate("revoker/example-ca/certs/root.cert.pem");
+        X509Certificate intermediate = readCertificate("revoker/example-ca/intermediate/certs/intermediate.cert.pem");
+
+        assertThat(ocspClient.fetch(intermediate, root).getStatus()).isEqualTo(RevocationStatus.GOOD);
+    }
+
+    private static X509Certificate readCertificate(String resource) throws Exception {
+        try (InputStream inputStream = getResource(resource).openStream()) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(inputStream);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package wdawson.samples.dropwizard.util.pki.ocsp;
+
+import com.codahale.metrics.Clock;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import wdawson.samples.dropwizard.util.pki.RevocationStatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.io.Resources.getResource;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+/**
+ * @author wdawson
+ */
+public class OcspClientTest {
+
+    private static final char[] PASSPHRASE = "notsecret".toCharArray();
+
+    // The example CA's OCSP responder certificates are only valid from October 2016 to October 2017
+    private static final long NOW = 1483228800000L; // 2017-01-01T00:00:00Z
+    private static final long NEXT_UPDATE = NOW + TimeUnit.HOURS.toMillis(1);
+
+    private static X509Certificate intermediate;
+    private static X509Certificate homepage;
+    private static X509Certificate event;
+
+    private static PrivateKey responderKey;
+    private static X509Certificate responderCertificate;
+    private static PrivateKey nonResponderKey;
+    private static X509Certificate nonResponderCertificate;
+
+    private OcspClient ocspClient;
+
+    @BeforeClass
+    public static void setupClass() throws Exception {
+        intermediate = readCertificate("revoker/example-ca/intermediate/certs/intermediate.cert.pem");
+        homepage = readCertificate("revoker/example-ca/intermediate/certs/homepage-service.cert.pem");
+        event = readCertificate("revoker/example-ca/intermediate/certs/event-service.cert.pem");
+
+        KeyStore responderKeyStore = loadKeyStore("revoker/intermediate.ocsp-signing.jks");
+        responderKey = (PrivateKey) responderKeyStore.getKey("ocsp-signing", PASSPHRASE);
+        responderCertificate = (X509Certificate) responderKeyStore.getCertificate("ocsp-signing");
+
+        // Issued by the intermediate CA but not for OCSP signing
+        KeyStore jwtKeyStore = loadKeyStore("jwt/event-jwt-issuer.jks");
+        nonResponderKey = (PrivateKey) jwtKeyStore.getKey("jwt-issuer", PASSPHRASE);
+        nonResponderCertificate = (X509Certificate) jwtKeyStore.getCertificate("jwt-issuer");
+    }
+
+    @Before
+    public void setup() {
+        ocspClient = new OcspClient(new FixedClock(NOW), 1000, 1000, TimeUnit.MINUTES.toMillis(1));
+    }
+
+    @Test
+    public void goodResponseFromDelegatedResponderIsAccepted() throws Exception {
+        CertificateID certificateId = ocspClient.newCertificateId(homepage, intermediate);
+        byte[] response = newResponse(certificateId, CertificateStatus.GOOD, new Date(NEXT_UPDATE),
+                responderKey, responderCertificate);
+
+        OcspResponse ocspResponse = ocspClient.readResponse(response, certificateId, intermediate);
+
+        assertThat(ocspResponse.getStatus()).isEqualTo(RevocationStatus.GOOD);
+        assertThat(ocspResponse.getThisUpdate()).isEqualTo(NOW);
+        assertThat(ocspResponse.getNextUpdate()).isEqualTo(NEXT_UPDATE);
+    }
+
+    @Test
+    public void revokedResponseIsAccepted() throws Exception {
+        CertificateID certificateId = ocspClient.newCertificateId(homepage, intermediate);
+        byte[] response = newResponse(certificateId, new RevokedStatus(new Date(NOW), 1), new Date(NEXT_UPDATE),
+                responderKey, responderCertificate);
+
+        assertThat(ocspClient.readResponse(response, certificateId, intermediate).getStatus())
+                .isEqualTo(RevocationStatus.REVOKED);
+    }
+
+    @Test
+    public void responseWithoutNextUpdateUsesDefaultLifetime() throws Exception {
+        CertificateID certificateId = ocspClient.newCertificateId(homepage, intermediate);
+        byte[] response = newResponse(certificateId, CertificateStatus.GOOD, null, responderKey, responderCertificate);
+
+        assertThat(ocspClient.readResponse(response, certificateId, intermediate).getNextUpdate())
+                .isEqualTo(NOW + TimeUnit.MINUTES.toMillis(1));
+    }
+
+    @Test
+    public void responseFromUnauthorizedSignerIsRejected() throws Exception {
+        CertificateID certificateId = ocspClient.newCertificateId(homepage, intermediate);
+        byte[] response = newResponse(certificateId, CertificateStatus.GOOD, new Date(NEXT_UPDATE),
+                nonResponderKey, nonResponderCertificate);
+
+        try {
+            ocspClient.readResponse(response, certificateId, intermediate);
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException e) {
+            assertThat(e).hasMessage("OCSP response is not signed by an authorized responder");
+        }
+    }
+
+    @Test
+    public void responseForAnotherCertificateIsRejected() throws Exception {
+        CertificateID certificateId = ocspClient.newCertificateId(homepage, intermediate);
+        byte[] response = newResponse(ocspClient.newCertificateId(event, intermediate), CertificateStatus.GOOD,
+                new Date(NEXT_UPDATE), responderKey, responderCertificate);
+
+        try {
+            ocspClient.readResponse(response, certificateId, intermediate);
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException e) {
+            assertThat(e).hasMessage("OCSP response does not include the requested certificate");
+        }
+    }
+
+    @Test
+    public void outOfDateResponseIsRejected() throws Exception {
+        CertificateID certificateId = ocspClient.newCertificateId(homepage, intermediate);
+        byte[] response = newResponse(certificateId, CertificateStatus.GOOD, new Date(NOW),
+                responderKey, responderCertificate);
+
+        try {
+            ocspClient.readResponse(response, certificateId, intermediate);
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException e) {
+            assertThat(e).hasMessageStartingWith("OCSP response is out of date");
+        }
+    }
+
+    private static byte[] newResponse(CertificateID certificateId, CertificateStatus status, Date nextUpdate,
+                                      PrivateKey signingKey, X509Certificate signingCertificate) throws Exception {
+        X509CertificateHolder signer = new JcaX509CertificateHolder(signingCertificate);
+        BasicOCSPResp basicResponse = new BasicOCSPRespBuilder(new RespID(signer.getSubject()))
+                .addResponse(certificateId, status, new Date(NOW), nextUpdate)
+                .build(new JcaContentSignerBuilder("SHA256withRSA").build(signingKey),
+                        new X509CertificateHolder[] {signer}, new Date(NOW));
+        return new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, basicResponse).getEncoded();
+    }
+
+    private static KeyStore loadKeyStore(String resource) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(getResource(resource).openStream(), PASSPHRASE);
+        return keyStore;
+    }
+
+    private static X509Certificate readCertificate(String resource) throws Exception {
+        try (InputStream inputStream = getResource(resource).openStream()) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(inputStream);
+        }
+    }
+
+    private static final class FixedClock extends Clock {
+        private final long time;
+
+        private FixedClock(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public long getTick() {
+            return time * 1000000;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+}
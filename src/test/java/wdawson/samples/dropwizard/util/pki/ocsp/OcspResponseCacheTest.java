@@ -0,0 +1,232 @@
+package wdawson.samples.dropwizard.util.pki.ocsp;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import wdawson.samples.dropwizard.util.pki.RevocationStatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.io.Resources.getResource;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author wdawson
+ */
+public class OcspResponseCacheTest {
+
+    private static final long NOW = 1483228800000L; // 2017-01-01T00:00:00Z
+    private static final long NEXT_UPDATE = NOW + TimeUnit.HOURS.toMillis(1);
+    private static final long REFRESH_AHEAD = TimeUnit.MINUTES.toMillis(5);
+    private static final long STALE_GRACE_PERIOD = TimeUnit.MINUTES.toMillis(30);
+
+    private static X509Certificate intermediate;
+    private static X509Certificate homepage;
+
+    private final OcspClient ocspClient = mock(OcspClient.class);
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean deferTasks;
+
+    /**
+     * Runs fetches inline unless {@link #deferTasks} is set, in which case they wait in {@link #tasks}.
+     */
+    private final Executor executor = task -> {
+        if (deferTasks) {
+            tasks.add(task);
+        } else {
+            task.run();
+        }
+    };
+
+    private MetricRegistry metricRegistry;
+    private SettableClock clock;
+
+    @BeforeClass
+    public static void setupClass() throws Exception {
+        intermediate = readCertificate("revoker/example-ca/intermediate/certs/intermediate.cert.pem");
+        homepage = readCertificate("revoker/example-ca/intermediate/certs/homepage-service.cert.pem");
+    }
+
+    @Before
+    public void setup() {
+        metricRegistry = new MetricRegistry();
+        clock = new SettableClock(NOW);
+    }
+
+    @Test
+    public void responseIsCachedUntilNextUpdate() throws Exception {
+        OcspResponseCache cache = newCache();
+        when(ocspClient.fetch(homepage, intermediate))
+                .thenReturn(new OcspResponse(RevocationStatus.GOOD, NOW, NEXT_UPDATE));
+
+        assertThat(cache.getStatus(homepage, intermediate)).isEqualTo(RevocationStatus.GOOD);
+        assertThat(cache.getStatus(homepage, intermediate)).isEqualTo(RevocationStatus.GOOD);
+        verify(ocspClient, times(1)).fetch(homepage, intermediate);
+
+        clock.time = NEXT_UPDATE + STALE_GRACE_PERIOD;
+        assertThat(cache.getStatus(homepage, intermediate)).isEqualTo(RevocationStatus.GOOD);
+        verify(ocspClient, times(2)).fetch(homepage, intermediate);
+        assertThat(metricRegistry.meter(name(OcspResponseCache.class, "hits")).getCount()).isEqualTo(1);
+        assertThat(metricRegistry.meter(name(OcspResponseCache.class, "misses")).getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void responseIsRefreshedInTheBackgroundBeforeItExpires() throws Exception {
+        OcspResponseCache cache = newCache();
+        when(ocspClient.fetch(homepage, intermediate))
+                .thenReturn(new OcspResponse(RevocationStatus.GOOD, NOW, NEXT_UPDATE))
+                .thenReturn(new OcspResponse(RevocationStatus.REVOKED, NEXT_UPDATE - REFRESH_AHEAD, NEXT_UPDATE * 2));
+        cache.getStatus(homepage, intermediate);
+
+        deferTasks = true;
+        clock.time = NEXT_UPDATE - REFRESH_AHEAD;
+
+        // The current response is still served while the refresh is pending
+        assertThat(cache.getStatus(homepage, intermediate)).isEqualTo(RevocationStatus.GOOD);
+        assertThat(cache.getStatus(homepage, intermediate)).isEqualTo(RevocationStatus.GOOD);
+        assertThat(tasks).hasSize(1);
+
+        tasks.remove().run();
+        assertThat(cache.getStatus(homepage, intermediate)).isEqualTo(RevocationStatus.REVOKED);
+    }
+
+    @Test
+    public void concurrentLookupsShareOneRequest() throws Exception {
+        deferTasks = true;
+        OcspResponseCache cache = newCache();
+        when(ocspClient.fetch(homepage, intermediate))
+                .thenReturn(new OcspResponse(RevocationStatus.GOOD, NOW, NEXT_UPDATE));
+
+        AtomicReference<RevocationStatus> firstStatus = new AtomicReference<>();
+        AtomicReference<RevocationStatus> secondStatus = new AtomicReference<>();
+        Thread first = new Thread(() -> firstStatus.set(getStatusUnchecked(cache)));
+        Thread second = new Thread(() -> secondStatus.set(getStatusUnchecked(cache)));
+        first.start();
+        second.start();
+        awaitWaiting(first);
+        awaitWaiting(second);
+
+        assertThat(tasks).hasSize(1);
+        tasks.remove().run();
+        first.join();
+        second.join();
+
+        assertThat(firstStatus.get()).isEqualTo(RevocationStatus.GOOD);
+        assertThat(secondStatus.get()).isEqualTo(RevocationStatus.GOOD);
+        verify(ocspClient, times(1)).fetch(homepage, intermediate);
+    }
+
+    @Test
+    public void expiredResponseIsUsedDuringGracePeriodWhenResponderIsDown() throws Exception {
+        OcspResponseCache cache = newCache();
+        when(ocspClient.fetch(homepage, intermediate))
+                .thenReturn(new OcspResponse(RevocationStatus.GOOD, NOW, NEXT_UPDATE))
+                .thenThrow(new IOException("Connection refused"));
+        cache.getStatus(homepage, intermediate);
+
+        deferTasks = true;
+        clock.time = NEXT_UPDATE;
+
+        // The expired response is served straight away while a single refresh is attempted
+        assertThat(cache.getStatus(homepage, intermediate)).isEqualTo(RevocationStatus.GOOD);
+        assertThat(cache.getStatus(homepage, intermediate)).isEqualTo(RevocationStatus.GOOD);
+        assertThat(tasks).hasSize(1);
+        tasks.remove().run();
+
+        // The responder isn't asked again until the retry interval has passed
+        clock.time = NEXT_UPDATE + 1;
+        assertThat(cache.getStatus(homepage, intermediate)).isEqualTo(RevocationStatus.GOOD);
+        assertThat(tasks).isEmpty();
+        verify(ocspClient, times(2)).fetch(homepage, intermediate);
+        assertThat(metricRegistry.meter(name(OcspResponseCache.class, "staleHits")).getCount()).isEqualTo(3);
+
+        deferTasks = false;
+        clock.time = NEXT_UPDATE + STALE_GRACE_PERIOD;
+        try {
+            cache.getStatus(homepage, intermediate);
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException e) {
+            assertThat(e).hasMessageStartingWith("Could not get OCSP response");
+            assertThat(metricRegistry.meter(name(OcspResponseCache.class, "failures")).getCount()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void revokedResponseIsNeverRefreshed() throws Exception {
+        OcspResponseCache cache = newCache();
+        when(ocspClient.fetch(homepage, intermediate))
+                .thenReturn(new OcspResponse(RevocationStatus.REVOKED, NOW, NEXT_UPDATE));
+
+        cache.getStatus(homepage, intermediate);
+        clock.time = NEXT_UPDATE + STALE_GRACE_PERIOD;
+
+        assertThat(cache.getStatus(homepage, intermediate)).isEqualTo(RevocationStatus.REVOKED);
+        verify(ocspClient, times(1)).fetch(homepage, intermediate);
+    }
+
+    private OcspResponseCache newCache() {
+        return OcspResponseCache.newBuilder()
+                .withOcspClient(ocspClient)
+                .withExecutor(executor)
+                .withMetricRegistry(metricRegistry)
+                .withClock(clock)
+                .withRefreshAhead(REFRESH_AHEAD, TimeUnit.MILLISECONDS)
+                .withStaleGracePeriod(STALE_GRACE_PERIOD, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    private RevocationStatus getStatusUnchecked(OcspResponseCache cache) {
+        try {
+            return cache.getStatus(homepage, intermediate);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static X509Certificate readCertificate(String resource) throws Exception {
+        try (InputStream inputStream = getResource(resource).openStream()) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(inputStream);
+        }
+    }
+
+    private static final class SettableClock extends Clock {
+        private volatile long time;
+
+        private SettableClock(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public long getTick() {
+            return time * 1000000;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package wdawson.samples.dropwizard.util.time;
+
+import com.codahale.metrics.Clock;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author wdawson
+ */
+public class CoarseClockTest {
+
+    private SettableClock source;
+    private CoarseClock clock;
+
+    @Before
+    public void setup() {
+        source = new SettableClock(1000L);
+        clock = new CoarseClock(source);
+    }
+
+    @Test
+    public void timeOnlyAdvancesWhenTicked() {
+        assertThat(clock.getTime()).isEqualTo(1000L);
+
+        source.time = 2000L;
+        assertThat(clock.getTime()).isEqualTo(1000L);
+
+        clock.tick();
+        assertThat(clock.getTime()).isEqualTo(2000L);
+    }
+
+    @Test
+    public void tickIsReadFromTheSourceClock() {
+        source.time = 2000L;
+
+        assertThat(clock.getTick()).isEqualTo(source.getTick());
+    }
+
+    private static final class SettableClock extends Clock {
+        private volatile long time;
+
+        private SettableClock(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public long getTick() {
+            return time * 1000000;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+}